@@ -160,6 +160,7 @@ public class AndroidBinary extends AbstractBuildRule
       ImmutableSortedSet<JavaLibrary> rulesToExcludeFromDex,
       AndroidGraphEnhancementResult enhancementResult,
       Optional<Integer> xzCompressionLevel,
+      boolean parallelXzCompression,
       boolean packageAssetLibraries,
       boolean compressAssetLibraries,
       ManifestEntries manifestEntries,
@@ -228,6 +229,7 @@ public class AndroidBinary extends AbstractBuildRule
                 .orElse(ImmutableList.of()),
             exopackageModes,
             xzCompressionLevel,
+            parallelXzCompression,
             packageAssetLibraries,
             compressAssetLibraries,
             javaRuntimeLauncher,
@@ -94,6 +94,7 @@ class AndroidBinaryBuildable implements AddsToRuleKey {
   private final ImmutableList<SourcePath> additionalRedexInputs;
 
   @AddToRuleKey private final Optional<Integer> xzCompressionLevel;
+  @AddToRuleKey private final boolean parallelXzCompression;
 
   @AddToRuleKey private final SourcePath keystorePath;
   @AddToRuleKey private final SourcePath keystorePropertiesPath;
@@ -119,6 +120,7 @@ class AndroidBinaryBuildable implements AddsToRuleKey {
       ImmutableList<SourcePath> additionalRedexInputs,
       EnumSet<ExopackageMode> exopackageModes,
       Optional<Integer> xzCompressionLevel,
+      boolean parallelXzCompression,
       boolean packageAssetLibraries,
       boolean compressAssetLibraries,
       Tool javaRuntimeLauncher,
@@ -136,6 +138,7 @@ class AndroidBinaryBuildable implements AddsToRuleKey {
     this.additionalRedexInputs = additionalRedexInputs;
     this.exopackageModes = exopackageModes;
     this.xzCompressionLevel = xzCompressionLevel;
+    this.parallelXzCompression = parallelXzCompression;
     this.javaRuntimeLauncher = javaRuntimeLauncher;
     this.androidManifestPath = androidManifestPath;
     this.isCompressResources = isCompressResources;
@@ -372,7 +375,8 @@ class AndroidBinaryBuildable implements AddsToRuleKey {
               getProjectFilesystem(),
               libOutputBlob,
               libSubdirectory.resolve(SOLID_COMPRESSED_ASSET_LIBRARY_FILENAME),
-              compressionLevel));
+              compressionLevel,
+              parallelXzCompression));
     }
   }
 
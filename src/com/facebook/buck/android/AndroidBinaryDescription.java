@@ -100,6 +100,7 @@ public class AndroidBinaryDescription
 
   private static final String SECTION = "android";
   private static final String CONFIG_PARAM_REDEX = "redex";
+  private static final String CONFIG_PARAM_PARALLEL_XZ_COMPRESSION = "parallel_xz_compression";
 
   /**
    * By default, assume we have 5MB of linear alloc, 1MB of which is taken up by the framework, so
@@ -276,6 +277,9 @@ public class AndroidBinaryDescription
               .setJavaRuntimeLauncher(javaOptions.getJavaRuntimeLauncher())
               .setProguardConfigPath(args.getProguardConfig())
               .setShouldProguard(shouldProguard)
+              .setKeepSecondaryDexPlacement(dxConfig.shouldKeepSecondaryDexPlacement())
+              .setMaxUnderfilledSecondaryDexes(dxConfig.getMaxUnderfilledSecondaryDexes())
+              .setParallelXzCompression(shouldUseParallelXzCompression())
               .build();
 
       ResourceFilter resourceFilter = new ResourceFilter(args.getResourceFilter());
@@ -373,11 +377,15 @@ public class AndroidBinaryDescription
               rulesToExcludeFromDex,
               result,
               args.getXzCompressionLevel(),
+              shouldUseParallelXzCompression(),
               args.isPackageAssetLibraries(),
               args.isCompressAssetLibraries(),
               args.getManifestEntries(),
               javaOptions.getJavaRuntimeLauncher(),
-              args.getIsCacheable(),
+              // The secondary dexes of a binary which isn't pre-dexed depend on the previous builds
+              // when their classes are kept in the same dexes, so the binary mustn't be cached.
+              args.getIsCacheable()
+                  && (shouldPreDex || !dxConfig.shouldKeepSecondaryDexPlacement()),
               moduleVerification,
               filesInfo.getDexFilesInfo(),
               filesInfo.getNativeFilesInfo(),
@@ -393,6 +401,14 @@ public class AndroidBinaryDescription
     }
   }
 
+  /**
+   * @return whether the solid XZ archives of secondary dexes and native libraries are compressed in
+   *     blocks, on several threads.
+   */
+  private boolean shouldUseParallelXzCompression() {
+    return buckConfig.getBooleanValue(SECTION, CONFIG_PARAM_PARALLEL_XZ_COMPRESSION, false);
+  }
+
   private DexSplitMode createDexSplitMode(
       AndroidBinaryDescriptionArg args, EnumSet<ExopackageMode> exopackageModes) {
     // Exopackage builds default to JAR, otherwise, default to RAW.
@@ -583,6 +583,7 @@ public class AndroidBinaryGraphEnhancer {
             dexForUberRDotJava,
             dxExecutorService,
             xzCompressionLevel,
+            nonPreDexedDexBuildableArgs.getParallelXzCompression(),
             dxConfig.getDxMaxHeapSize());
     ruleResolver.addToIndex(preDexMerge);
 
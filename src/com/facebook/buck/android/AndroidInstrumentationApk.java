@@ -80,6 +80,7 @@ public class AndroidInstrumentationApk extends AndroidBinary {
         Optional.empty(),
         false,
         false,
+        false,
         apkUnderTest.getManifestEntries(),
         apkUnderTest.getJavaRuntimeLauncher(),
         true,
@@ -21,6 +21,8 @@ import java.util.Optional;
 
 public class DxConfig {
 
+  static final int DEFAULT_MAX_UNDERFILLED_SECONDARY_DEXES = 4;
+
   private final BuckConfig delegate;
 
   public DxConfig(BuckConfig delegate) {
@@ -36,4 +38,23 @@ public class DxConfig {
   public Optional<Integer> getDxMaxThreadCount() {
     return delegate.getInteger("dx", "max_threads");
   }
+
+  /**
+   * @return whether the classes of non-predexed binaries are kept in the same secondary dexes from
+   *     one build to the next, so that only the secondary dexes with changed classes are dexed
+   *     again.
+   */
+  public boolean shouldKeepSecondaryDexPlacement() {
+    return delegate.getBooleanValue("dx", "incremental_secondary_dexes", false);
+  }
+
+  /**
+   * @return the number of secondary dexes which may be left empty or underfilled by keeping the
+   *     classes in the same secondary dexes before they are packed afresh.
+   */
+  public int getMaxUnderfilledSecondaryDexes() {
+    return delegate
+        .getInteger("dx", "incremental_secondary_dexes_max_underfilled")
+        .orElse(DEFAULT_MAX_UNDERFILLED_SECONDARY_DEXES);
+  }
 }
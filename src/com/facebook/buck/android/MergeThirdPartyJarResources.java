@@ -96,7 +96,8 @@ public class MergeThirdPartyJarResources extends ModernBuildRule<MergeThirdParty
       @Override
       public StepExecutionResult execute(ExecutionContext context)
           throws IOException, InterruptedException {
-        try (ResourcesZipBuilder builder = new ResourcesZipBuilder(absoluteMergedPath)) {
+        try (ResourcesZipBuilder builder =
+            new ResourcesZipBuilder(absoluteMergedPath, context.getZipCompressionExecutor())) {
           for (Path jar : thirdPartyJars) {
             try (ZipFile base = new ZipFile(jar.toFile())) {
               for (ZipEntry inputEntry : Collections.list(base.entries())) {
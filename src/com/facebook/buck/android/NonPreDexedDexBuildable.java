@@ -111,6 +111,9 @@ class NonPreDexedDexBuildable extends AbstractBuildRule {
   @AddToRuleKey private final boolean skipProguard;
   @AddToRuleKey private final Optional<Integer> xzCompressionLevel;
   @AddToRuleKey private final boolean shouldSplitDex;
+  @AddToRuleKey private final boolean keepSecondaryDexPlacement;
+  @AddToRuleKey private final int maxUnderfilledSecondaryDexes;
+  @AddToRuleKey private final boolean parallelXzCompression;
 
   // Only these two fields should not be added to the rulekey.
   private final ListeningExecutorService dxExecutorService;
@@ -150,6 +153,30 @@ class NonPreDexedDexBuildable extends AbstractBuildRule {
     Optional<SourcePath> getProguardConfigPath();
 
     boolean getShouldProguard();
+
+    /**
+     * @return whether the classes are kept in the same secondary dexes from one build to the next,
+     *     so that only the secondary dexes with changed classes are dexed again.
+     */
+    @Value.Default
+    default boolean getKeepSecondaryDexPlacement() {
+      return false;
+    }
+
+    /**
+     * @return the number of secondary dexes which may be left empty or underfilled by keeping the
+     *     classes in the same secondary dexes before they are packed afresh.
+     */
+    @Value.Default
+    default int getMaxUnderfilledSecondaryDexes() {
+      return DxConfig.DEFAULT_MAX_UNDERFILLED_SECONDARY_DEXES;
+    }
+
+    /** @return whether solid XZ archives of secondary dexes are compressed on several threads. */
+    @Value.Default
+    default boolean getParallelXzCompression() {
+      return false;
+    }
   }
 
   NonPreDexedDexBuildable(
@@ -195,6 +222,9 @@ class NonPreDexedDexBuildable extends AbstractBuildRule {
     this.skipProguard = args.getSkipProguard();
     this.xzCompressionLevel = xzCompressionLevel;
     this.shouldSplitDex = shouldSplitDex;
+    this.keepSecondaryDexPlacement = args.getKeepSecondaryDexPlacement();
+    this.maxUnderfilledSecondaryDexes = args.getMaxUnderfilledSecondaryDexes();
+    this.parallelXzCompression = args.getParallelXzCompression();
 
     this.buildDepsSupplier =
         Suppliers.memoize(
@@ -606,6 +636,12 @@ class NonPreDexedDexBuildable extends AbstractBuildRule {
 
   @Override
   public boolean isCacheable() {
+    // When the classes are kept in the same secondary dexes, the dexes depend on the previous
+    // builds as well as on the rule key, so they mustn't be shared through the cache even once the
+    // paths below are sanitized.
+    if (keepSecondaryDexPlacement) {
+      return false;
+    }
     // TODO(cjhopman): We don't correctly sanitize paths in some of the proguard configuration
     // files. If we correctly sanitize those paths (or remove the configuration files from the
     // recorded outputs), we can make this rule cacheable.
@@ -715,6 +751,20 @@ class NonPreDexedDexBuildable extends AbstractBuildRule {
           MakeCleanDirectoryStep.of(
               BuildCellRelativePath.fromCellRelativePath(
                   buildContext.getBuildCellRootPath(), getProjectFilesystem(), zipSplitReportDir)));
+
+      // Outlives the build, so that the next split can keep the classes in the same secondary jars.
+      Optional<Path> secondaryPlacementPath = Optional.empty();
+      if (keepSecondaryDexPlacement) {
+        Path secondaryPlacementDir = getBinPath("__split_zip_placement__");
+        steps.add(
+            MkdirStep.of(
+                BuildCellRelativePath.fromCellRelativePath(
+                    buildContext.getBuildCellRootPath(),
+                    getProjectFilesystem(),
+                    secondaryPlacementDir)));
+        secondaryPlacementPath = Optional.of(secondaryPlacementDir.resolve("placement.txt"));
+      }
+
       SplitZipStep splitZipCommand =
           new SplitZipStep(
               getProjectFilesystem(),
@@ -736,6 +786,8 @@ class NonPreDexedDexBuildable extends AbstractBuildRule {
               additionalDexStoreToJarPathMap,
               apkModuleMap,
               rootAPKModule,
+              secondaryPlacementPath,
+              maxUnderfilledSecondaryDexes,
               zipSplitReportDir);
       steps.add(splitZipCommand);
 
@@ -864,6 +916,7 @@ class NonPreDexedDexBuildable extends AbstractBuildRule {
             dxOptions,
             dxExecutorService,
             xzCompressionLevel,
+            parallelXzCompression,
             dxMaxHeapSize);
     steps.add(smartDexingCommand);
 
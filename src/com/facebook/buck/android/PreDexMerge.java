@@ -95,6 +95,7 @@ public class PreDexMerge extends AbstractBuildRuleWithDeclaredAndExtraDeps {
   private final DexProducedFromJavaLibrary dexForUberRDotJava;
   private final ListeningExecutorService dxExecutorService;
   private final Optional<Integer> xzCompressionLevel;
+  @AddToRuleKey private final boolean parallelXzCompression;
   private final Optional<String> dxMaxHeapSize;
 
   public PreDexMerge(
@@ -107,6 +108,7 @@ public class PreDexMerge extends AbstractBuildRuleWithDeclaredAndExtraDeps {
       DexProducedFromJavaLibrary dexForUberRDotJava,
       ListeningExecutorService dxExecutorService,
       Optional<Integer> xzCompressionLevel,
+      boolean parallelXzCompression,
       Optional<String> dxMaxHeapSize) {
     super(buildTarget, projectFilesystem, params);
     this.dexSplitMode = dexSplitMode;
@@ -115,6 +117,7 @@ public class PreDexMerge extends AbstractBuildRuleWithDeclaredAndExtraDeps {
     this.dexForUberRDotJava = dexForUberRDotJava;
     this.dxExecutorService = dxExecutorService;
     this.xzCompressionLevel = xzCompressionLevel;
+    this.parallelXzCompression = parallelXzCompression;
     this.dxMaxHeapSize = dxMaxHeapSize;
   }
 
@@ -314,6 +317,7 @@ public class PreDexMerge extends AbstractBuildRuleWithDeclaredAndExtraDeps {
             DX_MERGE_OPTIONS,
             dxExecutorService,
             xzCompressionLevel,
+            parallelXzCompression,
             dxMaxHeapSize));
 
     for (PreDexedFilesSorter.Result result : sortResults.values()) {
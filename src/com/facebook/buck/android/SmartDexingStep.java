@@ -90,6 +90,7 @@ public class SmartDexingStep implements Step {
   private final EnumSet<DxStep.Option> dxOptions;
   private final ListeningExecutorService executorService;
   private final Optional<Integer> xzCompressionLevel;
+  private final boolean parallelXzCompression;
   private final Optional<String> dxMaxHeapSize;
   private final BuildTarget target;
 
@@ -104,6 +105,8 @@ public class SmartDexingStep implements Step {
    *     invocation will be started with the corresponding jar files (value) as the input.
    * @param successDir Directory where success artifacts are written.
    * @param executorService The thread pool to execute the dx command on.
+   * @param parallelXzCompression Whether the solid XZ archives of secondary dexes are compressed
+   *     in blocks, on several threads.
    */
   public SmartDexingStep(
       BuildTarget target,
@@ -118,6 +121,7 @@ public class SmartDexingStep implements Step {
       EnumSet<Option> dxOptions,
       ListeningExecutorService executorService,
       Optional<Integer> xzCompressionLevel,
+      boolean parallelXzCompression,
       Optional<String> dxMaxHeapSize) {
     this.target = target;
     this.buildContext = buildContext;
@@ -138,6 +142,7 @@ public class SmartDexingStep implements Step {
     this.dxOptions = dxOptions;
     this.executorService = executorService;
     this.xzCompressionLevel = xzCompressionLevel;
+    this.parallelXzCompression = parallelXzCompression;
     this.dxMaxHeapSize = dxMaxHeapSize;
   }
 
@@ -181,18 +186,13 @@ public class SmartDexingStep implements Step {
             Step concatStep =
                 new ConcatStep(
                     filesystem, ImmutableList.copyOf(secondaryDexJars), secondaryBlobOutput);
-            Step xzStep;
-
-            if (xzCompressionLevel.isPresent()) {
-              xzStep =
-                  new XzStep(
-                      filesystem,
-                      secondaryBlobOutput,
-                      secondaryCompressedBlobOutput,
-                      xzCompressionLevel.get().intValue());
-            } else {
-              xzStep = new XzStep(filesystem, secondaryBlobOutput, secondaryCompressedBlobOutput);
-            }
+            Step xzStep =
+                new XzStep(
+                    filesystem,
+                    secondaryBlobOutput,
+                    secondaryCompressedBlobOutput,
+                    xzCompressionLevel.orElse(XzStep.DEFAULT_COMPRESSION_LEVEL).intValue(),
+                    parallelXzCompression);
             stepRunner.runStepForBuildTarget(context, concatStep, Optional.empty());
             stepRunner.runStepForBuildTarget(context, xzStep, Optional.empty());
           }
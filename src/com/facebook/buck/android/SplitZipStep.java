@@ -24,6 +24,7 @@ import com.facebook.buck.dalvik.ZipSplitterFactory;
 import com.facebook.buck.dalvik.firstorder.FirstOrderHelper;
 import com.facebook.buck.io.file.MorePaths;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.StepExecutionResult;
@@ -34,6 +35,7 @@ import com.google.common.base.Function;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
+import com.google.common.base.Splitter;
 import com.google.common.base.Supplier;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
@@ -45,9 +47,11 @@ import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Multimap;
 import com.google.common.hash.Hashing;
 import com.google.common.io.Files;
+import com.google.common.primitives.Ints;
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
@@ -68,6 +72,8 @@ import org.objectweb.asm.tree.ClassNode;
  */
 public class SplitZipStep implements Step {
 
+  private static final Logger LOG = Logger.get(SplitZipStep.class);
+
   @VisibleForTesting
   static final Pattern CANARY_CLASS_FILE_PATTERN = Pattern.compile("^([\\w/$]+)\\.Canary\\.class");
 
@@ -96,6 +102,8 @@ public class SplitZipStep implements Step {
   private final Optional<Path> secondaryDexTailClassesFile;
   private final ImmutableMultimap<APKModule, Path> apkModuleToJarPathMap;
   private final APKModule rootAPKModule;
+  private final Optional<Path> secondaryPlacementPath;
+  private final int maxUnderfilledSecondaryJars;
 
   @Nullable private ImmutableMultimap<APKModule, Path> outputFiles;
   private ImmutableMap<APKModule, ImmutableSortedSet<APKModule>> apkModuleMap;
@@ -115,6 +123,10 @@ public class SplitZipStep implements Step {
    * @param proguardMappingFile Path to the mapping file generated by ProGuard's obfuscation.
    * @param apkModuleMap
    * @param rootAPKModule
+   * @param secondaryPlacementPath Path of the file recording which secondary jar each class was
+   *     written to, if the classes should be kept in the same jars from one split to the next.
+   * @param maxUnderfilledSecondaryJars The number of secondary jars which may be left empty or
+   *     underfilled by keeping the classes in the same jars before the jars are packed afresh.
    */
   public SplitZipStep(
       ProjectFilesystem filesystem,
@@ -136,6 +148,8 @@ public class SplitZipStep implements Step {
       ImmutableMultimap<APKModule, Path> apkModuleToJarPathMap,
       ImmutableSortedMap<APKModule, ImmutableSortedSet<APKModule>> apkModuleMap,
       APKModule rootAPKModule,
+      Optional<Path> secondaryPlacementPath,
+      int maxUnderfilledSecondaryJars,
       Path pathToReportDir) {
     this.filesystem = filesystem;
     this.inputPathsToSplit = ImmutableSet.copyOf(inputPathsToSplit);
@@ -157,6 +171,8 @@ public class SplitZipStep implements Step {
     this.pathToReportDir = pathToReportDir;
     this.rootAPKModule = rootAPKModule;
     this.apkModuleMap = apkModuleMap;
+    this.secondaryPlacementPath = secondaryPlacementPath;
+    this.maxUnderfilledSecondaryJars = maxUnderfilledSecondaryJars;
 
     if (!skipProguard) {
       Preconditions.checkArgument(
@@ -191,7 +207,10 @@ public class SplitZipStep implements Step {
     ZipSplitterFactory zipSplitterFactory;
     zipSplitterFactory =
         new DalvikAwareZipSplitterFactory(
-            dexSplitMode.getLinearAllocHardLimit(), wantedInPrimaryZip);
+            dexSplitMode.getLinearAllocHardLimit(),
+            wantedInPrimaryZip,
+            readSecondaryPlacement(),
+            maxUnderfilledSecondaryJars);
 
     outputFiles =
         zipSplitterFactory
@@ -227,6 +246,7 @@ public class SplitZipStep implements Step {
                   .collect(Collectors.toList()),
               dexSplitMode.getDexStore());
         }
+        writeSecondaryPlacement(outputFiles.get(dexStore));
       } else {
         try (BufferedWriter secondaryMetaInfoWriter =
             Files.newWriter(
@@ -253,6 +273,46 @@ public class SplitZipStep implements Step {
     return StepExecutionResult.SUCCESS;
   }
 
+  /**
+   * @return the index of the secondary jar each class file, by relative path, was written to by
+   *     the previous split, or nothing if the classes needn't stay in the same jars.
+   */
+  private ImmutableMap<String, Integer> readSecondaryPlacement() throws IOException {
+    if (!secondaryPlacementPath.isPresent() || !filesystem.exists(secondaryPlacementPath.get())) {
+      return ImmutableMap.of();
+    }
+    ImmutableMap.Builder<String, Integer> placement = ImmutableMap.builder();
+    for (String line : filesystem.readLines(secondaryPlacementPath.get())) {
+      List<String> fields = Splitter.on(' ').limit(2).splitToList(line);
+      Integer index = fields.size() == 2 ? Ints.tryParse(fields.get(0)) : null;
+      if (index == null || index < 1) {
+        LOG.warn("Ignoring the malformed secondary dex placement in %s.", secondaryPlacementPath);
+        return ImmutableMap.of();
+      }
+      placement.put(fields.get(1), index);
+    }
+    return placement.build();
+  }
+
+  private void writeSecondaryPlacement(Collection<Path> secondaryJars) throws IOException {
+    if (!secondaryPlacementPath.isPresent()) {
+      return;
+    }
+    ImmutableList.Builder<String> lines = ImmutableList.builder();
+    int index = 1;
+    for (Path secondaryJar : secondaryJars) {
+      try (ZipFile inZip = new ZipFile(filesystem.resolve(secondaryJar).toFile())) {
+        for (ZipEntry entry : Collections.list(inZip.entries())) {
+          if (!CANARY_CLASS_FILE_PATTERN.matcher(entry.getName()).matches()) {
+            lines.add(index + " " + entry.getName());
+          }
+        }
+      }
+      index++;
+    }
+    filesystem.writeLinesToPath(lines.build(), secondaryPlacementPath.get());
+  }
+
   @VisibleForTesting
   Predicate<String> createRequiredInPrimaryZipPredicate(
       ProguardTranslatorFactory translatorFactory,
@@ -28,6 +28,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -35,6 +36,7 @@ import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.SettableFuture;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -306,6 +308,23 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
     return future;
   }
 
+  @Override
+  public final ImmutableMap<RuleKey, ListenableFuture<CacheResult>> multiFetchAsync(
+      ImmutableMap<RuleKey, LazyPath> requests) {
+    // Queue all the requests before processing any of them, so that they get batched together.
+    ImmutableMap.Builder<RuleKey, ListenableFuture<CacheResult>> futures = ImmutableMap.builder();
+    for (Map.Entry<RuleKey, LazyPath> request : requests.entrySet()) {
+      eventListener.fetchScheduled(request.getKey());
+      SettableFuture<CacheResult> future = SettableFuture.create();
+      pendingFetchRequests.add(new FetchRequest(request.getKey(), request.getValue(), future));
+      futures.put(request.getKey(), future);
+    }
+    for (int i = 0; i < requests.size(); i++) {
+      fetchExecutorService.submit(this::processFetch);
+    }
+    return futures.build();
+  }
+
   @Override
   public final ListenableFuture<Void> store(final ArtifactInfo info, final BorrowablePath output) {
     if (!getCacheReadMode().isWritable()) {
@@ -164,6 +164,17 @@ abstract class AbstractCacheResult {
         Optional.empty());
   }
 
+  public static CacheResult contains(String cacheSource, ArtifactCacheMode cacheMode) {
+    return CacheResult.of(
+        CacheResultType.CONTAINS,
+        Optional.of(cacheSource),
+        Optional.of(cacheMode),
+        Optional.empty(),
+        Optional.empty(),
+        Optional.empty(),
+        Optional.empty());
+  }
+
   public static CacheResult skipped() {
     return SKIPPED_RESULT;
   }
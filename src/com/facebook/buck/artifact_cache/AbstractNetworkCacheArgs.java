@@ -52,4 +52,13 @@ interface AbstractNetworkCacheArgs {
   String getErrorTextTemplate();
 
   Optional<Long> getMaxStoreSizeBytes();
+
+  /**
+   * Whether fetched artifacts are passed to a {@link StreamingFetchOutput} while they are being
+   * downloaded.
+   */
+  @Value.Default
+  default boolean isStreamingFetchEnabled() {
+    return false;
+  }
 }
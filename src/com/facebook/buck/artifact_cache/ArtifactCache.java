@@ -19,6 +19,10 @@ package com.facebook.buck.artifact_cache;
 import com.facebook.buck.io.file.BorrowablePath;
 import com.facebook.buck.io.file.LazyPath;
 import com.facebook.buck.rules.RuleKey;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 
 public interface ArtifactCache extends AutoCloseable {
@@ -34,6 +38,31 @@ public interface ArtifactCache extends AutoCloseable {
    */
   ListenableFuture<CacheResult> fetchAsync(RuleKey ruleKey, LazyPath output);
 
+  /**
+   * Fetch the cached artifacts of several rule keys, in as few requests as the cache supports. By
+   * default, each artifact is fetched separately.
+   *
+   * @param requests the rule keys to fetch, and the path to store the artifact of each of them to.
+   * @return the result of the fetch of each of the requested rule keys.
+   */
+  default ImmutableMap<RuleKey, ListenableFuture<CacheResult>> multiFetchAsync(
+      ImmutableMap<RuleKey, LazyPath> requests) {
+    return ImmutableMap.copyOf(Maps.transformEntries(requests, this::fetchAsync));
+  }
+
+  /**
+   * Check which of several rule keys the cache has an artifact for, without fetching them.
+   *
+   * @return for each rule key, a {@link CacheResultType#CONTAINS} or {@link CacheResultType#MISS}
+   *     result, or a {@link CacheResultType#SKIPPED} one if the cache could not tell without
+   *     fetching the artifact, which is what it does by default.
+   */
+  default ListenableFuture<ImmutableMap<RuleKey, CacheResult>> multiContainsAsync(
+      ImmutableSet<RuleKey> ruleKeys) {
+    return Futures.immediateFuture(
+        Maps.toMap(ruleKeys, ruleKey -> CacheResult.skipped()));
+  }
+
   /**
    * Store the artifact at path specified by output to cache, such that it can later be fetched
    * using ruleKey as the lookup key. If any internal errors occur, fail silently and continue
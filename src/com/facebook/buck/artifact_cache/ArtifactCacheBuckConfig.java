@@ -78,13 +78,16 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
           HTTP_CACHE_ERROR_MESSAGE_NAME,
           HTTP_MAX_STORE_SIZE);
   private static final String HTTP_MAX_FETCH_RETRIES = "http_max_fetch_retries";
+  private static final String HTTP_STREAMING_FETCH_FIELD_NAME = "http_streaming_fetch";
+  private static final String PREFETCH_DEPS_ON_MISS_FIELD_NAME = "prefetch_deps_on_miss";
 
   private static final String DIR_FIELD = "dir";
   private static final String DIR_MODE_FIELD = "dir_mode";
   private static final String DIR_MAX_SIZE_FIELD = "dir_max_size";
+  private static final String DIR_INDEX_FIELD = "dir_index";
   private static final String DIR_CACHE_NAMES_FIELD_NAME = "dir_cache_names";
   private static final ImmutableSet<String> DIR_CACHE_DESCRIPTION_FIELDS =
-      ImmutableSet.of(DIR_FIELD, DIR_MODE_FIELD, DIR_MAX_SIZE_FIELD);
+      ImmutableSet.of(DIR_FIELD, DIR_MODE_FIELD, DIR_MAX_SIZE_FIELD, DIR_INDEX_FIELD);
 
   private static final URI DEFAULT_HTTP_URL = URI.create("http://localhost:8080/");
   private static final String DEFAULT_HTTP_CACHE_MODE = CacheReadMode.READWRITE.name();
@@ -100,6 +103,8 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
   private static final String SQLITE_MAX_INLINED_SIZE_FIELD = "sqlite_inlined_size";
   private static final String SQLITE_CACHE_NAMES_FIELD_NAME = "sqlite_cache_names";
 
+  private static final String LOCAL_BLOB_STORE_DIR_FIELD_NAME = "local_blob_store_dir";
+
   private static final String SERVED_CACHE_ENABLED_FIELD_NAME = "serve_local_cache";
   private static final String DEFAULT_SERVED_CACHE_MODE = CacheReadMode.READONLY.name();
   private static final String SERVED_CACHE_READ_MODE_FIELD_NAME = "served_local_cache_mode";
@@ -230,6 +235,15 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
         .orElse(DEFAULT_HTTP_MAX_FETCH_RETRIES);
   }
 
+  /** Whether artifacts fetched from http caches are unpacked while they are being downloaded. */
+  public boolean isHttpStreamingFetchEnabled() {
+    return buckConfig.getBooleanValue(CACHE_SECTION_NAME, HTTP_STREAMING_FETCH_FIELD_NAME, false);
+  }
+
+  public boolean isPrefetchDepsOnMissEnabled() {
+    return buckConfig.getBooleanValue(CACHE_SECTION_NAME, PREFETCH_DEPS_ON_MISS_FIELD_NAME, false);
+  }
+
   public boolean hasAtLeastOneWriteableCache() {
     return getHttpCacheEntries()
         .stream()
@@ -433,6 +447,8 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
         .setCacheDir(pathToCacheDir)
         .setCacheReadMode(readMode)
         .setMaxSizeBytes(maxSizeBytes)
+        .setIndexed(buckConfig.getBooleanValue(section, DIR_INDEX_FIELD, false))
+        .setBlobStoreDir(getLocalBlobStoreDir())
         .build();
   }
 
@@ -494,9 +510,17 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
         .setCacheReadMode(readMode)
         .setMaxSizeBytes(maxSizeBytes)
         .setMaxInlinedSizeBytes(maxInlinedSizeBytes)
+        .setBlobStoreDir(getLocalBlobStoreDir())
         .build();
   }
 
+  /** @return the directory of the blob store shared by the local caches, if they should use one. */
+  private Optional<Path> getLocalBlobStoreDir() {
+    return buckConfig
+        .getValue(CACHE_SECTION_NAME, LOCAL_BLOB_STORE_DIR_FIELD_NAME)
+        .map(dir -> buckConfig.resolvePathThatMayBeOutsideTheProjectFilesystem(Paths.get(dir)));
+  }
+
   public ImmutableSet<String> getBlacklistedWifiSsids() {
     return ImmutableSet.copyOf(
         buckConfig.getListWithoutComments(
@@ -541,6 +565,13 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
     public abstract Optional<Long> getMaxSizeBytes();
 
     public abstract CacheReadMode getCacheReadMode();
+
+    @Value.Default
+    public boolean getIndexed() {
+      return false;
+    }
+
+    public abstract Optional<Path> getBlobStoreDir();
   }
 
   @Value.Immutable
@@ -586,5 +617,7 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
     public abstract Optional<Long> getMaxInlinedSizeBytes();
 
     public abstract CacheReadMode getCacheReadMode();
+
+    public abstract Optional<Path> getBlobStoreDir();
   }
 }
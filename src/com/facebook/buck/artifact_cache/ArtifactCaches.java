@@ -323,7 +323,9 @@ public class ArtifactCaches implements ArtifactCacheFactory {
               projectFilesystem,
               cacheDir,
               dirCacheConfig.getCacheReadMode(),
-              dirCacheConfig.getMaxSizeBytes());
+              dirCacheConfig.getMaxSizeBytes(),
+              dirCacheConfig.getIndexed(),
+              createBlobStore(dirCacheConfig.getBlobStoreDir(), projectFilesystem));
 
       if (!buckEventBus.isPresent()) {
         return dirArtifactCache;
@@ -486,6 +488,7 @@ public class ArtifactCaches implements ArtifactCacheFactory {
             .setHttpWriteExecutorService(httpWriteExecutorService)
             .setHttpFetchExecutorService(httpFetchExecutorService)
             .setErrorTextTemplate(cacheDescription.getErrorMessageFormat())
+            .setStreamingFetchEnabled(config.isHttpStreamingFetchEnabled())
             .build());
   }
 
@@ -503,7 +506,8 @@ public class ArtifactCaches implements ArtifactCacheFactory {
               buckEventBus,
               cacheConfig.getMaxSizeBytes(),
               cacheConfig.getMaxInlinedSizeBytes(),
-              cacheConfig.getCacheReadMode());
+              cacheConfig.getCacheReadMode(),
+              createBlobStore(cacheConfig.getBlobStoreDir(), projectFilesystem));
 
       return new LoggingArtifactCacheDecorator(
           buckEventBus,
@@ -515,6 +519,18 @@ public class ArtifactCaches implements ArtifactCacheFactory {
     }
   }
 
+  private static Optional<ContentAddressedBlobStore> createBlobStore(
+      Optional<Path> blobStoreDir, ProjectFilesystem projectFilesystem) throws IOException {
+    if (!blobStoreDir.isPresent()) {
+      return Optional.empty();
+    }
+    if (!ContentAddressedBlobStore.isSupported(projectFilesystem)) {
+      LOG.warn("Blob stores are not supported on this file system, not deduplicating artifacts.");
+      return Optional.empty();
+    }
+    return Optional.of(new ContentAddressedBlobStore(projectFilesystem, blobStoreDir.get()));
+  }
+
   private static String stripNonAscii(String str) {
     if (CharMatcher.ascii().matchesAllOf(str)) {
       return str;
@@ -33,6 +33,9 @@ public enum CacheResultType {
   /** The cache skipped checking this result */
   SKIPPED(false),
 
+  /** The cache has the artifact, but was only asked whether it has it, not to fetch it. */
+  CONTAINS(/* success */ false),
+
   /** Artifact cache not queried because the local cache key was unchanged. */
   LOCAL_KEY_UNCHANGED_HIT(/* success */ true),
   ;
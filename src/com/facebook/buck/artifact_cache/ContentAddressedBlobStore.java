@@ -0,0 +1,226 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.HashCode;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A content-addressed store for the payloads of the local artifact caches, so that byte-identical
+ * artifacts stored under different keys, or by different caches, take up disk space only once.
+ *
+ * <p>Every payload is kept once under its SHA-1, and the entries of the caches are hard links to
+ * it. The number of links to a blob beyond the one held by the store is therefore its reference
+ * count. The file system keeps that count up to date as caches add and delete their entries, which
+ * keeps it correct across processes and crashes without any bookkeeping of our own. Blobs nobody
+ * links to anymore are deleted by {@link #release(HashCode)} and {@link #collectGarbage()}.
+ *
+ * <p>All caches sharing a store must be on the same file system as the store for hard links to
+ * work. Where they cannot be created, payloads are copied instead. Caches fetch entries by copying
+ * them, never by linking to them, as a step which rewrites its output in place would otherwise
+ * rewrite the blob, and every entry sharing it.
+ */
+public class ContentAddressedBlobStore {
+
+  private static final Logger LOG = Logger.get(ContentAddressedBlobStore.class);
+
+  private static final String TMP_DIR_NAME = "tmp";
+  private static final String TMP_EXTENSION = ".tmp";
+
+  private final ProjectFilesystem filesystem;
+  private final Path root;
+  // Blobs that were still linked from somewhere else when released, e.g. by an entry another
+  // process stored in the meantime.
+  private final Set<HashCode> pendingReleases = new HashSet<>();
+
+  public ContentAddressedBlobStore(ProjectFilesystem filesystem, Path root) throws IOException {
+    this.filesystem = filesystem;
+    this.root = root;
+    filesystem.mkdirs(root.resolve(TMP_DIR_NAME));
+  }
+
+  /** @return whether blobs can be reference counted on the file system of {@code filesystem}. */
+  public static boolean isSupported(ProjectFilesystem filesystem) {
+    return filesystem.getRootPath().getFileSystem().supportedFileAttributeViews().contains("unix");
+  }
+
+  public Path getRoot() {
+    return root;
+  }
+
+  @VisibleForTesting
+  Path getBlobPath(HashCode hash) {
+    String name = hash.toString();
+    return root.resolve(name.substring(0, 2)).resolve(name.substring(2, 4)).resolve(name);
+  }
+
+  /**
+   * Makes {@code target} an entry holding {@code content}. If an identical payload is already in
+   * the store, {@code target} becomes a link to it and {@code content} is neither copied nor moved.
+   *
+   * @return the hash of {@code content}, to be passed to {@link #release(HashCode)} once {@code
+   *     target} is deleted.
+   */
+  public HashCode store(BorrowablePath content, Path target) throws IOException {
+    HashCode hash = filesystem.computeSha1(content.getPath()).asHashCode();
+    Path blob = getBlobPath(hash);
+    filesystem.deleteFileAtPathIfExists(target);
+
+    if (filesystem.exists(blob)) {
+      try {
+        linkOrCopy(blob, target);
+        return hash;
+      } catch (NoSuchFileException e) {
+        // Collected by another process in the meantime, so add it again.
+      }
+    }
+
+    filesystem.mkdirs(blob.getParent());
+    Path tmp = filesystem.createTempFile(root.resolve(TMP_DIR_NAME), "blob", TMP_EXTENSION);
+    try {
+      if (content.canBorrow()) {
+        filesystem.move(content.getPath(), tmp, StandardCopyOption.REPLACE_EXISTING);
+      } else {
+        filesystem.copyFile(content.getPath(), tmp);
+      }
+      // Link the entry before publishing the blob so that it is never visible unreferenced, which
+      // would let a concurrent collection delete it.
+      linkOrCopy(tmp, target);
+      filesystem.move(tmp, blob, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      filesystem.deleteFileAtPathIfExists(tmp);
+    }
+    return hash;
+  }
+
+  /**
+   * Makes {@code target} a hard link to {@code source}, replacing {@code target} if it exists, or
+   * a copy of it if hard links are not available.
+   */
+  public void linkOrCopy(Path source, Path target) throws IOException {
+    Path absoluteSource = filesystem.resolve(source);
+    Path absoluteTarget = filesystem.resolve(target);
+    try {
+      Files.deleteIfExists(absoluteTarget);
+      Files.createLink(absoluteTarget, absoluteSource);
+    } catch (FileAlreadyExistsException e) {
+      // Linked by a concurrent store of the same entry, which has the same contents.
+    } catch (NoSuchFileException e) {
+      throw e;
+    } catch (FileSystemException | UnsupportedOperationException e) {
+      LOG.debug(e, "Unable to link %s to %s, copying it instead.", absoluteTarget, absoluteSource);
+      Path tmp =
+          filesystem.createTempFile(absoluteTarget.getParent(), "linkOrCopy", TMP_EXTENSION);
+      try {
+        filesystem.copyFile(source, tmp);
+        filesystem.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+      } finally {
+        filesystem.deleteFileAtPathIfExists(tmp);
+      }
+    }
+  }
+
+  /**
+   * Deletes the blob for {@code hash} if nothing links to it anymore. Blobs that are still in use
+   * are remembered and released again by {@link #releasePending()}.
+   */
+  public synchronized void release(HashCode hash) throws IOException {
+    if (!deleteIfUnreferenced(getBlobPath(hash))) {
+      pendingReleases.add(hash);
+    }
+  }
+
+  /** Retries releasing blobs that were still in use when they were last released. */
+  public synchronized void releasePending() throws IOException {
+    pendingReleases.removeIf(
+        hash -> {
+          try {
+            return deleteIfUnreferenced(getBlobPath(hash));
+          } catch (IOException e) {
+            LOG.warn(e, "Failed to release blob %s", hash);
+            return true;
+          }
+        });
+  }
+
+  /**
+   * Deletes every blob nothing links to anymore. This walks the whole store, so it should only be
+   * used by caches that cannot tell which blobs their evicted entries referred to.
+   *
+   * @return the number of deleted blobs.
+   */
+  public int collectGarbage() throws IOException {
+    Path absoluteRoot = filesystem.resolve(root);
+    Path tmpDir = absoluteRoot.resolve(TMP_DIR_NAME);
+    int[] deleted = {0};
+    Files.walkFileTree(
+        absoluteRoot,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+            return dir.equals(tmpDir) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+              throws IOException {
+            if (deleteIfUnreferenced(file)) {
+              deleted[0]++;
+            }
+            return FileVisitResult.CONTINUE;
+          }
+        });
+    LOG.debug("Collected %d unreferenced blobs from %s", deleted[0], absoluteRoot);
+    return deleted[0];
+  }
+
+  /** @return whether the blob is gone. */
+  private boolean deleteIfUnreferenced(Path blob) throws IOException {
+    Path absoluteBlob = filesystem.resolve(blob);
+    try {
+      if (getLinkCount(absoluteBlob) > 1) {
+        return false;
+      }
+    } catch (NoSuchFileException e) {
+      return true;
+    }
+    // A store may link to the blob right after we looked at it. That entry keeps its contents,
+    // the only loss is that future stores of the same payload will add it again.
+    Files.deleteIfExists(absoluteBlob);
+    return true;
+  }
+
+  @VisibleForTesting
+  static int getLinkCount(Path absolutePath) throws IOException {
+    return (Integer) Files.getAttribute(absolutePath, "unix:nlink");
+  }
+}
@@ -29,11 +29,14 @@ import com.google.common.collect.ComparisonChain;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
 import com.google.common.io.ByteStreams;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
@@ -43,6 +46,8 @@ import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -58,12 +63,20 @@ public class DirArtifactCache implements ArtifactCache {
   // How much of the max size to leave if we decide to delete old files.
   private static final float MAX_BYTES_TRIM_RATIO = 2 / 3f;
   private static final String TMP_EXTENSION = ".tmp";
+  private static final String METADATA_EXTENSION = ".metadata";
+  private static final String INDEX_DIR_NAME = "index";
+  // Written by caches that could not open the index while the index owner was using it, so that
+  // the next owner knows the index is missing entries.
+  private static final String INDEX_STALE_MARKER_NAME = "stale";
 
   private final String name;
   private final ProjectFilesystem filesystem;
   private final Path cacheDir;
   private final Optional<Long> maxCacheSizeBytes;
   private final CacheReadMode cacheMode;
+  private final boolean indexed;
+  private final Optional<DirArtifactCacheIndex> index;
+  private final Optional<ContentAddressedBlobStore> blobStore;
   private long bytesSinceLastDeleteOldFiles;
 
   public DirArtifactCache(
@@ -73,17 +86,99 @@ public class DirArtifactCache implements ArtifactCache {
       CacheReadMode cacheMode,
       Optional<Long> maxCacheSizeBytes)
       throws IOException {
+    this(name, filesystem, cacheDir, cacheMode, maxCacheSizeBytes, false, Optional.empty());
+  }
+
+  /**
+   * @param indexed whether to track the cache contents in a {@link DirArtifactCacheIndex}, which
+   *     avoids file system access on misses and walking the cache directory when trimming it.
+   * @param blobStore if present, artifacts are stored once per distinct payload in this store and
+   *     the cache entries are hard links to them. Fetched outputs are still copies.
+   */
+  public DirArtifactCache(
+      String name,
+      ProjectFilesystem filesystem,
+      Path cacheDir,
+      CacheReadMode cacheMode,
+      Optional<Long> maxCacheSizeBytes,
+      boolean indexed,
+      Optional<ContentAddressedBlobStore> blobStore)
+      throws IOException {
     this.name = name;
     this.filesystem = filesystem;
     this.cacheDir = cacheDir;
     this.maxCacheSizeBytes = maxCacheSizeBytes;
     this.cacheMode = cacheMode;
+    this.blobStore = blobStore;
     this.bytesSinceLastDeleteOldFiles = 0L;
 
     // Check first, as mkdirs will fail if the path is a symlink.
     if (!filesystem.isDirectory(cacheDir)) {
       filesystem.mkdirs(cacheDir);
     }
+
+    this.indexed = indexed;
+    this.index = indexed ? openIndex() : Optional.empty();
+    if (!indexed) {
+      // Anything stored from now on would be missing from the index, so make sure it is rebuilt
+      // if indexing is turned on again.
+      filesystem.deleteRecursivelyIfExists(getPathToIndexFolder());
+    }
+  }
+
+  private Optional<DirArtifactCacheIndex> openIndex() throws IOException {
+    Optional<DirArtifactCacheIndex> index =
+        DirArtifactCacheIndex.open(filesystem.resolve(getPathToIndexFolder()));
+    if (!index.isPresent()) {
+      LOG.info("Index of dir cache %s is in use, falling back to unindexed mode.", cacheDir);
+      return index;
+    }
+    Path staleMarker = getPathToIndexFolder().resolve(INDEX_STALE_MARKER_NAME);
+    if (index.get().wasReset() || filesystem.exists(staleMarker)) {
+      rebuildIndex(index.get());
+      filesystem.deleteFileAtPathIfExists(staleMarker);
+    }
+    return index;
+  }
+
+  /** Repopulates {@code index} from the artifacts present in the cache directory. */
+  private void rebuildIndex(DirArtifactCacheIndex index) throws IOException {
+    LOG.info("Rebuilding index of dir cache %s.", cacheDir);
+    index.clear();
+    List<Path> artifacts = new ArrayList<>();
+    Map<Path, BasicFileAttributes> attributes = new HashMap<>();
+    for (Path file : getAllFilesInCache()) {
+      try {
+        attributes.put(file, Files.readAttributes(file, BasicFileAttributes.class));
+      } catch (NoSuchFileException e) {
+        continue;
+      }
+      if (!file.getFileName().toString().endsWith(METADATA_EXTENSION)) {
+        artifacts.add(file);
+      }
+    }
+    // Replay the artifacts in access order so that the index evicts them in the same order as
+    // the directory cleaner would.
+    artifacts.sort(Comparator.comparing(file -> attributes.get(file).lastAccessTime()));
+    for (Path artifact : artifacts) {
+      Path metadata = artifact.resolveSibling(artifact.getFileName() + METADATA_EXTENSION);
+      BasicFileAttributes metadataAttributes = attributes.get(metadata);
+      if (metadataAttributes == null) {
+        // Incomplete entries are misses anyway, let the store that completes them index them.
+        continue;
+      }
+      RuleKey ruleKey;
+      try {
+        ruleKey = new RuleKey(artifact.getFileName().toString());
+      } catch (IllegalArgumentException e) {
+        continue;
+      }
+      BasicFileAttributes artifactAttributes = attributes.get(artifact);
+      index.recordStore(
+          ruleKey,
+          artifactAttributes.size() + metadataAttributes.size(),
+          artifactAttributes.lastAccessTime().toMillis());
+    }
   }
 
   @Override
@@ -94,12 +189,17 @@ public class DirArtifactCache implements ArtifactCache {
   private CacheResult fetch(RuleKey ruleKey, LazyPath output) {
     CacheResult result;
     try {
+      if (index.isPresent() && !index.get().recordAccess(ruleKey)) {
+        LOG.verbose("Artifact fetch(%s, %s) cache miss (not in index)", ruleKey, output);
+        return CacheResult.miss();
+      }
+
       // First, build up the metadata from the metadata file.
       ImmutableMap.Builder<String, String> metadata = ImmutableMap.builder();
       try (DataInputStream in =
           new DataInputStream(
               filesystem.newFileInputStream(
-                  getPathForRuleKey(ruleKey, Optional.of(".metadata"))))) {
+                  getPathForRuleKey(ruleKey, Optional.of(METADATA_EXTENSION))))) {
         int sz = in.readInt();
         for (int i = 0; i < sz; i++) {
           String key = in.readUTF();
@@ -110,13 +210,23 @@ public class DirArtifactCache implements ArtifactCache {
         }
       }
 
-      // Now copy the artifact out.
-      filesystem.copyFile(getPathForRuleKey(ruleKey, Optional.empty()), output.get());
+      // Now copy the artifact out. Even with a blob store, the output is not linked to the entry:
+      // a step rewriting it in place would corrupt every entry sharing the blob.
+      Path artifactPath = getPathForRuleKey(ruleKey, Optional.empty());
+      filesystem.copyFile(artifactPath, output.get());
 
       result =
           CacheResult.hit(name, CACHE_MODE, metadata.build(), filesystem.getFileSize(output.get()));
     } catch (NoSuchFileException e) {
       result = CacheResult.miss();
+      if (index.isPresent()) {
+        // The entry was removed behind our back, e.g. by someone cleaning the cache by hand.
+        try {
+          index.get().recordRemove(ruleKey);
+        } catch (IOException indexException) {
+          LOG.warn(indexException, "Failed to update index of dir cache %s", cacheDir);
+        }
+      }
     } catch (IOException e) {
       LOG.warn(e, "Artifact fetch(%s, %s) error", ruleKey, output);
       result =
@@ -130,6 +240,20 @@ public class DirArtifactCache implements ArtifactCache {
     return result;
   }
 
+  @Override
+  public ListenableFuture<ImmutableMap<RuleKey, CacheResult>> multiContainsAsync(
+      ImmutableSet<RuleKey> ruleKeys) {
+    return Futures.immediateFuture(Maps.toMap(ruleKeys, this::contains));
+  }
+
+  private CacheResult contains(RuleKey ruleKey) {
+    boolean found =
+        index.isPresent()
+            ? index.get().contains(ruleKey)
+            : filesystem.exists(getPathForRuleKey(ruleKey, Optional.of(METADATA_EXTENSION)));
+    return found ? CacheResult.contains(name, CACHE_MODE) : CacheResult.miss();
+  }
+
   @Override
   public ListenableFuture<Void> store(ArtifactInfo info, BorrowablePath output) {
 
@@ -139,17 +263,27 @@ public class DirArtifactCache implements ArtifactCache {
 
     try {
       Optional<Path> borrowedAndStoredArtifactPath = Optional.empty();
+      Optional<HashCode> blobHash = Optional.empty();
       for (RuleKey ruleKey : info.getRuleKeys()) {
         Path artifactPath = getPathForRuleKey(ruleKey, Optional.empty());
-        Path metadataPath = getPathForRuleKey(ruleKey, Optional.of(".metadata"));
+        Path metadataPath = getPathForRuleKey(ruleKey, Optional.of(METADATA_EXTENSION));
 
-        if (filesystem.exists(artifactPath) && filesystem.exists(metadataPath)) {
+        if (index.isPresent()
+            ? index.get().contains(ruleKey)
+            : filesystem.exists(artifactPath) && filesystem.exists(metadataPath)) {
           continue;
         }
 
         filesystem.mkdirs(getParentDirForRuleKey(ruleKey));
 
-        if (!output.canBorrow()) {
+        if (blobStore.isPresent()) {
+          if (!blobHash.isPresent()) {
+            blobHash = Optional.of(blobStore.get().store(output, artifactPath));
+            borrowedAndStoredArtifactPath = Optional.of(artifactPath);
+          } else {
+            blobStore.get().linkOrCopy(borrowedAndStoredArtifactPath.get(), artifactPath);
+          }
+        } else if (!output.canBorrow()) {
           storeArtifactOutput(output.getPath(), artifactPath);
         } else {
           // This branch means that we are apparently the only users of the `output`, so instead
@@ -162,7 +296,8 @@ public class DirArtifactCache implements ArtifactCache {
             storeArtifactOutput(borrowedAndStoredArtifactPath.get(), artifactPath);
           }
         }
-        bytesSinceLastDeleteOldFiles += filesystem.getFileSize(artifactPath);
+        long artifactSizeBytes = filesystem.getFileSize(artifactPath);
+        bytesSinceLastDeleteOldFiles += artifactSizeBytes;
 
         // Now, write the meta data artifact.
         Path tmp = filesystem.createTempFile(getPreparedTempFolder(), "metadata", TMP_EXTENSION);
@@ -175,9 +310,19 @@ public class DirArtifactCache implements ArtifactCache {
               out.writeInt(val.length);
               out.write(val);
             }
+            // Readers stop after the metadata, so this trailer is invisible to them.
+            if (blobHash.isPresent()) {
+              out.writeUTF(blobHash.get().toString());
+            }
           }
           filesystem.move(tmp, metadataPath, StandardCopyOption.REPLACE_EXISTING);
-          bytesSinceLastDeleteOldFiles += filesystem.getFileSize(metadataPath);
+          long metadataSizeBytes = filesystem.getFileSize(metadataPath);
+          bytesSinceLastDeleteOldFiles += metadataSizeBytes;
+          if (index.isPresent()) {
+            index.get().recordStore(ruleKey, artifactSizeBytes + metadataSizeBytes);
+          } else if (indexed) {
+            markIndexStale();
+          }
         } finally {
           filesystem.deleteFileAtPathIfExists(tmp);
         }
@@ -201,6 +346,18 @@ public class DirArtifactCache implements ArtifactCache {
     return cacheDir.resolve("tmp");
   }
 
+  private Path getPathToIndexFolder() {
+    return cacheDir.resolve(INDEX_DIR_NAME);
+  }
+
+  private void markIndexStale() throws IOException {
+    Path staleMarker = getPathToIndexFolder().resolve(INDEX_STALE_MARKER_NAME);
+    if (!filesystem.exists(staleMarker)) {
+      filesystem.mkdirs(getPathToIndexFolder());
+      filesystem.createNewFile(staleMarker);
+    }
+  }
+
   private Path getPreparedTempFolder() throws IOException {
     Path tmp = getPathToTempFolder();
     if (!filesystem.exists(tmp)) {
@@ -258,6 +415,20 @@ public class DirArtifactCache implements ArtifactCache {
     if (bytesSinceLastDeleteOldFiles > 0) {
       deleteOldFiles();
     }
+    if (index.isPresent()) {
+      try {
+        index.get().close();
+      } catch (IOException e) {
+        LOG.warn(e, "Failed to close index of dir cache %s", cacheDir);
+      }
+    }
+    if (blobStore.isPresent()) {
+      try {
+        blobStore.get().releasePending();
+      } catch (IOException e) {
+        LOG.warn(e, "Failed to release blobs of dir cache %s", cacheDir);
+      }
+    }
   }
 
   /** Deletes files that haven't been accessed recently from the directory cache. */
@@ -270,17 +441,59 @@ public class DirArtifactCache implements ArtifactCache {
     Path cacheDirInFs = filesystem.resolve(cacheDir);
     try {
       synchronized (this) {
-        newDirectoryCleaner().clean(cacheDirInFs);
+        if (index.isPresent()) {
+          deleteOldFilesUsingIndex(index.get());
+        } else {
+          newDirectoryCleaner().clean(cacheDirInFs);
+          if (blobStore.isPresent()) {
+            blobStore.get().collectGarbage();
+          }
+        }
       }
     } catch (IOException e) {
       LOG.error(e, "Failed to clean path [%s].", cacheDirInFs);
     }
   }
 
+  /** Evicts least recently used entries, using the same thresholds as the directory cleaner. */
+  private void deleteOldFilesUsingIndex(DirArtifactCacheIndex index) throws IOException {
+    if (index.getTotalSizeBytes() <= maxCacheSizeBytes.get()) {
+      return;
+    }
+    for (RuleKey ruleKey : index.evict((long) (maxCacheSizeBytes.get() * MAX_BYTES_TRIM_RATIO))) {
+      Path metadataPath = getPathForRuleKey(ruleKey, Optional.of(METADATA_EXTENSION));
+      Optional<HashCode> blobHash =
+          blobStore.isPresent() ? readBlobHash(metadataPath) : Optional.empty();
+      filesystem.deleteFileAtPathIfExists(getPathForRuleKey(ruleKey, Optional.empty()));
+      filesystem.deleteFileAtPathIfExists(metadataPath);
+      if (blobHash.isPresent()) {
+        blobStore.get().release(blobHash.get());
+      }
+    }
+  }
+
+  /** Reads the hash of the blob an entry links to from the trailer of its metadata file. */
+  private Optional<HashCode> readBlobHash(Path metadataPath) throws IOException {
+    try (DataInputStream in = new DataInputStream(filesystem.newFileInputStream(metadataPath))) {
+      int sz = in.readInt();
+      for (int i = 0; i < sz; i++) {
+        in.readUTF();
+        ByteStreams.skipFully(in, in.readInt());
+      }
+      return Optional.of(HashCode.fromString(in.readUTF()));
+    } catch (NoSuchFileException | EOFException e) {
+      // Stored without a blob store.
+      return Optional.empty();
+    }
+  }
+
   @VisibleForTesting
   List<Path> getAllFilesInCache() {
     final List<Path> allFiles = new ArrayList<>();
     final Path tempFolderPath = getPathToTempFolder();
+    final Path indexFolderPath = filesystem.resolve(getPathToIndexFolder());
+    final Optional<Path> blobStorePath =
+        blobStore.map(store -> filesystem.resolve(store.getRoot()));
     try {
       Files.walkFileTree(
           filesystem.resolve(cacheDir),
@@ -292,7 +505,9 @@ public class DirArtifactCache implements ArtifactCache {
             public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
                 throws IOException {
               // do not work with files in temp folder as they will be moved later
-              if (dir.equals(tempFolderPath)) {
+              if (dir.equals(tempFolderPath)
+                  || dir.equals(indexFolderPath)
+                  || blobStorePath.map(dir::equals).orElse(false)) {
                 return FileVisitResult.SKIP_SUBTREE;
               }
               return super.preVisitDirectory(dir, attrs);
@@ -0,0 +1,386 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.rules.RuleKey;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * An index of the artifacts held by a {@link DirArtifactCache}, kept as an append-only log of
+ * fixed-size records in a memory-mapped file.
+ *
+ * <p>Each record holds a rule key, the number of bytes the entry occupies on disk and the time it
+ * was last accessed. Stores, accesses and removals are appended to the log and replayed in order
+ * when the index is opened, which rebuilds an access-ordered map of the live entries. This lets the
+ * cache answer misses without touching the file system and evict the least recently used entries
+ * without walking and stat'ing the whole cache directory.
+ *
+ * <p>The index is owned by a single process at a time: {@link #open(Path)} takes an exclusive lock
+ * and returns {@link Optional#empty()} if some other process already holds it.
+ */
+class DirArtifactCacheIndex implements Closeable {
+
+  private static final Logger LOG = Logger.get(DirArtifactCacheIndex.class);
+
+  private static final int MAGIC = 0xD1CAC4E1;
+  private static final int FORMAT_VERSION = 1;
+  private static final int HEADER_SIZE = 8;
+
+  private static final byte RECORD_STORE = 1;
+  private static final byte RECORD_ACCESS = 2;
+  private static final byte RECORD_REMOVE = 3;
+
+  @VisibleForTesting static final int MAX_KEY_BYTES = 32;
+  // type (1) + key length (1) + key + size (8) + last access millis (8).
+  @VisibleForTesting static final int RECORD_SIZE = 2 + MAX_KEY_BYTES + 8 + 8;
+  private static final int RECORDS_PER_MAPPING_INCREMENT = 64 * 1024;
+
+  private static final String LOG_FILE_NAME = "log";
+  private static final String LOCK_FILE_NAME = "lock";
+
+  private static class Entry {
+    private final long sizeBytes;
+    private long lastAccessMillis;
+
+    private Entry(long sizeBytes, long lastAccessMillis) {
+      this.sizeBytes = sizeBytes;
+      this.lastAccessMillis = lastAccessMillis;
+    }
+  }
+
+  private final Path logPath;
+  private final FileChannel lockChannel;
+  private final FileLock lock;
+  // Iteration order is least recently used first.
+  private final LinkedHashMap<RuleKey, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+  private FileChannel logChannel;
+  private MappedByteBuffer log;
+  private long totalSizeBytes;
+  private int recordCount;
+  private boolean reset;
+
+  private DirArtifactCacheIndex(Path logPath, FileChannel lockChannel, FileLock lock) {
+    this.logPath = logPath;
+    this.lockChannel = lockChannel;
+    this.lock = lock;
+  }
+
+  /**
+   * Opens, or creates, the index stored in {@code indexDir}.
+   *
+   * @return the index, or {@link Optional#empty()} if another process is already using it.
+   */
+  static Optional<DirArtifactCacheIndex> open(Path indexDir) throws IOException {
+    Files.createDirectories(indexDir);
+    FileChannel lockChannel =
+        FileChannel.open(
+            indexDir.resolve(LOCK_FILE_NAME), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    FileLock lock;
+    try {
+      lock = lockChannel.tryLock();
+    } catch (OverlappingFileLockException e) {
+      lock = null;
+    }
+    if (lock == null) {
+      LOG.debug("Dir cache index %s is in use by another process.", indexDir);
+      lockChannel.close();
+      return Optional.empty();
+    }
+
+    Path logPath = indexDir.resolve(LOG_FILE_NAME);
+    try {
+      DirArtifactCacheIndex index = new DirArtifactCacheIndex(logPath, lockChannel, lock);
+      index.load();
+      return Optional.of(index);
+    } catch (IOException | RuntimeException e) {
+      lock.release();
+      lockChannel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * @return whether the log did not exist, or could not be read, when the index was opened. The
+   *     owner should then repopulate the index from the cache directory.
+   */
+  boolean wasReset() {
+    return reset;
+  }
+
+  private void load() throws IOException {
+    logChannel =
+        FileChannel.open(
+            logPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    long fileSize = logChannel.size();
+    if (fileSize < HEADER_SIZE) {
+      resetLog();
+      return;
+    }
+    map(fileSize);
+    if (log.getInt(0) != MAGIC || log.getInt(4) != FORMAT_VERSION) {
+      LOG.warn("Dir cache index %s has an unknown format, discarding it.", logPath);
+      resetLog();
+      return;
+    }
+
+    byte[] keyBytes = new byte[MAX_KEY_BYTES];
+    int position = HEADER_SIZE;
+    while (position + RECORD_SIZE <= log.capacity()) {
+      byte type = log.get(position);
+      int keyLength = log.get(position + 1);
+      if (type < RECORD_STORE
+          || type > RECORD_REMOVE
+          || keyLength <= 0
+          || keyLength > MAX_KEY_BYTES) {
+        // Either the end of the log or a record torn by a crash; both end the replay.
+        break;
+      }
+      log.position(position + 2);
+      log.get(keyBytes, 0, keyLength);
+      RuleKey ruleKey = new RuleKey(HashCode.fromBytes(Arrays.copyOf(keyBytes, keyLength)));
+      long sizeBytes = log.getLong(position + 2 + MAX_KEY_BYTES);
+      long lastAccessMillis = log.getLong(position + 2 + MAX_KEY_BYTES + 8);
+      applyRecord(type, ruleKey, sizeBytes, lastAccessMillis);
+      position += RECORD_SIZE;
+      recordCount++;
+    }
+    log.position(position);
+  }
+
+  private void applyRecord(byte type, RuleKey ruleKey, long sizeBytes, long lastAccessMillis) {
+    switch (type) {
+      case RECORD_STORE:
+        removeEntry(ruleKey);
+        entries.put(ruleKey, new Entry(sizeBytes, lastAccessMillis));
+        totalSizeBytes += sizeBytes;
+        break;
+      case RECORD_ACCESS:
+        Entry entry = entries.get(ruleKey);
+        if (entry != null) {
+          entry.lastAccessMillis = lastAccessMillis;
+        }
+        break;
+      case RECORD_REMOVE:
+        removeEntry(ruleKey);
+        break;
+      default:
+        throw new IllegalStateException("Unknown record type " + type);
+    }
+  }
+
+  private boolean removeEntry(RuleKey ruleKey) {
+    Entry entry = entries.remove(ruleKey);
+    if (entry == null) {
+      return false;
+    }
+    totalSizeBytes -= entry.sizeBytes;
+    return true;
+  }
+
+  /** @return whether the index holds {@code ruleKey}, without counting this as an access. */
+  synchronized boolean contains(RuleKey ruleKey) {
+    return entries.containsKey(ruleKey);
+  }
+
+  /**
+   * Marks {@code ruleKey} as the most recently used entry.
+   *
+   * @return whether the index holds {@code ruleKey}.
+   */
+  synchronized boolean recordAccess(RuleKey ruleKey) throws IOException {
+    Entry entry = entries.get(ruleKey);
+    if (entry == null) {
+      return false;
+    }
+    entry.lastAccessMillis = System.currentTimeMillis();
+    append(RECORD_ACCESS, ruleKey, entry.sizeBytes, entry.lastAccessMillis);
+    return true;
+  }
+
+  /** Adds, or replaces, the entry for {@code ruleKey} as the most recently used one. */
+  synchronized void recordStore(RuleKey ruleKey, long sizeBytes) throws IOException {
+    recordStore(ruleKey, sizeBytes, System.currentTimeMillis());
+  }
+
+  synchronized void recordStore(RuleKey ruleKey, long sizeBytes, long lastAccessMillis)
+      throws IOException {
+    applyRecord(RECORD_STORE, ruleKey, sizeBytes, lastAccessMillis);
+    append(RECORD_STORE, ruleKey, sizeBytes, lastAccessMillis);
+  }
+
+  synchronized void recordRemove(RuleKey ruleKey) throws IOException {
+    if (removeEntry(ruleKey)) {
+      append(RECORD_REMOVE, ruleKey, 0, System.currentTimeMillis());
+    }
+  }
+
+  /** @return the total size of all entries in the index. */
+  synchronized long getTotalSizeBytes() {
+    return totalSizeBytes;
+  }
+
+  synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * Removes least recently used entries from the index until it holds at most {@code
+   * maxSizeBytes}. The cost is proportional to the number of evicted entries.
+   *
+   * @return the evicted keys, in the order they were evicted. The caller is responsible for
+   *     deleting their artifacts.
+   */
+  synchronized ImmutableList<RuleKey> evict(long maxSizeBytes) throws IOException {
+    ImmutableList.Builder<RuleKey> evicted = ImmutableList.builder();
+    Iterator<Map.Entry<RuleKey, Entry>> iterator = entries.entrySet().iterator();
+    while (totalSizeBytes > maxSizeBytes && iterator.hasNext()) {
+      Map.Entry<RuleKey, Entry> entry = iterator.next();
+      iterator.remove();
+      totalSizeBytes -= entry.getValue().sizeBytes;
+      append(RECORD_REMOVE, entry.getKey(), 0, System.currentTimeMillis());
+      evicted.add(entry.getKey());
+    }
+    return evicted.build();
+  }
+
+  private void append(byte type, RuleKey ruleKey, long sizeBytes, long lastAccessMillis)
+      throws IOException {
+    byte[] keyBytes = ruleKey.getHashCode().asBytes();
+    Preconditions.checkArgument(
+        keyBytes.length <= MAX_KEY_BYTES, "Rule key %s is too long to be indexed.", ruleKey);
+    if (log.remaining() < RECORD_SIZE) {
+      makeRoomForRecord();
+    }
+    int position = log.position();
+    // Write the type last so that a torn record is never mistaken for a complete one.
+    log.put(position + 1, (byte) keyBytes.length);
+    log.position(position + 2);
+    log.put(keyBytes);
+    log.putLong(position + 2 + MAX_KEY_BYTES, sizeBytes);
+    log.putLong(position + 2 + MAX_KEY_BYTES + 8, lastAccessMillis);
+    log.put(position, type);
+    log.position(position + RECORD_SIZE);
+    recordCount++;
+  }
+
+  private void makeRoomForRecord() throws IOException {
+    // Each live entry needs one record after compaction, so only compact when most of the log is
+    // made up of records that no longer matter; otherwise grow the mapping.
+    if (recordCount > 2 * entries.size() + RECORDS_PER_MAPPING_INCREMENT / 2) {
+      compact();
+    }
+    if (log.remaining() < RECORD_SIZE) {
+      int position = log.position();
+      map(log.capacity() + (long) RECORDS_PER_MAPPING_INCREMENT * RECORD_SIZE);
+      log.position(position);
+    }
+  }
+
+  /**
+   * Rewrites the log so that it only holds one record per live entry, in least recently used
+   * order. The new log is written next to the old one and moved into place, so a crash leaves
+   * either the old or the new log behind.
+   */
+  @VisibleForTesting
+  synchronized void compact() throws IOException {
+    Path tempPath = logPath.resolveSibling(logPath.getFileName() + ".tmp");
+    Files.deleteIfExists(tempPath);
+    try (FileChannel tempChannel =
+        FileChannel.open(
+            tempPath,
+            StandardOpenOption.CREATE_NEW,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE)) {
+      long capacity =
+          HEADER_SIZE + (long) (entries.size() + RECORDS_PER_MAPPING_INCREMENT) * RECORD_SIZE;
+      log = tempChannel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+      log.putInt(0, MAGIC);
+      log.putInt(4, FORMAT_VERSION);
+      log.position(HEADER_SIZE);
+      recordCount = 0;
+      for (Map.Entry<RuleKey, Entry> entry : entries.entrySet()) {
+        append(
+            RECORD_STORE,
+            entry.getKey(),
+            entry.getValue().sizeBytes,
+            entry.getValue().lastAccessMillis);
+      }
+      log.force();
+    }
+    int position = log.position();
+    logChannel.close();
+    Files.move(
+        tempPath, logPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    logChannel = FileChannel.open(logPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    map(logChannel.size());
+    log.position(position);
+  }
+
+  /** Drops every entry, e.g. before repopulating the index from the cache directory. */
+  synchronized void clear() throws IOException {
+    resetLog();
+  }
+
+  private void resetLog() throws IOException {
+    reset = true;
+    entries.clear();
+    totalSizeBytes = 0;
+    recordCount = 0;
+    logChannel.truncate(0);
+    map(HEADER_SIZE + (long) RECORDS_PER_MAPPING_INCREMENT * RECORD_SIZE);
+    log.putInt(0, MAGIC);
+    log.putInt(4, FORMAT_VERSION);
+    log.position(HEADER_SIZE);
+  }
+
+  private void map(long size) throws IOException {
+    Preconditions.checkState(
+        size <= Integer.MAX_VALUE, "Dir cache index %s is too large.", logPath);
+    log = logChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    try {
+      log.force();
+      logChannel.close();
+    } finally {
+      lock.release();
+      lockChannel.close();
+    }
+  }
+}
@@ -28,6 +28,7 @@ import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.util.Optional;
 import okhttp3.MediaType;
 import okhttp3.Request;
 import okhttp3.RequestBody;
@@ -45,8 +46,11 @@ public final class HttpArtifactCache extends AbstractNetworkCache {
    */
   private static final Logger LOG = Logger.get(HttpArtifactCache.class);
 
+  private final boolean streamingFetchEnabled;
+
   public HttpArtifactCache(NetworkCacheArgs args) {
     super(args);
+    this.streamingFetchEnabled = args.isStreamingFetchEnabled();
   }
 
   @Override
@@ -82,10 +86,21 @@ public final class HttpArtifactCache extends AbstractNetworkCache {
             getProjectFilesystem()
                 .createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
 
+        // When streaming, the artifact is also handed to the output as it arrives, so that it can
+        // be unpacked while downloading. The output has to wait for markPayloadVerified() below
+        // before trusting what it read.
+        Optional<StreamingFetchOutput> streamingOutput =
+            streamingFetchEnabled && output instanceof StreamingFetchOutput
+                ? Optional.of((StreamingFetchOutput) output)
+                : Optional.empty();
+        Optional<HttpArtifactCacheBinaryProtocol.PayloadConsumer> payloadConsumer =
+            streamingOutput.map(streaming -> streaming::streamPayload);
+
         FetchResponseReadResult fetchedData;
         try (OutputStream tempFileOutputStream = getProjectFilesystem().newFileOutputStream(temp)) {
           fetchedData =
-              HttpArtifactCacheBinaryProtocol.readFetchResponse(input, tempFileOutputStream);
+              HttpArtifactCacheBinaryProtocol.readFetchResponse(
+                  input, tempFileOutputStream, payloadConsumer);
         }
 
         resultBuilder
@@ -111,6 +126,8 @@ public final class HttpArtifactCache extends AbstractNetworkCache {
 
         // Finally, move the temp file into it's final place.
         getProjectFilesystem().move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        streamingOutput.ifPresent(
+            streaming -> streaming.markPayloadVerified(fetchedData.getResponseSizeBytes()));
 
         LOG.info("fetch(%s, %s): cache hit", response.requestUrl(), ruleKey);
         return resultBuilder
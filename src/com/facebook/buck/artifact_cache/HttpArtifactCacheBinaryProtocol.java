@@ -16,6 +16,7 @@
 
 package com.facebook.buck.artifact_cache;
 
+import com.facebook.buck.io.TeeInputStream;
 import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.util.hash.HasherInputStream;
 import com.facebook.buck.util.hash.HasherOutputStream;
@@ -30,6 +31,7 @@ import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
 import com.google.common.io.ByteSource;
 import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
@@ -38,6 +40,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Map;
+import java.util.Optional;
 import org.immutables.value.Value;
 
 /** Implements the binary protocol used by Buck to talk to the cache server. */
@@ -51,11 +54,33 @@ public class HttpArtifactCacheBinaryProtocol {
     // Utility class, don't instantiate.
   }
 
+  /** Reads the payload of a fetch response while it is being written to its sink. */
+  @FunctionalInterface
+  public interface PayloadConsumer {
+    /**
+     * Reads some or all of {@code payload}, stored with {@code metadata}. The bytes have not been
+     * verified against the checksum yet, and those which are not read are still written to the
+     * sink. Must not close {@code payload}.
+     */
+    void consume(ImmutableMap<String, String> metadata, InputStream payload) throws IOException;
+  }
+
   public static FetchResponseReadResult readFetchResponse(
       DataInputStream input, OutputStream payloadSink) throws IOException {
+    return readFetchResponse(input, payloadSink, Optional.empty());
+  }
+
+  /**
+   * Like {@link #readFetchResponse(DataInputStream, OutputStream)}, but also passes the payload to
+   * {@code payloadConsumer} as it arrives. Its results are only valid if the expected and actual
+   * hash codes of the returned result match.
+   */
+  public static FetchResponseReadResult readFetchResponse(
+      DataInputStream input, OutputStream payloadSink, Optional<PayloadConsumer> payloadConsumer)
+      throws IOException {
 
     MetadataAndPayloadReadResultInternal resultInternal =
-        readMetadataAndPayload(input, payloadSink);
+        readMetadataAndPayload(input, payloadSink, payloadConsumer);
 
     FetchResponseReadResult.Builder result = FetchResponseReadResult.builder().from(resultInternal);
     return result.build();
@@ -79,6 +104,12 @@ public class HttpArtifactCacheBinaryProtocol {
 
   public static MetadataAndPayloadReadResultInternal readMetadataAndPayload(
       DataInputStream input, OutputStream payloadSink) throws IOException {
+    return readMetadataAndPayload(input, payloadSink, Optional.empty());
+  }
+
+  private static MetadataAndPayloadReadResultInternal readMetadataAndPayload(
+      DataInputStream input, OutputStream payloadSink, Optional<PayloadConsumer> payloadConsumer)
+      throws IOException {
     // Read the size of a the metadata, and use that to build a input stream to read and
     // process the rest of it.
     int metadataSize = input.readInt();
@@ -90,6 +121,7 @@ public class HttpArtifactCacheBinaryProtocol {
     // Create a hasher to be used to generate a hash of the metadata and input.  We'll use
     // this to compare against the embedded checksum.
     Hasher hasher = HASH_FUNCTION.newHasher();
+    ImmutableMap<String, String> metadata;
     byte[] rawMetadata = new byte[metadataSize];
     ByteStreams.readFully(input, rawMetadata);
     try (InputStream rawMetadataIn = new ByteArrayInputStream(rawMetadata)) {
@@ -107,13 +139,16 @@ public class HttpArtifactCacheBinaryProtocol {
 
         // Read in the actual metadata map, and add it the hash.
         size = metadataIn.readInt();
+        ImmutableMap.Builder<String, String> metadataBuilder = ImmutableMap.builder();
         for (int i = 0; i < size; i++) {
           String key = metadataIn.readUTF();
           int valSize = metadataIn.readInt();
           byte[] val = new byte[valSize];
           ByteStreams.readFully(metadataIn, val);
-          result.putMetadata(key, new String(val, Charsets.UTF_8));
+          metadataBuilder.put(key, new String(val, Charsets.UTF_8));
         }
+        metadata = metadataBuilder.build();
+        result.putAllMetadata(metadata);
       }
 
       // Next, read in the embedded expected checksum, which should be the last byte in
@@ -128,7 +163,17 @@ public class HttpArtifactCacheBinaryProtocol {
     Hasher artifactOnlyHasher = HASH_FUNCTION.newHasher();
     try (InputStream payload =
         new HasherInputStream(artifactOnlyHasher, new HasherInputStream(hasher, input))) {
-      result.setResponseSizeBytes(ByteStreams.copy(payload, payloadSink));
+      if (payloadConsumer.isPresent()) {
+        CountingOutputStream countingSink = new CountingOutputStream(payloadSink);
+        try (InputStream teePayload = new TeeInputStream(payload, countingSink)) {
+          payloadConsumer.get().consume(metadata, teePayload);
+          // The consumer may stop before the end, e.g. at the central directory of a zip file.
+          ByteStreams.copy(teePayload, ByteStreams.nullOutputStream());
+        }
+        result.setResponseSizeBytes(countingSink.getCount());
+      } else {
+        result.setResponseSizeBytes(ByteStreams.copy(payload, payloadSink));
+      }
       result.setArtifactOnlyHashCode(artifactOnlyHasher.hash());
     }
 
@@ -23,12 +23,21 @@ import com.facebook.buck.util.MoreCollectors;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Functions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import javax.annotation.Nullable;
 
 /**
  * MultiArtifactCache encapsulates a set of ArtifactCache instances such that fetch() succeeds if
@@ -93,6 +102,131 @@ public class MultiArtifactCache implements ArtifactCache {
         MoreExecutors.directExecutor());
   }
 
+  /**
+   * Fetch the artifacts of several rule keys. Each encapsulated ArtifactCache is asked for all the
+   * rule keys which the caches before it did not have, in a single batch, and the artifacts found
+   * are propagated to the previous writable caches like in {@link #fetchAsync}.
+   */
+  @Override
+  public ImmutableMap<RuleKey, ListenableFuture<CacheResult>> multiFetchAsync(
+      ImmutableMap<RuleKey, LazyPath> requests) {
+    ImmutableMap<RuleKey, SettableFuture<CacheResult>> results =
+        ImmutableMap.copyOf(Maps.toMap(requests.keySet(), ruleKey -> SettableFuture.create()));
+    if (artifactCaches.isEmpty()) {
+      results.values().forEach(future -> future.set(CacheResult.miss()));
+    } else {
+      multiFetchFromCache(0, requests, ImmutableList.of(), results);
+    }
+    return ImmutableMap.copyOf(results);
+  }
+
+  private void multiFetchFromCache(
+      int cacheIndex,
+      ImmutableMap<RuleKey, LazyPath> requests,
+      ImmutableList<ArtifactCache> cachesToFill,
+      ImmutableMap<RuleKey, SettableFuture<CacheResult>> results) {
+    ArtifactCache artifactCache = artifactCaches.get(cacheIndex);
+    boolean isLastCache = cacheIndex == artifactCaches.size() - 1;
+    ImmutableList<ArtifactCache> nextCachesToFill =
+        artifactCache.getCacheReadMode().isWritable()
+            ? ImmutableList.<ArtifactCache>builder().addAll(cachesToFill).add(artifactCache).build()
+            : cachesToFill;
+    ImmutableMap<RuleKey, ListenableFuture<CacheResult>> fetches =
+        artifactCache.multiFetchAsync(requests);
+    Futures.addCallback(
+        Futures.successfulAsList(fetches.values()),
+        new FutureCallback<List<CacheResult>>() {
+          @Override
+          public void onSuccess(@Nullable List<CacheResult> ignored) {
+            ImmutableMap.Builder<RuleKey, LazyPath> misses = ImmutableMap.builder();
+            for (Map.Entry<RuleKey, ListenableFuture<CacheResult>> fetch : fetches.entrySet()) {
+              RuleKey ruleKey = fetch.getKey();
+              CacheResult result;
+              try {
+                result = Futures.getUnchecked(fetch.getValue());
+              } catch (UncheckedExecutionException e) {
+                results.get(ruleKey).setException(e.getCause());
+                continue;
+              }
+              if (result.getType().isSuccess()) {
+                storeToCaches(
+                    cachesToFill,
+                    ArtifactInfo.builder()
+                        .addRuleKeys(ruleKey)
+                        .setMetadata(result.getMetadata())
+                        .build(),
+                    BorrowablePath.notBorrowablePath(requests.get(ruleKey).getUnchecked()));
+                results.get(ruleKey).set(result);
+              } else if (isLastCache) {
+                results.get(ruleKey).set(result);
+              } else {
+                misses.put(ruleKey, requests.get(ruleKey));
+              }
+            }
+            ImmutableMap<RuleKey, LazyPath> nextRequests = misses.build();
+            if (!nextRequests.isEmpty()) {
+              multiFetchFromCache(cacheIndex + 1, nextRequests, nextCachesToFill, results);
+            }
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            // successfulAsList() never fails.
+            throw new IllegalStateException(t);
+          }
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  /**
+   * Check which of several rule keys any of the encapsulated ArtifactCaches has an artifact for.
+   * Each cache is only asked about the rule keys which the caches before it do not have.
+   */
+  @Override
+  public ListenableFuture<ImmutableMap<RuleKey, CacheResult>> multiContainsAsync(
+      ImmutableSet<RuleKey> ruleKeys) {
+    ListenableFuture<ImmutableMap<RuleKey, CacheResult>> results =
+        Futures.immediateFuture(Maps.toMap(ruleKeys, ruleKey -> CacheResult.miss()));
+    for (ArtifactCache artifactCache : artifactCaches) {
+      results =
+          Futures.transformAsync(
+              results,
+              previous -> {
+                ImmutableSet<RuleKey> remaining =
+                    previous
+                        .entrySet()
+                        .stream()
+                        .filter(entry -> entry.getValue().getType() != CacheResultType.CONTAINS)
+                        .map(Map.Entry::getKey)
+                        .collect(MoreCollectors.toImmutableSet());
+                if (remaining.isEmpty()) {
+                  return Futures.immediateFuture(previous);
+                }
+                return Futures.transform(
+                    artifactCache.multiContainsAsync(remaining),
+                    (ImmutableMap<RuleKey, CacheResult> found) ->
+                        mergeContainsResults(previous, found),
+                    MoreExecutors.directExecutor());
+              },
+              MoreExecutors.directExecutor());
+    }
+    return results;
+  }
+
+  private static ImmutableMap<RuleKey, CacheResult> mergeContainsResults(
+      ImmutableMap<RuleKey, CacheResult> previous, ImmutableMap<RuleKey, CacheResult> found) {
+    Map<RuleKey, CacheResult> merged = new HashMap<>(previous);
+    for (Map.Entry<RuleKey, CacheResult> entry : found.entrySet()) {
+      // A cache which could not tell keeps the answer open, even if a later cache misses.
+      if (entry.getValue().getType() == CacheResultType.MISS
+          && previous.get(entry.getKey()).getType() == CacheResultType.SKIPPED) {
+        continue;
+      }
+      merged.put(entry.getKey(), entry.getValue());
+    }
+    return ImmutableMap.copyOf(merged);
+  }
+
   private static ListenableFuture<Void> storeToCaches(
       ImmutableList<ArtifactCache> caches, ArtifactInfo info, BorrowablePath output) {
     // TODO(cjhopman): support BorrowablePath with multiple writable caches.
@@ -24,6 +24,9 @@ import com.facebook.buck.log.Logger;
 import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.slb.NoHealthyServersException;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import java.util.ArrayList;
@@ -53,8 +56,26 @@ public class RetryingCacheDecorator implements ArtifactCache, CacheDecorator {
 
   @Override
   public ListenableFuture<CacheResult> fetchAsync(RuleKey ruleKey, LazyPath output) {
+    return retryFetchOnError(ruleKey, output, delegate.fetchAsync(ruleKey, output));
+  }
+
+  @Override
+  public ImmutableMap<RuleKey, ListenableFuture<CacheResult>> multiFetchAsync(
+      ImmutableMap<RuleKey, LazyPath> requests) {
+    // The first attempt is batched, the retries of the keys which failed are not.
+    ImmutableMap<RuleKey, ListenableFuture<CacheResult>> firstAttempts =
+        delegate.multiFetchAsync(requests);
+    return ImmutableMap.copyOf(
+        Maps.transformEntries(
+            firstAttempts,
+            (ruleKey, firstAttempt) ->
+                retryFetchOnError(ruleKey, requests.get(ruleKey), firstAttempt)));
+  }
+
+  private ListenableFuture<CacheResult> retryFetchOnError(
+      RuleKey ruleKey, LazyPath output, ListenableFuture<CacheResult> firstAttempt) {
     List<String> allCacheErrors = new ArrayList<>();
-    ListenableFuture<CacheResult> resultFuture = delegate.fetchAsync(ruleKey, output);
+    ListenableFuture<CacheResult> resultFuture = firstAttempt;
     for (int retryCount = 1; retryCount < maxFetchRetries; retryCount++) {
       int retryCountForLambda = retryCount;
       resultFuture =
@@ -88,6 +109,12 @@ public class RetryingCacheDecorator implements ArtifactCache, CacheDecorator {
         });
   }
 
+  @Override
+  public ListenableFuture<ImmutableMap<RuleKey, CacheResult>> multiContainsAsync(
+      ImmutableSet<RuleKey> ruleKeys) {
+    return delegate.multiContainsAsync(ruleKeys);
+  }
+
   @Override
   public ArtifactCache getDelegate() {
     return delegate;
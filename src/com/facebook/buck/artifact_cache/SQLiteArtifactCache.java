@@ -89,6 +89,7 @@ public class SQLiteArtifactCache implements ArtifactCache {
   private final Optional<Long> maxBytesAfterDeletion;
   private final long maxInlinedBytes;
   private final CacheReadMode cacheMode;
+  private final Optional<ContentAddressedBlobStore> blobStore;
 
   private final ConnectionInfo db;
 
@@ -105,6 +106,31 @@ public class SQLiteArtifactCache implements ArtifactCache {
       Optional<Long> maxInlinedSizeBytes,
       CacheReadMode cacheMode)
       throws IOException, SQLException {
+    this(
+        name,
+        filesystem,
+        cacheDir,
+        eventBus,
+        maxCacheSizeBytes,
+        maxInlinedSizeBytes,
+        cacheMode,
+        Optional.empty());
+  }
+
+  /**
+   * @param blobStore if present, artifacts too large to be inlined are stored once per distinct
+   *     payload in this store, and the files referenced by the database are hard links to them.
+   */
+  SQLiteArtifactCache(
+      String name,
+      ProjectFilesystem filesystem,
+      Path cacheDir,
+      BuckEventBus eventBus,
+      Optional<Long> maxCacheSizeBytes,
+      Optional<Long> maxInlinedSizeBytes,
+      CacheReadMode cacheMode,
+      Optional<ContentAddressedBlobStore> blobStore)
+      throws IOException, SQLException {
     this.name = name;
     this.filesystem = filesystem;
     this.cacheDir = cacheDir;
@@ -114,6 +140,7 @@ public class SQLiteArtifactCache implements ArtifactCache {
         maxCacheSizeBytes.map(size -> (long) (size * MAX_BYTES_TRIM_RATIO));
     this.maxInlinedBytes = maxInlinedSizeBytes.orElse(DEFAULT_MAX_INLINED_BYTES);
     this.cacheMode = cacheMode;
+    this.blobStore = blobStore;
 
     try {
       Class.forName("org.sqlite.JDBC");
@@ -168,7 +195,8 @@ public class SQLiteArtifactCache implements ArtifactCache {
           // artifact was inlined into the database as a blob
           filesystem.writeBytesToPath(artifact, output.get());
         } else if (filesystem.exists(filesystem.resolve(filepath))) {
-          // artifact stored on disk with path in database
+          // artifact stored on disk with path in database, which may be shared through the blob
+          // store, so it is copied rather than linked in case the output is rewritten in place
           filesystem.copyFile(filesystem.resolve(filepath), output.get());
         } else {
           // artifact stored on disk was removed by another cache, remove database entry
@@ -280,7 +308,9 @@ public class SQLiteArtifactCache implements ArtifactCache {
         Path artifactPath = getArtifactPath(toStore.iterator().next());
         filesystem.mkdirs(artifactPath.getParent());
 
-        if (content.canBorrow()) {
+        if (blobStore.isPresent()) {
+          blobStore.get().store(content, artifactPath);
+        } else if (content.canBorrow()) {
           filesystem.move(content.getPath(), artifactPath, StandardCopyOption.REPLACE_EXISTING);
         } else {
           storeArtifactOutput(content.getPath(), artifactPath);
@@ -412,6 +442,10 @@ public class SQLiteArtifactCache implements ArtifactCache {
       for (String filepath : contentToEvict.getFirst()) {
         MoreFiles.deleteRecursivelyIfExists(filesystem.resolve(filepath));
       }
+      // The database does not know which blobs the deleted files linked to.
+      if (blobStore.isPresent()) {
+        blobStore.get().collectGarbage();
+      }
 
       Timestamp evictionCutoff = contentToEvict.getSecond();
       int deleted = db.deleteContent(evictionCutoff);
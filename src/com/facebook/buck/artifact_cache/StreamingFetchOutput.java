@@ -0,0 +1,75 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.io.file.LazyPath;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A {@link LazyPath} to fetch an artifact into, which can also read the artifact while it is being
+ * downloaded, e.g. to unpack it without waiting for the download to finish.
+ *
+ * <p>Caches which support it pass the payload to {@link #consumePayload} as it arrives, and call
+ * {@link #markPayloadVerified} once its checksum matched and it has been moved to the path. Other
+ * caches just write the artifact to the path, so callers have to check {@link
+ * #isPayloadConsumed()} once the fetch completed. The first-level entries of a two-level cache are
+ * not artifacts, so their payloads are not passed on.
+ */
+public abstract class StreamingFetchOutput extends LazyPath {
+
+  private volatile boolean payloadStreamed = false;
+  private volatile long verifiedSizeBytes = -1;
+
+  /**
+   * Reads some or all of the payload of a fetch. The bytes have not been verified yet, and this
+   * may be called again if the fetch is retried or goes to another cache. Must not close {@code
+   * payload}.
+   */
+  protected abstract void consumePayload(InputStream payload) throws IOException;
+
+  /**
+   * Passes the payload of a fetch which is still in progress, and whose metadata is {@code
+   * metadata}, to {@link #consumePayload}.
+   */
+  public final void streamPayload(ImmutableMap<String, String> metadata, InputStream payload)
+      throws IOException {
+    verifiedSizeBytes = -1;
+    payloadStreamed = !metadata.containsKey(TwoLevelArtifactCacheDecorator.METADATA_KEY);
+    if (payloadStreamed) {
+      consumePayload(payload);
+    }
+  }
+
+  /** Records that the payload last passed to {@link #streamPayload} has been verified. */
+  public final void markPayloadVerified(long sizeBytes) {
+    verifiedSizeBytes = payloadStreamed ? sizeBytes : -1;
+  }
+
+  /**
+   * Returns whether the artifact at this path is the verified payload last passed to {@link
+   * #consumePayload}. This is not the case if, for instance, the payload was only a first-level
+   * entry of a two-level cache and the artifact itself was then fetched from another cache.
+   */
+  public final boolean isPayloadConsumed() throws IOException {
+    Path path = getUnchecked();
+    return verifiedSizeBytes >= 0 && Files.size(path) == verifiedSizeBytes;
+  }
+}
@@ -27,10 +27,10 @@ import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.util.HumanReadableException;
-import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Functions;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.AsyncFunction;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -52,7 +52,7 @@ import java.util.Optional;
  */
 public class TwoLevelArtifactCacheDecorator implements ArtifactCache, CacheDecorator {
 
-  @VisibleForTesting static final String METADATA_KEY = "TWO_LEVEL_CACHE_CONTENT_HASH";
+  static final String METADATA_KEY = "TWO_LEVEL_CACHE_CONTENT_HASH";
   private static final String COUNTER_CATEGORY = "buck_two_level_cache_stats";
 
   private static final Logger LOG = Logger.get(TwoLevelArtifactCacheDecorator.class);
@@ -113,8 +113,32 @@ public class TwoLevelArtifactCacheDecorator implements ArtifactCache, CacheDecor
 
   @Override
   public ListenableFuture<CacheResult> fetchAsync(RuleKey ruleKey, LazyPath output) {
+    return fetchSecondLevel(delegate.fetchAsync(ruleKey, output), output);
+  }
+
+  @Override
+  public ImmutableMap<RuleKey, ListenableFuture<CacheResult>> multiFetchAsync(
+      ImmutableMap<RuleKey, LazyPath> requests) {
+    // The first-level lookups are batched, the second-level ones are made as each of them returns.
+    ImmutableMap<RuleKey, ListenableFuture<CacheResult>> firstLevelResults =
+        delegate.multiFetchAsync(requests);
+    return ImmutableMap.copyOf(
+        Maps.transformEntries(
+            firstLevelResults,
+            (ruleKey, firstLevelResult) ->
+                fetchSecondLevel(firstLevelResult, requests.get(ruleKey))));
+  }
+
+  @Override
+  public ListenableFuture<ImmutableMap<RuleKey, CacheResult>> multiContainsAsync(
+      ImmutableSet<RuleKey> ruleKeys) {
+    return delegate.multiContainsAsync(ruleKeys);
+  }
+
+  private ListenableFuture<CacheResult> fetchSecondLevel(
+      ListenableFuture<CacheResult> firstLevelResult, LazyPath output) {
     return Futures.transformAsync(
-        delegate.fetchAsync(ruleKey, output),
+        firstLevelResult,
         (CacheResult fetchResult) -> {
           if (!fetchResult.getType().isSuccess()) {
             LOG.verbose("Missed first-level lookup.");
@@ -0,0 +1,707 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.bser;
+
+import static com.facebook.buck.bser.BserConstants.BSER_ARRAY;
+import static com.facebook.buck.bser.BserConstants.BSER_FALSE;
+import static com.facebook.buck.bser.BserConstants.BSER_INT16;
+import static com.facebook.buck.bser.BserConstants.BSER_INT32;
+import static com.facebook.buck.bser.BserConstants.BSER_INT64;
+import static com.facebook.buck.bser.BserConstants.BSER_INT8;
+import static com.facebook.buck.bser.BserConstants.BSER_NULL;
+import static com.facebook.buck.bser.BserConstants.BSER_OBJECT;
+import static com.facebook.buck.bser.BserConstants.BSER_REAL;
+import static com.facebook.buck.bser.BserConstants.BSER_SKIP;
+import static com.facebook.buck.bser.BserConstants.BSER_STRING;
+import static com.facebook.buck.bser.BserConstants.BSER_TEMPLATE;
+import static com.facebook.buck.bser.BserConstants.BSER_TRUE;
+
+import com.google.common.io.ByteStreams;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Pull-based reader of one BSER-encoded value, which decodes it as it is read from the stream
+ * rather than materializing it as nested {@link Map}s and {@link List}s like {@link
+ * BserDeserializer} does. Callers walk the value like they would with a JSON reader, decode the
+ * fields they need directly into their own types, and skip the others without decoding them:
+ *
+ * <pre>
+ *   reader.beginObject();
+ *   while (reader.hasNext()) {
+ *     switch (reader.nextName()) {
+ *       case "clock":
+ *         clock = reader.nextString();
+ *         break;
+ *       default:
+ *         reader.skipValue();
+ *     }
+ *   }
+ *   reader.endObject();
+ * </pre>
+ *
+ * <p>Templates are read as arrays of objects, whose fields are the keys of the template which have
+ * a value in that object. Only the bytes of the value are read from the stream, so that whatever
+ * follows it can be read once {@link #finish()} is called.
+ */
+public class BserReader {
+
+  /** Decodes a BSER-encoded value into some type, as it is read. */
+  @FunctionalInterface
+  public interface Decoder<T> {
+    T decode(BserReader reader) throws IOException;
+  }
+
+  /** The kinds of values which can be read next. */
+  public enum Token {
+    ARRAY,
+    OBJECT,
+    STRING,
+    NUMBER,
+    BOOLEAN,
+    NULL,
+  }
+
+  private static final int BUFFER_SIZE = 16 * 1024;
+
+  // 2 bytes marker, 1 byte int size, up to 8 bytes int64 value
+  private static final int MAX_HEADER_SIZE = 11;
+
+  private static final int NO_TYPE = -1;
+
+  private static final int FRAME_ARRAY = 0;
+  private static final int FRAME_OBJECT = 1;
+  private static final int FRAME_TEMPLATE = 2;
+  private static final int FRAME_TEMPLATE_OBJECT = 3;
+
+  private final InputStream input;
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private final ByteBuffer numberView = ByteBuffer.wrap(buffer).order(ByteOrder.nativeOrder());
+  private final CharsetDecoder utf8Decoder =
+      StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPORT);
+  private int position = 0;
+  private int limit = 0;
+  // Bytes of the value which were not read into the buffer yet.
+  private long unreadBytes;
+
+  // The type of the next value, once it has been read from the stream.
+  private int peekedType = NO_TYPE;
+  private boolean valueRead = false;
+
+  // The arrays and objects which are being read, innermost last.
+  private int depth = 0;
+  private int[] frameKinds = new int[16];
+  // Elements of arrays, or fields of objects, which were not read yet.
+  private int[] frameRemaining = new int[16];
+  private boolean[] frameNameRead = new boolean[16];
+  private String[][] frameKeys = new String[16][];
+  private int[] frameKeyIndex = new int[16];
+
+  private BserReader(InputStream input, long length) {
+    this.input = input;
+    this.unreadBytes = length;
+  }
+
+  /** Reads the header of the next BSER-encoded value from the stream, and returns its reader. */
+  public static BserReader forNextValue(InputStream input) throws IOException {
+    byte[] header = new byte[MAX_HEADER_SIZE];
+    int headerBytesRead = ByteStreams.read(input, header, 0, 3);
+    if (headerBytesRead < 3) {
+      throw new BserDeserializer.BserEofException(
+          String.format(
+              "Invalid BSER header (expected %d bytes, got %d bytes)", 3, headerBytesRead));
+    }
+    if (header[0] != 0x00 || header[1] != 0x01) {
+      throw new IOException("Invalid BSER header");
+    }
+
+    byte lengthType = header[2];
+    int lengthSize = getIntegerSize(lengthType);
+    int lengthBytesRead = ByteStreams.read(input, header, 3, lengthSize);
+    if (lengthBytesRead < lengthSize) {
+      throw new BserDeserializer.BserEofException(
+          String.format(
+              "Invalid BSER header length (expected %d bytes, got %d bytes)",
+              lengthSize, lengthBytesRead));
+    }
+    ByteBuffer lengthView = ByteBuffer.wrap(header, 3, lengthSize).order(ByteOrder.nativeOrder());
+    long length = readInteger(lengthView, 3, lengthType);
+    if (length < 0) {
+      throw new IOException(String.format("BSER length out of range (%d < 0)", length));
+    }
+    return new BserReader(input, length);
+  }
+
+  /** @return the kind of the next value, without reading it. */
+  public Token peek() throws IOException {
+    int type = peekType();
+    switch (type) {
+      case BSER_ARRAY:
+      case BSER_TEMPLATE:
+        return Token.ARRAY;
+      case BSER_OBJECT:
+        return Token.OBJECT;
+      case BSER_STRING:
+        return Token.STRING;
+      case BSER_INT8:
+      case BSER_INT16:
+      case BSER_INT32:
+      case BSER_INT64:
+      case BSER_REAL:
+        return Token.NUMBER;
+      case BSER_TRUE:
+      case BSER_FALSE:
+        return Token.BOOLEAN;
+      case BSER_NULL:
+        return Token.NULL;
+      default:
+        throw new IOException(String.format("Unrecognized BSER value type %d", type));
+    }
+  }
+
+  /**
+   * Starts reading an array, or a template, whose elements are then read until {@link #hasNext()}
+   * returns false.
+   *
+   * @return the number of elements of the array.
+   */
+  public int beginArray() throws IOException {
+    int type = consumeType();
+    if (type == BSER_ARRAY) {
+      int count = readCount();
+      pushFrame(FRAME_ARRAY, count, null);
+      return count;
+    } else if (type == BSER_TEMPLATE) {
+      String[] keys = readTemplateKeys();
+      int count = readCount();
+      pushFrame(FRAME_TEMPLATE, count, keys);
+      return count;
+    }
+    throw unexpectedType(type, "an array");
+  }
+
+  public void endArray() {
+    int kind = topFrameKind();
+    if ((kind != FRAME_ARRAY && kind != FRAME_TEMPLATE) || frameRemaining[depth - 1] != 0) {
+      throw new IllegalStateException("Not at the end of an array.");
+    }
+    depth--;
+  }
+
+  /**
+   * Starts reading an object, whose fields are then read with {@link #nextName()} and the next
+   * value until {@link #hasNext()} returns false.
+   */
+  public void beginObject() throws IOException {
+    if (topFrameKind() == FRAME_TEMPLATE) {
+      String[] keys = frameKeys[depth - 1];
+      consumeType();
+      pushFrame(FRAME_TEMPLATE_OBJECT, 0, keys);
+      return;
+    }
+    int type = consumeType();
+    if (type != BSER_OBJECT) {
+      throw unexpectedType(type, "an object");
+    }
+    pushFrame(FRAME_OBJECT, readCount(), null);
+  }
+
+  public void endObject() throws IOException {
+    int kind = topFrameKind();
+    if ((kind != FRAME_OBJECT && kind != FRAME_TEMPLATE_OBJECT)
+        || frameNameRead[depth - 1]
+        || hasNext()) {
+      throw new IllegalStateException("Not at the end of an object.");
+    }
+    depth--;
+  }
+
+  /** @return whether the array or object being read has more elements or fields. */
+  public boolean hasNext() throws IOException {
+    switch (topFrameKind()) {
+      case FRAME_ARRAY:
+      case FRAME_TEMPLATE:
+      case FRAME_OBJECT:
+        return frameRemaining[depth - 1] > 0;
+      case FRAME_TEMPLATE_OBJECT:
+        if (frameNameRead[depth - 1]) {
+          return true;
+        }
+        String[] keys = frameKeys[depth - 1];
+        // Keys which have no value in this object are followed by a skip marker.
+        while (frameKeyIndex[depth - 1] < keys.length) {
+          if (peekedType == NO_TYPE) {
+            peekedType = readByte();
+          }
+          if (peekedType != BSER_SKIP) {
+            return true;
+          }
+          peekedType = NO_TYPE;
+          frameKeyIndex[depth - 1]++;
+        }
+        return false;
+      default:
+        throw new IllegalStateException("Not in an array or an object.");
+    }
+  }
+
+  /** @return the name of the next field of the object being read, whose value is read next. */
+  public String nextName() throws IOException {
+    int kind = topFrameKind();
+    if ((kind != FRAME_OBJECT && kind != FRAME_TEMPLATE_OBJECT) || frameNameRead[depth - 1]) {
+      throw new IllegalStateException("Not expecting the name of a field.");
+    }
+    if (!hasNext()) {
+      throw new IllegalStateException("No more fields in the object.");
+    }
+    String name;
+    if (kind == FRAME_OBJECT) {
+      int keyType = readByte();
+      if (keyType != BSER_STRING) {
+        throw new IOException(
+            String.format("Unrecognized BSER object key type %d, expected string", keyType));
+      }
+      name = readString();
+      frameRemaining[depth - 1]--;
+    } else {
+      name = frameKeys[depth - 1][frameKeyIndex[depth - 1]++];
+    }
+    frameNameRead[depth - 1] = true;
+    return name;
+  }
+
+  public String nextString() throws IOException {
+    int type = consumeType();
+    if (type != BSER_STRING) {
+      throw unexpectedType(type, "a string");
+    }
+    return readString();
+  }
+
+  /** @return the next number, boxed like {@link BserDeserializer} boxes them. */
+  public Number nextNumber() throws IOException {
+    int type = consumeType();
+    if (type == BSER_REAL) {
+      return readDouble();
+    }
+    long value = readInteger(type);
+    switch (type) {
+      case BSER_INT8:
+        return (byte) value;
+      case BSER_INT16:
+        return (short) value;
+      case BSER_INT32:
+        return (int) value;
+      default:
+        return value;
+    }
+  }
+
+  public long nextLong() throws IOException {
+    return readInteger(consumeType());
+  }
+
+  public int nextInt() throws IOException {
+    long value = nextLong();
+    if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+      throw new IOException(String.format("BSER integer %d does not fit in an int", value));
+    }
+    return (int) value;
+  }
+
+  public double nextDouble() throws IOException {
+    int type = consumeType();
+    return type == BSER_REAL ? readDouble() : readInteger(type);
+  }
+
+  public boolean nextBoolean() throws IOException {
+    int type = consumeType();
+    if (type == BSER_TRUE) {
+      return true;
+    } else if (type == BSER_FALSE) {
+      return false;
+    }
+    throw unexpectedType(type, "a boolean");
+  }
+
+  public void nextNull() throws IOException {
+    int type = consumeType();
+    if (type != BSER_NULL) {
+      throw unexpectedType(type, "null");
+    }
+  }
+
+  /** Skips the next value, and everything it contains, without decoding it. */
+  public void skipValue() throws IOException {
+    if (topFrameKind() == FRAME_TEMPLATE) {
+      int keyCount = frameKeys[depth - 1].length;
+      consumeType();
+      skipTemplateObject(keyCount);
+    } else {
+      skipValueOfType(consumeType());
+    }
+  }
+
+  /**
+   * Reads the next value like {@link BserDeserializer} would, for the parts of a value which are
+   * not worth decoding into a type of their own.
+   *
+   * @return either a {@link String}, {@link Number}, {@link Boolean}, {@link List}, {@link Map},
+   *     or {@code null}.
+   */
+  @Nullable
+  public Object readValue() throws IOException {
+    switch (peek()) {
+      case ARRAY:
+        List<Object> list = new ArrayList<>(beginArray());
+        while (hasNext()) {
+          list.add(readValue());
+        }
+        endArray();
+        return list;
+      case OBJECT:
+        Map<String, Object> map = new LinkedHashMap<>();
+        beginObject();
+        while (hasNext()) {
+          map.put(nextName(), readValue());
+        }
+        endObject();
+        return map;
+      case STRING:
+        return nextString();
+      case NUMBER:
+        return nextNumber();
+      case BOOLEAN:
+        return nextBoolean();
+      case NULL:
+        nextNull();
+        return null;
+    }
+    throw new IllegalStateException();
+  }
+
+  /**
+   * Skips whatever is left of the value, so that the stream is positioned at whatever follows it.
+   */
+  public void finish() throws IOException {
+    skipBytes(limit - position + unreadBytes);
+    depth = 0;
+    peekedType = NO_TYPE;
+    valueRead = true;
+  }
+
+  private int topFrameKind() {
+    return depth == 0 ? NO_TYPE : frameKinds[depth - 1];
+  }
+
+  private void pushFrame(int kind, int remaining, @Nullable String[] keys) {
+    if (depth == frameKinds.length) {
+      int newLength = depth * 2;
+      frameKinds = Arrays.copyOf(frameKinds, newLength);
+      frameRemaining = Arrays.copyOf(frameRemaining, newLength);
+      frameNameRead = Arrays.copyOf(frameNameRead, newLength);
+      frameKeys = Arrays.copyOf(frameKeys, newLength);
+      frameKeyIndex = Arrays.copyOf(frameKeyIndex, newLength);
+    }
+    frameKinds[depth] = kind;
+    frameRemaining[depth] = remaining;
+    frameNameRead[depth] = false;
+    frameKeys[depth] = keys;
+    frameKeyIndex[depth] = 0;
+    depth++;
+  }
+
+  /** @return the type of the next value, reading it from the stream if need be. */
+  private int peekType() throws IOException {
+    if (peekedType != NO_TYPE) {
+      return peekedType;
+    }
+    switch (topFrameKind()) {
+      case NO_TYPE:
+        if (valueRead) {
+          throw new IllegalStateException("The value was read already.");
+        }
+        break;
+      case FRAME_ARRAY:
+        if (frameRemaining[depth - 1] == 0) {
+          throw new IllegalStateException("No more elements in the array.");
+        }
+        break;
+      case FRAME_TEMPLATE:
+        if (frameRemaining[depth - 1] == 0) {
+          throw new IllegalStateException("No more elements in the array.");
+        }
+        // The elements of templates are objects, which have no type of their own in the stream.
+        peekedType = BSER_OBJECT;
+        return peekedType;
+      default:
+        if (!frameNameRead[depth - 1]) {
+          throw new IllegalStateException("Expected the name of a field.");
+        }
+        break;
+    }
+    peekedType = readByte();
+    return peekedType;
+  }
+
+  /** @return the type of the next value, which is then read by the caller. */
+  private int consumeType() throws IOException {
+    int type = peekType();
+    peekedType = NO_TYPE;
+    switch (topFrameKind()) {
+      case NO_TYPE:
+        valueRead = true;
+        break;
+      case FRAME_ARRAY:
+      case FRAME_TEMPLATE:
+        frameRemaining[depth - 1]--;
+        break;
+      default:
+        frameNameRead[depth - 1] = false;
+        break;
+    }
+    return type;
+  }
+
+  private void skipValueOfType(int type) throws IOException {
+    switch (type) {
+      case BSER_INT8:
+      case BSER_INT16:
+      case BSER_INT32:
+      case BSER_INT64:
+        skipBytes(getIntegerSize((byte) type));
+        return;
+      case BSER_REAL:
+        skipBytes(8);
+        return;
+      case BSER_TRUE:
+      case BSER_FALSE:
+      case BSER_NULL:
+        return;
+      case BSER_STRING:
+        skipBytes(readCount());
+        return;
+      case BSER_ARRAY:
+        for (int count = readCount(); count > 0; count--) {
+          skipValueOfType(readByte());
+        }
+        return;
+      case BSER_OBJECT:
+        for (int count = readCount(); count > 0; count--) {
+          skipValueOfType(readByte());
+          skipValueOfType(readByte());
+        }
+        return;
+      case BSER_TEMPLATE:
+        int keyCount = readTemplateKeys().length;
+        for (int count = readCount(); count > 0; count--) {
+          skipTemplateObject(keyCount);
+        }
+        return;
+      default:
+        throw new IOException(String.format("Unrecognized BSER value type %d", type));
+    }
+  }
+
+  private void skipTemplateObject(int keyCount) throws IOException {
+    for (int key = 0; key < keyCount; key++) {
+      int type = readByte();
+      if (type != BSER_SKIP) {
+        skipValueOfType(type);
+      }
+    }
+  }
+
+  private String[] readTemplateKeys() throws IOException {
+    int arrayType = readByte();
+    if (arrayType != BSER_ARRAY) {
+      throw new IOException(String.format("Expected ARRAY to follow TEMPLATE, got %d", arrayType));
+    }
+    String[] keys = new String[readCount()];
+    for (int i = 0; i < keys.length; i++) {
+      int keyType = readByte();
+      if (keyType != BSER_STRING) {
+        throw new IOException(
+            String.format("Unrecognized BSER template key type %d, expected string", keyType));
+      }
+      keys[i] = readString();
+    }
+    return keys;
+  }
+
+  private int readCount() throws IOException {
+    long count = readInteger(readByte());
+    if (count > Integer.MAX_VALUE) {
+      throw new IOException(
+          String.format("BSER length out of range (%d > %d)", count, Integer.MAX_VALUE));
+    } else if (count < 0) {
+      throw new IOException(String.format("BSER length out of range (%d < 0)", count));
+    }
+    return (int) count;
+  }
+
+  private long readInteger(int type) throws IOException {
+    int size = getIntegerSize((byte) type);
+    require(size);
+    long value = readInteger(numberView, position, (byte) type);
+    position += size;
+    return value;
+  }
+
+  private double readDouble() throws IOException {
+    require(8);
+    double value = numberView.getDouble(position);
+    position += 8;
+    return value;
+  }
+
+  private String readString() throws IOException {
+    int length = readCount();
+    byte[] bytes;
+    int offset;
+    if (length <= buffer.length) {
+      require(length);
+      bytes = buffer;
+      offset = position;
+      position += length;
+    } else {
+      bytes = new byte[length];
+      offset = 0;
+      readFully(bytes, length);
+    }
+
+    // Most strings are ASCII, which Latin-1 decodes faster than UTF-8 does.
+    boolean isAscii = true;
+    for (int i = offset; i < offset + length && isAscii; i++) {
+      isAscii = bytes[i] >= 0;
+    }
+    if (isAscii) {
+      return new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+    }
+    try {
+      // Unlike String(byte[], Charset), the decoder rejects anything which is not UTF-8.
+      return utf8Decoder.decode(ByteBuffer.wrap(bytes, offset, length)).toString();
+    } catch (CharacterCodingException e) {
+      throw new IOException("Invalid UTF-8 in BSER string", e);
+    }
+  }
+
+  private int readByte() throws IOException {
+    require(1);
+    return buffer[position++];
+  }
+
+  /** Makes sure the next {@code count} bytes of the value are in the buffer. */
+  private void require(int count) throws IOException {
+    if (limit - position >= count) {
+      return;
+    }
+    System.arraycopy(buffer, position, buffer, 0, limit - position);
+    limit -= position;
+    position = 0;
+    while (limit < count) {
+      int toRead = (int) Math.min(buffer.length - limit, unreadBytes);
+      int read = toRead == 0 ? -1 : input.read(buffer, limit, toRead);
+      if (read < 0) {
+        throw new BserDeserializer.BserEofException("Prematurely reached end of BSER buffer");
+      }
+      limit += read;
+      unreadBytes -= read;
+    }
+  }
+
+  private void readFully(byte[] bytes, int length) throws IOException {
+    int fromBuffer = Math.min(length, limit - position);
+    System.arraycopy(buffer, position, bytes, 0, fromBuffer);
+    position += fromBuffer;
+    int fromInput = length - fromBuffer;
+    if (fromInput > unreadBytes
+        || ByteStreams.read(input, bytes, fromBuffer, fromInput) < fromInput) {
+      throw new BserDeserializer.BserEofException("Prematurely reached end of BSER buffer");
+    }
+    unreadBytes -= fromInput;
+  }
+
+  private void skipBytes(long count) throws IOException {
+    // Skip through the buffer rather than with ByteStreams.skipFully(), which allocates a buffer of
+    // its own on each call.
+    long remaining = count;
+    while (true) {
+      int fromBuffer = (int) Math.min(remaining, limit - position);
+      position += fromBuffer;
+      remaining -= fromBuffer;
+      if (remaining == 0) {
+        return;
+      }
+      position = 0;
+      limit = 0;
+      int toRead = (int) Math.min(buffer.length, unreadBytes);
+      int read = toRead == 0 ? -1 : input.read(buffer, 0, toRead);
+      if (read < 0) {
+        throw new BserDeserializer.BserEofException("Prematurely reached end of BSER buffer");
+      }
+      limit = read;
+      unreadBytes -= read;
+    }
+  }
+
+  private static int getIntegerSize(byte type) throws IOException {
+    switch (type) {
+      case BSER_INT8:
+        return 1;
+      case BSER_INT16:
+        return 2;
+      case BSER_INT32:
+        return 4;
+      case BSER_INT64:
+        return 8;
+      default:
+        throw new IOException(String.format("Invalid BSER number encoding %d", type));
+    }
+  }
+
+  private static long readInteger(ByteBuffer view, int index, byte type) throws IOException {
+    switch (type) {
+      case BSER_INT8:
+        return view.get(index);
+      case BSER_INT16:
+        return view.getShort(index);
+      case BSER_INT32:
+        return view.getInt(index);
+      case BSER_INT64:
+        return view.getLong(index);
+      default:
+        throw new IOException(String.format("Invalid BSER number encoding %d", type));
+    }
+  }
+
+  private static IOException unexpectedType(int type, String expected) {
+    return new IOException(String.format("Expected %s, got BSER value type %d", expected, type));
+  }
+}
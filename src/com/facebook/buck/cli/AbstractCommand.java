@@ -56,6 +56,7 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.OptionalInt;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
 import org.kohsuke.args4j.Option;
 
@@ -67,6 +68,9 @@ public abstract class AbstractCommand implements Command {
   private static final String PROFILE_PARSER_LONG_ARG = "--profile-buck-parser";
   private static final String NUM_THREADS_LONG_ARG = "--num-threads";
 
+  /** Workers idle for this long are closed, unless their pool keeps them pre-warmed. */
+  private static final long DEFAULT_IDLE_WORKER_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
   /**
    * This value should never be read. {@link VerbosityParser} should be used instead. args4j
    * requires that all options that could be passed in are listed as fields, so we include this
@@ -309,8 +313,18 @@ public abstract class AbstractCommand implements Command {
             params.getBuckConfig().getBooleanValue("test", "incl_no_location_classes", false))
         .setRuleKeyDiagnosticsMode(params.getBuckConfig().getRuleKeyDiagnosticsMode())
         .setConcurrencyLimit(getConcurrencyLimit(params.getBuckConfig()))
+        .setParallelZipCompressionEnabled(
+            params.getBuckConfig().getBooleanValue("build", "parallel_zip_compression", false))
+        .setPrewarmedWorkersPerPool(
+            params.getBuckConfig().getInteger("worker", "prewarmed_workers").orElse(0))
+        .setIdleWorkerTimeoutMillis(
+            params
+                .getBuckConfig()
+                .getLong("worker", "idle_timeout_ms")
+                .orElse(DEFAULT_IDLE_WORKER_TIMEOUT_MILLIS))
         .setPersistentWorkerPools(params.getPersistentWorkerPools())
-        .setProjectFilesystemFactory(params.getProjectFilesystemFactory());
+        .setProjectFilesystemFactory(params.getProjectFilesystemFactory())
+        .setFileHashCache(params.getFileHashCache());
   }
 
   public ConcurrencyLimit getConcurrencyLimit(BuckConfig buckConfig) {
@@ -51,6 +51,7 @@ import java.io.InputStream;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ScheduledExecutorService;
 import org.immutables.value.Value;
 
@@ -113,6 +114,9 @@ public interface AbstractCommandRunnerParams {
 
   Optional<RuleKeyCacheRecycler<RuleKey>> getDefaultRuleKeyFactoryCacheRecycler();
 
+  /** @return the daemon's pool for computing rule keys ahead of the build, if running in one. */
+  Optional<ForkJoinPool> getRuleKeyCalculationPool();
+
   ProjectFilesystemFactory getProjectFilesystemFactory();
 
   ToolchainProvider getToolchainProvider();
@@ -34,6 +34,12 @@ interface AbstractTestRun {
   @Value.Parameter
   List<Step> getSteps();
 
+  /**
+   * @return the steps of each shard of the test, which run concurrently after {@link #getSteps()}.
+   */
+  @Value.Parameter
+  List<List<Step>> getShards();
+
   @Value.Parameter
   Callable<TestResults> getTestResultsCallable();
 
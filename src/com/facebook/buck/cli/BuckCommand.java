@@ -35,6 +35,7 @@ public class BuckCommand extends AbstractContainerCommand {
     @SubCommand(name = "build", impl = BuildCommand.class),
     @SubCommand(name = "cache", impl = CacheCommand.class),
     @SubCommand(name = "clean", impl = CleanCommand.class),
+    @SubCommand(name = "critical-path", impl = CriticalPathCommand.class),
     @SubCommand(name = "distbuild", impl = DistBuildCommand.class),
     @SubCommand(name = "doctor", impl = DoctorCommand.class),
     @SubCommand(name = "fetch", impl = FetchCommand.class),
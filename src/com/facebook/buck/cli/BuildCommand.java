@@ -85,6 +85,7 @@ import com.facebook.buck.rules.coercer.DefaultTypeCoercerFactory;
 import com.facebook.buck.rules.coercer.PathTypeCoercer;
 import com.facebook.buck.rules.coercer.TypeCoercerFactory;
 import com.facebook.buck.rules.keys.DefaultRuleKeyFactory;
+import com.facebook.buck.rules.keys.ParallelRuleKeyCalculator;
 import com.facebook.buck.rules.keys.RuleKeyCacheRecycler;
 import com.facebook.buck.rules.keys.RuleKeyCacheScope;
 import com.facebook.buck.rules.keys.RuleKeyFactories;
@@ -99,6 +100,7 @@ import com.facebook.buck.util.MoreExceptions;
 import com.facebook.buck.util.ObjectMappers;
 import com.facebook.buck.util.Verbosity;
 import com.facebook.buck.util.cache.FileHashCache;
+import com.facebook.buck.util.concurrent.MostExecutors;
 import com.facebook.buck.util.concurrent.WeightedListeningExecutorService;
 import com.facebook.buck.versions.VersionException;
 import com.google.common.base.Function;
@@ -123,6 +125,7 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
@@ -1023,50 +1026,93 @@ public class BuildCommand extends AbstractCommand {
     CachingBuildEngineBuckConfig cachingBuildEngineBuckConfig =
         rootCellBuckConfig.getView(CachingBuildEngineBuckConfig.class);
     try (RuleKeyCacheScope<RuleKey> ruleKeyCacheScope =
-            getDefaultRuleKeyCacheScope(
-                params,
-                new RuleKeyCacheRecycler.SettingsAffectingCache(
-                    rootCellBuckConfig.getKeySeed(), actionGraphAndResolver.getActionGraph()));
-        CachingBuildEngine buildEngine =
-            new CachingBuildEngine(
-                cachingBuildEngineDelegate,
-                executor,
-                new DefaultStepRunner(),
-                getBuildEngineMode().orElse(cachingBuildEngineBuckConfig.getBuildEngineMode()),
-                cachingBuildEngineBuckConfig.getBuildMetadataStorage(),
-                cachingBuildEngineBuckConfig.getBuildDepFiles(),
-                cachingBuildEngineBuckConfig.getBuildMaxDepFileCacheEntries(),
-                cachingBuildEngineBuckConfig.getBuildArtifactCacheSizeLimit(),
-                actionGraphAndResolver.getResolver(),
-                params.getBuildInfoStoreManager(),
-                cachingBuildEngineBuckConfig.getResourceAwareSchedulingInfo(),
-                cachingBuildEngineBuckConfig.getConsoleLogBuildRuleFailuresInline(),
-                RuleKeyFactories.of(
-                    rootCellBuckConfig.getKeySeed(),
-                    cachingBuildEngineDelegate.getFileHashCache(),
-                    actionGraphAndResolver.getResolver(),
-                    cachingBuildEngineBuckConfig.getBuildInputRuleKeyFileSizeLimit(),
-                    ruleKeyCacheScope.getCache(),
-                    ruleKeyLogger),
-                rootCellBuckConfig.getFileHashCacheMode());
-        Build build =
-            createBuild(
-                rootCellBuckConfig,
-                actionGraphAndResolver.getResolver(),
-                params.getCell(),
-                buildEngine,
-                artifactCache,
-                params.getConsole(),
-                params.getClock(),
-                getExecutionContext(),
-                isKeepGoing())) {
-      lastBuild = build;
-      return build.executeAndPrintFailuresToEventBus(
+        getDefaultRuleKeyCacheScope(
+            params,
+            new RuleKeyCacheRecycler.SettingsAffectingCache(
+                rootCellBuckConfig.getKeySeed(), actionGraphAndResolver.getActionGraph()))) {
+      RuleKeyFactories ruleKeyFactories =
+          RuleKeyFactories.of(
+              rootCellBuckConfig.getKeySeed(),
+              cachingBuildEngineDelegate.getFileHashCache(),
+              actionGraphAndResolver.getResolver(),
+              cachingBuildEngineBuckConfig.getBuildInputRuleKeyFileSizeLimit(),
+              ruleKeyCacheScope.getCache(),
+              ruleKeyLogger);
+      ImmutableList<BuildTarget> allTargetsToBuild =
           FluentIterable.from(targetsToBuild)
-              .append(getAdditionalTargetsToBuild(actionGraphAndResolver.getResolver())),
-          params.getBuckEventBus(),
-          params.getConsole(),
-          getPathToBuildReport(rootCellBuckConfig));
+              .append(getAdditionalTargetsToBuild(actionGraphAndResolver.getResolver()))
+              .toList();
+      if (cachingBuildEngineBuckConfig.getPrecomputeRuleKeys()) {
+        precomputeRuleKeys(
+            params,
+            actionGraphAndResolver.getResolver(),
+            ruleKeyFactories,
+            ruleKeyCacheScope,
+            allTargetsToBuild);
+      }
+      try (CachingBuildEngine buildEngine =
+              new CachingBuildEngine(
+                  cachingBuildEngineDelegate,
+                  executor,
+                  new DefaultStepRunner(),
+                  getBuildEngineMode().orElse(cachingBuildEngineBuckConfig.getBuildEngineMode()),
+                  cachingBuildEngineBuckConfig.getBuildMetadataStorage(),
+                  cachingBuildEngineBuckConfig.getBuildDepFiles(),
+                  cachingBuildEngineBuckConfig.getBuildMaxDepFileCacheEntries(),
+                  cachingBuildEngineBuckConfig.getBuildArtifactCacheSizeLimit(),
+                  actionGraphAndResolver.getResolver(),
+                  params.getBuildInfoStoreManager(),
+                  cachingBuildEngineBuckConfig.getResourceAwareSchedulingInfo(),
+                  cachingBuildEngineBuckConfig.getConsoleLogBuildRuleFailuresInline(),
+                  ruleKeyFactories,
+                  rootCellBuckConfig.getFileHashCacheMode());
+          Build build =
+              createBuild(
+                  rootCellBuckConfig,
+                  actionGraphAndResolver.getResolver(),
+                  params.getCell(),
+                  buildEngine,
+                  artifactCache,
+                  params.getConsole(),
+                  params.getClock(),
+                  getExecutionContext(),
+                  isKeepGoing())) {
+        lastBuild = build;
+        return build.executeAndPrintFailuresToEventBus(
+            allTargetsToBuild,
+            params.getBuckEventBus(),
+            params.getConsole(),
+            getPathToBuildReport(rootCellBuckConfig));
+      }
+    }
+  }
+
+  /**
+   * Computes the default rule keys of {@code targets} and their dependencies up front, in parallel,
+   * so that the build engine finds them in the rule key cache instead of computing them as it goes.
+   */
+  private static void precomputeRuleKeys(
+      CommandRunnerParams params,
+      BuildRuleResolver resolver,
+      RuleKeyFactories ruleKeyFactories,
+      RuleKeyCacheScope<RuleKey> ruleKeyCacheScope,
+      Iterable<BuildTarget> targets)
+      throws InterruptedException {
+    Optional<ForkJoinPool> daemonPool = params.getRuleKeyCalculationPool();
+    int numThreads = params.getBuckConfig().getNumThreads();
+    ForkJoinPool pool =
+        daemonPool.orElseGet(() -> MostExecutors.forkJoinPoolWithThreadLimit(numThreads, 0));
+    try {
+      new ParallelRuleKeyCalculator<>(
+              pool,
+              ruleKeyFactories.getDefaultRuleKeyFactory(),
+              ruleKeyCacheScope.getCache(),
+              BuildRule::getBuildDeps)
+          .calculate(params.getBuckEventBus(), resolver.getAllRules(targets));
+    } finally {
+      if (!daemonPool.isPresent()) {
+        pool.shutdownNow();
+      }
     }
   }
 
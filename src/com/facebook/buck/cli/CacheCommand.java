@@ -193,6 +193,7 @@ public class CacheCommand extends AbstractCommand {
       case HIT:
         return String.format("%s %s", typeString, cacheResult.getCacheSource());
       case SKIPPED:
+      case CONTAINS:
       case MISS:
       case IGNORED:
       case LOCAL_KEY_UNCHANGED_HIT:
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cli;
+
+import com.facebook.buck.doctor.BuildLogHelper;
+import com.facebook.buck.doctor.config.BuildLogEntry;
+import com.facebook.buck.event.ConsoleEvent;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import javax.annotation.Nullable;
+import org.kohsuke.args4j.Option;
+
+/**
+ * Prints the critical path report which {@link
+ * com.facebook.buck.event.listener.CriticalPathReportListener} wrote for the most recent command
+ * which built rules, or for the given build.
+ */
+public class CriticalPathCommand extends AbstractCommand {
+
+  @Option(name = "--build-id", usage = "Print the report of this build rather than the last one.")
+  @Nullable
+  private String buildId = null;
+
+  @Override
+  public int runWithoutHelp(CommandRunnerParams params) throws IOException, InterruptedException {
+    ProjectFilesystem filesystem = params.getCell().getFilesystem();
+    Optional<Path> report = Optional.empty();
+    for (BuildLogEntry entry : new BuildLogHelper(filesystem).getBuildLogs()) {
+      if (entry.getCriticalPathReportFile().isPresent()
+          && (buildId == null
+              || entry.getBuildId().map(id -> id.toString().equals(buildId)).orElse(false))) {
+        report = entry.getCriticalPathReportFile();
+        break;
+      }
+    }
+
+    if (!report.isPresent()) {
+      params
+          .getBuckEventBus()
+          .post(
+              ConsoleEvent.severe(
+                  buildId == null
+                      ? "No critical path report found in the logs of the recent commands."
+                      : "No critical path report found for build " + buildId + "."));
+      return 1;
+    }
+    params
+        .getConsole()
+        .getStdOut()
+        .print(
+            new String(
+                Files.readAllBytes(filesystem.resolve(report.get())), StandardCharsets.UTF_8));
+    return 0;
+  }
+
+  @Override
+  public boolean isReadOnly() {
+    return true;
+  }
+
+  @Override
+  public String getShortDescription() {
+    return "prints the critical path of the last build";
+  }
+}
@@ -29,8 +29,10 @@ import com.facebook.buck.io.WatchmanCursor;
 import com.facebook.buck.io.WatchmanWatcher;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.log.Logger;
+import com.facebook.buck.parser.DaemonicParserStateSnapshotStore;
 import com.facebook.buck.parser.Parser;
 import com.facebook.buck.parser.ParserConfig;
+import com.facebook.buck.parser.thrift.RemoteDaemonicParserState;
 import com.facebook.buck.rules.ActionGraphCache;
 import com.facebook.buck.rules.Cell;
 import com.facebook.buck.rules.RuleKey;
@@ -42,7 +44,9 @@ import com.facebook.buck.rules.keys.RuleKeyCacheRecycler;
 import com.facebook.buck.util.RichStream;
 import com.facebook.buck.util.cache.ProjectFileHashCache;
 import com.facebook.buck.util.cache.impl.DefaultFileHashCache;
+import com.facebook.buck.util.cache.impl.FileHashCacheSnapshotStore;
 import com.facebook.buck.util.cache.impl.WatchedFileHashCache;
+import com.facebook.buck.util.concurrent.MostExecutors;
 import com.facebook.buck.versions.VersionedTargetGraphCache;
 import com.facebook.buck.worker.WorkerProcessPool;
 import com.google.common.collect.ImmutableList;
@@ -52,9 +56,13 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.nio.file.Path;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Daemon used to monitor the file system and cache build rules between Main() method invocations is
@@ -68,6 +76,7 @@ final class Daemon implements Closeable {
   private final TypeCoercerFactory typeCoercerFactory;
   private final Parser parser;
   private final ImmutableList<ProjectFileHashCache> hashCaches;
+  private final ImmutableList<FileHashCacheSnapshotStore> fileHashCacheSnapshotStores;
   private final EventBus fileEventBus;
   private final Optional<WebServer> webServer;
   private final ConcurrentMap<String, WorkerProcessPool> persistentWorkerPools;
@@ -75,7 +84,17 @@ final class Daemon implements Closeable {
   private final ActionGraphCache actionGraphCache;
   private final BroadcastEventListener broadcastEventListener;
   private final RuleKeyCacheRecycler<RuleKey> defaultRuleKeyFactoryCacheRecycler;
+  private final ForkJoinPool ruleKeyCalculationPool;
   private final ImmutableMap<Path, WatchmanCursor> cursor;
+  private final Optional<DaemonicParserStateSnapshotStore> parserStateSnapshotStore;
+  private final long parserStateSnapshotIntervalNanos;
+  private final AtomicLong lastParserStateSnapshotNanos;
+
+  /**
+   * Set when the parser caches were restored from a snapshot and the changes made since the
+   * snapshot was taken have not been replayed yet.
+   */
+  private volatile boolean restoredParserStateNeedsSync;
 
   Daemon(Cell rootCell, Optional<WebServer> webServerToReuse) {
     this.rootCell = rootCell;
@@ -85,11 +104,22 @@ final class Daemon implements Closeable {
 
     // Setup the stacked file hash cache from all cells.
     ImmutableList.Builder<ProjectFileHashCache> hashCachesBuilder = ImmutableList.builder();
+    ImmutableList.Builder<FileHashCacheSnapshotStore> snapshotStoresBuilder =
+        ImmutableList.builder();
+    boolean persistFileHashCache = rootCell.getBuckConfig().getPersistFileHashCache();
     allCells.forEach(
         subCell -> {
+          Optional<FileHashCacheSnapshotStore> snapshotStore = Optional.empty();
+          if (persistFileHashCache) {
+            snapshotStore = Optional.of(new FileHashCacheSnapshotStore(subCell.getFilesystem()));
+            snapshotStore.get().restore();
+            snapshotStoresBuilder.add(snapshotStore.get());
+          }
           WatchedFileHashCache watchedCache =
               new WatchedFileHashCache(
-                  subCell.getFilesystem(), rootCell.getBuckConfig().getFileHashCacheMode());
+                  subCell.getFilesystem(),
+                  rootCell.getBuckConfig().getFileHashCacheMode(),
+                  snapshotStore);
           fileEventBus.register(watchedCache);
           hashCachesBuilder.add(watchedCache);
         });
@@ -97,6 +127,7 @@ final class Daemon implements Closeable {
         DefaultFileHashCache.createBuckOutFileHashCache(
             rootCell.getFilesystem(), rootCell.getBuckConfig().getFileHashCacheMode()));
     this.hashCaches = hashCachesBuilder.build();
+    this.fileHashCacheSnapshotStores = snapshotStoresBuilder.build();
 
     this.broadcastEventListener = new BroadcastEventListener();
     this.actionGraphCache = new ActionGraphCache();
@@ -117,6 +148,9 @@ final class Daemon implements Closeable {
             fileEventBus,
             new DefaultRuleKeyCache<>(),
             RichStream.from(allCells).map(Cell::getFilesystem).toImmutableSet());
+    // Shared by all commands, so that its workers stay warm between builds.
+    this.ruleKeyCalculationPool =
+        MostExecutors.forkJoinPoolWithThreadLimit(rootCell.getBuckConfig().getNumThreads(), 0);
 
     if (webServerToReuse.isPresent()) {
       webServer = webServerToReuse;
@@ -134,6 +168,17 @@ final class Daemon implements Closeable {
       LOG.debug("Falling back to named cursors: %s", rootCell.getWatchman().getProjectWatches());
       cursor = rootCell.getWatchman().buildNamedWatchmanCursorMap();
     }
+
+    ParserConfig parserConfig = rootCell.getBuckConfig().getView(ParserConfig.class);
+    this.parserStateSnapshotIntervalNanos =
+        TimeUnit.SECONDS.toNanos(parserConfig.getDaemonStateSnapshotIntervalSeconds());
+    this.lastParserStateSnapshotNanos = new AtomicLong(System.nanoTime());
+    if (parserConfig.getPersistDaemonState()) {
+      parserStateSnapshotStore = Optional.of(new DaemonicParserStateSnapshotStore(rootCell));
+      restoredParserStateNeedsSync = restoreParserState(parserStateSnapshotStore.get());
+    } else {
+      parserStateSnapshotStore = Optional.empty();
+    }
     LOG.debug("Using Watchman Cursor: %s", cursor);
     persistentWorkerPools = new ConcurrentHashMap<>();
     JavaUtilsLoggingBuildListener.ensureLogFileIsWritten(rootCell.getFilesystem());
@@ -143,6 +188,93 @@ final class Daemon implements Closeable {
     return rootCell;
   }
 
+  /**
+   * Seeds the parser caches with the state persisted by a previous daemon and rewinds the Watchman
+   * cursors to the clocks recorded with it, so that the first {@link #watchFileSystem} call
+   * invalidates everything that changed while no daemon was running.
+   *
+   * @return whether a snapshot was restored.
+   */
+  private boolean restoreParserState(DaemonicParserStateSnapshotStore store) {
+    Optional<DaemonicParserStateSnapshotStore.Snapshot> snapshot = store.read();
+    if (!snapshot.isPresent()) {
+      return false;
+    }
+    ImmutableMap<Path, String> clocks = snapshot.get().getWatchmanClocks();
+    if (!clocks.keySet().equals(cursor.keySet())
+        || !cursor.values().stream().allMatch(c -> isClockId(c.get()))
+        || !clocks.values().stream().allMatch(Daemon::isClockId)) {
+      LOG.debug("Parser state snapshot does not match the current watches, not restoring it.");
+      return false;
+    }
+    try {
+      parser.restoreParserState(snapshot.get().getParserState(), rootCell);
+    } catch (RuntimeException e) {
+      LOG.warn(e, "Unable to restore parser state snapshot.");
+      return false;
+    }
+    clocks.forEach((cellPath, clock) -> cursor.get(cellPath).set(clock));
+    LOG.info("Restored parser state snapshot taken at %s.", clocks);
+    return true;
+  }
+
+  private static boolean isClockId(String cursor) {
+    return cursor.startsWith("c:");
+  }
+
+  /**
+   * Writes snapshots of the parser and file hash caches which are persisted, if the last snapshot
+   * is older than the configured interval.
+   */
+  void snapshotDaemonStateIfDue() {
+    long now = System.nanoTime();
+    long last = lastParserStateSnapshotNanos.get();
+    if (now - last < parserStateSnapshotIntervalNanos
+        || !lastParserStateSnapshotNanos.compareAndSet(last, now)) {
+      return;
+    }
+    snapshotParserState();
+    snapshotFileHashCaches();
+  }
+
+  private void snapshotFileHashCaches() {
+    for (FileHashCacheSnapshotStore store : fileHashCacheSnapshotStores) {
+      try {
+        store.write();
+      } catch (IOException e) {
+        LOG.warn(e, "Unable to write file hash cache snapshot.");
+      }
+    }
+  }
+
+  private void snapshotParserState() {
+    if (!parserStateSnapshotStore.isPresent()) {
+      return;
+    }
+    ImmutableMap.Builder<Path, String> clocks = ImmutableMap.builder();
+    RemoteDaemonicParserState state;
+    try {
+      // Hold the parser lock so that the clocks and the cache contents describe the same point in
+      // time: every change up to the recorded clocks has been applied to the caches.
+      synchronized (parser) {
+        if (restoredParserStateNeedsSync) {
+          // Nothing has been learned since the existing snapshot was read.
+          return;
+        }
+        for (Map.Entry<Path, WatchmanCursor> entry : cursor.entrySet()) {
+          if (!isClockId(entry.getValue().get())) {
+            return;
+          }
+          clocks.put(entry.getKey(), entry.getValue().get());
+        }
+        state = parser.storeParserState(rootCell);
+      }
+      parserStateSnapshotStore.get().write(clocks.build(), state);
+    } catch (IOException e) {
+      LOG.warn(e, "Unable to write parser state snapshot.");
+    }
+  }
+
   private static Optional<WebServer> createWebServer(
       BuckConfig config, ProjectFilesystem filesystem) {
     Optional<Integer> port = getValidWebServerPort(config);
@@ -219,6 +351,10 @@ final class Daemon implements Closeable {
     return defaultRuleKeyFactoryCacheRecycler;
   }
 
+  ForkJoinPool getRuleKeyCalculationPool() {
+    return ruleKeyCalculationPool;
+  }
+
   void interruptOnClientExit(PrintStream err) throws InterruptedException {
     // Synchronize on parser object so that the main command processing thread is not
     // interrupted mid way through a Parser cache update by the Thread.interrupt() call
@@ -250,7 +386,15 @@ final class Daemon implements Closeable {
       FileHashCacheEvent.InvalidationStarted started = FileHashCacheEvent.invalidationStarted();
       eventBus.post(started);
       try {
-        watchmanWatcher.postEvents(eventBus, watchmanFreshInstanceAction);
+        if (restoredParserStateNeedsSync) {
+          // The restored caches are only valid if Watchman can tell us everything that changed
+          // since the snapshot was taken, so a fresh instance must flush them.
+          watchmanWatcher.postEvents(
+              eventBus, WatchmanWatcher.FreshInstanceAction.POST_OVERFLOW_EVENT);
+          restoredParserStateNeedsSync = false;
+        } else {
+          watchmanWatcher.postEvents(eventBus, watchmanFreshInstanceAction);
+        }
       } finally {
         eventBus.post(FileHashCacheEvent.invalidationFinished(started));
         hashCaches.forEach(
@@ -290,8 +434,18 @@ final class Daemon implements Closeable {
 
   @Override
   public void close() throws IOException {
+    snapshotParserState();
+    snapshotFileHashCaches();
     shutdownPersistentWorkerPools();
     shutdownWebServer();
+    ruleKeyCalculationPool.shutdownNow();
+  }
+
+  /** Closes the persistent workers which have been idle for longer than their pool keeps them. */
+  void closeIdleWorkers() {
+    for (WorkerProcessPool pool : persistentWorkerPools.values()) {
+      pool.closeIdleWorkers();
+    }
   }
 
   private void shutdownPersistentWorkerPools() {
@@ -78,6 +78,22 @@ class DaemonLifecycleManager {
     return daemon;
   }
 
+  /** Close the daemon's persistent workers which have been idle for too long. */
+  void closeIdleWorkers() {
+    Daemon current = daemon;
+    if (current != null) {
+      current.closeIdleWorkers();
+    }
+  }
+
+  /** Persist the daemon's caches if a snapshot is due. */
+  void snapshotDaemonStateIfDue() {
+    Daemon current = daemon;
+    if (current != null) {
+      current.snapshotDaemonStateIfDue();
+    }
+  }
+
   /** Manually kill the daemon instance, used for testing. */
   synchronized void resetDaemon() {
     if (daemon != null) {
@@ -31,6 +31,8 @@ import com.facebook.buck.artifact_cache.HttpArtifactCacheEvent;
 import com.facebook.buck.config.BuckConfig;
 import com.facebook.buck.counters.CounterRegistry;
 import com.facebook.buck.counters.CounterRegistryImpl;
+import com.facebook.buck.distributed.DistBuildConfig;
+import com.facebook.buck.distributed.RuleTypeDurationsRecorder;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.BuckEventListener;
 import com.facebook.buck.event.BuckInitializationDurationEvent;
@@ -38,11 +40,13 @@ import com.facebook.buck.event.CommandEvent;
 import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.event.DaemonEvent;
 import com.facebook.buck.event.DefaultBuckEventBus;
+import com.facebook.buck.event.ListenerQueueConfig;
 import com.facebook.buck.event.listener.AbstractConsoleEventBusListener;
 import com.facebook.buck.event.listener.BroadcastEventListener;
 import com.facebook.buck.event.listener.CacheRateStatsListener;
 import com.facebook.buck.event.listener.ChromeTraceBuckConfig;
 import com.facebook.buck.event.listener.ChromeTraceBuildListener;
+import com.facebook.buck.event.listener.CriticalPathReportListener;
 import com.facebook.buck.event.listener.FileSerializationEventBusListener;
 import com.facebook.buck.event.listener.JavaUtilsLoggingBuildListener;
 import com.facebook.buck.event.listener.LoadBalancerEventsListener;
@@ -198,6 +202,7 @@ import java.util.UUID;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.Semaphore;
@@ -824,7 +829,8 @@ public final class Main {
                         ? Optional.of(buildId)
                         : Optional.empty());
             AsyncCloseable asyncCloseable = new AsyncCloseable(diskIoExecutorService);
-            DefaultBuckEventBus buildEventBus = new DefaultBuckEventBus(clock, buildId);
+            DefaultBuckEventBus buildEventBus =
+                new DefaultBuckEventBus(clock, buildId, getListenerQueueConfig(buckConfig));
             BroadcastEventListener.BroadcastEventBusClosable broadcastEventBusClosable =
                 broadcastEventListener.addEventBus(buildEventBus);
 
@@ -982,6 +988,7 @@ public final class Main {
           ActionGraphCache actionGraphCache = null;
           Optional<RuleKeyCacheRecycler<RuleKey>> defaultRuleKeyFactoryCacheRecycler =
               Optional.empty();
+          Optional<ForkJoinPool> ruleKeyCalculationPool = Optional.empty();
 
           if (daemon.isPresent()) {
             try {
@@ -1011,6 +1018,7 @@ public final class Main {
                 defaultRuleKeyFactoryCacheRecycler =
                     Optional.of(daemon.get().getDefaultRuleKeyFactoryCacheRecycler());
               }
+              ruleKeyCalculationPool = Optional.of(daemon.get().getRuleKeyCalculationPool());
             } catch (WatchmanWatcherException | IOException e) {
               buildEventBus.post(
                   ConsoleEvent.warning(
@@ -1107,6 +1115,7 @@ public final class Main {
                         .setSdkEnvironment(sdkEnvironment)
                         .setInvocationInfo(Optional.of(invocationInfo))
                         .setDefaultRuleKeyFactoryCacheRecycler(defaultRuleKeyFactoryCacheRecycler)
+                        .setRuleKeyCalculationPool(ruleKeyCalculationPool)
                         .setBuildInfoStoreManager(storeManager)
                         .setProjectFilesystemFactory(projectFilesystemFactory)
                         .setToolchainProvider(factory.getToolchainProvider())
@@ -1190,6 +1199,24 @@ public final class Main {
     return new Console(verbosity, stdOut, stdErr, buckConfig.createAnsi(color));
   }
 
+  private static ListenerQueueConfig getListenerQueueConfig(BuckConfig buckConfig) {
+    ListenerQueueConfig.Builder builder =
+        ListenerQueueConfig.builder()
+            .addAllDroppedEventTypes(
+                buckConfig.getListWithoutComments("event_bus", "dropped_events"));
+    buckConfig
+        .getInteger("event_bus", "listener_queue_size")
+        .ifPresent(builder::setMaxQueuedEvents);
+    buckConfig.getLong("event_bus", "max_block_ms").ifPresent(builder::setMaxBlockMillis);
+    buckConfig
+        .getValue("event_bus", "coalesced_events")
+        .ifPresent(
+            value ->
+                builder.setCoalescedEventTypes(
+                    buckConfig.getListWithoutComments("event_bus", "coalesced_events")));
+    return builder.build();
+  }
+
   private void flushAndCloseEventListeners(
       Console console, BuildId buildId, ImmutableList<BuckEventListener> eventListeners)
       throws InterruptedException, IOException {
@@ -1500,6 +1527,8 @@ public final class Main {
             invocationInfo,
             MostExecutors.newSingleThreadExecutor(new CommandThreadFactory(getClass().getName()))));
 
+    eventListenersBuilder.add(new CriticalPathReportListener(projectFilesystem, invocationInfo));
+
     if (buckConfig.isMachineReadableLoggerEnabled()) {
       try {
         eventListenersBuilder.add(
@@ -1520,6 +1549,9 @@ public final class Main {
     eventListenersBuilder.add(new LoadBalancerEventsListener(counterRegistry));
     eventListenersBuilder.add(new CacheRateStatsListener(buckEventBus));
     eventListenersBuilder.add(new WatchmanDiagnosticEventListener(buckEventBus));
+    new DistBuildConfig(buckConfig)
+        .getRuleTypeDurationsFile()
+        .ifPresent(file -> eventListenersBuilder.add(new RuleTypeDurationsRecorder(file)));
 
     eventListenersBuilder.addAll(commandSpecificEventListeners);
 
@@ -1708,6 +1740,7 @@ public final class Main {
 
   public static final class DaemonBootstrap {
     private static final int AFTER_COMMAND_AUTO_GC_DELAY_MS = 5000;
+    private static final int IDLE_WORKERS_CHECK_INTERVAL_MS = 60000;
     private static @Nullable DaemonKillers daemonKillers;
     private static AtomicReference<ScheduledFuture<?>> scheduledGC = new AtomicReference<>();
 
@@ -1744,6 +1777,12 @@ public final class Main {
               NGServer.DEFAULT_SESSIONPOOLSIZE,
               heartbeatTimeout);
       daemonKillers = new DaemonKillers(housekeepingExecutorService, server, Paths.get(socketPath));
+      // Persistent workers outlive commands, so free those which are not used any more.
+      housekeepingExecutorService.scheduleWithFixedDelay(
+          daemonLifecycleManager::closeIdleWorkers,
+          IDLE_WORKERS_CHECK_INTERVAL_MS,
+          IDLE_WORKERS_CHECK_INTERVAL_MS,
+          TimeUnit.MILLISECONDS);
       server.run();
     }
 
@@ -1758,6 +1797,10 @@ public final class Main {
       }
     }
 
+    static void scheduleDaemonStateSnapshot() {
+      housekeepingExecutorService.execute(daemonLifecycleManager::snapshotDaemonStateIfDue);
+    }
+
     static void scheduleGC() {
       ScheduledFuture<?> oldScheduledGC =
           scheduledGC.getAndSet(
@@ -1839,6 +1882,8 @@ public final class Main {
       new Main(context.out, context.err, context.in)
           .runMainThenExit(context.getArgs(), Optional.of(context), System.nanoTime());
     } finally {
+      // Persist the daemon's caches, if enabled, without delaying the client.
+      DaemonBootstrap.scheduleDaemonStateSnapshot();
       // Reclaim memory after a command finishes.
       DaemonBootstrap.scheduleGC();
     }
@@ -279,6 +279,27 @@ public class TestCommand extends BuildCommand {
             .setCoverageReportTitle(coverageReportTitle)
             .setEnvironmentOverrides(environmentOverrides);
 
+    params
+        .getBuckConfig()
+        .getInteger("test", "max_shards_per_rule")
+        .ifPresent(builder::setMaxShardsPerTestRule);
+    params
+        .getBuckConfig()
+        .getLong("test", "min_sharded_rule_duration_ms")
+        .ifPresent(builder::setMinShardedTestRuleDurationMs);
+    params
+        .getBuckConfig()
+        .getInteger("test", "junit_worker_max_runs")
+        .ifPresent(builder::setMaxRunsPerJUnitWorker);
+    params
+        .getBuckConfig()
+        .getBoolean("test", "cache_results")
+        .ifPresent(builder::setCachingTestResults);
+    params
+        .getBuckConfig()
+        .getOptionalListWithoutComments("test", "non_hermetic_labels")
+        .ifPresent(builder::setNonHermeticTestLabels);
+
     Optional<ImmutableList<String>> coverageIncludes =
         params.getBuckConfig().getOptionalListWithoutComments("test", "coverageIncludes", ',');
     Optional<ImmutableList<String>> coverageExcludes =
@@ -317,7 +338,6 @@ public class TestCommand extends BuildCommand {
             resourcesConfig.getDefaultResourceAmounts(),
             resourcesConfig.getMaximumResourceAmounts());
     try (CommandThreadManager testPool = new CommandThreadManager("Test-Run", concurrencyLimit)) {
-      SourcePathRuleFinder ruleFinder = new SourcePathRuleFinder(build.getRuleResolver());
       return TestRunning.runTests(
           params,
           testRules,
@@ -325,9 +345,10 @@ public class TestCommand extends BuildCommand {
           getTestRunningOptions(params),
           testPool.getWeightedListeningExecutorService(),
           buildEngine,
+          build.getArtifactCache(),
           new DefaultStepRunner(),
           buildContext,
-          ruleFinder);
+          build.getRuleResolver());
     }
   }
 
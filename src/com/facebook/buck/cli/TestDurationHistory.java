@@ -0,0 +1,118 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cli;
+
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.test.TestCaseSummary;
+import com.facebook.buck.test.TestResults;
+import com.facebook.buck.util.ObjectMappers;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+/**
+ * How long the test classes of each test rule took in the previous test runs, which is used to
+ * start the slowest test rules first and to balance the shards of the sharded ones.
+ */
+class TestDurationHistory {
+
+  private static final Logger LOG = Logger.get(TestDurationHistory.class);
+
+  private static final TypeReference<Map<String, Map<String, Long>>> DURATIONS_TYPE =
+      new TypeReference<Map<String, Map<String, Long>>>() {};
+
+  private final ProjectFilesystem filesystem;
+  private final Path path;
+  private final Map<String, Map<String, Long>> testClassDurationsByTarget;
+
+  private TestDurationHistory(
+      ProjectFilesystem filesystem,
+      Path path,
+      Map<String, Map<String, Long>> testClassDurationsByTarget) {
+    this.filesystem = filesystem;
+    this.path = path;
+    this.testClassDurationsByTarget = testClassDurationsByTarget;
+  }
+
+  /** Reads the durations recorded in {@code filesystem}, or starts afresh if there are none. */
+  static TestDurationHistory load(ProjectFilesystem filesystem) {
+    Path path = getPath(filesystem);
+    Map<String, Map<String, Long>> durations = new TreeMap<>();
+    Optional<String> contents = filesystem.readFileIfItExists(path);
+    if (contents.isPresent()) {
+      try {
+        durations.putAll(ObjectMappers.readValue(contents.get(), DURATIONS_TYPE));
+      } catch (IOException e) {
+        LOG.warn(e, "Ignoring unreadable test durations in %s.", path);
+      }
+    }
+    return new TestDurationHistory(filesystem, path, durations);
+  }
+
+  @VisibleForTesting
+  static Path getPath(ProjectFilesystem filesystem) {
+    return filesystem.getBuckPaths().getLogDir().resolve("test_durations.json");
+  }
+
+  /** @return the durations of the test classes of {@code target}, in milliseconds. */
+  ImmutableMap<String, Long> getTestClassDurations(BuildTarget target) {
+    Map<String, Long> durations = testClassDurationsByTarget.get(target.toString());
+    return durations == null ? ImmutableMap.of() : ImmutableMap.copyOf(durations);
+  }
+
+  /** @return the duration of all the test classes of {@code target}, in milliseconds. */
+  long getTotalDuration(BuildTarget target) {
+    Map<String, Long> durations = testClassDurationsByTarget.get(target.toString());
+    return durations == null ? 0 : durations.values().stream().mapToLong(Long::longValue).sum();
+  }
+
+  /**
+   * Records the durations of the test classes which ran. The durations of the other classes of the
+   * same rule, for example those which were filtered out by test selectors, are kept.
+   */
+  void record(Iterable<TestResults> allResults) {
+    for (TestResults results : allResults) {
+      if (results.getTestCases().isEmpty()) {
+        continue;
+      }
+      Map<String, Long> durations =
+          testClassDurationsByTarget.computeIfAbsent(
+              results.getBuildTarget().toString(), target -> new TreeMap<>());
+      for (TestCaseSummary testCase : results.getTestCases()) {
+        durations.put(testCase.getTestCaseName(), testCase.getTotalTime());
+      }
+    }
+  }
+
+  /** Writes the durations back, so that the next test run can use them. */
+  void save() {
+    try {
+      filesystem.mkdirs(path.getParent());
+      filesystem.writeContentsToPath(
+          ObjectMappers.WRITER.writeValueAsString(testClassDurationsByTarget), path);
+    } catch (IOException e) {
+      LOG.warn(e, "Could not save test durations to %s.", path);
+    }
+  }
+}
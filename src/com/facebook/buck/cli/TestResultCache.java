@@ -0,0 +1,270 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cli;
+
+import com.facebook.buck.artifact_cache.ArtifactCache;
+import com.facebook.buck.artifact_cache.ArtifactInfo;
+import com.facebook.buck.artifact_cache.CacheResult;
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.io.file.MoreFiles;
+import com.facebook.buck.io.file.MorePaths;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.jvm.java.JavaTest;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.rules.BuildEngine;
+import com.facebook.buck.rules.BuildRuleResolver;
+import com.facebook.buck.rules.BuildRules;
+import com.facebook.buck.rules.HasRuntimeDeps;
+import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.rules.TestRule;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.test.TestCaseSummary;
+import com.facebook.buck.test.TestResults;
+import com.facebook.buck.test.TestRunningOptions;
+import com.facebook.buck.util.MoreCollectors;
+import com.facebook.buck.util.zip.Unzip;
+import com.facebook.buck.util.zip.Zip;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Stream;
+
+/**
+ * Keeps the outputs of the test rules whose tests passed in the artifact cache, so that the tests
+ * of a rule which hasn't changed since don't run again: its results are interpreted from the
+ * fetched outputs instead.
+ *
+ * <p>The outputs are keyed by the rule keys of the test rule and of everything its tests load when
+ * they run, and by the options which change how they run. The rule key of the test rule alone is
+ * not enough: it only covers the ABI of the deps it compiles against, while the tests run against
+ * the implementations of its transitive runtime deps. For a {@link JavaTest}, the contents of the
+ * classpath entries from outside the build are in the key as well.
+ */
+class TestResultCache {
+
+  private static final Logger LOG = Logger.get(TestResultCache.class);
+
+  private final ArtifactCache artifactCache;
+  private final BuildEngine buildEngine;
+  private final BuildRuleResolver ruleResolver;
+  private final ExecutionContext executionContext;
+  private final TestRunningOptions options;
+  private final Set<BuildTarget> fetchedTests = new HashSet<>();
+  private final List<ListenableFuture<Void>> pendingStores = new ArrayList<>();
+
+  TestResultCache(
+      ArtifactCache artifactCache,
+      BuildEngine buildEngine,
+      BuildRuleResolver ruleResolver,
+      ExecutionContext executionContext,
+      TestRunningOptions options) {
+    this.artifactCache = artifactCache;
+    this.buildEngine = buildEngine;
+    this.ruleResolver = ruleResolver;
+    this.executionContext = executionContext;
+    this.options = options;
+  }
+
+  /**
+   * @return whether the results of {@code test} may come from the cache. They never do for rules
+   *     with a non-hermetic label, for rules which report their tests as they run, or when the
+   *     tests gather coverage or are debugged.
+   */
+  boolean isCacheable(TestRule test) {
+    return options.isCachingTestResults()
+        && !options.isCodeCoverageEnabled()
+        && !executionContext.isDebugEnabled()
+        && !test.supportsStreamingTests()
+        && Collections.disjoint(test.getLabels(), options.getNonHermeticTestLabels());
+  }
+
+  @VisibleForTesting
+  RuleKey getKey(TestRule test) throws IOException {
+    Hasher hasher = Hashing.sha1().newHasher();
+    // Make sure the key never collides with that of the outputs of the rule itself.
+    hasher.putString("test results", StandardCharsets.UTF_8);
+    hasher.putString(
+        buildEngine.getRuleKey(test.getBuildTarget()).toString(), StandardCharsets.UTF_8);
+    if (test instanceof HasRuntimeDeps) {
+      for (BuildTarget runtimeDep :
+          ImmutableSortedSet.copyOf(
+              BuildRules.getTransitiveRuntimeDeps((HasRuntimeDeps) test, ruleResolver))) {
+        hasher.putString(runtimeDep.getFullyQualifiedName(), StandardCharsets.UTF_8);
+        hasher.putString(buildEngine.getRuleKey(runtimeDep).toString(), StandardCharsets.UTF_8);
+      }
+    }
+    if (test instanceof JavaTest) {
+      for (Path entry :
+          ImmutableSortedSet.copyOf(((JavaTest) test).getExternalClasspathEntries())) {
+        hasher.putString(entry.toString(), StandardCharsets.UTF_8).putByte((byte) 0);
+        putContents(hasher, entry);
+      }
+    }
+    for (Map.Entry<String, String> entry :
+        new TreeMap<>(options.getEnvironmentOverrides()).entrySet()) {
+      hasher.putString(entry.getKey(), StandardCharsets.UTF_8).putByte((byte) 0);
+      hasher.putString(entry.getValue(), StandardCharsets.UTF_8).putByte((byte) 0);
+    }
+    for (String rawSelector : options.getTestSelectorList().getRawSelectors()) {
+      hasher.putString(rawSelector, StandardCharsets.UTF_8).putByte((byte) 0);
+    }
+    hasher.putBoolean(options.shouldExplainTestSelectorList());
+    hasher.putBoolean(options.isShufflingTests());
+    hasher.putLong(executionContext.getDefaultTestTimeoutMillis());
+    return new RuleKey(hasher.hash());
+  }
+
+  private static void putContents(Hasher hasher, Path path) throws IOException {
+    if (Files.isRegularFile(path)) {
+      hasher.putBytes(MorePaths.asByteSource(path).hash(Hashing.sha1()).asBytes());
+    } else if (Files.isDirectory(path)) {
+      try (Stream<Path> files = Files.walk(path)) {
+        for (Path file :
+            files.filter(Files::isRegularFile).sorted().collect(MoreCollectors.toImmutableList())) {
+          hasher.putString(path.relativize(file).toString(), StandardCharsets.UTF_8);
+          putContents(hasher, file);
+        }
+      }
+    }
+  }
+
+  /**
+   * Fetches the outputs of the previous passing runs of those of {@code tests} which are cacheable
+   * into their output directories.
+   *
+   * @return the tests whose outputs were fetched, which need not run again.
+   */
+  ImmutableSet<BuildTarget> fetch(Iterable<TestRule> tests)
+      throws IOException, InterruptedException {
+    Map<TestRule, Path> zips = new HashMap<>();
+    ImmutableMap.Builder<RuleKey, TestRule> testsByKey = ImmutableMap.builder();
+    ImmutableMap.Builder<RuleKey, LazyPath> requests = ImmutableMap.builder();
+    for (TestRule test : tests) {
+      if (!isCacheable(test)) {
+        continue;
+      }
+      Path zip = createTempZip(test);
+      RuleKey key = getKey(test);
+      zips.put(test, zip);
+      testsByKey.put(key, test);
+      requests.put(key, LazyPath.ofInstance(zip));
+    }
+    if (zips.isEmpty()) {
+      return ImmutableSet.of();
+    }
+
+    ImmutableMap<RuleKey, ListenableFuture<CacheResult>> results =
+        artifactCache.multiFetchAsync(requests.build());
+    for (Map.Entry<RuleKey, TestRule> entry : testsByKey.build().entrySet()) {
+      TestRule test = entry.getValue();
+      Path zip = zips.get(test);
+      try {
+        CacheResult result = results.get(entry.getKey()).get();
+        if (result.getType().isSuccess()) {
+          extractOutputs(test, zip);
+          fetchedTests.add(test.getBuildTarget());
+        }
+      } catch (ExecutionException | IOException e) {
+        LOG.warn(e, "Could not fetch the test results of %s, running its tests.", test);
+      } finally {
+        Files.deleteIfExists(zip);
+      }
+    }
+    LOG.debug("Fetched the test results of %s.", fetchedTests);
+    return ImmutableSet.copyOf(fetchedTests);
+  }
+
+  /**
+   * Stores the outputs of {@code test} if its tests passed and didn't come from the cache already.
+   */
+  void store(TestRule test, TestResults results) throws IOException {
+    if (!isCacheable(test)
+        || !results.isSuccess()
+        || results.getTestCases().stream().anyMatch(TestCaseSummary::isDryRun)
+        || fetchedTests.contains(test.getBuildTarget())) {
+      return;
+    }
+    ProjectFilesystem filesystem = test.getProjectFilesystem();
+    Path outputDirectory = test.getPathToTestOutputDirectory();
+    if (!filesystem.isDirectory(outputDirectory)) {
+      return;
+    }
+
+    Path zip = createTempZip(test);
+    Zip.create(filesystem, filesystem.getFilesUnderPath(outputDirectory), zip);
+    ListenableFuture<Void> stored =
+        artifactCache.store(
+            ArtifactInfo.builder()
+                .addRuleKeys(getKey(test))
+                .setBuildTarget(test.getBuildTarget())
+                .build(),
+            BorrowablePath.borrowablePath(zip));
+    stored.addListener(
+        () -> {
+          try {
+            Files.deleteIfExists(zip);
+          } catch (IOException e) {
+            LOG.warn(e, "Could not delete %s.", zip);
+          }
+        },
+        MoreExecutors.directExecutor());
+    pendingStores.add(stored);
+  }
+
+  /** Waits for the outputs being stored to be in the cache. */
+  void waitForStores() throws InterruptedException {
+    try {
+      Futures.successfulAsList(pendingStores).get();
+    } catch (ExecutionException e) {
+      LOG.warn(e, "Could not store test results.");
+    }
+  }
+
+  private static Path createTempZip(TestRule test) throws IOException {
+    return Files.createTempFile(
+        "buck_test_results_" + MoreFiles.sanitize(test.getBuildTarget().getShortName()), ".zip");
+  }
+
+  private static void extractOutputs(TestRule test, Path zip) throws IOException {
+    ProjectFilesystem filesystem = test.getProjectFilesystem();
+    // Don't let the outputs of an earlier run of different tests get mixed with the fetched ones.
+    filesystem.deleteRecursivelyIfExists(test.getPathToTestOutputDirectory());
+    Unzip.extractZipFile(
+        zip.toAbsolutePath(), filesystem, Unzip.ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES);
+  }
+}
@@ -16,6 +16,7 @@
 
 package com.facebook.buck.cli;
 
+import com.facebook.buck.artifact_cache.ArtifactCache;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.io.BuildCellRelativePath;
@@ -28,6 +29,7 @@ import com.facebook.buck.jvm.java.JavaBuckConfig;
 import com.facebook.buck.jvm.java.JavaLibrary;
 import com.facebook.buck.jvm.java.JavaLibraryWithTests;
 import com.facebook.buck.jvm.java.JavaTest;
+import com.facebook.buck.jvm.java.JavaTestShards;
 import com.facebook.buck.jvm.java.JavacOptions;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.model.BuildTarget;
@@ -35,6 +37,7 @@ import com.facebook.buck.model.Either;
 import com.facebook.buck.rules.BuildContext;
 import com.facebook.buck.rules.BuildEngine;
 import com.facebook.buck.rules.BuildRule;
+import com.facebook.buck.rules.BuildRuleResolver;
 import com.facebook.buck.rules.IndividualTestEvent;
 import com.facebook.buck.rules.SourcePath;
 import com.facebook.buck.rules.SourcePathResolver;
@@ -83,6 +86,7 @@ import java.io.IOException;
 import java.io.Writer;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -125,9 +129,10 @@ public class TestRunning {
       final TestRunningOptions options,
       ListeningExecutorService service,
       BuildEngine buildEngine,
+      ArtifactCache artifactCache,
       final StepRunner stepRunner,
       BuildContext buildContext,
-      SourcePathRuleFinder ruleFinder)
+      BuildRuleResolver ruleResolver)
       throws IOException, InterruptedException {
 
     ImmutableSet<JavaLibrary> rulesUnderTestForCoverage;
@@ -181,6 +186,22 @@ public class TestRunning {
     // ListenableFuture.
     List<ListenableFuture<TestResults>> results = new ArrayList<>();
 
+    TestDurationHistory durationHistory =
+        TestDurationHistory.load(params.getCell().getFilesystem());
+
+    // The tests of the rules whose results were fetched from the cache don't run, but their
+    // results are still interpreted from the fetched outputs.
+    TestResultCache resultCache =
+        new TestResultCache(artifactCache, buildEngine, ruleResolver, executionContext, options);
+    ImmutableSet<BuildTarget> cachedTests = resultCache.fetch(tests);
+    if (!cachedTests.isEmpty()) {
+      params
+          .getBuckEventBus()
+          .post(
+              ConsoleEvent.info(
+                  "Reusing the cached results of %d test rule(s).", cachedTests.size()));
+    }
+
     final AtomicInteger lastReportedTestSequenceNumber = new AtomicInteger();
     final List<TestRun> separateTestRuns = new ArrayList<>();
     List<TestRun> parallelTestRuns = new ArrayList<>();
@@ -271,17 +292,36 @@ public class TestRunning {
           };
 
       List<Step> steps;
+      List<List<Step>> shards;
       params.getBuckEventBus().post(IndividualTestEvent.started(testTargets));
       ImmutableList.Builder<Step> stepsBuilder = ImmutableList.builder();
       Preconditions.checkState(buildEngine.isRuleBuilt(test.getBuildTarget()));
-      List<Step> testSteps =
-          test.runTests(executionContext, options, buildContext, testReportingCallback);
-      if (!testSteps.isEmpty()) {
-        stepsBuilder.addAll(testSteps);
+      if (cachedTests.contains(test.getBuildTarget())) {
+        LOG.debug("Using the cached results of test %s", test);
+        shards = ImmutableList.of();
+      } else if (shouldShard(test, options, durationHistory)) {
+        JavaTestShards javaTestShards =
+            ((JavaTest) test)
+                .runTestsInShards(
+                    executionContext,
+                    options,
+                    buildContext,
+                    durationHistory.getTestClassDurations(test.getBuildTarget()),
+                    options.getMaxShardsPerTestRule());
+        LOG.debug("Running test %s in %d shards", test, javaTestShards.getShards().size());
+        stepsBuilder.addAll(javaTestShards.getSetUpSteps());
+        shards = ImmutableList.copyOf(javaTestShards.getShards());
+      } else {
+        List<Step> testSteps =
+            test.runTests(executionContext, options, buildContext, testReportingCallback);
+        if (!testSteps.isEmpty()) {
+          stepsBuilder.addAll(testSteps);
+        }
+        shards = ImmutableList.of();
       }
       steps = stepsBuilder.build();
 
-      TestRun testRun = TestRun.of(test, steps, resultsInterpreter, testReportingCallback);
+      TestRun testRun = TestRun.of(test, steps, shards, resultsInterpreter, testReportingCallback);
 
       // Always run the commands, even if the list of commands as empty. There may be zero
       // commands because the rule is cached, but its results must still be processed.
@@ -294,12 +334,21 @@ public class TestRunning {
       }
     }
 
+    // Start the test rules which took the longest in the previous runs first, so that they don't
+    // end up running on their own while the rest of the threads are idle.
+    parallelTestRuns.sort(
+        Comparator.comparingLong(
+                (TestRun testRun) ->
+                    durationHistory.getTotalDuration(testRun.getTest().getBuildTarget()))
+            .reversed());
+
     for (TestRun testRun : parallelTestRuns) {
       ListenableFuture<TestResults> testResults =
           runStepsAndYieldResult(
               stepRunner,
               executionContext,
               testRun.getSteps(),
+              testRun.getShards(),
               testRun.getTestResultsCallable(),
               testRun.getTest().getBuildTarget(),
               params.getBuckEventBus(),
@@ -337,6 +386,7 @@ public class TestRunning {
                               stepRunner,
                               executionContext,
                               testRun.getSteps(),
+                              testRun.getShards(),
                               testRun.getTestResultsCallable(),
                               testRun.getTest().getBuildTarget(),
                               params.getBuckEventBus(),
@@ -393,6 +443,21 @@ public class TestRunning {
 
     params.getBuckEventBus().post(TestRunEvent.finished(testTargets, completedResults));
 
+    durationHistory.record(completedResults);
+    durationHistory.save();
+
+    Map<BuildTarget, TestRule> testsByTarget = new HashMap<>();
+    for (TestRule test : tests) {
+      testsByTarget.put(test.getBuildTarget(), test);
+    }
+    for (TestResults testResults : completedResults) {
+      TestRule test = testsByTarget.get(testResults.getBuildTarget());
+      if (test != null) {
+        resultCache.store(test, testResults);
+      }
+    }
+    resultCache.waitForStores();
+
     // Write out the results as XML, if requested.
     Optional<String> path = options.getPathToXmlTestOutput();
     if (path.isPresent()) {
@@ -415,7 +480,7 @@ public class TestRunning {
                 javaBuckConfig.getDefaultJavaOptions().getJavaRuntimeLauncher(),
                 params.getCell().getFilesystem(),
                 buildContext.getSourcePathResolver(),
-                ruleFinder,
+                new SourcePathRuleFinder(ruleResolver),
                 JacocoConstants.getJacocoOutputDir(params.getCell().getFilesystem()),
                 options.getCoverageReportFormats(),
                 options.getCoverageReportTitle(),
@@ -789,15 +854,40 @@ public class TestRunning {
     return ImmutableSet.copyOf(srcFolders);
   }
 
+  /**
+   * Only {@link JavaTest}s which are not run separately are sharded, and only when they took long
+   * enough in the previous run for the startup of the additional JVMs to pay off.
+   */
+  private static boolean shouldShard(
+      TestRule test, TestRunningOptions options, TestDurationHistory durationHistory) {
+    return options.getMaxShardsPerTestRule() > 1
+        && test instanceof JavaTest
+        && !test.runTestSeparately()
+        && durationHistory.getTotalDuration(test.getBuildTarget())
+            >= options.getMinShardedTestRuleDurationMs();
+  }
+
   private static ListenableFuture<TestResults> runStepsAndYieldResult(
       StepRunner stepRunner,
       ExecutionContext context,
       final List<Step> steps,
+      List<List<Step>> shards,
       final Callable<TestResults> interpretResults,
       final BuildTarget buildTarget,
       BuckEventBus eventBus,
       ListeningExecutorService listeningExecutorService) {
     Preconditions.checkState(!listeningExecutorService.isShutdown());
+    if (!shards.isEmpty()) {
+      return runShardedStepsAndYieldResult(
+          stepRunner,
+          context,
+          steps,
+          shards,
+          interpretResults,
+          buildTarget,
+          eventBus,
+          listeningExecutorService);
+    }
     Callable<TestResults> callable =
         () -> {
           LOG.debug("Test steps will run for %s", buildTarget);
@@ -813,4 +903,58 @@ public class TestRunning {
 
     return listeningExecutorService.submit(callable);
   }
+
+  /**
+   * Runs {@code steps}, then each of the {@code shards} as a separate task, so that they can run
+   * concurrently, and finally interprets the results of all the shards at once.
+   */
+  private static ListenableFuture<TestResults> runShardedStepsAndYieldResult(
+      StepRunner stepRunner,
+      ExecutionContext context,
+      List<Step> steps,
+      List<List<Step>> shards,
+      Callable<TestResults> interpretResults,
+      BuildTarget buildTarget,
+      BuckEventBus eventBus,
+      ListeningExecutorService listeningExecutorService) {
+    ListenableFuture<Void> setUp =
+        listeningExecutorService.submit(
+            () -> {
+              LOG.debug("Test steps will run for %s in %d shards", buildTarget, shards.size());
+              eventBus.post(TestRuleEvent.started(buildTarget));
+              for (Step step : steps) {
+                stepRunner.runStepForBuildTarget(context, step, Optional.of(buildTarget));
+              }
+              return null;
+            });
+    ListenableFuture<List<Void>> allShards =
+        Futures.transformAsync(
+            setUp,
+            ignored -> {
+              List<ListenableFuture<Void>> shardFutures = new ArrayList<>(shards.size());
+              for (List<Step> shard : shards) {
+                shardFutures.add(
+                    listeningExecutorService.submit(
+                        () -> {
+                          for (Step step : shard) {
+                            stepRunner.runStepForBuildTarget(
+                                context, step, Optional.of(buildTarget));
+                          }
+                          return null;
+                        }));
+              }
+              return Futures.allAsList(shardFutures);
+            },
+            MoreExecutors.directExecutor());
+    return Futures.transformAsync(
+        allShards,
+        ignored ->
+            listeningExecutorService.submit(
+                () -> {
+                  LOG.debug("Test steps did run for %s", buildTarget);
+                  eventBus.post(TestRuleEvent.finished(buildTarget));
+                  return interpretResults.call();
+                }),
+        MoreExecutors.directExecutor());
+  }
 }
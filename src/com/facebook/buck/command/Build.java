@@ -17,6 +17,7 @@
 package com.facebook.buck.command;
 
 import com.facebook.buck.artifact_cache.ArtifactCache;
+import com.facebook.buck.artifact_cache.ArtifactCacheBuckConfig;
 import com.facebook.buck.config.BuckConfig;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.ConsoleEvent;
@@ -35,6 +36,7 @@ import com.facebook.buck.rules.BuildEvent;
 import com.facebook.buck.rules.BuildResult;
 import com.facebook.buck.rules.BuildRule;
 import com.facebook.buck.rules.BuildRuleResolver;
+import com.facebook.buck.rules.CachingBuildEngineBuckConfig;
 import com.facebook.buck.rules.Cell;
 import com.facebook.buck.rules.DefaultSourcePathResolver;
 import com.facebook.buck.rules.SourcePathResolver;
@@ -126,6 +128,13 @@ public class Build implements Closeable {
         .setBuildId(buildId)
         .putAllEnvironment(executionContext.getEnvironment())
         .setKeepGoing(isKeepGoing)
+        .setPrefetchDepsOnMissEnabled(
+            new ArtifactCacheBuckConfig(rootCell.getBuckConfig()).isPrefetchDepsOnMissEnabled())
+        .setSpeculativeCacheProbeEnabled(
+            rootCell
+                .getBuckConfig()
+                .getView(CachingBuildEngineBuckConfig.class)
+                .getSpeculativeCacheProbe())
         .build();
   }
 
@@ -137,6 +146,10 @@ public class Build implements Closeable {
     return executionContext;
   }
 
+  public ArtifactCache getArtifactCache() {
+    return artifactCache;
+  }
+
   // This method is thread-safe
   public int executeAndPrintFailuresToEventBus(
       Iterable<BuildTarget> targetsish,
@@ -305,10 +318,12 @@ public class Build implements Closeable {
   }
 
   private List<BuildEngineResult> initializeBuild(ImmutableList<BuildRule> rulesToBuild)
-      throws IOException {
+      throws IOException, InterruptedException {
     // Setup symlinks required when configuring the output path.
     createConfiguredBuckOutSymlinks();
 
+    buildEngine.prepareToBuild(buildContext, rulesToBuild);
+
     List<BuildEngineResult> resultFutures =
         rulesToBuild
             .stream()
@@ -544,6 +544,11 @@ public class BuckConfig implements ConfigPathGetter {
     return getBooleanValue("cache", "action_graph_cache_check_enabled", false);
   }
 
+  /** @return whether to update the cached action graph when the target graph changes. */
+  public boolean isIncrementalActionGraphEnabled() {
+    return getBooleanValue("cache", "incremental_action_graph", false);
+  }
+
   public Optional<String> getRepository() {
     return config.get("cache", "repository");
   }
@@ -950,6 +955,11 @@ public class BuckConfig implements ConfigPathGetter {
         .orElse(FileHashCacheMode.DEFAULT);
   }
 
+  /** @return whether the daemon should save file hashes for the next daemon to reuse. */
+  public boolean getPersistFileHashCache() {
+    return getBooleanValue("build", "persist_file_hash_cache", false);
+  }
+
   /** Whether to parallelize action graph creation. */
   public ActionGraphParallelizationMode getActionGraphParallelizationMode() {
     return getEnum("build", "action_graph_parallelization", ActionGraphParallelizationMode.class)
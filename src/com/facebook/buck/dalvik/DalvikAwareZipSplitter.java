@@ -75,6 +75,7 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
   private final DexSplitStrategy dexSplitStrategy;
   private final ImmutableSet<String> secondaryHeadSet;
   private final ImmutableSet<String> secondaryTailSet;
+  private final int maxUnderfilledSecondaryZips;
   @Nullable private final ImmutableMultimap<String, APKModule> classPathToDexStore;
 
   private final MySecondaryDexHelper secondaryDexWriter;
@@ -99,6 +100,8 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
       APKModule rootAPKModule,
       DexSplitStrategy dexSplitStrategy,
       CanaryStrategy canaryStrategy,
+      ImmutableMap<String, Integer> previousSecondaryPlacement,
+      int maxUnderfilledSecondaryZips,
       Path reportDir) {
     if (linearAllocLimit <= 0) {
       throw new HumanReadableException("linear_alloc_hard_limit must be greater than zero.");
@@ -107,12 +110,18 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
     this.inFiles = ImmutableSet.copyOf(inFiles);
     this.outPrimary = outPrimary;
     this.secondaryDexWriter =
-        new MySecondaryDexHelper("secondary", outSecondaryDir, secondaryPattern, canaryStrategy);
+        new MySecondaryDexHelper(
+            "secondary",
+            outSecondaryDir,
+            secondaryPattern,
+            canaryStrategy,
+            previousSecondaryPlacement);
     this.additionalDexWriters = new HashMap<>();
     this.requiredInPrimaryZip = requiredInPrimaryZip;
     this.wantedInPrimaryZip = ImmutableSet.copyOf(wantedInPrimaryZip);
     this.secondaryHeadSet = secondaryHeadSet;
     this.secondaryTailSet = secondaryTailSet;
+    this.maxUnderfilledSecondaryZips = maxUnderfilledSecondaryZips;
     this.classPathToDexStore = additionalDexStoreSets.inverse();
     for (APKModule dexStore : additionalDexStoreSets.keySet()) {
       if (!dexStore.equals(rootAPKModule)) {
@@ -122,7 +131,8 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
                 dexStore.getCanaryClassName(),
                 outDexStoresDir.resolve(dexStore.getName()),
                 secondaryPattern,
-                CanaryStrategy.INCLUDE_CANARIES));
+                CanaryStrategy.INCLUDE_CANARIES,
+                ImmutableMap.of()));
       }
     }
     this.rootModule = rootAPKModule;
@@ -132,6 +142,13 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
     this.dalvikStatsCache = new DalvikStatsCache();
   }
 
+  /**
+   * @param previousSecondaryPlacement the index of the secondary zip each class file, by relative
+   *     path, was written to by a previous split. The class files which still fit are written to
+   *     the same zip, so that only the zips with changed classes need to be dexed again.
+   * @param maxUnderfilledSecondaryZips the number of secondary zips of the previous split which may
+   *     be left empty or underfilled before the secondary zips are packed afresh.
+   */
   public static DalvikAwareZipSplitter splitZip(
       ProjectFilesystem filesystem,
       Set<Path> inFiles,
@@ -148,6 +165,8 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
       APKModule rootAPKModule,
       DexSplitStrategy dexSplitStrategy,
       CanaryStrategy canaryStrategy,
+      ImmutableMap<String, Integer> previousSecondaryPlacement,
+      int maxUnderfilledSecondaryZips,
       Path reportDir) {
     return new DalvikAwareZipSplitter(
         filesystem,
@@ -165,17 +184,38 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
         rootAPKModule,
         dexSplitStrategy,
         canaryStrategy,
+        previousSecondaryPlacement,
+        maxUnderfilledSecondaryZips,
         reportDir);
   }
 
   @Override
   public ImmutableMultimap<APKModule, Path> execute() throws IOException {
+    ImmutableMultimap<APKModule, Path> outputFiles = split();
+    int underfilledSecondaryZips = secondaryDexWriter.getUnderfilledZipCount();
+    if (underfilledSecondaryZips > maxUnderfilledSecondaryZips) {
+      LOG.info(
+          "%d secondary zips of the previous split are underfilled, packing them afresh.",
+          underfilledSecondaryZips);
+      for (Path secondaryZip : outputFiles.get(rootModule)) {
+        filesystem.deleteFileAtPathIfExists(secondaryZip);
+      }
+      secondaryDexWriter.discardPreviousPlacement();
+      outputFiles = split();
+    }
+    return outputFiles;
+  }
+
+  private ImmutableMultimap<APKModule, Path> split() throws IOException {
     ClasspathTraverser classpathTraverser = new DefaultClasspathTraverser();
     final Set<String> secondaryTail = new HashSet<String>();
 
     // Start out by writing the primary zip and recording which entries were added to it.
     primaryOut = newZipOutput(outPrimary);
     secondaryDexWriter.reset();
+    for (MySecondaryDexHelper additionalDexWriter : additionalDexWriters.values()) {
+      additionalDexWriter.reset();
+    }
 
     final ImmutableMap.Builder<String, FileLike> entriesBuilder = ImmutableMap.builder();
     final List<String> additionalDexStoreEntries = new ArrayList<>();
@@ -318,8 +358,9 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
         String storeName,
         Path outSecondaryDir,
         String secondaryPattern,
-        CanaryStrategy canaryStrategy) {
-      super(storeName, outSecondaryDir, secondaryPattern, canaryStrategy);
+        CanaryStrategy canaryStrategy,
+        ImmutableMap<String, Integer> previousPlacement) {
+      super(storeName, outSecondaryDir, secondaryPattern, canaryStrategy, previousPlacement);
     }
 
     @Override
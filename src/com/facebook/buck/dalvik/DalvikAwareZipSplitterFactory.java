@@ -19,6 +19,7 @@ package com.facebook.buck.dalvik;
 import com.facebook.buck.android.apkmodule.APKModule;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableSet;
 import java.nio.file.Path;
@@ -28,10 +29,28 @@ public class DalvikAwareZipSplitterFactory implements ZipSplitterFactory {
 
   private final long linearAllocLimit;
   private final Set<String> wantedInPrimaryZip;
+  private final ImmutableMap<String, Integer> previousSecondaryPlacement;
+  private final int maxUnderfilledSecondaryZips;
 
   public DalvikAwareZipSplitterFactory(long linearAllocLimit, Set<String> wantedInPrimaryZip) {
+    this(linearAllocLimit, wantedInPrimaryZip, ImmutableMap.of(), 0);
+  }
+
+  /**
+   * @param previousSecondaryPlacement the index of the secondary zip each class file, by relative
+   *     path, was written to by a previous split, which the splitters keep the class files in.
+   * @param maxUnderfilledSecondaryZips the number of secondary zips of the previous split which may
+   *     be left empty or underfilled before the splitters pack the secondary zips afresh.
+   */
+  public DalvikAwareZipSplitterFactory(
+      long linearAllocLimit,
+      Set<String> wantedInPrimaryZip,
+      ImmutableMap<String, Integer> previousSecondaryPlacement,
+      int maxUnderfilledSecondaryZips) {
     this.linearAllocLimit = linearAllocLimit;
     this.wantedInPrimaryZip = wantedInPrimaryZip;
+    this.previousSecondaryPlacement = previousSecondaryPlacement;
+    this.maxUnderfilledSecondaryZips = maxUnderfilledSecondaryZips;
   }
 
   @Override
@@ -66,6 +85,8 @@ public class DalvikAwareZipSplitterFactory implements ZipSplitterFactory {
         rootAPKModule,
         dexSplitStrategy,
         canaryStrategy,
+        previousSecondaryPlacement,
+        maxUnderfilledSecondaryZips,
         reportDir);
   }
 }
@@ -19,76 +19,159 @@ package com.facebook.buck.dalvik;
 import com.facebook.buck.jvm.java.classes.FileLike;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import java.io.IOException;
 import java.nio.file.Path;
-import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
-/** Helper to write to secondary DEX files. */
+/**
+ * Helper to write to secondary DEX files.
+ *
+ * <p>Entries are written to the last secondary zip until it is full. When given the placement of
+ * the entries in a previous split, the entries which still fit go back to the zip they were in
+ * instead, and the entries which don't, or are new, are written to the last zip of the previous
+ * split and then to new ones. This way a change to a few classes only changes the zips they are in.
+ *
+ * <p>Since removed entries leave room which is never filled again, the zips of the previous split
+ * which end up empty, or with room for an entry written to a later zip, are counted as underfilled.
+ */
 abstract class SecondaryDexHelper<ZIP_OUTPUT_STREAM_HELPER extends ZipOutputStreamHelper> {
 
   private final String storeName;
   private final Path outSecondaryDir;
   private final String secondaryPattern;
   private final ZipSplitter.CanaryStrategy canaryStrategy;
+  private ImmutableMap<String, Integer> previousPlacement;
+  private int lastPreviousIndex;
 
   private int currentSecondaryIndex;
 
-  @Nullable private ZIP_OUTPUT_STREAM_HELPER currentSecondaryOut;
+  private final Map<Integer, ZIP_OUTPUT_STREAM_HELPER> secondaryOuts = new TreeMap<>();
+  private final Map<Integer, Path> secondaryFiles = new TreeMap<>();
+  private final Set<Integer> underfilledIndexes = new HashSet<>();
   private boolean newSecondaryOutOnNextEntry;
-  private ImmutableList.Builder<Path> secondaryFiles;
 
   SecondaryDexHelper(
       String storeName,
       Path outSecondaryDir,
       String secondaryPattern,
       ZipSplitter.CanaryStrategy canaryStrategy) {
+    this(storeName, outSecondaryDir, secondaryPattern, canaryStrategy, ImmutableMap.of());
+  }
+
+  /**
+   * @param previousPlacement the index of the secondary zip each entry, by relative path, was
+   *     written to by a previous split.
+   */
+  SecondaryDexHelper(
+      String storeName,
+      Path outSecondaryDir,
+      String secondaryPattern,
+      ZipSplitter.CanaryStrategy canaryStrategy,
+      ImmutableMap<String, Integer> previousPlacement) {
     this.storeName = storeName;
     this.outSecondaryDir = outSecondaryDir;
     this.secondaryPattern = secondaryPattern;
     this.canaryStrategy = canaryStrategy;
-    this.secondaryFiles = ImmutableList.builder();
+    this.previousPlacement = previousPlacement;
+    this.lastPreviousIndex =
+        previousPlacement.isEmpty() ? 0 : Collections.max(previousPlacement.values());
+    this.currentSecondaryIndex = lastPreviousIndex;
   }
 
   void reset() {
-    currentSecondaryIndex = 0;
-    currentSecondaryOut = null;
-    secondaryFiles = ImmutableList.builder();
+    currentSecondaryIndex = lastPreviousIndex;
+    secondaryOuts.clear();
+    secondaryFiles.clear();
+    underfilledIndexes.clear();
+  }
+
+  /** Forgets the placement of the previous split, so that the next split packs the zips afresh. */
+  void discardPreviousPlacement() {
+    previousPlacement = ImmutableMap.of();
+    lastPreviousIndex = 0;
+    reset();
   }
 
   ZIP_OUTPUT_STREAM_HELPER getOutputToWriteTo(FileLike entry) throws IOException {
-    // Going to write this entry to a secondary zip.
-    if (currentSecondaryOut == null
-        || !currentSecondaryOut.canPutEntry(entry)
+    Integer previousIndex = previousPlacement.get(entry.getRelativePath());
+    if (previousIndex != null
+        && !newSecondaryOutOnNextEntry
+        && getOrCreateOutput(previousIndex).canPutEntry(entry)) {
+      return getOrCreateOutput(previousIndex);
+    }
+
+    // Going to write this entry to the last secondary zip.
+    for (Map.Entry<Integer, ZIP_OUTPUT_STREAM_HELPER> secondaryOut : secondaryOuts.entrySet()) {
+      int index = secondaryOut.getKey();
+      if (index < lastPreviousIndex
+          && !underfilledIndexes.contains(index)
+          && secondaryOut.getValue().canPutEntry(entry)) {
+        underfilledIndexes.add(index);
+      }
+    }
+    if (currentSecondaryIndex == 0
+        || !getOrCreateOutput(currentSecondaryIndex).canPutEntry(entry)
         || newSecondaryOutOnNextEntry) {
-      if (currentSecondaryOut != null) {
-        currentSecondaryOut.close();
+      // The zips which no entry of the previous split goes back to are complete.
+      if (currentSecondaryIndex > lastPreviousIndex) {
+        Preconditions.checkNotNull(secondaryOuts.remove(currentSecondaryIndex)).close();
       }
       currentSecondaryIndex++;
-      Path newSecondaryFile =
-          outSecondaryDir.resolve(String.format(secondaryPattern, currentSecondaryIndex));
-      secondaryFiles.add(newSecondaryFile);
-      currentSecondaryOut = newZipOutput(newSecondaryFile);
       newSecondaryOutOnNextEntry = false;
+      // We've already tested for this. It really shouldn't happen.
+      Preconditions.checkState(getOrCreateOutput(currentSecondaryIndex).canPutEntry(entry));
+    }
+
+    return getOrCreateOutput(currentSecondaryIndex);
+  }
+
+  private ZIP_OUTPUT_STREAM_HELPER getOrCreateOutput(int index) throws IOException {
+    ZIP_OUTPUT_STREAM_HELPER secondaryOut = secondaryOuts.get(index);
+    if (secondaryOut == null) {
+      Preconditions.checkState(!secondaryFiles.containsKey(index), "Zip %s is closed.", index);
+      Path newSecondaryFile = outSecondaryDir.resolve(String.format(secondaryPattern, index));
+      secondaryFiles.put(index, newSecondaryFile);
+      secondaryOut = newZipOutput(newSecondaryFile);
+      secondaryOuts.put(index, secondaryOut);
       if (canaryStrategy == ZipSplitter.CanaryStrategy.INCLUDE_CANARIES) {
         // Make sure the first class in the new secondary dex can be safely loaded.
-        FileLike canaryFile = CanaryFactory.create(storeName, currentSecondaryIndex);
-        currentSecondaryOut.putEntry(canaryFile);
+        FileLike canaryFile = CanaryFactory.create(storeName, index);
+        secondaryOut.putEntry(canaryFile);
       }
-      // We've already tested for this. It really shouldn't happen.
-      Preconditions.checkState(currentSecondaryOut.canPutEntry(entry));
     }
-
-    return currentSecondaryOut;
+    return secondaryOut;
   }
 
   void close() throws IOException {
-    if (currentSecondaryOut != null) {
-      currentSecondaryOut.close();
+    // Keep the secondary zips numbered contiguously, even if all the entries of one of those of the
+    // previous split were removed.
+    int lastIndex = secondaryFiles.isEmpty() ? 0 : Collections.max(secondaryFiles.keySet());
+    for (int index = 1; index < lastIndex; index++) {
+      if (!secondaryFiles.containsKey(index)) {
+        getOrCreateOutput(index);
+        underfilledIndexes.add(index);
+      }
     }
+    for (ZIP_OUTPUT_STREAM_HELPER secondaryOut : secondaryOuts.values()) {
+      secondaryOut.close();
+    }
+  }
+
+  /**
+   * @return the number of zips of the previous split which are empty, or have room for an entry
+   *     which was written to a later zip.
+   */
+  int getUnderfilledZipCount() {
+    return underfilledIndexes.size();
   }
 
   ImmutableList<Path> getFiles() {
-    return secondaryFiles.build();
+    return ImmutableList.copyOf(secondaryFiles.values());
   }
 
   protected abstract ZIP_OUTPUT_STREAM_HELPER newZipOutput(Path file) throws IOException;
@@ -23,6 +23,7 @@ import com.facebook.buck.rules.BuildRuleResolver;
 import com.facebook.buck.rules.HasRuntimeDeps;
 import com.facebook.buck.rules.SourcePathRuleFinder;
 import com.facebook.buck.util.MoreCollectors;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
@@ -30,11 +31,13 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Lists;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Queue;
 import java.util.Set;
 import java.util.stream.Stream;
@@ -43,27 +46,45 @@ import java.util.stream.Stream;
 public class BuildTargetsQueue {
   private static final Logger LOG = Logger.get(BuildTargetsQueue.class);
 
-  private List<EnqueuedTarget> zeroDependencyTargets;
+  /** Hands out the targets with the longest estimated time left to the end of the build first. */
+  private static final Comparator<EnqueuedTarget> LONGEST_CRITICAL_PATH_FIRST =
+      Comparator.<EnqueuedTarget>comparingLong(target -> target.criticalPathMillis)
+          .reversed()
+          .thenComparing(EnqueuedTarget::getBuildTarget);
+
+  private final Queue<EnqueuedTarget> zeroDependencyTargets;
   private final Map<String, EnqueuedTarget> allEnqueuedTargets;
   private final Set<String> seenFinishedNodes = new HashSet<>();
   private int totalBuilt = 0;
 
   private BuildTargetsQueue(
-      List<EnqueuedTarget> zeroDependencyTargets, Map<String, EnqueuedTarget> allEnqueuedTargets) {
+      Queue<EnqueuedTarget> zeroDependencyTargets, Map<String, EnqueuedTarget> allEnqueuedTargets) {
     this.zeroDependencyTargets = zeroDependencyTargets;
     this.allEnqueuedTargets = allEnqueuedTargets;
   }
 
   public static BuildTargetsQueue newEmptyQueue() {
-    return new BuildTargetsQueue(new ArrayList<>(), new HashMap<>());
+    return new BuildTargetsQueue(
+        new PriorityQueue<>(LONGEST_CRITICAL_PATH_FIRST), new HashMap<>());
   }
 
   public static BuildTargetsQueue newQueue(
       BuildRuleResolver resolver, Iterable<BuildTarget> targetsToBuild) {
+    return newQueue(resolver, targetsToBuild, RuleTypeDurations.empty());
+  }
+
+  /**
+   * Creates a queue of the targets to build and their transitive deps, which hands out first the
+   * work units with the longest estimated critical path, according to {@code ruleTypeDurations}.
+   */
+  public static BuildTargetsQueue newQueue(
+      BuildRuleResolver resolver,
+      Iterable<BuildTarget> targetsToBuild,
+      RuleTypeDurations ruleTypeDurations) {
     SourcePathRuleFinder ruleFinder = new SourcePathRuleFinder(resolver);
-    // Build the reverse dependency graph by traversing the action graph Top-Down.
-    Map<String, Set<String>> allReverseDeps = new HashMap<>();
+    // Build the dependency graph by traversing the action graph Top-Down.
     Map<String, Set<String>> allForwardDeps = new HashMap<>();
+    Map<String, Long> estimatedMillis = new HashMap<>();
     Set<String> visitedTargets = new HashSet<>();
     Queue<BuildRule> buildRulesToProcess =
         Lists.newLinkedList(
@@ -79,6 +100,7 @@ public class BuildTargetsQueue {
 
       String target = ruleToTarget(rule);
       allForwardDeps.put(target, new HashSet<>());
+      estimatedMillis.put(target, ruleTypeDurations.estimateMillis(rule.getType()));
 
       ImmutableSortedSet.Builder<BuildRule> allDependencies = ImmutableSortedSet.naturalOrder();
 
@@ -98,11 +120,6 @@ public class BuildTargetsQueue {
 
       for (BuildRule dependencyRule : allDependencies.build()) {
         String dependencyTarget = ruleToTarget(dependencyRule);
-
-        if (!allReverseDeps.containsKey(dependencyTarget)) {
-          allReverseDeps.put(dependencyTarget, new HashSet<>());
-        }
-        allReverseDeps.get(dependencyTarget).add(target);
         allForwardDeps.get(target).add(dependencyTarget);
 
         if (!visitedTargets.contains(dependencyTarget)) {
@@ -112,10 +129,30 @@ public class BuildTargetsQueue {
       }
     }
 
+    return newQueue(allForwardDeps, estimatedMillis);
+  }
+
+  /**
+   * Creates a queue from a dependency graph, given as the dependencies of each target, and from
+   * the estimated time each target takes to build.
+   */
+  @VisibleForTesting
+  static BuildTargetsQueue newQueue(
+      Map<String, Set<String>> allForwardDeps, Map<String, Long> estimatedMillis) {
+    Map<String, Set<String>> allReverseDeps = new HashMap<>();
+    for (Map.Entry<String, Set<String>> entry : allForwardDeps.entrySet()) {
+      for (String dependencyTarget : entry.getValue()) {
+        allReverseDeps.computeIfAbsent(dependencyTarget, k -> new HashSet<>()).add(entry.getKey());
+      }
+    }
+    Map<String, Long> criticalPathMillis =
+        estimateCriticalPaths(allForwardDeps, allReverseDeps, estimatedMillis);
+
     // Do the reference counting and create the EnqueuedTargets.
-    List<EnqueuedTarget> zeroDependencyTargets = new ArrayList<>();
+    Queue<EnqueuedTarget> zeroDependencyTargets =
+        new PriorityQueue<>(LONGEST_CRITICAL_PATH_FIRST);
     Map<String, EnqueuedTarget> allEnqueuedTargets = new HashMap<>();
-    for (String target : visitedTargets) {
+    for (String target : allForwardDeps.keySet()) {
       Iterable<String> currentRevDeps = null;
       if (allReverseDeps.containsKey(target)) {
         currentRevDeps = allReverseDeps.get(target);
@@ -128,7 +165,8 @@ public class BuildTargetsQueue {
               target,
               ImmutableList.copyOf(currentRevDeps),
               allForwardDeps.get(target).size(),
-              ImmutableSet.copyOf(allForwardDeps.get(target)));
+              ImmutableSet.copyOf(allForwardDeps.get(target)),
+              criticalPathMillis.get(target));
       allEnqueuedTargets.put(target, enqueuedTarget);
 
       if (enqueuedTarget.areAllDependenciesResolved()) {
@@ -139,6 +177,45 @@ public class BuildTargetsQueue {
     return new BuildTargetsQueue(zeroDependencyTargets, allEnqueuedTargets);
   }
 
+  /**
+   * Estimates, for each target, how long it takes from the moment it starts building to the end of
+   * the build, if there were enough minions: its own duration plus the longest critical path of
+   * the targets which depend on it.
+   */
+  private static Map<String, Long> estimateCriticalPaths(
+      Map<String, Set<String>> allForwardDeps,
+      Map<String, Set<String>> allReverseDeps,
+      Map<String, Long> estimatedMillis) {
+    // Visit the graph Top-Down, so that all the dependents of a target are done before it.
+    Map<String, Integer> unvisitedDependents = new HashMap<>();
+    Queue<String> targetsToVisit = new LinkedList<>();
+    for (String target : allForwardDeps.keySet()) {
+      int dependents = allReverseDeps.getOrDefault(target, ImmutableSet.of()).size();
+      unvisitedDependents.put(target, dependents);
+      if (dependents == 0) {
+        targetsToVisit.add(target);
+      }
+    }
+
+    Map<String, Long> criticalPathMillis = new HashMap<>();
+    while (!targetsToVisit.isEmpty()) {
+      String target = targetsToVisit.remove();
+      long longestDependentPath = 0;
+      for (String dependent : allReverseDeps.getOrDefault(target, ImmutableSet.of())) {
+        longestDependentPath = Math.max(longestDependentPath, criticalPathMillis.get(dependent));
+      }
+      criticalPathMillis.put(
+          target, estimatedMillis.getOrDefault(target, 0L) + longestDependentPath);
+
+      for (String dependency : allForwardDeps.get(target)) {
+        if (unvisitedDependents.merge(dependency, -1, Integer::sum) == 0) {
+          targetsToVisit.add(dependency);
+        }
+      }
+    }
+    return criticalPathMillis;
+  }
+
   public boolean hasReadyZeroDependencyNodes() {
     return zeroDependencyTargets.size() > 0;
   }
@@ -157,8 +234,7 @@ public class BuildTargetsQueue {
     }
 
     List<WorkUnit> newUnitsOfWork = new ArrayList<>();
-    createWorkUnitsStartingAtNodes(
-        new HashSet<>(zeroDependencyTargets), newUnitsOfWork, maxUnitsOfWork);
+    createWorkUnitsStartingAtZeroDependencyNodes(newUnitsOfWork, maxUnitsOfWork);
 
     if (newUnitsOfWork.size() > 0) {
       LOG.info(String.format("Returning [%s] work units", newUnitsOfWork.size()));
@@ -210,12 +286,12 @@ public class BuildTargetsQueue {
             zeroDependencyTargets.size(), allEnqueuedTargets.size(), totalBuilt));
   }
 
-  private void createWorkUnitsStartingAtNodes(
-      Set<EnqueuedTarget> nodes, List<WorkUnit> newUnitsOfWork, int maxUnitsOfWork) {
-    for (EnqueuedTarget node : nodes) {
-      if (newUnitsOfWork.size() == maxUnitsOfWork) {
-        return;
-      }
+  private void createWorkUnitsStartingAtZeroDependencyNodes(
+      List<WorkUnit> newUnitsOfWork, int maxUnitsOfWork) {
+    // The nodes with the longest critical path come out first, so that the long chains of the
+    // graph start as early as possible, instead of keeping the minions waiting at the end.
+    while (newUnitsOfWork.size() < maxUnitsOfWork && !zeroDependencyTargets.isEmpty()) {
+      EnqueuedTarget node = zeroDependencyTargets.remove();
 
       if (node.partOfBuildingUnitOfWork) {
         continue; // Node may form work unit with an earlier zero dependency node
@@ -223,8 +299,9 @@ public class BuildTargetsQueue {
 
       LOG.debug(
           String.format(
-              "Node [%s] is zero dependency. Starting unit of work from here",
-              node.getBuildTarget()));
+              "Node [%s] is zero dependency, with critical path [%s ms]. "
+                  + "Starting unit of work from here",
+              node.getBuildTarget(), node.criticalPathMillis));
 
       newUnitsOfWork.add(getUnitOfWorkStartingAtLeafNode(node));
     }
@@ -283,6 +360,7 @@ public class BuildTargetsQueue {
     private final ImmutableList<String> dependentTargets;
     private final Set<String> allDependencies;
     private final Set<String> dependenciesRemaining;
+    private final long criticalPathMillis;
     private int unsatisfiedDependencies;
 
     private boolean partOfBuildingUnitOfWork = false;
@@ -291,12 +369,14 @@ public class BuildTargetsQueue {
         String buildTarget,
         ImmutableList<String> dependentTargets,
         int numberOfDependencies,
-        ImmutableSet<String> dependenciesRemaining) {
+        ImmutableSet<String> dependenciesRemaining,
+        long criticalPathMillis) {
       this.buildTarget = buildTarget;
       this.dependentTargets = dependentTargets;
       this.unsatisfiedDependencies = numberOfDependencies;
       this.dependenciesRemaining = new HashSet<>(dependenciesRemaining);
       this.allDependencies = new HashSet<>(dependenciesRemaining);
+      this.criticalPathMillis = criticalPathMillis;
     }
 
     public boolean areAllDependenciesResolved() {
@@ -338,6 +418,8 @@ public class BuildTargetsQueue {
           + "buildTarget='"
           + buildTarget
           + '\''
+          + ", criticalPathMillis="
+          + criticalPathMillis
           + ", unsatisfiedDependencies="
           + unsatisfiedDependencies
           + ", dependentTargets="
@@ -27,6 +27,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 import okhttp3.OkHttpClient;
@@ -65,6 +66,12 @@ public class DistBuildConfig {
   private static final String MAX_BUILD_NODES_PER_MINION = "max_build_nodes_per_minion";
   private static final int DEFAULT_MAX_BUILD_NODES_PER_MINION = 28;
 
+  private static final String MINION_POLL_LOOP_INTERVAL_MILLIS =
+      "minion_poll_loop_interval_millis";
+  static final long DEFAULT_MINION_POLL_LOOP_INTERVAL_MILLIS = 10;
+
+  private static final String RULE_TYPE_DURATIONS_FILE = "rule_type_durations_file";
+
   private static final String SOURCE_FILE_MULTI_FETCH_BUFFER_PERIOD_MS =
       "source_file_multi_fetch_buffer_period_ms";
   private static final String SOURCE_FILE_MULTI_FETCH_MAX_BUFFER_SIZE =
@@ -96,6 +103,24 @@ public class DistBuildConfig {
     return buckConfig;
   }
 
+  /** How long a minion waits before asking the coordinator for work again, when it got none. */
+  public long getMinionPollLoopIntervalMillis() {
+    return buckConfig
+        .getLong(STAMPEDE_SECTION, MINION_POLL_LOOP_INTERVAL_MILLIS)
+        .orElse(DEFAULT_MINION_POLL_LOOP_INTERVAL_MILLIS);
+  }
+
+  /**
+   * The file where the average build duration of each rule type is recorded after every build, and
+   * from which the coordinator estimates the critical path of the graph.
+   */
+  public Optional<Path> getRuleTypeDurationsFile() {
+    return buckConfig
+        .getValue(STAMPEDE_SECTION, RULE_TYPE_DURATIONS_FILE)
+        .map(Paths::get)
+        .map(buckConfig::resolvePathThatMayBeOutsideTheProjectFilesystem);
+  }
+
   public Optional<Long> getSourceFileMultiFetchBufferPeriodMs() {
     return buckConfig.getLong(STAMPEDE_SECTION, SOURCE_FILE_MULTI_FETCH_BUFFER_PERIOD_MS);
   }
@@ -131,6 +131,7 @@ public class DistBuildSlaveExecutor {
         localBuilder,
         args.getStampedeId(),
         args.getDistBuildConfig().getMaxBuildNodesPerMinion(),
+        args.getDistBuildConfig().getMinionPollLoopIntervalMillis(),
         checker);
   }
 
@@ -141,7 +142,11 @@ public class DistBuildSlaveExecutor {
             Preconditions.checkNotNull(actionGraphAndResolver).getResolver(),
             DistBuildUtil.fullyQualifiedNameToBuildTarget(
                 args.getState().getRootCell().getCellPathResolver(),
-                args.getState().getRemoteState().getTopLevelTargets()));
+                args.getState().getRemoteState().getTopLevelTargets()),
+            args.getDistBuildConfig()
+                .getRuleTypeDurationsFile()
+                .map(RuleTypeDurations::load)
+                .orElse(RuleTypeDurations.empty()));
     Optional<String> minionQueue = args.getDistBuildConfig().getMinionQueue();
     Preconditions.checkArgument(
         minionQueue.isPresent(),
@@ -34,15 +34,13 @@ public class MinionModeRunner implements DistBuildModeRunner {
 
   private static final Logger LOG = Logger.get(MinionModeRunner.class);
 
-  // TODO(alisdair): make this a .buckconfig setting
-  private static final int IDLE_SLEEP_INTERVAL_MS = 10;
-
   private final String coordinatorAddress;
   private final int coordinatorPort;
   private final LocalBuilder builder;
   private final StampedeId stampedeId;
   private final BuildCompletionChecker buildCompletionChecker;
   private final int maxParallelWorkUnits;
+  private final long idleSleepIntervalMs;
 
   /** Callback when the build has completed. */
   public interface BuildCompletionChecker {
@@ -57,6 +55,28 @@ public class MinionModeRunner implements DistBuildModeRunner {
       StampedeId stampedeId,
       int maxParallelWorkUnits,
       BuildCompletionChecker buildCompletionChecker) {
+    this(
+        coordinatorAddress,
+        coordinatorPort,
+        builder,
+        stampedeId,
+        maxParallelWorkUnits,
+        DistBuildConfig.DEFAULT_MINION_POLL_LOOP_INTERVAL_MILLIS,
+        buildCompletionChecker);
+  }
+
+  /**
+   * @param idleSleepIntervalMs how long to wait before asking the coordinator for work again, when
+   *     it had nothing to hand out.
+   */
+  public MinionModeRunner(
+      String coordinatorAddress,
+      int coordinatorPort,
+      LocalBuilder builder,
+      StampedeId stampedeId,
+      int maxParallelWorkUnits,
+      long idleSleepIntervalMs,
+      BuildCompletionChecker buildCompletionChecker) {
     this.buildCompletionChecker = buildCompletionChecker;
     this.builder = builder;
     this.stampedeId = stampedeId;
@@ -65,6 +85,7 @@ public class MinionModeRunner implements DistBuildModeRunner {
     this.coordinatorAddress = coordinatorAddress;
     this.coordinatorPort = coordinatorPort;
     this.maxParallelWorkUnits = maxParallelWorkUnits;
+    this.idleSleepIntervalMs = idleSleepIntervalMs;
   }
 
   @Override
@@ -89,7 +110,7 @@ public class MinionModeRunner implements DistBuildModeRunner {
 
         // If there was nothing to build, then go to sleep for a few milliseconds and try again.
         if (response.getWorkUnits().size() == 0) {
-          Thread.sleep(IDLE_SLEEP_INTERVAL_MS);
+          Thread.sleep(idleSleepIntervalMs);
           continue;
         }
 
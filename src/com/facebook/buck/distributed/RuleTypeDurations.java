@@ -0,0 +1,112 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.distributed;
+
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.util.ObjectMappers;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * How long each type of rule took to build in previous builds, used to estimate how long the rules
+ * of the next build will take.
+ *
+ * <p>The durations are stored as a JSON map from rule type to milliseconds. Rules of a type which
+ * has never been recorded are estimated to take the average of all the recorded types.
+ */
+public class RuleTypeDurations {
+
+  private static final Logger LOG = Logger.get(RuleTypeDurations.class);
+
+  /** The estimate of every rule when nothing has been recorded yet. */
+  private static final long DEFAULT_MILLIS = 1;
+
+  private final ImmutableMap<String, Long> millisByRuleType;
+  private final long defaultMillis;
+
+  private RuleTypeDurations(ImmutableMap<String, Long> millisByRuleType) {
+    this.millisByRuleType = millisByRuleType;
+    this.defaultMillis =
+        millisByRuleType.isEmpty()
+            ? DEFAULT_MILLIS
+            : Math.max(
+                DEFAULT_MILLIS,
+                Math.round(
+                    millisByRuleType
+                        .values()
+                        .stream()
+                        .mapToLong(Long::longValue)
+                        .average()
+                        .getAsDouble()));
+  }
+
+  public static RuleTypeDurations empty() {
+    return new RuleTypeDurations(ImmutableMap.of());
+  }
+
+  public static RuleTypeDurations of(Map<String, Long> millisByRuleType) {
+    return new RuleTypeDurations(ImmutableMap.copyOf(millisByRuleType));
+  }
+
+  /** Reads the durations stored in a file, or returns no durations if it cannot be read. */
+  public static RuleTypeDurations load(Path file) {
+    if (!Files.exists(file)) {
+      return empty();
+    }
+    try {
+      return of(ObjectMappers.readValue(file, new TypeReference<Map<String, Long>>() {}));
+    } catch (IOException e) {
+      LOG.warn(e, "Unable to load rule type durations from [%s].", file);
+      return empty();
+    }
+  }
+
+  /** Writes the durations to a file, so that {@link #load(Path)} can read them back. */
+  public void save(Path file) throws IOException {
+    if (file.getParent() != null) {
+      Files.createDirectories(file.getParent());
+    }
+    ObjectMappers.WRITER.writeValue(file.toFile(), new TreeMap<>(millisByRuleType));
+  }
+
+  /**
+   * Returns the durations updated with those of a new build. Each recorded type moves half way
+   * towards its new duration, so that a single unusual build does not skew the estimates for long.
+   */
+  public RuleTypeDurations update(Map<String, Long> newMillisByRuleType) {
+    Map<String, Long> updated = new TreeMap<>(millisByRuleType);
+    for (Map.Entry<String, Long> entry : newMillisByRuleType.entrySet()) {
+      updated.merge(
+          entry.getKey(), entry.getValue(), (oldMillis, newMillis) -> (oldMillis + newMillis) / 2);
+    }
+    return of(updated);
+  }
+
+  public ImmutableMap<String, Long> getMillisByRuleType() {
+    return millisByRuleType;
+  }
+
+  /** Returns how long a rule of the given type is expected to take to build. */
+  public long estimateMillis(String ruleType) {
+    return millisByRuleType.getOrDefault(ruleType, defaultMillis);
+  }
+}
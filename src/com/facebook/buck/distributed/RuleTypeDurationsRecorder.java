@@ -0,0 +1,79 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.distributed;
+
+import com.facebook.buck.event.BuckEventListener;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.BuildId;
+import com.facebook.buck.rules.BuildRuleEvent;
+import com.facebook.buck.rules.BuildRuleSuccessType;
+import com.google.common.eventbus.Subscribe;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Records how long the rules built locally took on average, per rule type, and merges them into the
+ * {@link RuleTypeDurations} stored in a file at the end of the command. The coordinator of a
+ * distributed build reads them back to estimate the critical path of its graph.
+ */
+public class RuleTypeDurationsRecorder implements BuckEventListener {
+
+  private static final Logger LOG = Logger.get(RuleTypeDurationsRecorder.class);
+
+  private final Path durationsFile;
+  private final ConcurrentMap<String, Long> totalMillisByRuleType = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Long> countByRuleType = new ConcurrentHashMap<>();
+
+  public RuleTypeDurationsRecorder(Path durationsFile) {
+    this.durationsFile = durationsFile;
+  }
+
+  @Subscribe
+  public void buildRuleFinished(BuildRuleEvent.Finished finished) {
+    // Rules fetched from the cache, or already up to date, say nothing about how long they take
+    // to build.
+    if (!finished.getSuccessType().equals(Optional.of(BuildRuleSuccessType.BUILT_LOCALLY))) {
+      return;
+    }
+    String ruleType = finished.getBuildRule().getType();
+    totalMillisByRuleType.merge(
+        ruleType, finished.getDuration().getWallMillisDuration(), Long::sum);
+    countByRuleType.merge(ruleType, 1L, Long::sum);
+  }
+
+  @Override
+  public void outputTrace(BuildId buildId) {
+    if (countByRuleType.isEmpty()) {
+      return;
+    }
+    Map<String, Long> averageMillisByRuleType = new HashMap<>();
+    for (Map.Entry<String, Long> entry : countByRuleType.entrySet()) {
+      averageMillisByRuleType.put(
+          entry.getKey(), totalMillisByRuleType.get(entry.getKey()) / entry.getValue());
+    }
+    try {
+      RuleTypeDurations.load(durationsFile).update(averageMillisByRuleType).save(durationsFile);
+    } catch (IOException e) {
+      LOG.warn(e, "Unable to save rule type durations to [%s].", durationsFile);
+    }
+  }
+}
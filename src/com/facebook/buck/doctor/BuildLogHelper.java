@@ -129,6 +129,12 @@ public class BuildLogHelper {
       builder.setRuleKeyDiagGraphFile(ruleKeyDiagGraphFile);
     }
 
+    Path criticalPathReportFile =
+        logFile.getParent().resolve(BuckConstant.CRITICAL_PATH_REPORT_FILE_NAME);
+    if (projectFilesystem.isFile(criticalPathReportFile)) {
+      builder.setCriticalPathReportFile(criticalPathReportFile);
+    }
+
     Optional<Path> traceFile =
         projectFilesystem
             .getFilesUnderPath(logFile.getParent())
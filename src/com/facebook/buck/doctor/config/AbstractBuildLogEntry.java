@@ -45,6 +45,8 @@ abstract class AbstractBuildLogEntry {
 
   public abstract Optional<Path> getTraceFile();
 
+  public abstract Optional<Path> getCriticalPathReportFile();
+
   public abstract long getSize();
 
   public abstract Date getLastModifiedTime();
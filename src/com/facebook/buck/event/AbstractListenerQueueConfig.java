@@ -0,0 +1,70 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event;
+
+import com.facebook.buck.util.immutables.BuckStyleImmutable;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import org.immutables.value.Value;
+
+/**
+ * How many events {@link DefaultBuckEventBus} queues for each of its listeners, and what it does
+ * with the events of a listener which fell that far behind. Event types are named by the simple
+ * name of the event class, or of any class or interface it extends.
+ */
+@Value.Immutable
+@BuckStyleImmutable
+abstract class AbstractListenerQueueConfig {
+
+  @Value.Default
+  public int getMaxQueuedEvents() {
+    return 10_000;
+  }
+
+  /**
+   * How long a thread which posts an event waits for room in the full queue of a listener, before
+   * the event is queued over the limit. Only the {@link #getDroppedEventTypes()} and {@link
+   * #getCoalescedEventTypes()} are ever lost.
+   */
+  @Value.Default
+  public long getMaxBlockMillis() {
+    return 1000;
+  }
+
+  /**
+   * Events of these types are dropped for the listeners whose queue is full, rather than having the
+   * thread which posts them wait for room.
+   */
+  public abstract ImmutableSet<String> getDroppedEventTypes();
+
+  /**
+   * Only the latest event of each of these types which a listener did not receive yet is delivered
+   * to it, so these should be events which supersede the previous ones, like progress updates.
+   */
+  @Value.Default
+  public ImmutableSet<String> getCoalescedEventTypes() {
+    return ImmutableSet.of(ProgressEvent.class.getSimpleName());
+  }
+
+  @Value.Check
+  protected void check() {
+    Preconditions.checkArgument(
+        getMaxQueuedEvents() > 0, "At least one event must be queued per listener.");
+    Preconditions.checkArgument(
+        getMaxBlockMillis() >= 0, "Threads cannot wait for room for a negative time.");
+  }
+}
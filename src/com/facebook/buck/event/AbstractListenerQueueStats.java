@@ -0,0 +1,42 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event;
+
+import com.facebook.buck.util.immutables.BuckStyleTuple;
+import org.immutables.value.Value;
+
+/** How far behind a listener of {@link DefaultBuckEventBus} is, and was. */
+@Value.Immutable
+@BuckStyleTuple
+abstract class AbstractListenerQueueStats {
+
+  public abstract String getListenerName();
+
+  /** @return how many events are queued for the listener right now. */
+  public abstract int getQueuedEvents();
+
+  /** @return the most events which were ever queued for the listener at once. */
+  public abstract int getMaxQueuedEvents();
+
+  public abstract long getDeliveredEvents();
+
+  /** @return how many events were not delivered because the queue of the listener was full. */
+  public abstract long getDroppedEvents();
+
+  /** @return how many events were not delivered because a later event superseded them. */
+  public abstract long getCoalescedEvents();
+}
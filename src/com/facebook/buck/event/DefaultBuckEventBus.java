@@ -19,19 +19,34 @@ import com.facebook.buck.log.CommandThreadFactory;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.model.BuildId;
 import com.facebook.buck.timing.Clock;
+import com.facebook.buck.util.MoreCollectors;
 import com.facebook.buck.util.Threads;
-import com.facebook.buck.util.concurrent.MostExecutors;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
 import com.google.common.eventbus.EventBus;
+import com.google.common.reflect.TypeToken;
 import com.google.common.util.concurrent.MoreExecutors;
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
-/** Thin wrapper around guava event bus. */
+/**
+ * Delivers events to the objects registered with it, through their {@link
+ * com.google.common.eventbus.Subscribe} methods.
+ *
+ * <p>When asynchronous, each listener has its own bounded queue of the events it did not receive
+ * yet, so that a slow listener does not hold up the others, and events are only queued for the
+ * listeners which subscribe to them. What happens to the events of a listener whose queue is full
+ * depends on the {@link ListenerQueueConfig}.
+ */
 public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus {
 
   private static final Logger LOG = Logger.get(BuckEventBus.class);
@@ -42,54 +57,81 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
       () -> Thread.currentThread().getId();
 
   private final Clock clock;
-  private final ExecutorService executorService;
+  private final boolean async;
   private final EventBus eventBus;
+  private final ExecutorService executorService;
+  private final ListenerQueueConfig listenerQueueConfig;
+  private final List<ListenerQueue> listenerQueues = new CopyOnWriteArrayList<>();
+  private final ConcurrentMap<Class<?>, ListenerQueue.OverflowPolicy> overflowPolicies =
+      new ConcurrentHashMap<>();
   private final Supplier<Long> threadIdSupplier;
   private final BuildId buildId;
   private final int shutdownTimeoutMillis;
-
-  // synchronization variables to ensure proper shutdown
-  private volatile int activeTasks = 0;
-  private final Object lock = new Object();
+  private volatile boolean closed = false;
 
   public DefaultBuckEventBus(Clock clock, BuildId buildId) {
-    this(clock, true, buildId, DEFAULT_SHUTDOWN_TIMEOUT_MS);
+    this(clock, buildId, ListenerQueueConfig.builder().build());
+  }
+
+  public DefaultBuckEventBus(
+      Clock clock, BuildId buildId, ListenerQueueConfig listenerQueueConfig) {
+    this(clock, true, buildId, DEFAULT_SHUTDOWN_TIMEOUT_MS, listenerQueueConfig);
   }
 
   @VisibleForTesting
   public DefaultBuckEventBus(
       Clock clock, boolean async, BuildId buildId, int shutdownTimeoutMillis) {
+    this(clock, async, buildId, shutdownTimeoutMillis, ListenerQueueConfig.builder().build());
+  }
+
+  @VisibleForTesting
+  DefaultBuckEventBus(
+      Clock clock,
+      boolean async,
+      BuildId buildId,
+      int shutdownTimeoutMillis,
+      ListenerQueueConfig listenerQueueConfig) {
     this.clock = clock;
+    this.async = async;
+    this.eventBus = new EventBus("buck-build-events");
+    // Listeners only take a thread while they have events to handle.
     this.executorService =
         async
-            ? MostExecutors.newSingleThreadExecutor(
+            ? Executors.newCachedThreadPool(
                 new CommandThreadFactory(BuckEventBus.class.getSimpleName()))
             : MoreExecutors.newDirectExecutorService();
-    this.eventBus = new EventBus("buck-build-events");
+    this.listenerQueueConfig = listenerQueueConfig;
     this.threadIdSupplier = DEFAULT_THREAD_ID_SUPPLIER;
     this.buildId = buildId;
     this.shutdownTimeoutMillis = shutdownTimeoutMillis;
   }
 
   private void dispatch(final BuckEvent event) {
-    // keep track the number of active tasks so we can do proper shutdown
-    synchronized (lock) {
-      activeTasks++;
+    if (!async) {
+      eventBus.post(event);
+      return;
+    }
+    if (closed) {
+      LOG.debug("Dropping %s, which was posted after the event bus was closed.", event);
+      return;
     }
+    ListenerQueue.OverflowPolicy policy =
+        overflowPolicies.computeIfAbsent(event.getClass(), this::getOverflowPolicy);
+    for (ListenerQueue listenerQueue : listenerQueues) {
+      listenerQueue.add(event, policy);
+    }
+  }
 
-    executorService.submit(
-        () -> {
-          try {
-            eventBus.post(event);
-          } finally {
-            // event bus should not throw but just in case wrap with try-finally
-            synchronized (lock) {
-              activeTasks--;
-              // notify about task completion; shutdown may wait for it
-              lock.notifyAll();
-            }
-          }
-        });
+  private ListenerQueue.OverflowPolicy getOverflowPolicy(Class<?> eventClass) {
+    ListenerQueue.OverflowPolicy policy = ListenerQueue.OverflowPolicy.BLOCK;
+    for (Class<?> type : TypeToken.of(eventClass).getTypes().rawTypes()) {
+      if (listenerQueueConfig.getCoalescedEventTypes().contains(type.getSimpleName())) {
+        return ListenerQueue.OverflowPolicy.COALESCE;
+      } else if (listenerQueueConfig.getDroppedEventTypes().contains(type.getSimpleName())) {
+        policy = ListenerQueue.OverflowPolicy.DROP;
+      }
+    }
+    return policy;
   }
 
   @Override
@@ -112,7 +154,24 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
 
   @Override
   public void register(Object object) {
-    eventBus.register(object);
+    if (async) {
+      listenerQueues.add(
+          new ListenerQueue(
+              object,
+              executorService,
+              listenerQueueConfig.getMaxQueuedEvents(),
+              listenerQueueConfig.getMaxBlockMillis()));
+    } else {
+      eventBus.register(object);
+    }
+  }
+
+  /** @return how far behind each listener is, and was, when events are delivered asynchronously. */
+  public ImmutableList<ListenerQueueStats> getListenerQueueStats() {
+    return listenerQueues
+        .stream()
+        .map(ListenerQueue::getStats)
+        .collect(MoreCollectors.toImmutableList());
   }
 
   @Override
@@ -139,51 +198,50 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
   }
 
   /**
-   * {@link ExecutorService#awaitTermination(long, java.util.concurrent.TimeUnit)} is called to wait
-   * for events which have been posted, but which have been queued by the {@link EventBus}, to be
-   * delivered. This allows listeners to record or report as much information as possible. This aids
-   * debugging when close is called during exception processing.
+   * Waits for the events which have been posted, but not delivered yet, to be delivered to all the
+   * listeners, including those posted by listeners meanwhile. This allows listeners to record or
+   * report as much information as possible. This aids debugging when close is called during
+   * exception processing.
    */
   @Override
   public void close() throws IOException {
-    // it might have happened that executor service is still processing a task which in turn may
-    // post new tasks to the executor, in this case if we shutdown executor they won't be processed
-    // so first wait for all currently running tasks and their descendants to finish
-    // ideally it should be done inside executorService but it only provides shutdown() method
-    // which immediately stops accepting new tasks, that's why we have some wrapper on top of it
-    long timeoutTime = System.currentTimeMillis() + shutdownTimeoutMillis;
-    synchronized (lock) {
-      while (activeTasks > 0) {
-
-        long waitTime = timeoutTime - System.currentTimeMillis();
-        if (waitTime <= 0) {
-          break;
-        }
-
-        try {
-          lock.wait(waitTime);
-        } catch (InterruptedException e) {
-          Threads.interruptCurrentThread();
-          break;
-        }
-      }
+    if (!async) {
+      return;
     }
-
-    executorService.shutdown();
+    long deadlineNanos =
+        System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(shutdownTimeoutMillis);
+    boolean delivered = true;
     try {
-      long waitTime = timeoutTime - System.currentTimeMillis();
-      if (waitTime <= 0 || !executorService.awaitTermination(waitTime, TimeUnit.MILLISECONDS)) {
-        LOG.warn(
-            Joiner.on(System.lineSeparator())
-                .join(
-                    "The BuckEventBus failed to shut down within the standard timeout.",
-                    "Your build might have succeeded, but some messages were probably lost.",
-                    "Here's some debugging information:",
-                    executorService.toString()));
-        executorService.shutdownNow();
-      }
+      // Listeners may post events to the others while they handle theirs.
+      boolean allIdle;
+      do {
+        allIdle = true;
+        for (ListenerQueue listenerQueue : listenerQueues) {
+          allIdle &= listenerQueue.isIdle();
+          delivered &= listenerQueue.awaitDelivery(deadlineNanos);
+        }
+      } while (delivered && !allIdle);
     } catch (InterruptedException e) {
       Threads.interruptCurrentThread();
+      delivered = false;
+    }
+    closed = true;
+
+    for (ListenerQueue listenerQueue : listenerQueues) {
+      listenerQueue.close();
+      LOG.debug("Listener queue: %s", listenerQueue.getStats());
+    }
+    if (!delivered) {
+      LOG.warn(
+          Joiner.on(System.lineSeparator())
+              .join(
+                  "The BuckEventBus failed to shut down within the standard timeout.",
+                  "Your build might have succeeded, but some messages were probably lost.",
+                  "Here's some debugging information:",
+                  getListenerQueueStats()));
+      executorService.shutdownNow();
+    } else {
+      executorService.shutdown();
     }
   }
 
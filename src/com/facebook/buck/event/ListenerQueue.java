@@ -0,0 +1,303 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event;
+
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.util.Threads;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.reflect.TypeToken;
+import java.lang.reflect.Method;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The events posted to a {@link DefaultBuckEventBus} which one of its listeners did not receive
+ * yet. They are delivered in the order they were posted, one at a time, by whichever thread of the
+ * executor of the bus is free, so that a slow listener only holds up the threads which post more
+ * events than it can take.
+ *
+ * <p>Queuing an event takes no lock. A thread only waits for a lock when the queue is full and the
+ * events have to wait for room, and then only for a bounded time, so that a listener which stopped
+ * handling events cannot stop the threads which post them. Such events are queued anyway, over the
+ * limit, rather than lost.
+ */
+class ListenerQueue {
+
+  /** What to do with an event for a listener whose queue is full. */
+  enum OverflowPolicy {
+    /**
+     * Wait for room, unless on a thread which delivers events, which could wait for itself, and
+     * queue the event over the limit if there is still no room after the configured time.
+     */
+    BLOCK,
+    /** Do not deliver the event to the listener. */
+    DROP,
+    /** Replace the previous event of the same class which is still queued, if any. */
+    COALESCE,
+  }
+
+  private static final Logger LOG = Logger.get(ListenerQueue.class);
+
+  private static final ThreadLocal<Boolean> IS_DELIVERING = ThreadLocal.withInitial(() -> false);
+  private static final long WAIT_FOR_ROOM_MILLIS = 100;
+
+  private final String listenerName;
+  private final EventBus eventBus;
+  private final ImmutableSet<Class<?>> subscribedTypes;
+  private final ConcurrentMap<Class<?>, Boolean> isSubscribedTo = new ConcurrentHashMap<>();
+  private final Executor executor;
+  private final int maxQueuedEvents;
+  private final long maxBlockNanos;
+
+  // Holds BuckEvents, and the slots of coalesced event classes which hold the latest such event.
+  private final Queue<Object> queue = new ConcurrentLinkedQueue<>();
+  private final ConcurrentMap<Class<?>, AtomicReference<BuckEvent>> coalescingSlots =
+      new ConcurrentHashMap<>();
+  private final AtomicInteger queuedEvents = new AtomicInteger();
+  private final AtomicBoolean delivering = new AtomicBoolean();
+  private final Object stateLock = new Object();
+  private volatile boolean closed = false;
+  // Set when an event waited for room in vain, until the listener takes an event off the queue, so
+  // that a listener which stopped handling events does not make every event wait.
+  private volatile boolean stalled = false;
+
+  private final AtomicInteger maxSeenQueuedEvents = new AtomicInteger();
+  private final AtomicLong deliveredEvents = new AtomicLong();
+  private final AtomicLong droppedEvents = new AtomicLong();
+  private final AtomicLong coalescedEvents = new AtomicLong();
+  private final AtomicLong timedOutEvents = new AtomicLong();
+
+  ListenerQueue(Object listener, Executor executor, int maxQueuedEvents, long maxBlockMillis) {
+    this.listenerName = getName(listener);
+    this.eventBus = new EventBus(listenerName);
+    this.eventBus.register(listener);
+    this.subscribedTypes = getSubscribedTypes(listener);
+    this.executor = executor;
+    this.maxQueuedEvents = maxQueuedEvents;
+    this.maxBlockNanos = TimeUnit.MILLISECONDS.toNanos(maxBlockMillis);
+  }
+
+  /** @return whether the current thread is delivering events to a listener. */
+  static boolean isDeliveringThread() {
+    return IS_DELIVERING.get();
+  }
+
+  void add(BuckEvent event, OverflowPolicy policy) {
+    if (closed || !isSubscribedTo(event.getClass())) {
+      return;
+    }
+
+    if (policy == OverflowPolicy.COALESCE) {
+      // Each class has a single slot in the queue, so these do not count towards its size.
+      AtomicReference<BuckEvent> slot =
+          coalescingSlots.computeIfAbsent(event.getClass(), type -> new AtomicReference<>());
+      if (slot.getAndSet(event) != null) {
+        coalescedEvents.incrementAndGet();
+        return;
+      }
+      queue.add(slot);
+    } else {
+      if (!reserveRoom(policy)) {
+        droppedEvents.incrementAndGet();
+        return;
+      }
+      queue.add(event);
+    }
+    scheduleDelivery();
+  }
+
+  private boolean reserveRoom(OverflowPolicy policy) {
+    boolean waiting = false;
+    long deadlineNanos = 0;
+    while (true) {
+      int queued = queuedEvents.get();
+      if (queued >= maxQueuedEvents && !closed) {
+        if (policy == OverflowPolicy.DROP) {
+          return false;
+        } else if (!isDeliveringThread() && !stalled) {
+          if (!waiting) {
+            waiting = true;
+            deadlineNanos = System.nanoTime() + maxBlockNanos;
+          }
+          long remainingNanos = deadlineNanos - System.nanoTime();
+          if (remainingNanos <= 0) {
+            onWaitTimedOut();
+          } else if (waitForRoom(remainingNanos)) {
+            continue;
+          }
+        }
+        // Go over the limit rather than have a thread wait for itself, or for a stalled listener,
+        // or lose the event.
+      }
+      if (queuedEvents.compareAndSet(queued, queued + 1)) {
+        maxSeenQueuedEvents.accumulateAndGet(queued + 1, Math::max);
+        return true;
+      }
+    }
+  }
+
+  /** @return false if the thread was interrupted while it waited. */
+  private boolean waitForRoom(long remainingNanos) {
+    synchronized (stateLock) {
+      try {
+        if (queuedEvents.get() >= maxQueuedEvents && !closed) {
+          long remainingMillis = TimeUnit.NANOSECONDS.toMillis(remainingNanos);
+          stateLock.wait(Math.max(1, Math.min(WAIT_FOR_ROOM_MILLIS, remainingMillis)));
+        }
+        return true;
+      } catch (InterruptedException e) {
+        Threads.interruptCurrentThread();
+        return false;
+      }
+    }
+  }
+
+  private void onWaitTimedOut() {
+    stalled = true;
+    if (timedOutEvents.getAndIncrement() == 0) {
+      LOG.warn(
+          "%s did not handle any of its %d queued events for %d ms; queuing its events over the "
+              + "limit until it does.",
+          listenerName,
+          maxQueuedEvents,
+          TimeUnit.NANOSECONDS.toMillis(maxBlockNanos));
+    }
+  }
+
+  private void scheduleDelivery() {
+    if (delivering.compareAndSet(false, true)) {
+      executor.execute(this::deliver);
+    }
+  }
+
+  private void deliver() {
+    IS_DELIVERING.set(true);
+    try {
+      do {
+        Object queued;
+        while ((queued = queue.poll()) != null) {
+          BuckEvent event;
+          if (queued instanceof AtomicReference) {
+            @SuppressWarnings("unchecked")
+            AtomicReference<BuckEvent> slot = (AtomicReference<BuckEvent>) queued;
+            event = slot.getAndSet(null);
+          } else {
+            event = (BuckEvent) queued;
+            stalled = false;
+            if (queuedEvents.getAndDecrement() >= maxQueuedEvents) {
+              notifyStateChanged();
+            }
+          }
+          if (event != null && !closed) {
+            eventBus.post(event);
+            deliveredEvents.incrementAndGet();
+          }
+        }
+        delivering.set(false);
+        // Events added after the queue was found empty, but before delivering was reset, would not
+        // have scheduled another delivery.
+      } while (!queue.isEmpty() && delivering.compareAndSet(false, true));
+    } finally {
+      IS_DELIVERING.set(false);
+      notifyStateChanged();
+    }
+  }
+
+  private void notifyStateChanged() {
+    synchronized (stateLock) {
+      stateLock.notifyAll();
+    }
+  }
+
+  /** @return whether all the queued events were delivered before the deadline. */
+  boolean awaitDelivery(long deadlineNanos) throws InterruptedException {
+    synchronized (stateLock) {
+      while (!isIdle()) {
+        long waitMillis = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+        if (waitMillis <= 0) {
+          return false;
+        }
+        stateLock.wait(waitMillis);
+      }
+      return true;
+    }
+  }
+
+  boolean isIdle() {
+    return queue.isEmpty() && !delivering.get();
+  }
+
+  /** Stops delivering events, and lets the threads waiting for room go. */
+  void close() {
+    closed = true;
+    notifyStateChanged();
+    long timedOut = timedOutEvents.get();
+    if (timedOut > 0) {
+      LOG.warn(
+          "%s was stalled %d times, with up to %d queued events.",
+          listenerName,
+          timedOut,
+          maxSeenQueuedEvents.get());
+    }
+  }
+
+  ListenerQueueStats getStats() {
+    return ListenerQueueStats.of(
+        listenerName,
+        queuedEvents.get(),
+        maxSeenQueuedEvents.get(),
+        deliveredEvents.get(),
+        droppedEvents.get(),
+        coalescedEvents.get());
+  }
+
+  private boolean isSubscribedTo(Class<?> eventClass) {
+    return isSubscribedTo.computeIfAbsent(
+        eventClass,
+        type -> subscribedTypes.stream().anyMatch(subscribed -> subscribed.isAssignableFrom(type)));
+  }
+
+  /** @return the types of events the listener has {@link Subscribe} methods for. */
+  private static ImmutableSet<Class<?>> getSubscribedTypes(Object listener) {
+    ImmutableSet.Builder<Class<?>> types = ImmutableSet.builder();
+    for (Class<?> type : TypeToken.of(listener.getClass()).getTypes().rawTypes()) {
+      for (Method method : type.getDeclaredMethods()) {
+        if (method.isAnnotationPresent(Subscribe.class)
+            && !method.isSynthetic()
+            && method.getParameterTypes().length == 1) {
+          types.add(method.getParameterTypes()[0]);
+        }
+      }
+    }
+    return types.build();
+  }
+
+  private static String getName(Object listener) {
+    Class<?> type = listener.getClass();
+    return type.getSimpleName().isEmpty() ? type.getName() : type.getSimpleName();
+  }
+}
@@ -72,6 +72,9 @@ public class CacheRateStatsKeeper {
       case SKIPPED:
         throw new IllegalStateException(
             "BuildRules shouldn't finish with SKIPPED cache result type.");
+      case CONTAINS:
+        throw new IllegalStateException(
+            "BuildRules shouldn't finish with CONTAINS cache result type.");
       case LOCAL_KEY_UNCHANGED_HIT:
         cacheLocalKeyUnchangedHits.incrementAndGet();
         break;
@@ -0,0 +1,372 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event.listener;
+
+import com.facebook.buck.artifact_cache.ArtifactCacheEvent;
+import com.facebook.buck.event.BuckEventListener;
+import com.facebook.buck.event.EventKey;
+import com.facebook.buck.event.RuleKeyCalculationEvent;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.log.InvocationInfo;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.BuildId;
+import com.facebook.buck.rules.BuildEvent;
+import com.facebook.buck.rules.BuildRule;
+import com.facebook.buck.rules.BuildRuleEvent;
+import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.step.StepEvent;
+import com.facebook.buck.util.BuckConstant;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.eventbus.Subscribe;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Finds the chain of rules which bounded the wall-clock time of a build, and writes a report of it
+ * to the log directory of the command.
+ *
+ * <p>The critical path ends with the rule which finished last. Each rule on it is preceded by
+ * whichever of its dependencies finished last, as that is the one the rule ended up waiting for.
+ * For each rule, the report gives how much it added to the path, how much of that it was actually
+ * running rather than waiting for a thread or for its cache fetch, and how long it spent computing
+ * its rule key, fetching from the cache and running steps. Steps are attributed to the rule which
+ * was running on the thread which ran them. The report ends with how busy each build thread was.
+ */
+public class CriticalPathReportListener implements BuckEventListener {
+  private static final Logger LOG = Logger.get(CriticalPathReportListener.class);
+
+  private final ProjectFilesystem projectFilesystem;
+  private final InvocationInfo info;
+
+  @GuardedBy("this")
+  private final Map<BuildRule, RuleTiming> rules = new LinkedHashMap<>();
+
+  @GuardedBy("this")
+  private final Map<Long, RuleTiming> runningRulesByThread = new HashMap<>();
+
+  @GuardedBy("this")
+  private final Map<Long, Long> busyNanosByThread = new LinkedHashMap<>();
+
+  @GuardedBy("this")
+  private final Map<EventKey, StepStart> runningSteps = new HashMap<>();
+
+  @GuardedBy("this")
+  private final Map<EventKey, ArtifactCacheEvent.Started> runningFetches = new HashMap<>();
+
+  @GuardedBy("this")
+  private final Map<RuleKey, Long> fetchNanosByRuleKey = new HashMap<>();
+
+  @GuardedBy("this")
+  private long buildStartNanos = Long.MAX_VALUE;
+
+  @GuardedBy("this")
+  private long buildFinishNanos = Long.MIN_VALUE;
+
+  public CriticalPathReportListener(ProjectFilesystem projectFilesystem, InvocationInfo info) {
+    this.projectFilesystem = projectFilesystem;
+    this.info = info;
+  }
+
+  @Subscribe
+  public synchronized void buildStarted(BuildEvent.Started event) {
+    buildStartNanos = Math.min(buildStartNanos, event.getNanoTime());
+  }
+
+  @Subscribe
+  public synchronized void buildFinished(BuildEvent.Finished event) {
+    buildFinishNanos = Math.max(buildFinishNanos, event.getNanoTime());
+  }
+
+  @Subscribe
+  public synchronized void buildRuleBeginning(BuildRuleEvent.BeginningBuildRuleEvent event) {
+    RuleTiming timing = getTiming(event.getBuildRule());
+    runningRulesByThread.put(event.getThreadId(), timing);
+  }
+
+  @Subscribe
+  public synchronized void buildRuleEnding(BuildRuleEvent.EndingBuildRuleEvent event) {
+    BuildRuleEvent.BeginningBuildRuleEvent beginning = event.getBeginningEvent();
+    RuleTiming timing = getTiming(event.getBuildRule());
+    long beginNanos = beginning.getNanoTime();
+    long endNanos = event.getNanoTime();
+    timing.runningIntervals.add(new long[] {beginNanos, endNanos});
+    busyNanosByThread.merge(beginning.getThreadId(), endNanos - beginNanos, Long::sum);
+    if (runningRulesByThread.get(beginning.getThreadId()) == timing) {
+      runningRulesByThread.remove(beginning.getThreadId());
+    }
+
+    if (event instanceof RuleKeyCalculationEvent.Finished) {
+      timing.ruleKeyNanos += endNanos - beginNanos;
+    } else if (event instanceof BuildRuleEvent.Finished) {
+      BuildRuleEvent.Finished finished = (BuildRuleEvent.Finished) event;
+      timing.finishNanos = endNanos;
+      timing.ruleKey = finished.getRuleKeys().getRuleKey();
+      timing.result = finished.getResultString();
+    }
+  }
+
+  @Subscribe
+  public synchronized void stepStarted(StepEvent.Started event) {
+    RuleTiming timing = runningRulesByThread.get(event.getThreadId());
+    if (timing != null) {
+      runningSteps.put(event.getEventKey(), new StepStart(timing, event.getNanoTime()));
+    }
+  }
+
+  @Subscribe
+  public synchronized void stepFinished(StepEvent.Finished event) {
+    StepStart start = runningSteps.remove(event.getEventKey());
+    if (start != null) {
+      start.timing.stepNanos += event.getNanoTime() - start.nanoTime;
+    }
+  }
+
+  @Subscribe
+  public synchronized void artifactCacheStarted(ArtifactCacheEvent.Started event) {
+    if (event.getOperation() == ArtifactCacheEvent.Operation.FETCH) {
+      runningFetches.put(event.getEventKey(), event);
+    }
+  }
+
+  @Subscribe
+  public synchronized void artifactCacheFinished(ArtifactCacheEvent.Finished event) {
+    ArtifactCacheEvent.Started started = runningFetches.remove(event.getEventKey());
+    if (started != null) {
+      long fetchNanos = event.getNanoTime() - started.getNanoTime();
+      for (RuleKey ruleKey : started.getRuleKeys()) {
+        fetchNanosByRuleKey.merge(ruleKey, fetchNanos, Long::sum);
+      }
+    }
+  }
+
+  @Override
+  public void outputTrace(BuildId buildId) {
+    String report;
+    synchronized (this) {
+      if (getCriticalPath().isEmpty()) {
+        return;
+      }
+      report = formatReport();
+    }
+
+    Path path =
+        projectFilesystem
+            .resolve(info.getLogDirectoryPath())
+            .resolve(BuckConstant.CRITICAL_PATH_REPORT_FILE_NAME);
+    try {
+      projectFilesystem.createParentDirs(path);
+      projectFilesystem.writeContentsToPath(report, path);
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to write the critical path report to [%s].", path);
+    }
+  }
+
+  /** @return the rules of the critical path, from the first to run to the last to finish. */
+  @VisibleForTesting
+  synchronized ImmutableList<BuildRule> getCriticalPath() {
+    RuleTiming last = null;
+    for (RuleTiming timing : rules.values()) {
+      if (timing.isFinished() && (last == null || timing.finishNanos > last.finishNanos)) {
+        last = timing;
+      }
+    }
+
+    List<BuildRule> path = new ArrayList<>();
+    for (RuleTiming timing = last; timing != null; timing = getLastFinishedDep(timing)) {
+      path.add(timing.rule);
+    }
+    return ImmutableList.copyOf(path).reverse();
+  }
+
+  @VisibleForTesting
+  synchronized String formatReport() {
+    ImmutableList<BuildRule> path = getCriticalPath();
+    long startNanos = getBuildStartNanos();
+    long finishNanos = getBuildFinishNanos();
+    long pathNanos = rules.get(path.get(path.size() - 1)).finishNanos - startNanos;
+
+    StringWriter report = new StringWriter();
+    PrintWriter out = new PrintWriter(report);
+    out.printf(
+        "Critical path: %d rules, %s of a %s build.%n",
+        path.size(),
+        formatSeconds(pathNanos),
+        formatSeconds(finishNanos - startNanos));
+    out.println(
+        "Path is how long each rule added to the path. Active is how long it was running during "
+            + "that time, the rest being spent waiting for a thread or for the cache.");
+    out.println();
+    out.printf(
+        "%11s %11s %11s %11s %11s %11s  %-8s %s%n",
+        "Path(ms)",
+        "Active(ms)",
+        "Wait(ms)",
+        "RuleKey(ms)",
+        "Fetch(ms)",
+        "Steps(ms)",
+        "Result",
+        "Rule");
+    long previousFinishNanos = startNanos;
+    for (BuildRule rule : path) {
+      RuleTiming timing = rules.get(rule);
+      long addedNanos = timing.finishNanos - previousFinishNanos;
+      long activeNanos = timing.getRunningNanosBetween(previousFinishNanos, timing.finishNanos);
+      out.printf(
+          "%11d %11d %11d %11d %11d %11d  %-8s %s (%s)%n",
+          toMillis(addedNanos),
+          toMillis(activeNanos),
+          toMillis(addedNanos - activeNanos),
+          toMillis(timing.ruleKeyNanos),
+          toMillis(getFetchNanos(timing)),
+          toMillis(timing.stepNanos),
+          timing.result,
+          rule.getFullyQualifiedName(),
+          rule.getType());
+      previousFinishNanos = timing.finishNanos;
+    }
+
+    long busyNanos = busyNanosByThread.values().stream().mapToLong(Long::longValue).sum();
+    long availableNanos = (finishNanos - startNanos) * busyNanosByThread.size();
+    out.println();
+    out.printf(
+        "Build threads: %d, busy %s of the time, idle %s.%n",
+        busyNanosByThread.size(),
+        formatPercentage(busyNanos, availableNanos),
+        formatPercentage(availableNanos - busyNanos, availableNanos));
+    for (Map.Entry<Long, Long> thread : busyNanosByThread.entrySet()) {
+      out.printf(
+          "  Thread %d: busy %s (%s)%n",
+          thread.getKey(),
+          formatSeconds(thread.getValue()),
+          formatPercentage(thread.getValue(), finishNanos - startNanos));
+    }
+    out.flush();
+    return report.toString();
+  }
+
+  @GuardedBy("this")
+  private RuleTiming getTiming(BuildRule rule) {
+    return rules.computeIfAbsent(rule, RuleTiming::new);
+  }
+
+  @GuardedBy("this")
+  @Nullable
+  private RuleTiming getLastFinishedDep(RuleTiming timing) {
+    RuleTiming lastDep = null;
+    for (BuildRule dep : timing.rule.getBuildDeps()) {
+      RuleTiming depTiming = rules.get(dep);
+      if (depTiming != null
+          && depTiming.isFinished()
+          && (lastDep == null || depTiming.finishNanos > lastDep.finishNanos)) {
+        lastDep = depTiming;
+      }
+    }
+    return lastDep;
+  }
+
+  @GuardedBy("this")
+  private long getFetchNanos(RuleTiming timing) {
+    return Optional.ofNullable(timing.ruleKey)
+        .map(ruleKey -> fetchNanosByRuleKey.getOrDefault(ruleKey, 0L))
+        .orElse(0L);
+  }
+
+  /** @return when the build started, or when its first rule started if that was not seen. */
+  @GuardedBy("this")
+  private long getBuildStartNanos() {
+    if (buildStartNanos != Long.MAX_VALUE) {
+      return buildStartNanos;
+    }
+    return rules
+        .values()
+        .stream()
+        .flatMap(timing -> timing.runningIntervals.stream())
+        .mapToLong(interval -> interval[0])
+        .min()
+        .orElse(0);
+  }
+
+  /** @return when the build finished, or when its last rule finished if that was not seen. */
+  @GuardedBy("this")
+  private long getBuildFinishNanos() {
+    long lastRuleFinishNanos =
+        rules.values().stream().mapToLong(timing -> timing.finishNanos).max().orElse(0);
+    return Math.max(buildFinishNanos, lastRuleFinishNanos);
+  }
+
+  private static long toMillis(long nanos) {
+    return TimeUnit.NANOSECONDS.toMillis(nanos);
+  }
+
+  private static String formatSeconds(long nanos) {
+    return String.format("%.3fs", nanos / 1e9);
+  }
+
+  private static String formatPercentage(long part, long total) {
+    return String.format("%.1f%%", total > 0 ? 100.0 * part / total : 0.0);
+  }
+
+  /** What happened to a rule during the build. */
+  private static class RuleTiming {
+    private final BuildRule rule;
+    private final List<long[]> runningIntervals = new ArrayList<>();
+    private long finishNanos = Long.MIN_VALUE;
+    private long ruleKeyNanos = 0;
+    private long stepNanos = 0;
+    @Nullable private RuleKey ruleKey;
+    private String result = "";
+
+    private RuleTiming(BuildRule rule) {
+      this.rule = rule;
+    }
+
+    private boolean isFinished() {
+      return finishNanos != Long.MIN_VALUE;
+    }
+
+    private long getRunningNanosBetween(long startNanos, long endNanos) {
+      long runningNanos = 0;
+      for (long[] interval : runningIntervals) {
+        runningNanos +=
+            Math.max(0, Math.min(interval[1], endNanos) - Math.max(interval[0], startNanos));
+      }
+      return runningNanos;
+    }
+  }
+
+  private static class StepStart {
+    private final RuleTiming timing;
+    private final long nanoTime;
+
+    private StepStart(RuleTiming timing, long nanoTime) {
+      this.timing = timing;
+      this.nanoTime = nanoTime;
+    }
+  }
+}
@@ -16,6 +16,10 @@
 
 package com.facebook.buck.io;
 
+import com.facebook.buck.bser.BserReader;
+import com.facebook.buck.bser.BserSerializer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.Map;
 import java.util.Optional;
@@ -25,6 +29,24 @@ public interface WatchmanClient extends AutoCloseable {
   Optional<? extends Map<String, ? extends Object>> queryWithTimeout(
       long timeoutNanos, Object... query) throws IOException, InterruptedException;
 
+  /**
+   * Like {@link #queryWithTimeout(long, Object...)}, but decodes the response with the given
+   * decoder rather than into a map, so that only the parts of it which are needed are decoded.
+   */
+  default <T> Optional<T> queryWithTimeout(
+      long timeoutNanos, BserReader.Decoder<T> decoder, Object... query)
+      throws IOException, InterruptedException {
+    Optional<? extends Map<String, ? extends Object>> response =
+        queryWithTimeout(timeoutNanos, query);
+    if (!response.isPresent()) {
+      return Optional.empty();
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    new BserSerializer().serializeToStream(response.get(), bytes);
+    return Optional.of(
+        decoder.decode(BserReader.forNextValue(new ByteArrayInputStream(bytes.toByteArray()))));
+  }
+
   @Override
   void close() throws IOException;
 }
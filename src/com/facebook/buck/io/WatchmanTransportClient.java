@@ -19,7 +19,7 @@ package com.facebook.buck.io;
 import static com.facebook.buck.util.concurrent.MostExecutors.newSingleThreadExecutor;
 import static com.google.common.util.concurrent.MoreExecutors.listeningDecorator;
 
-import com.facebook.buck.bser.BserDeserializer;
+import com.facebook.buck.bser.BserReader;
 import com.facebook.buck.bser.BserSerializer;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.timing.Clock;
@@ -34,6 +34,7 @@ import java.util.Optional;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import javax.annotation.Nullable;
 
 class WatchmanTransportClient implements WatchmanClient, AutoCloseable {
 
@@ -45,32 +46,42 @@ class WatchmanTransportClient implements WatchmanClient, AutoCloseable {
   private final Transport transport;
   private final Console console;
   private final BserSerializer bserSerializer;
-  private final BserDeserializer bserDeserializer;
 
   boolean disabledWarningShown = false;
 
+  // Only touched from the single thread of listeningExecutorService.
+  private boolean transportBroken = false;
+
   public WatchmanTransportClient(Console console, Clock clock, Transport transport) {
     this.listeningExecutorService = listeningDecorator(newSingleThreadExecutor("Watchman"));
     this.console = console;
     this.clock = clock;
     this.transport = transport;
     this.bserSerializer = new BserSerializer();
-    this.bserDeserializer = new BserDeserializer(BserDeserializer.KeyOrdering.UNSORTED);
   }
 
   @Override
   public Optional<Map<String, Object>> queryWithTimeout(long timeoutNanos, Object... query)
       throws IOException, InterruptedException {
-    return queryListWithTimeout(timeoutNanos, ImmutableList.copyOf(query));
+    return queryListWithTimeout(
+        timeoutNanos, WatchmanTransportClient::decodeMap, ImmutableList.copyOf(query));
+  }
+
+  @Override
+  public <T> Optional<T> queryWithTimeout(
+      long timeoutNanos, BserReader.Decoder<T> decoder, Object... query)
+      throws IOException, InterruptedException {
+    return queryListWithTimeout(timeoutNanos, decoder, ImmutableList.copyOf(query));
   }
 
-  private Optional<Map<String, Object>> queryListWithTimeout(
-      long timeoutNanos, final List<Object> query) throws IOException, InterruptedException {
-    ListenableFuture<Optional<Map<String, Object>>> future =
-        listeningExecutorService.submit(() -> sendWatchmanQuery(query));
+  private <T> Optional<T> queryListWithTimeout(
+      long timeoutNanos, BserReader.Decoder<T> decoder, final List<Object> query)
+      throws IOException, InterruptedException {
+    ListenableFuture<Optional<T>> future =
+        listeningExecutorService.submit(() -> sendWatchmanQuery(query, decoder));
     try {
       long startTimeNanos = clock.nanoTime();
-      Optional<Map<String, Object>> result =
+      Optional<T> result =
           waitForQueryNotifyingUserIfSlow(future, timeoutNanos, POLL_TIME_NANOS, query);
       long elapsedNanos = clock.nanoTime() - startTimeNanos;
       LOG.debug("Query %s returned in %d ms", query, TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
@@ -110,8 +121,8 @@ class WatchmanTransportClient implements WatchmanClient, AutoCloseable {
             TimeUnit.NANOSECONDS.toSeconds(timeoutNanos));
   }
 
-  private Optional<Map<String, Object>> waitForQueryNotifyingUserIfSlow(
-      ListenableFuture<Optional<Map<String, Object>>> future,
+  private <T> Optional<T> waitForQueryNotifyingUserIfSlow(
+      ListenableFuture<Optional<T>> future,
       long timeoutNanos,
       long pollTimeNanos,
       List<Object> query)
@@ -140,17 +151,44 @@ class WatchmanTransportClient implements WatchmanClient, AutoCloseable {
     }
   }
 
-  @SuppressWarnings("unchecked")
-  private Optional<Map<String, Object>> sendWatchmanQuery(List<Object> query) throws IOException {
+  private <T> Optional<T> sendWatchmanQuery(List<Object> query, BserReader.Decoder<T> decoder)
+      throws IOException {
+    if (transportBroken) {
+      throw new IOException("Watchman connection was closed after an earlier query failed.");
+    }
     LOG.debug("Sending query: %s", query);
     bserSerializer.serializeToStream(query, transport.getOutputStream());
-    Object response = bserDeserializer.deserializeBserValue(transport.getInputStream());
+    BserReader reader = BserReader.forNextValue(transport.getInputStream());
+    T response;
+    try {
+      response = decoder.decode(reader);
+    } catch (IOException | RuntimeException e) {
+      // Skip the rest of the response so that the next query reads its own. If even that fails,
+      // the stream is at an unknown position and nothing else can be read from it.
+      try {
+        reader.finish();
+      } catch (IOException finishException) {
+        e.addSuppressed(finishException);
+        LOG.warn(finishException, "Lost track of Watchman responses, closing the connection.");
+        transportBroken = true;
+        transport.close();
+      }
+      throw e;
+    }
+    // Leave the transport at the start of the next response, whatever the decoder skipped.
+    reader.finish();
     LOG.verbose("Got response: %s", response);
-    Map<String, Object> responseMap = (Map<String, Object>) response;
-    if (responseMap == null) {
+    return Optional.ofNullable(response);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Nullable
+  private static Map<String, Object> decodeMap(BserReader reader) throws IOException {
+    Object response = reader.readValue();
+    if (!(response instanceof Map)) {
       LOG.error("Unrecognized Watchman response: %s", response);
-      return Optional.empty();
+      return null;
     }
-    return Optional.of(responseMap);
+    return (Map<String, Object>) response;
   }
 }
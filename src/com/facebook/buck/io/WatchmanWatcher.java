@@ -16,6 +16,7 @@
 
 package com.facebook.buck.io;
 
+import com.facebook.buck.bser.BserReader;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.PerfEventId;
 import com.facebook.buck.event.SimplePerfEvent;
@@ -35,6 +36,7 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -42,6 +44,7 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
 
 /** Queries Watchman for changes to a path. */
 public class WatchmanWatcher {
@@ -235,7 +238,6 @@ public class WatchmanWatcher {
     }
   }
 
-  @SuppressWarnings("unchecked")
   private void postEvents(
       BuckEventBus buckEventBus,
       FreshInstanceAction freshInstanceAction,
@@ -246,11 +248,13 @@ public class WatchmanWatcher {
       SimplePerfEvent.Scope perfEvent)
       throws IOException, InterruptedException {
     try {
-      Optional<? extends Map<String, ? extends Object>> queryResponse;
+      Optional<QueryResponse> queryResponse;
       try (SimplePerfEvent.Scope ignored = SimplePerfEvent.scope(buckEventBus, "query")) {
         queryResponse =
             watchmanClient.queryWithTimeout(
-                TimeUnit.MILLISECONDS.toNanos(timeoutMillis), query.toList(cursor.get()).toArray());
+                TimeUnit.MILLISECONDS.toNanos(timeoutMillis),
+                QueryResponse::decode,
+                query.toList(cursor.get()).toArray());
       }
 
       try (SimplePerfEvent.Scope ignored =
@@ -270,11 +274,10 @@ public class WatchmanWatcher {
           return;
         }
 
-        Map<String, ? extends Object> response = queryResponse.get();
-        String error = (String) response.get("error");
-        if (error != null) {
+        QueryResponse response = queryResponse.get();
+        if (response.error != null) {
           // This message is not de-duplicated via WatchmanDiagnostic.
-          WatchmanWatcherException e = new WatchmanWatcherException(error);
+          WatchmanWatcherException e = new WatchmanWatcherException(response.error);
           LOG.debug(e, "Error in Watchman output. Posting an overflow event to flush the caches");
           postWatchEvent(
               buckEventBus,
@@ -284,21 +287,18 @@ public class WatchmanWatcher {
 
         if (cursor.get().startsWith("c:")) {
           // Update the clockId
-          String newCursor =
-              Optional.ofNullable((String) response.get("clock")).orElse(Watchman.NULL_CLOCK);
+          String newCursor = Optional.ofNullable(response.clock).orElse(Watchman.NULL_CLOCK);
           LOG.debug("Updating Watchman Cursor from %s to %s", cursor.get(), newCursor);
           cursor.set(newCursor);
         }
 
-        String warning = (String) response.get("warning");
-        if (warning != null) {
+        if (response.warning != null) {
           buckEventBus.post(
               new WatchmanDiagnosticEvent(
-                  WatchmanDiagnostic.of(WatchmanDiagnostic.Level.WARNING, warning)));
+                  WatchmanDiagnostic.of(WatchmanDiagnostic.Level.WARNING, response.warning)));
         }
 
-        Boolean isFreshInstance = (Boolean) response.get("is_fresh_instance");
-        if (isFreshInstance != null && isFreshInstance) {
+        if (response.isFreshInstance) {
           LOG.debug(
               "Watchman indicated a fresh instance (fresh instance action %s)",
               freshInstanceAction);
@@ -315,43 +315,43 @@ public class WatchmanWatcher {
           return;
         }
 
-        List<Map<String, Object>> files = (List<Map<String, Object>>) response.get("files");
-        if (files != null) {
-          if (files.size() > OVERFLOW_THRESHOLD) {
+        if (response.fileCount >= 0) {
+          if (response.fileCount > OVERFLOW_THRESHOLD) {
             LOG.warn(
                 "Posting overflow event: too many files changed: %d > %d",
-                files.size(), OVERFLOW_THRESHOLD);
+                response.fileCount, OVERFLOW_THRESHOLD);
             postWatchEvent(
                 buckEventBus, WatchmanOverflowEvent.of(cellPath, "Too many files changed."));
             filesHaveChanged.set(true);
             return;
           }
+          List<ChangedFile> files = response.files;
           if (files.size() < TRACE_CHANGES_THRESHOLD) {
-            perfEvent.appendFinishedInfo("files", files);
+            perfEvent.appendFinishedInfo("files", Lists.transform(files, ChangedFile::toMap));
           } else {
-            perfEvent.appendFinishedInfo("files_sample", files.subList(0, TRACE_CHANGES_THRESHOLD));
+            perfEvent.appendFinishedInfo(
+                "files_sample",
+                Lists.transform(files.subList(0, TRACE_CHANGES_THRESHOLD), ChangedFile::toMap));
           }
 
-          for (Map<String, Object> file : files) {
-            String fileName = (String) file.get("name");
-            if (fileName == null) {
-              LOG.warn("Filename missing from watchman file response %s", file);
+          for (ChangedFile file : files) {
+            if (file.name == null) {
+              LOG.warn("Filename missing from watchman file response %s", file.toMap());
               postWatchEvent(
                   buckEventBus,
                   WatchmanOverflowEvent.of(cellPath, "Filename missing from watchman response."));
               filesHaveChanged.set(true);
               return;
             }
-            Boolean fileNew = (Boolean) file.get("new");
             WatchmanPathEvent.Kind kind = WatchmanPathEvent.Kind.MODIFY;
-            if (fileNew != null && fileNew) {
+            if (file.isNew != null && file.isNew) {
               kind = WatchmanPathEvent.Kind.CREATE;
             }
-            Boolean fileExists = (Boolean) file.get("exists");
-            if (fileExists != null && !fileExists) {
+            if (file.exists != null && !file.exists) {
               kind = WatchmanPathEvent.Kind.DELETE;
             }
-            postWatchEvent(buckEventBus, WatchmanPathEvent.of(cellPath, kind, Paths.get(fileName)));
+            postWatchEvent(
+                buckEventBus, WatchmanPathEvent.of(cellPath, kind, Paths.get(file.name)));
           }
 
           if (!files.isEmpty() || freshInstanceAction == FreshInstanceAction.NONE) {
@@ -405,4 +405,128 @@ public class WatchmanWatcher {
       throw new IllegalStateException("Unhandled case: " + pathEvent.getKind());
     }
   }
+
+  /**
+   * The parts of the response to a Watchman query which are used, decoded as the response is read
+   * rather than materialized as maps first.
+   */
+  private static class QueryResponse {
+    @Nullable private String error;
+    @Nullable private String clock;
+    @Nullable private String warning;
+    private boolean isFreshInstance;
+    // The number of changed files, or -1 if the response has no list of files.
+    private int fileCount = -1;
+    // The changed files, which are not decoded if there are too many of them to process.
+    private List<ChangedFile> files = ImmutableList.of();
+
+    private static QueryResponse decode(BserReader reader) throws IOException {
+      QueryResponse response = new QueryResponse();
+      reader.beginObject();
+      while (reader.hasNext()) {
+        switch (reader.nextName()) {
+          case "error":
+            response.error = nextNullableString(reader);
+            break;
+          case "clock":
+            response.clock = nextNullableString(reader);
+            break;
+          case "warning":
+            response.warning = nextNullableString(reader);
+            break;
+          case "is_fresh_instance":
+            response.isFreshInstance = Boolean.TRUE.equals(nextNullableBoolean(reader));
+            break;
+          case "files":
+            response.decodeFiles(reader);
+            break;
+          default:
+            reader.skipValue();
+        }
+      }
+      reader.endObject();
+      return response;
+    }
+
+    private void decodeFiles(BserReader reader) throws IOException {
+      if (reader.peek() == BserReader.Token.NULL) {
+        reader.nextNull();
+        return;
+      }
+      fileCount = reader.beginArray();
+      if (fileCount > OVERFLOW_THRESHOLD) {
+        while (reader.hasNext()) {
+          reader.skipValue();
+        }
+      } else {
+        files = new ArrayList<>(fileCount);
+        while (reader.hasNext()) {
+          files.add(ChangedFile.decode(reader));
+        }
+      }
+      reader.endArray();
+    }
+  }
+
+  /** A file in the response to a Watchman query. */
+  private static class ChangedFile {
+    @Nullable private String name;
+    @Nullable private Boolean isNew;
+    @Nullable private Boolean exists;
+
+    private static ChangedFile decode(BserReader reader) throws IOException {
+      ChangedFile file = new ChangedFile();
+      reader.beginObject();
+      while (reader.hasNext()) {
+        switch (reader.nextName()) {
+          case "name":
+            file.name = nextNullableString(reader);
+            break;
+          case "new":
+            file.isNew = nextNullableBoolean(reader);
+            break;
+          case "exists":
+            file.exists = nextNullableBoolean(reader);
+            break;
+          default:
+            reader.skipValue();
+        }
+      }
+      reader.endObject();
+      return file;
+    }
+
+    /** @return the file as Watchman sent it, for the trace of the query. */
+    private Map<String, Object> toMap() {
+      Map<String, Object> map = new LinkedHashMap<>();
+      if (name != null) {
+        map.put("name", name);
+      }
+      if (exists != null) {
+        map.put("exists", exists);
+      }
+      if (isNew != null) {
+        map.put("new", isNew);
+      }
+      return map;
+    }
+  }
+
+  @Nullable
+  private static String nextNullableString(BserReader reader) throws IOException {
+    if (reader.peek() == BserReader.Token.NULL) {
+      reader.nextNull();
+      return null;
+    }
+    return reader.nextString();
+  }
+
+  @Nullable
+  private static Boolean nextNullableBoolean(BserReader reader) throws IOException {
+    if (reader.peek() == BserReader.Token.NULL) {
+      reader.nextNull();
+      return null;
+    }
+    return reader.nextBoolean();
+  }
 }
@@ -68,6 +68,11 @@ public class HybridProjectBuildFileParser implements ProjectBuildFileParser {
     return getParserForBuildFile(buildFile).getAllRulesAndMetaRules(buildFile, processedBytes);
   }
 
+  @Override
+  public boolean isThreadSafeFor(Path buildFile) throws BuildFileParseException, IOException {
+    return getParserForBuildFile(buildFile).isThreadSafeFor(buildFile);
+  }
+
   @Override
   public void reportProfile() throws IOException {
     for (ProjectBuildFileParser parser : parsers.values()) {
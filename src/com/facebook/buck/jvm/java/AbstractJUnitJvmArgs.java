@@ -40,6 +40,7 @@ abstract class AbstractJUnitJvmArgs {
   private static final String MODULE_BASE_PATH_PROPERTY = "com.facebook.buck.moduleBasePath";
   private static final String STD_OUT_LOG_LEVEL_PROPERTY = "com.facebook.buck.stdOutLogLevel";
   private static final String STD_ERR_LOG_LEVEL_PROPERTY = "com.facebook.buck.stdErrLogLevel";
+  private static final String JUNIT_WORKER_MAIN = "com.facebook.buck.testrunner.JUnitWorkerMain";
 
   /** @return Directory to use to write test results to. */
   abstract Optional<Path> getDirectoryForTestResults();
@@ -123,15 +124,25 @@ abstract class AbstractJUnitJvmArgs {
   /** @return Test selectors with which to filter the tests to run. */
   abstract Optional<TestSelectorList> getTestSelectorList();
 
+  /**
+   * @return whether the tests can run in a JUnit worker, a JVM which runs the tests of one rule
+   *     after another. Tests being debugged, or gathering coverage, or asked for the JVM's verbose
+   *     output, which would garble the worker's stdout, run in a JVM of their own.
+   */
+  public boolean canRunInJUnitWorker(Verbosity verbosity) {
+    return getTestType() == TestType.JUNIT
+        && !isDebugEnabled()
+        && !isCodeCoverageEnabled()
+        && !verbosity.shouldUseVerbosityFlagIfAvailable();
+  }
+
   /** Formats the JVM arguments in this object suitable to pass on the command line. */
   public void formatCommandLineArgsToList(
       ImmutableList.Builder<String> args,
       ProjectFilesystem filesystem,
       Verbosity verbosity,
       long defaultTestTimeoutMillis) {
-    // NOTE(agallagher): These probably don't belong here, but buck integration tests need
-    // to find the test runner classes, so propagate these down via the relevant properties.
-    args.add(String.format("-Dbuck.testrunner_classes=%s", getTestRunnerClasspath()));
+    formatSystemPropertiesToList(args);
 
     if (isCodeCoverageEnabled()) {
       args.add(
@@ -143,10 +154,68 @@ abstract class AbstractJUnitJvmArgs {
               isInclNoLocationClassesEnabled()));
     }
 
-    if (getPathToJavaAgent().isPresent()) {
-      args.add(String.format("-agentpath:%s", getPathToJavaAgent().get()));
+    if (isDebugEnabled()) {
+      // This is the default config used by IntelliJ. By doing this, all a user
+      // needs to do is create a new "Remote" debug config. Note that we start
+      // suspended, so tests will not run until the user connects.
+      args.add("-agentlib:jdwp=transport=dt_socket,server=y,suspend=y,address=5005");
+    }
+
+    formatSharedJvmArgsToList(args);
+
+    // verbose flag, if appropriate.
+    if (verbosity.shouldUseVerbosityFlagIfAvailable()) {
+      args.add("-verbose");
     }
 
+    args.add(
+        "-classpath",
+        "@"
+            + filesystem.resolve(getClasspathFile()).toString()
+            + File.pathSeparator
+            + getTestRunnerClasspath().toString());
+
+    args.add(FileClassPathRunner.class.getName());
+
+    // Specify the Java class whose main() method should be run. This is the class that is
+    // responsible for running the tests.
+    args.add(getTestType().getDefaultTestRunner());
+
+    formatTestRunnerArgsToList(args, defaultTestTimeoutMillis);
+  }
+
+  /**
+   * Formats the command line of a JUnit worker which can run these tests. Only the arguments which
+   * must be given to the JVM when it starts are part of it, so that the tests of rules which differ
+   * only in their system properties share the same workers.
+   *
+   * @param maxJobs how many test runs the worker runs before asking to be replaced.
+   */
+  public void formatJUnitWorkerArgsToList(ImmutableList.Builder<String> args, int maxJobs) {
+    formatSharedJvmArgsToList(args);
+    args.add("-classpath", getTestRunnerClasspath().toString());
+    args.add(JUNIT_WORKER_MAIN, "--max-jobs", String.valueOf(maxJobs));
+  }
+
+  /**
+   * Formats the arguments of the job which runs these tests in a JUnit worker, in the format
+   * described by {@code com.facebook.buck.testrunner.JUnitWorkerMain}, but not yet escaped.
+   */
+  public void formatJUnitWorkerJobArgsToList(
+      ImmutableList.Builder<String> args,
+      ProjectFilesystem filesystem,
+      long defaultTestTimeoutMillis) {
+    formatSystemPropertiesToList(args);
+    args.add("--classpath-file", filesystem.resolve(getClasspathFile()).toString());
+    args.add(getTestType().getDefaultTestRunner());
+    formatTestRunnerArgsToList(args, defaultTestTimeoutMillis);
+  }
+
+  private void formatSystemPropertiesToList(ImmutableList.Builder<String> args) {
+    // NOTE(agallagher): These probably don't belong here, but buck integration tests need
+    // to find the test runner classes, so propagate these down via the relevant properties.
+    args.add(String.format("-Dbuck.testrunner_classes=%s", getTestRunnerClasspath()));
+
     // Include the buildId
     args.add(String.format("-D%s=%s", BUILD_ID_PROPERTY, getBuildId()));
 
@@ -168,37 +237,22 @@ abstract class AbstractJUnitJvmArgs {
     if (getRobolectricLogPath().isPresent()) {
       args.add(String.format("-Drobolectric.logging=%s", getRobolectricLogPath().get()));
     }
+  }
 
-    if (isDebugEnabled()) {
-      // This is the default config used by IntelliJ. By doing this, all a user
-      // needs to do is create a new "Remote" debug config. Note that we start
-      // suspended, so tests will not run until the user connects.
-      args.add("-agentlib:jdwp=transport=dt_socket,server=y,suspend=y,address=5005");
+  /** Formats the JVM arguments which a JUnit worker shares between the tests it runs. */
+  private void formatSharedJvmArgsToList(ImmutableList.Builder<String> args) {
+    if (getPathToJavaAgent().isPresent()) {
+      args.add(String.format("-agentpath:%s", getPathToJavaAgent().get()));
     }
 
     // User-defined VM arguments, such as -D or -X.
     if (getExtraJvmArgs().isPresent()) {
       args.addAll(getExtraJvmArgs().get());
     }
+  }
 
-    // verbose flag, if appropriate.
-    if (verbosity.shouldUseVerbosityFlagIfAvailable()) {
-      args.add("-verbose");
-    }
-
-    args.add(
-        "-classpath",
-        "@"
-            + filesystem.resolve(getClasspathFile()).toString()
-            + File.pathSeparator
-            + getTestRunnerClasspath().toString());
-
-    args.add(FileClassPathRunner.class.getName());
-
-    // Specify the Java class whose main() method should be run. This is the class that is
-    // responsible for running the tests.
-    args.add(getTestType().getDefaultTestRunner());
-
+  private void formatTestRunnerArgsToList(
+      ImmutableList.Builder<String> args, long defaultTestTimeoutMillis) {
     // The first argument to the test runner is where the test results should be written. It is not
     // reliable to write test results to stdout or stderr because there may be output from the unit
     // tests written to those file descriptors, as well.
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import com.facebook.buck.step.Step;
+import com.facebook.buck.util.immutables.BuckStyleTuple;
+import com.google.common.collect.ImmutableList;
+import org.immutables.value.Value;
+
+/** The steps running the tests of a {@link JavaTest}, split into shards which run concurrently. */
+@Value.Immutable
+@BuckStyleTuple
+abstract class AbstractJavaTestShards {
+
+  /** @return the steps which must run before any of the shards. */
+  public abstract ImmutableList<Step> getSetUpSteps();
+
+  /** @return the steps of each shard, each of which runs a distinct subset of the test classes. */
+  public abstract ImmutableList<ImmutableList<Step>> getShards();
+}
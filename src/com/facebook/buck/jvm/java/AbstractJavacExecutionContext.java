@@ -23,6 +23,7 @@ import com.facebook.buck.rules.CellPathResolver;
 import com.facebook.buck.util.ClassLoaderCache;
 import com.facebook.buck.util.ProcessExecutor;
 import com.facebook.buck.util.Verbosity;
+import com.facebook.buck.util.cache.FileHashCache;
 import com.facebook.buck.util.immutables.BuckStyleTuple;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -60,4 +61,10 @@ abstract class AbstractJavacExecutionContext {
 
   /** Setting this to non-absent value enables direct to jar output. */
   public abstract Optional<JarParameters> getDirectToJarParameters();
+
+  /**
+   * The hashes of the build's files, which tell in-process compilations whether the jars on their
+   * classpath changed since a previous compilation read them. Absent out of process.
+   */
+  public abstract Optional<FileHashCache> getFileHashCache();
 }
@@ -0,0 +1,340 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import com.facebook.buck.hashing.FileHashLoader;
+import com.facebook.buck.log.Logger;
+import com.google.common.collect.ImmutableList;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import javax.annotation.Nullable;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+
+/**
+ * A {@link StandardJavaFileManager} which lists the contents of the jars on the classpath from a
+ * {@link ClasspathJarCache}, rather than having javac open and index each of them again for every
+ * compilation. The classes which javac reads are kept in the cache too, for the next compilations.
+ *
+ * <p>Only a classpath made entirely of jars is served from the cache; anything else, and every
+ * other location, is left to the file manager of the compiler.
+ */
+class CachingClasspathFileManager extends ForwardingStandardJavaFileManager {
+  private static final Logger LOG = Logger.get(CachingClasspathFileManager.class);
+
+  private final ClasspathJarCache cache;
+  private final FileHashLoader fileHashLoader;
+  private final Map<Path, ZipFile> openJars = new HashMap<>();
+  @Nullable private List<File> indexedClasspath;
+  @Nullable private List<ClasspathJarCache.JarIndex> classpathIndexes;
+
+  public CachingClasspathFileManager(
+      StandardJavaFileManager fileManager,
+      ClasspathJarCache cache,
+      FileHashLoader fileHashLoader) {
+    super(fileManager);
+    this.cache = cache;
+    this.fileHashLoader = fileHashLoader;
+  }
+
+  @Override
+  public Iterable<JavaFileObject> list(
+      Location location, String packageName, Set<JavaFileObject.Kind> kinds, boolean recurse)
+      throws IOException {
+    if (location == StandardLocation.CLASS_PATH) {
+      List<ClasspathJarCache.JarIndex> indexes = getClasspathIndexes();
+      if (indexes != null) {
+        return list(indexes, packageName.replace('.', '/'), kinds, recurse);
+      }
+    }
+    return fileManager.list(location, packageName, kinds, recurse);
+  }
+
+  @Override
+  public String inferBinaryName(Location location, JavaFileObject file) {
+    if (file instanceof CachedJarEntryFileObject) {
+      return ((CachedJarEntryFileObject) file).getBinaryName();
+    }
+    return fileManager.inferBinaryName(location, file);
+  }
+
+  @Override
+  public boolean isSameFile(FileObject a, FileObject b) {
+    boolean aIsCached = a instanceof CachedJarEntryFileObject;
+    boolean bIsCached = b instanceof CachedJarEntryFileObject;
+    if (aIsCached || bIsCached) {
+      return aIsCached && bIsCached && a.equals(b);
+    }
+    return fileManager.isSameFile(a, b);
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    try {
+      for (ZipFile openJar : openJars.values()) {
+        openJar.close();
+      }
+      openJars.clear();
+    } finally {
+      fileManager.close();
+    }
+  }
+
+  /**
+   * @return the indexes of the jars of the classpath, in order, or null if it is not only jars.
+   *     They are looked up once per compilation, as javac lists the classpath for every package.
+   */
+  @Nullable
+  private synchronized List<ClasspathJarCache.JarIndex> getClasspathIndexes() throws IOException {
+    Iterable<? extends File> path = fileManager.getLocation(StandardLocation.CLASS_PATH);
+    List<File> classpath = path == null ? null : ImmutableList.copyOf(path);
+    if (!Objects.equals(classpath, indexedClasspath)) {
+      indexedClasspath = classpath;
+      classpathIndexes = classpath == null ? null : getJarIndexes(classpath);
+    }
+    return classpathIndexes;
+  }
+
+  @Nullable
+  private List<ClasspathJarCache.JarIndex> getJarIndexes(List<File> path) throws IOException {
+    List<ClasspathJarCache.JarIndex> indexes = new ArrayList<>(path.size());
+    for (File entry : path) {
+      String name = entry.getName();
+      if (!(name.endsWith(".jar") || name.endsWith(".zip")) || entry.isDirectory()) {
+        return null;
+      }
+      try {
+        ClasspathJarCache.JarIndex index = cache.getIndex(entry.toPath(), fileHashLoader);
+        if (index != null) {
+          indexes.add(index);
+        }
+      } catch (ZipException e) {
+        LOG.debug(e, "Unable to index %s; leaving the classpath to javac.", entry);
+        return null;
+      }
+    }
+    return indexes;
+  }
+
+  private Iterable<JavaFileObject> list(
+      List<ClasspathJarCache.JarIndex> indexes,
+      String packagePath,
+      Set<JavaFileObject.Kind> kinds,
+      boolean recurse) {
+    List<JavaFileObject> results = new ArrayList<>();
+    for (ClasspathJarCache.JarIndex index : indexes) {
+      if (recurse) {
+        String prefix = packagePath + "/";
+        index
+            .getEntriesByPackage()
+            .asMap()
+            .forEach(
+                (entryPackage, entries) -> {
+                  if (packagePath.isEmpty()
+                      || entryPackage.equals(packagePath)
+                      || entryPackage.startsWith(prefix)) {
+                    addEntries(index, entries, kinds, results);
+                  }
+                });
+      } else {
+        addEntries(index, index.getEntries(packagePath), kinds, results);
+      }
+    }
+    return results;
+  }
+
+  private void addEntries(
+      ClasspathJarCache.JarIndex index,
+      Iterable<String> entries,
+      Set<JavaFileObject.Kind> kinds,
+      List<JavaFileObject> results) {
+    for (String entry : entries) {
+      JavaFileObject.Kind kind = getKind(entry);
+      if (kinds.contains(kind)) {
+        results.add(new CachedJarEntryFileObject(index, entry, kind));
+      }
+    }
+  }
+
+  private static JavaFileObject.Kind getKind(String name) {
+    for (JavaFileObject.Kind kind : JavaFileObject.Kind.values()) {
+      if (kind != JavaFileObject.Kind.OTHER && name.endsWith(kind.extension)) {
+        return kind;
+      }
+    }
+    return JavaFileObject.Kind.OTHER;
+  }
+
+  private byte[] getContents(ClasspathJarCache.JarIndex index, String entryName)
+      throws IOException {
+    byte[] contents = index.getCachedContents(entryName);
+    if (contents != null) {
+      return contents;
+    }
+    return index.readContents(entryName, getOpenJar(index.getJar()));
+  }
+
+  private synchronized ZipFile getOpenJar(Path jar) throws IOException {
+    ZipFile openJar = openJars.get(jar);
+    if (openJar == null) {
+      openJar = new ZipFile(jar.toFile());
+      openJars.put(jar, openJar);
+    }
+    return openJar;
+  }
+
+  /**
+   * An entry of a jar on the classpath, named like javac names the ones it reads itself. Like
+   * {@link JarFileObject}, it does not extend {@link javax.tools.SimpleJavaFileObject}, which only
+   * takes URIs with a path.
+   */
+  private class CachedJarEntryFileObject implements JavaFileObject {
+    private final ClasspathJarCache.JarIndex index;
+    private final String entryName;
+    private final JavaFileObject.Kind kind;
+    @Nullable private URI uri;
+
+    private CachedJarEntryFileObject(
+        ClasspathJarCache.JarIndex index, String entryName, JavaFileObject.Kind kind) {
+      this.index = index;
+      this.entryName = entryName;
+      this.kind = kind;
+    }
+
+    private String getBinaryName() {
+      return entryName.substring(0, entryName.length() - kind.extension.length()).replace('/', '.');
+    }
+
+    @Override
+    public URI toUri() {
+      // javac lists whole packages but reads few of their classes, so only create URIs on demand.
+      if (uri == null) {
+        try {
+          uri = new URI(index.getJarUriPrefix() + entryName);
+        } catch (URISyntaxException e) {
+          throw new RuntimeException(e);
+        }
+      }
+      return uri;
+    }
+
+    @Override
+    public String getName() {
+      return index.getJar() + "(" + entryName + ")";
+    }
+
+    @Override
+    public InputStream openInputStream() throws IOException {
+      return new ByteArrayInputStream(getContents(index, entryName));
+    }
+
+    @Override
+    public OutputStream openOutputStream() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Reader openReader(boolean ignoreEncodingErrors) throws IOException {
+      return new StringReader(getCharContent(ignoreEncodingErrors).toString());
+    }
+
+    @Override
+    public CharSequence getCharContent(boolean ignoreEncodingErrors) throws IOException {
+      return new String(getContents(index, entryName), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public Writer openWriter() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long getLastModified() {
+      return index.getLastModifiedMillis();
+    }
+
+    @Override
+    public boolean delete() {
+      return false;
+    }
+
+    @Override
+    public Kind getKind() {
+      return kind;
+    }
+
+    @Override
+    public boolean isNameCompatible(String simpleName, JavaFileObject.Kind kind) {
+      String baseName = simpleName + kind.extension;
+      return kind.equals(getKind())
+          && (entryName.equals(baseName) || entryName.endsWith("/" + baseName));
+    }
+
+    @Override
+    @Nullable
+    public NestingKind getNestingKind() {
+      return null;
+    }
+
+    @Override
+    @Nullable
+    public Modifier getAccessLevel() {
+      return null;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof CachedJarEntryFileObject)) {
+        return false;
+      }
+      CachedJarEntryFileObject that = (CachedJarEntryFileObject) other;
+      return index.getJar().equals(that.index.getJar()) && entryName.equals(that.entryName);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(index.getJar(), entryName);
+    }
+
+    @Override
+    public String toString() {
+      return getClass().getName() + "[" + toUri() + "]";
+    }
+  }
+}
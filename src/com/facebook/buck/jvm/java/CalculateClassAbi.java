@@ -25,6 +25,7 @@ import com.facebook.buck.rules.AddToRuleKey;
 import com.facebook.buck.rules.BuildContext;
 import com.facebook.buck.rules.BuildOutputInitializer;
 import com.facebook.buck.rules.BuildRuleParams;
+import com.facebook.buck.rules.BuildRuleResolver;
 import com.facebook.buck.rules.BuildableContext;
 import com.facebook.buck.rules.DefaultSourcePathResolver;
 import com.facebook.buck.rules.ExplicitBuildTargetSourcePath;
@@ -33,6 +34,7 @@ import com.facebook.buck.rules.OnDiskBuildInfo;
 import com.facebook.buck.rules.SourcePath;
 import com.facebook.buck.rules.SourcePathResolver;
 import com.facebook.buck.rules.SourcePathRuleFinder;
+import com.facebook.buck.rules.SupportsIncrementalActionGraph;
 import com.facebook.buck.rules.keys.SupportsInputBasedRuleKey;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.fs.MkdirStep;
@@ -43,7 +45,10 @@ import java.io.IOException;
 import java.nio.file.Path;
 
 public class CalculateClassAbi extends AbstractBuildRuleWithDeclaredAndExtraDeps
-    implements CalculateAbi, InitializableFromDisk<Object>, SupportsInputBasedRuleKey {
+    implements CalculateAbi,
+        InitializableFromDisk<Object>,
+        SupportsInputBasedRuleKey,
+        SupportsIncrementalActionGraph {
 
   @AddToRuleKey private final SourcePath binaryJar;
   /**
@@ -103,6 +108,14 @@ public class CalculateClassAbi extends AbstractBuildRuleWithDeclaredAndExtraDeps
         .resolve(String.format("%s-abi.jar", buildTarget.getShortName()));
   }
 
+  @Override
+  public void updateBuildRuleResolver(
+      BuildRuleResolver ruleResolver,
+      SourcePathRuleFinder ruleFinder,
+      SourcePathResolver pathResolver) {
+    abiJarContentsSupplier.updateSourcePathResolver(pathResolver);
+  }
+
   @Override
   public ImmutableList<Step> getBuildSteps(
       BuildContext context, BuildableContext buildableContext) {
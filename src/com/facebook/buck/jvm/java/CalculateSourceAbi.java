@@ -23,13 +23,16 @@ import com.facebook.buck.rules.AddToRuleKey;
 import com.facebook.buck.rules.BuildContext;
 import com.facebook.buck.rules.BuildOutputInitializer;
 import com.facebook.buck.rules.BuildRule;
+import com.facebook.buck.rules.BuildRuleResolver;
 import com.facebook.buck.rules.BuildableContext;
 import com.facebook.buck.rules.DefaultSourcePathResolver;
 import com.facebook.buck.rules.InitializableFromDisk;
 import com.facebook.buck.rules.OnDiskBuildInfo;
 import com.facebook.buck.rules.RulePipelineStateFactory;
 import com.facebook.buck.rules.SourcePath;
+import com.facebook.buck.rules.SourcePathResolver;
 import com.facebook.buck.rules.SourcePathRuleFinder;
+import com.facebook.buck.rules.SupportsIncrementalActionGraph;
 import com.facebook.buck.rules.SupportsPipelining;
 import com.facebook.buck.rules.keys.SupportsInputBasedRuleKey;
 import com.facebook.buck.step.Step;
@@ -44,7 +47,8 @@ public class CalculateSourceAbi extends AbstractBuildRule
     implements CalculateAbi,
         InitializableFromDisk<Object>,
         SupportsInputBasedRuleKey,
-        SupportsPipelining<JavacPipelineState> {
+        SupportsPipelining<JavacPipelineState>,
+        SupportsIncrementalActionGraph {
 
   @AddToRuleKey private final JarBuildStepsFactory jarBuildStepsFactory;
   // This will be added to the rule key by virtue of being returned from getBuildDeps.
@@ -72,6 +76,15 @@ public class CalculateSourceAbi extends AbstractBuildRule
     return buildDeps;
   }
 
+  @Override
+  public void updateBuildRuleResolver(
+      BuildRuleResolver ruleResolver,
+      SourcePathRuleFinder ruleFinder,
+      SourcePathResolver pathResolver) {
+    jarBuildStepsFactory.updateRuleFinder(ruleFinder);
+    outputJarContents.updateSourcePathResolver(pathResolver);
+  }
+
   @Override
   public ImmutableList<Step> getBuildSteps(
       BuildContext context, BuildableContext buildableContext) {
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import com.facebook.buck.hashing.FileHashLoader;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.hash.HashCode;
+import com.google.common.io.ByteStreams;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Enumeration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Remembers what the jars on the classpath of in-process compilations contain, so that compiling
+ * many libraries against the same third-party and dependency jars does not open, list and inflate
+ * those jars again for every library. It lives as long as the JVM, so in buckd it spans builds.
+ *
+ * <p>A jar is identified by its path and the hash of its contents, as the build's {@link
+ * FileHashLoader} knows it: a jar which is written again with different contents, as the output of
+ * a rule which was rebuilt, gets a new index the next time it is used, even though Buck writes jars
+ * with the same fake modification times every time.
+ */
+public class ClasspathJarCache {
+
+  private static final long DEFAULT_MAX_INDEXED_ENTRIES = 2_000_000;
+  private static final long DEFAULT_MAX_CACHED_BYTES = 128L * 1024 * 1024;
+
+  private static final ClasspathJarCache SHARED_INSTANCE =
+      new ClasspathJarCache(DEFAULT_MAX_INDEXED_ENTRIES, DEFAULT_MAX_CACHED_BYTES);
+
+  private final Cache<Path, JarIndex> indexes;
+  private final long maxCachedBytes;
+  private final AtomicLong cachedBytes = new AtomicLong();
+
+  @VisibleForTesting
+  ClasspathJarCache(long maxIndexedEntries, long maxCachedBytes) {
+    this.indexes =
+        CacheBuilder.newBuilder()
+            .maximumWeight(maxIndexedEntries)
+            .<Path, JarIndex>weigher((path, index) -> Math.max(1, index.size()))
+            .<Path, JarIndex>removalListener(
+                notification -> cachedBytes.addAndGet(-notification.getValue().retire()))
+            .build();
+    this.maxCachedBytes = maxCachedBytes;
+  }
+
+  public static ClasspathJarCache getSharedInstance() {
+    return SHARED_INSTANCE;
+  }
+
+  /**
+   * @param fileHashLoader the hashes of the jars' contents, which tell whether a jar changed.
+   * @return the index of the given jar, reading it if the jar is not known yet or changed since it
+   *     was last read, or null if it does not exist.
+   */
+  @Nullable
+  public JarIndex getIndex(Path jar, FileHashLoader fileHashLoader) throws IOException {
+    BasicFileAttributes attributes;
+    try {
+      attributes = Files.readAttributes(jar, BasicFileAttributes.class);
+    } catch (IOException e) {
+      // javac silently skips classpath entries which do not exist, so do we.
+      return null;
+    }
+    HashCode contentHash;
+    try {
+      contentHash = fileHashLoader.get(jar);
+    } catch (IOException e) {
+      // The build does not know this jar, e.g. because it is outside of the cells, so it cannot
+      // tell us when it changes: read it for this compilation only.
+      JarIndex index = JarIndex.read(this, jar, attributes, null);
+      index.retire();
+      return index;
+    }
+    JarIndex index = indexes.getIfPresent(jar);
+    if (index == null || !contentHash.equals(index.contentHash)) {
+      index = JarIndex.read(this, jar, attributes, contentHash);
+      indexes.put(jar, index);
+    }
+    return index;
+  }
+
+  @VisibleForTesting
+  long getCachedBytes() {
+    return cachedBytes.get();
+  }
+
+  private boolean reserveBytes(int size) {
+    while (true) {
+      long current = cachedBytes.get();
+      if (current + size > maxCachedBytes) {
+        return false;
+      }
+      if (cachedBytes.compareAndSet(current, current + size)) {
+        return true;
+      }
+    }
+  }
+
+  /** The entries of a jar, by package, and the contents of those which were read already. */
+  public static class JarIndex {
+    private final ClasspathJarCache cache;
+    private final Path jar;
+    private final String jarUriPrefix;
+    private final long lastModifiedMillis;
+    @Nullable private final HashCode contentHash;
+    private final ImmutableListMultimap<String, String> entriesByPackage;
+    private final ConcurrentMap<String, byte[]> contents = new ConcurrentHashMap<>();
+
+    // Whether the cache dropped this index, or never shared it. Only the compilations which
+    // already hold a retired index use it, so it keeps no contents. Checking it and counting the
+    // contents under the same lock as retiring keeps the cache's byte count exact.
+    @GuardedBy("this")
+    private boolean retired = false;
+
+    @GuardedBy("this")
+    private long cachedBytes = 0;
+
+    private JarIndex(
+        ClasspathJarCache cache,
+        Path jar,
+        BasicFileAttributes attributes,
+        @Nullable HashCode contentHash,
+        ImmutableListMultimap<String, String> entriesByPackage) {
+      this.cache = cache;
+      this.jar = jar;
+      this.jarUriPrefix = "jar:" + jar.toUri().normalize() + "!/";
+      this.lastModifiedMillis = attributes.lastModifiedTime().toMillis();
+      this.contentHash = contentHash;
+      this.entriesByPackage = entriesByPackage;
+    }
+
+    private static JarIndex read(
+        ClasspathJarCache cache,
+        Path jar,
+        BasicFileAttributes attributes,
+        @Nullable HashCode contentHash)
+        throws IOException {
+      ImmutableListMultimap.Builder<String, String> entriesByPackage =
+          ImmutableListMultimap.builder();
+      try (ZipFile zipFile = new ZipFile(jar.toFile())) {
+        for (Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            entries.hasMoreElements();
+            ) {
+          ZipEntry entry = entries.nextElement();
+          if (entry.isDirectory()) {
+            continue;
+          }
+          String name = entry.getName();
+          int lastSlash = name.lastIndexOf('/');
+          entriesByPackage.put(lastSlash < 0 ? "" : name.substring(0, lastSlash), name);
+        }
+      }
+      return new JarIndex(cache, jar, attributes, contentHash, entriesByPackage.build());
+    }
+
+    public Path getJar() {
+      return jar;
+    }
+
+    /** @return what the {@code jar:} URIs of the entries start with, as javac writes them. */
+    public String getJarUriPrefix() {
+      return jarUriPrefix;
+    }
+
+    public long getLastModifiedMillis() {
+      return lastModifiedMillis;
+    }
+
+    /** @param packagePath the package, with {@code '/'} as its separator. */
+    public ImmutableList<String> getEntries(String packagePath) {
+      return entriesByPackage.get(packagePath);
+    }
+
+    public ImmutableListMultimap<String, String> getEntriesByPackage() {
+      return entriesByPackage;
+    }
+
+    /** @return the contents of the entry if a previous compilation read them, or else null. */
+    @Nullable
+    public byte[] getCachedContents(String entryName) {
+      return contents.get(entryName);
+    }
+
+    /**
+     * Reads the contents of the entry from the given open jar, keeping them for later compilations
+     * while the cache has room for them.
+     */
+    public byte[] readContents(String entryName, ZipFile openJar) throws IOException {
+      ZipEntry entry = openJar.getEntry(entryName);
+      if (entry == null) {
+        throw new IOException(String.format("%s no longer contains %s", jar, entryName));
+      }
+      byte[] bytes;
+      try (InputStream inputStream = openJar.getInputStream(entry)) {
+        bytes = ByteStreams.toByteArray(inputStream);
+      }
+      synchronized (this) {
+        if (!retired && !contents.containsKey(entryName) && cache.reserveBytes(bytes.length)) {
+          contents.put(entryName, bytes);
+          cachedBytes += bytes.length;
+        }
+      }
+      return bytes;
+    }
+
+    private int size() {
+      return entriesByPackage.size();
+    }
+
+    /**
+     * Drops the contents of this index, which keeps no more from now on.
+     *
+     * @return how many bytes of contents it held, which the cache no longer holds.
+     */
+    private synchronized long retire() {
+      retired = true;
+      contents.clear();
+      long released = cachedBytes;
+      cachedBytes = 0;
+      return released;
+    }
+  }
+}
@@ -37,6 +37,8 @@ import com.facebook.buck.rules.OnDiskBuildInfo;
 import com.facebook.buck.rules.RulePipelineStateFactory;
 import com.facebook.buck.rules.SourcePath;
 import com.facebook.buck.rules.SourcePathResolver;
+import com.facebook.buck.rules.SourcePathRuleFinder;
+import com.facebook.buck.rules.SupportsIncrementalActionGraph;
 import com.facebook.buck.rules.SupportsPipelining;
 import com.facebook.buck.rules.keys.SupportsDependencyFileRuleKey;
 import com.facebook.buck.rules.keys.SupportsInputBasedRuleKey;
@@ -90,6 +92,7 @@ public class DefaultJavaLibrary extends AbstractBuildRule
         SupportsInputBasedRuleKey,
         SupportsDependencyFileRuleKey,
         SupportsPipelining<JavacPipelineState>,
+        SupportsIncrementalActionGraph,
         JavaLibraryWithTests {
 
   private static final Path METADATA_DIR = Paths.get("META-INF");
@@ -216,6 +219,15 @@ public class DefaultJavaLibrary extends AbstractBuildRule
     return buildDeps;
   }
 
+  @Override
+  public void updateBuildRuleResolver(
+      BuildRuleResolver ruleResolver,
+      SourcePathRuleFinder ruleFinder,
+      SourcePathResolver pathResolver) {
+    jarBuildStepsFactory.updateRuleFinder(ruleFinder);
+    outputJarContentsSupplier.updateSourcePathResolver(pathResolver);
+  }
+
   @Override
   public boolean getRequiredForSourceOnlyAbi() {
     return requiredForSourceOnlyAbi;
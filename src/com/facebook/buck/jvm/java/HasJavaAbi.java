@@ -98,7 +98,7 @@ public interface HasJavaAbi {
   }
 
   class JarContentsSupplier {
-    private final SourcePathResolver resolver;
+    private SourcePathResolver resolver;
     @Nullable private final SourcePath jarSourcePath;
     @Nullable private ImmutableSortedSet<SourcePath> contents;
     @Nullable private ImmutableSet<String> contentPaths;
@@ -108,6 +108,11 @@ public interface HasJavaAbi {
       this.jarSourcePath = jarSourcePath;
     }
 
+    /** Resolves the jar with {@code resolver} from now on. */
+    public void updateSourcePathResolver(SourcePathResolver resolver) {
+      this.resolver = resolver;
+    }
+
     public void load() throws IOException {
       if (jarSourcePath == null) {
         contents = ImmutableSortedSet.of();
@@ -16,29 +16,46 @@
 
 package com.facebook.buck.jvm.java;
 
+import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.io.ExecutableFinder;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.shell.ShellStep;
 import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.StepExecutionResult;
 import com.facebook.buck.util.ProcessExecutor;
 import com.facebook.buck.util.ProcessExecutorParams;
 import com.facebook.buck.util.environment.Platform;
+import com.facebook.buck.worker.WorkerJobResult;
+import com.facebook.buck.worker.WorkerProcess;
+import com.facebook.buck.worker.WorkerProcessIdentity;
+import com.facebook.buck.worker.WorkerProcessParams;
+import com.facebook.buck.worker.WorkerProcessPool;
+import com.facebook.buck.worker.WorkerProcessPoolFactory;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
 import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 public class JUnitStep extends ShellStep {
   private static final Logger LOG = Logger.get(JUnitStep.class);
 
+  /** Mirrors {@code com.facebook.buck.testrunner.JUnitWorkerMain#RECYCLE}. */
+  private static final String JUNIT_WORKER_RECYCLE = "recycle";
+
   private final ProjectFilesystem filesystem;
   private final ImmutableList<String> javaRuntimeLauncher;
   private final ImmutableMap<String, String> nativeLibsEnvironment;
@@ -46,6 +63,7 @@ public class JUnitStep extends ShellStep {
   private final Optional<Long> testCaseTimeoutMs;
   private final ImmutableMap<String, String> env;
   private final JUnitJvmArgs junitJvmArgs;
+  private final int maxRunsPerJUnitWorker;
 
   // Set when the junit command times out.
   private boolean hasTimedOut = false;
@@ -58,7 +76,8 @@ public class JUnitStep extends ShellStep {
       Optional<Long> testCaseTimeoutMs,
       ImmutableMap<String, String> env,
       ImmutableList<String> javaRuntimeLauncher,
-      JUnitJvmArgs junitJvmArgs) {
+      JUnitJvmArgs junitJvmArgs,
+      int maxRunsPerJUnitWorker) {
     super(Optional.of(buildTarget), filesystem.getRootPath());
     this.filesystem = filesystem;
     this.javaRuntimeLauncher = javaRuntimeLauncher;
@@ -67,6 +86,7 @@ public class JUnitStep extends ShellStep {
     this.testCaseTimeoutMs = testCaseTimeoutMs;
     this.env = env;
     this.junitJvmArgs = junitJvmArgs;
+    this.maxRunsPerJUnitWorker = maxRunsPerJUnitWorker;
   }
 
   @Override
@@ -74,6 +94,93 @@ public class JUnitStep extends ShellStep {
     return "junit";
   }
 
+  @Override
+  public StepExecutionResult execute(ExecutionContext context)
+      throws IOException, InterruptedException {
+    // A worker can't be killed when the tests of a single rule take too long, so rules with a
+    // timeout always run in a JVM of their own.
+    if (maxRunsPerJUnitWorker <= 0
+        || testRuleTimeoutMs.isPresent()
+        || !junitJvmArgs.canRunInJUnitWorker(context.getVerbosity())) {
+      return super.execute(context);
+    }
+
+    WorkerProcessPool pool =
+        new WorkerProcessPoolFactory(filesystem)
+            .getWorkerProcessPool(context, getJUnitWorkerParams(context));
+    WorkerProcess process = pool.borrowWorkerProcess();
+    boolean isRecycled = true;
+    try {
+      WorkerJobResult result;
+      try {
+        result = process.submitAndWaitForJob(getJUnitWorkerJobArgs(context));
+      } catch (IOException e) {
+        // The worker died under the tests, for example by running out of memory. Like a JVM of
+        // its own exiting early, that leaves the test classes without results files, which then
+        // fail as having exited before generating them.
+        LOG.warn(e, "JUnit worker died while running the tests of %s.", getBuildTarget().get());
+        return StepExecutionResult.SUCCESS;
+      }
+      isRecycled = result.getStdout().orElse("").contains(JUNIT_WORKER_RECYCLE);
+
+      Optional<String> stderr = result.getStderr();
+      if (stderr.isPresent()
+          && !stderr.get().isEmpty()
+          && (result.getExitCode() != 0 || shouldPrintStderr(context.getVerbosity()))) {
+        context.postEvent(ConsoleEvent.warning("%s", stderr.get()));
+      }
+      return StepExecutionResult.of(result.getExitCode(), stderr);
+    } finally {
+      if (isRecycled) {
+        pool.destroyWorkerProcess(process);
+      } else {
+        pool.returnWorkerProcess(process);
+      }
+    }
+  }
+
+  /**
+   * The workers running the tests of different rules are shared when they are started with the
+   * same command and environment. Under the daemon, they are kept between commands too.
+   */
+  @VisibleForTesting
+  WorkerProcessParams getJUnitWorkerParams(ExecutionContext context) {
+    ImmutableList.Builder<String> command = ImmutableList.builder();
+    command.addAll(javaRuntimeLauncher);
+    junitJvmArgs.formatJUnitWorkerArgsToList(command, maxRunsPerJUnitWorker);
+    ImmutableMap<String, String> environment = getEnvironmentVariables(context);
+
+    String key =
+        String.format(
+            "junit:%s %s",
+            Joiner.on(' ').withKeyValueSeparator("=").join(new TreeMap<>(environment)),
+            Joiner.on(' ').join(command.build()));
+    int maxWorkers = context.getConcurrencyLimit().threadLimit;
+    return WorkerProcessParams.of(
+        filesystem.getBuckPaths().getScratchDir().resolve("junit_workers"),
+        command.build(),
+        environment,
+        maxWorkers,
+        Optional.of(
+            WorkerProcessIdentity.of(
+                key,
+                Hashing.sha1().hashString(key + " " + maxWorkers, StandardCharsets.UTF_8))));
+  }
+
+  /** Formats the job of a JUnit worker, one argument per line. */
+  @VisibleForTesting
+  String getJUnitWorkerJobArgs(ExecutionContext context) {
+    ImmutableList.Builder<String> args = ImmutableList.builder();
+    junitJvmArgs.formatJUnitWorkerJobArgsToList(
+        args, filesystem, testCaseTimeoutMs.orElse(context.getDefaultTestTimeoutMillis()));
+    StringBuilder job = new StringBuilder();
+    for (String arg : args.build()) {
+      job.append(arg.replace("\\", "\\\\").replace("\r", "\\r").replace("\n", "\\n"))
+          .append('\n');
+    }
+    return job.toString();
+  }
+
   @Override
   protected ImmutableList<String> getShellCommandInternal(ExecutionContext context) {
     ImmutableList.Builder<String> args = ImmutableList.builder();
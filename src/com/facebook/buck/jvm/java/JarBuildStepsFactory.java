@@ -46,7 +46,7 @@ import javax.annotation.Nullable;
 public class JarBuildStepsFactory
     implements AddsToRuleKey, RulePipelineStateFactory<JavacPipelineState> {
   private final ProjectFilesystem projectFilesystem;
-  private final SourcePathRuleFinder ruleFinder;
+  private SourcePathRuleFinder ruleFinder;
 
   @AddToRuleKey private final ConfiguredCompiler configuredCompiler;
   @AddToRuleKey private final ImmutableSortedSet<SourcePath> srcs;
@@ -100,6 +100,12 @@ public class JarBuildStepsFactory
     this.ruleInfo = ruleInfo;
   }
 
+  /** Finds rules with {@code ruleFinder} from now on, including those of the ABI classpath. */
+  public void updateRuleFinder(SourcePathRuleFinder ruleFinder) {
+    this.ruleFinder = ruleFinder;
+    abiClasspath.updateRuleFinder(ruleFinder);
+  }
+
   public boolean producesJar() {
     return !srcs.isEmpty() || !resources.isEmpty() || manifestFile.isPresent();
   }
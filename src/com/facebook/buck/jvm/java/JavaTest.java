@@ -75,7 +75,9 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -139,7 +141,7 @@ public class JavaTest extends AbstractBuildRuleWithDeclaredAndExtraDeps
 
   private static final Logger LOG = Logger.get(JavaTest.class);
 
-  @Nullable private ImmutableList<JUnitStep> junits;
+  @Nullable private ImmutableMap<String, JUnitStep> junitsByTestClass;
 
   @AddToRuleKey private final boolean runTestSeparately;
 
@@ -262,7 +264,8 @@ public class JavaTest extends AbstractBuildRuleWithDeclaredAndExtraDeps
         testCaseTimeoutMs,
         Arg.stringify(env, pathResolver),
         javaRuntimeLauncher.getCommandPrefix(pathResolver),
-        args);
+        args,
+        options.getMaxRunsPerJUnitWorker());
   }
 
   /** Returns the underlying java library containing the compiled tests. */
@@ -295,39 +298,147 @@ public class JavaTest extends AbstractBuildRuleWithDeclaredAndExtraDeps
     }
 
     ImmutableList.Builder<Step> steps = ImmutableList.builder();
-    Path pathToTestOutput = getPathToTestOutputDirectory();
+    steps.addAll(getSetUpSteps(buildContext));
+    for (ImmutableList<Step> shard :
+        getShards(executionContext, options, buildContext, ImmutableList.of(testClassNames))) {
+      steps.addAll(shard);
+    }
+    return steps.build();
+  }
 
+  /**
+   * Like {@link #runTests}, but splits the test classes between at most {@code maxShards} shards
+   * whose expected durations are as close as possible, so that the shards can run concurrently.
+   * All the shards write their results to the same directory, so {@link #interpretTestResults}
+   * reads them as if the tests had run in a single shard.
+   *
+   * @param testClassDurations the durations of the test classes in previous runs, in
+   *     milliseconds. Classes without one are expected to take as long as the average class.
+   */
+  public JavaTestShards runTestsInShards(
+      ExecutionContext executionContext,
+      TestRunningOptions options,
+      BuildContext buildContext,
+      Map<String, Long> testClassDurations,
+      int maxShards) {
+    Set<String> testClassNames = getClassNamesForSources(buildContext.getSourcePathResolver());
+    LOG.debug("Testing these classes in at most %d shards: %s", maxShards, testClassNames);
+    if (testClassNames.isEmpty()) {
+      return JavaTestShards.of(ImmutableList.of(), ImmutableList.of());
+    }
+
+    return JavaTestShards.of(
+        getSetUpSteps(buildContext),
+        getShards(
+            executionContext,
+            options,
+            buildContext,
+            partitionTestClasses(testClassNames, testClassDurations, maxShards)));
+  }
+
+  private ImmutableList<Step> getSetUpSteps(BuildContext buildContext) {
+    ImmutableList.Builder<Step> steps = ImmutableList.builder();
     steps.addAll(
         MakeCleanDirectoryStep.of(
             BuildCellRelativePath.fromCellRelativePath(
-                buildContext.getBuildCellRootPath(), getProjectFilesystem(), pathToTestOutput)));
+                buildContext.getBuildCellRootPath(),
+                getProjectFilesystem(),
+                getPathToTestOutputDirectory())));
     addPreTestSteps(buildContext, steps);
-    if (forkMode() == ForkMode.PER_TEST) {
-      ImmutableList.Builder<JUnitStep> junitsBuilder = ImmutableList.builder();
-      for (String testClass : testClassNames) {
-        junitsBuilder.add(
+    return steps.build();
+  }
+
+  private ImmutableList<ImmutableList<Step>> getShards(
+      ExecutionContext executionContext,
+      TestRunningOptions options,
+      BuildContext buildContext,
+      List<? extends Set<String>> testClassNamesByShard) {
+    Path pathToTestOutput = getPathToTestOutputDirectory();
+    ImmutableMap.Builder<String, JUnitStep> junitsByTestClassBuilder = ImmutableMap.builder();
+    ImmutableList.Builder<ImmutableList<Step>> shards = ImmutableList.builder();
+    for (Set<String> testClassNames : testClassNamesByShard) {
+      ImmutableList.Builder<Step> shard = ImmutableList.builder();
+      if (forkMode() == ForkMode.PER_TEST) {
+        for (String testClass : testClassNames) {
+          JUnitStep junit =
+              getJUnitStep(
+                  executionContext,
+                  buildContext.getSourcePathResolver(),
+                  options,
+                  Optional.of(pathToTestOutput),
+                  Optional.of(pathToTestLogs),
+                  Collections.singleton(testClass));
+          junitsByTestClassBuilder.put(testClass, junit);
+          shard.add(junit);
+        }
+      } else {
+        JUnitStep junit =
             getJUnitStep(
                 executionContext,
                 buildContext.getSourcePathResolver(),
                 options,
                 Optional.of(pathToTestOutput),
                 Optional.of(pathToTestLogs),
-                Collections.singleton(testClass)));
+                testClassNames);
+        for (String testClass : testClassNames) {
+          junitsByTestClassBuilder.put(testClass, junit);
+        }
+        shard.add(junit);
       }
-      junits = junitsBuilder.build();
-    } else {
-      junits =
-          ImmutableList.of(
-              getJUnitStep(
-                  executionContext,
-                  buildContext.getSourcePathResolver(),
-                  options,
-                  Optional.of(pathToTestOutput),
-                  Optional.of(pathToTestLogs),
-                  testClassNames));
+      shards.add(shard.build());
     }
-    steps.addAll(junits);
-    return steps.build();
+    junitsByTestClass = junitsByTestClassBuilder.build();
+    return shards.build();
+  }
+
+  /**
+   * Greedily assigns each test class, from the longest to the shortest, to the shard with the
+   * shortest total duration so far.
+   *
+   * @return the non-empty sets of test classes of each shard.
+   */
+  @VisibleForTesting
+  static ImmutableList<ImmutableSet<String>> partitionTestClasses(
+      Set<String> testClassNames, Map<String, Long> testClassDurations, int maxShards) {
+    Preconditions.checkArgument(maxShards > 0, "maxShards must be positive but was %s", maxShards);
+    long defaultDuration =
+        Math.max(
+            1,
+            (long)
+                testClassNames
+                    .stream()
+                    .filter(testClassDurations::containsKey)
+                    .mapToLong(testClassDurations::get)
+                    .average()
+                    .orElse(1));
+    List<String> longestFirst = Lists.newArrayList(testClassNames);
+    longestFirst.sort(
+        Comparator.<String>comparingLong(
+                testClass -> testClassDurations.getOrDefault(testClass, defaultDuration))
+            .reversed()
+            .thenComparing(Comparator.naturalOrder()));
+
+    int shardCount = Math.min(maxShards, testClassNames.size());
+    List<ImmutableSet.Builder<String>> shards = new ArrayList<>(shardCount);
+    long[] shardDurations = new long[shardCount];
+    for (int i = 0; i < shardCount; i++) {
+      shards.add(ImmutableSet.builder());
+    }
+    for (String testClass : longestFirst) {
+      int shortestShard = 0;
+      for (int i = 1; i < shardCount; i++) {
+        if (shardDurations[i] < shardDurations[shortestShard]) {
+          shortestShard = i;
+        }
+      }
+      shards.get(shortestShard).add(testClass);
+      shardDurations[shortestShard] +=
+          testClassDurations.getOrDefault(testClass, defaultDuration);
+    }
+    return shards
+        .stream()
+        .map(ImmutableSet.Builder::build)
+        .collect(MoreCollectors.toImmutableList());
   }
 
   private static Iterable<String> reorderClasses(Set<String> testClassNames, boolean shuffle) {
@@ -423,16 +534,15 @@ public class JavaTest extends AbstractBuildRuleWithDeclaredAndExtraDeps
             getProjectFilesystem()
                 .getPathForRelativePath(getPathToTestOutputDirectory().resolve(path));
         if (!isUsingTestSelectors && !Files.isRegularFile(testResultFile)) {
+          JUnitStep junit = Preconditions.checkNotNull(junitsByTestClass).get(testClass);
           String message;
-          for (JUnitStep junit : Preconditions.checkNotNull(junits)) {
-            if (junit.hasTimedOut()) {
-              message = "test timed out before generating results file";
-            } else {
-              message = "test exited before generating results file";
-            }
-            summaries.add(
-                getTestClassFailedSummary(testClass, message, testRuleTimeoutMs.orElse(0L)));
+          if (junit != null && junit.hasTimedOut()) {
+            message = "test timed out before generating results file";
+          } else {
+            message = "test exited before generating results file";
           }
+          summaries.add(
+              getTestClassFailedSummary(testClass, message, testRuleTimeoutMs.orElse(0L)));
           // Not having a test result file at all (which only happens when we are using test
           // selectors) is interpreted as meaning a test didn't run at all, so we'll completely
           // ignore it.  This is another result of the fact that JUnit is the only thing that can
@@ -624,13 +734,35 @@ public class JavaTest extends AbstractBuildRuleWithDeclaredAndExtraDeps
                 .getTransitiveClasspathDeps()
                 .stream()
                 .filter(rule -> !this.equals(rule)),
-            // It's possible that the user added some tool as a dependency, so make sure we promote
-            // this rules first-order deps to runtime deps, so that these potential tools are
-            // available when this test runs.
-            compiledTestsLibrary.getBuildDeps().stream())
+            Stream.concat(
+                // It's possible that the user added some tool as a dependency, so make sure we
+                // promote this rules first-order deps to runtime deps, so that these potential
+                // tools are available when this test runs.
+                compiledTestsLibrary.getBuildDeps().stream(),
+                // Additional classpath entries built by rules must be on disk when the tests run.
+                ruleFinder
+                    .filterBuildRuleInputs(
+                        additionalClasspathEntries
+                            .stream()
+                            .filter(Either::isLeft)
+                            .map(Either::getLeft)
+                            .collect(MoreCollectors.toImmutableSet()))
+                    .stream()))
         .map(BuildRule::getBuildTarget);
   }
 
+  /**
+   * @return the additional classpath entries which come from outside of the build, so that their
+   *     contents are in neither this rule's key nor those of its deps.
+   */
+  public ImmutableSet<Path> getExternalClasspathEntries() {
+    return additionalClasspathEntries
+        .stream()
+        .filter(Either::isRight)
+        .map(Either::getRight)
+        .collect(MoreCollectors.toImmutableSet());
+  }
+
   @Override
   public boolean supportsStreamingTests() {
     return false;
@@ -143,6 +143,7 @@ public class JavacExecutionContextSerializer {
                 "Missing environment when deserializing JavacExectionContext"),
         processExecutor,
         absolutePathsForInputs,
-        directToJarParameters);
+        directToJarParameters,
+        Optional.empty());
   }
 }
@@ -119,7 +119,8 @@ public class JavacStep implements Step {
               firstOrderContext.getEnvironment(),
               firstOrderContext.getProcessExecutor(),
               getAbsolutePathsForJavacInputs(getJavac()),
-              jarParameters);
+              jarParameters,
+              firstOrderContext.getFileHashCache());
       ImmutableList<JavacPluginJsr199Fields> pluginFields =
           ImmutableList.copyOf(
               javacOptions
@@ -312,6 +312,13 @@ class Jsr199JavacInvocation implements Javac.Invocation {
 
       StandardJavaFileManager standardFileManager =
           compiler.getStandardFileManager(null, null, null);
+      if (context.getFileHashCache().isPresent()) {
+        standardFileManager =
+            new CachingClasspathFileManager(
+                standardFileManager,
+                ClasspathJarCache.getSharedInstance(),
+                context.getFileHashCache().get());
+      }
       addCloseable(standardFileManager);
 
       StandardJavaFileManager fileManager;
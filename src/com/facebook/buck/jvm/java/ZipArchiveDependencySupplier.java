@@ -27,7 +27,7 @@ import com.google.common.collect.ImmutableSortedSet;
 import java.util.stream.Stream;
 
 public class ZipArchiveDependencySupplier implements ArchiveDependencySupplier {
-  private final SourcePathRuleFinder ruleFinder;
+  private SourcePathRuleFinder ruleFinder;
   private final ImmutableSortedSet<SourcePath> zipFiles;
 
   public ZipArchiveDependencySupplier(
@@ -36,6 +36,11 @@ public class ZipArchiveDependencySupplier implements ArchiveDependencySupplier {
     this.zipFiles = zipFiles;
   }
 
+  /** Finds the rules of the zip files with {@code ruleFinder} from now on. */
+  public void updateRuleFinder(SourcePathRuleFinder ruleFinder) {
+    this.ruleFinder = ruleFinder;
+  }
+
   @Override
   public ImmutableSortedSet<SourcePath> get() {
     return zipFiles;
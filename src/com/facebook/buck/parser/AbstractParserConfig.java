@@ -42,6 +42,7 @@ abstract class AbstractParserConfig implements ConfigView<BuckConfig> {
   public static final String INCLUDES_PROPERTY_NAME = "includes";
 
   private static final long NUM_PARSING_THREADS_DEFAULT = 1L;
+  private static final long DEFAULT_DAEMON_STATE_SNAPSHOT_INTERVAL_SECONDS = 300L;
 
   public enum GlobHandler {
     PYTHON,
@@ -162,6 +163,23 @@ abstract class AbstractParserConfig implements ConfigView<BuckConfig> {
         .orElse(WatchmanWatcher.CursorType.CLOCK_ID);
   }
 
+  /**
+   * @return whether the daemon should persist its parser caches to disk so that a restarted daemon
+   *     only has to re-parse the build files that changed while it was down.
+   */
+  @Value.Lazy
+  public boolean getPersistDaemonState() {
+    return getDelegate().getBooleanValue("parser", "persist_daemon_state", false);
+  }
+
+  /** @return the minimum time between two snapshots of the daemon's parser caches. */
+  @Value.Lazy
+  public long getDaemonStateSnapshotIntervalSeconds() {
+    return getDelegate()
+        .getLong("parser", "daemon_state_snapshot_interval_seconds")
+        .orElse(DEFAULT_DAEMON_STATE_SNAPSHOT_INTERVAL_SECONDS);
+  }
+
   @Value.Lazy
   public boolean getEnableParallelParsing() {
     return getDelegate().getBooleanValue("project", "parallel_parsing", true);
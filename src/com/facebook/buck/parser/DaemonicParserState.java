@@ -629,14 +629,20 @@ public class DaemonicParserState {
     }
   }
 
-  public RemoteDaemonicParserState serialiseDaemonicParserState() throws IOException {
+  /**
+   * Serialises the raw node caches of every cell. Cell paths are stored relative to {@code
+   * rootCellPath} so the result can be restored with {@link #restoreState} against a root cell at a
+   * different location.
+   */
+  public RemoteDaemonicParserState serialiseDaemonicParserState(Path rootCellPath)
+      throws IOException {
     ImmutableList.Builder<String> cellPathsBuilder = ImmutableList.builder();
     ImmutableMap.Builder<String, RemoteDaemonicCellState> cellPathToDaemonicStateBuilder =
         ImmutableMap.builder();
     try (AutoCloseableLock readLock = cellStateLock.readLock()) {
       for (Path p : cellPathToDaemonicState.keySet()) {
         DaemonicCellState daemonicCellState = cellPathToDaemonicState.get(p);
-        Path relPath = daemonicCellState.getCellRoot().relativize(p);
+        Path relPath = rootCellPath.relativize(daemonicCellState.getCellRoot());
         cellPathsBuilder.add(relPath.toString());
         cellPathToDaemonicStateBuilder.put(relPath.toString(), daemonicCellState.serialise());
       }
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.BuckVersion;
+import com.facebook.buck.parser.thrift.RemoteDaemonicParserState;
+import com.facebook.buck.rules.Cell;
+import com.facebook.buck.slb.ThriftProtocol;
+import com.facebook.buck.slb.ThriftUtil;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Reads and writes snapshots of {@link DaemonicParserState} so that a freshly started daemon can
+ * reuse the raw nodes parsed by its predecessor instead of re-running every build file through the
+ * {@link ProjectBuildFileParserPool}.
+ *
+ * <p>A snapshot records, for every watched cell, the Watchman clock that the parser state was
+ * synchronized with when it was written. A restored state is only correct once the changes made
+ * since those clocks have been replayed through the usual invalidation path, so callers must seed
+ * their Watchman cursors with {@link Snapshot#getWatchmanClocks()} and treat a fresh-instance
+ * response as an overflow.
+ *
+ * <p>Snapshots are tied to the Buck version and the parser-visible configuration of every cell;
+ * a mismatch in either discards the snapshot.
+ */
+public class DaemonicParserStateSnapshotStore {
+
+  private static final Logger LOG = Logger.get(DaemonicParserStateSnapshotStore.class);
+
+  private static final int MAGIC = 0xB0C4D5A7;
+  private static final int FORMAT_VERSION = 1;
+  private static final String SNAPSHOT_FILE_NAME = "daemonic_parser_state.bin.gz";
+
+  /** Parser state loaded from disk together with the Watchman clocks it was synchronized with. */
+  public static final class Snapshot {
+    private final ImmutableMap<Path, String> watchmanClocks;
+    private final RemoteDaemonicParserState parserState;
+
+    private Snapshot(
+        ImmutableMap<Path, String> watchmanClocks, RemoteDaemonicParserState parserState) {
+      this.watchmanClocks = watchmanClocks;
+      this.parserState = parserState;
+    }
+
+    public ImmutableMap<Path, String> getWatchmanClocks() {
+      return watchmanClocks;
+    }
+
+    public RemoteDaemonicParserState getParserState() {
+      return parserState;
+    }
+  }
+
+  private final ProjectFilesystem filesystem;
+  private final Path snapshotPath;
+  private final String configFingerprint;
+
+  public DaemonicParserStateSnapshotStore(Cell rootCell) {
+    this.filesystem = rootCell.getFilesystem();
+    this.snapshotPath = filesystem.getBuckPaths().getCacheDir().resolve(SNAPSHOT_FILE_NAME);
+    this.configFingerprint = computeConfigFingerprint(rootCell);
+  }
+
+  Path getSnapshotPath() {
+    return snapshotPath;
+  }
+
+  /**
+   * Writes a new snapshot, replacing any previous one. The file is written to a temporary location
+   * first so that a daemon killed mid-write never leaves a truncated snapshot behind.
+   *
+   * @param watchmanClocks clock ids (keyed by cell path) up to which {@code state} reflects all
+   *     file system changes. Only {@code c:} clock ids survive a daemon restart, so named cursors
+   *     must not be passed here.
+   */
+  public void write(ImmutableMap<Path, String> watchmanClocks, RemoteDaemonicParserState state)
+      throws IOException {
+    filesystem.mkdirs(snapshotPath.getParent());
+    Path tempPath =
+        filesystem.createTempFile(snapshotPath.getParent(), SNAPSHOT_FILE_NAME, ".tmp");
+    try {
+      try (OutputStream fileStream = filesystem.newFileOutputStream(tempPath);
+          GZIPOutputStream gzipStream = new GZIPOutputStream(fileStream);
+          DataOutputStream out = new DataOutputStream(gzipStream)) {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeUTF(BuckVersion.getVersion());
+        out.writeUTF(configFingerprint);
+        out.writeInt(watchmanClocks.size());
+        for (Map.Entry<Path, String> entry : watchmanClocks.entrySet()) {
+          out.writeUTF(entry.getKey().toString());
+          out.writeUTF(entry.getValue());
+        }
+        byte[] serializedState = ThriftUtil.serialize(ThriftProtocol.COMPACT, state);
+        out.writeInt(serializedState.length);
+        out.write(serializedState);
+      }
+      filesystem.move(tempPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      filesystem.deleteFileAtPathIfExists(tempPath);
+    }
+  }
+
+  /**
+   * Reads the snapshot written by a previous daemon, if there is one and it is still usable by this
+   * Buck version and configuration.
+   */
+  public Optional<Snapshot> read() {
+    if (!filesystem.exists(snapshotPath)) {
+      return Optional.empty();
+    }
+    try (InputStream fileStream = filesystem.newFileInputStream(snapshotPath);
+        GZIPInputStream gzipStream = new GZIPInputStream(fileStream);
+        DataInputStream in = new DataInputStream(gzipStream)) {
+      if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+        LOG.debug("Ignoring parser state snapshot %s with unknown format.", snapshotPath);
+        return Optional.empty();
+      }
+      String buckVersion = in.readUTF();
+      if (!buckVersion.equals(BuckVersion.getVersion())) {
+        LOG.debug(
+            "Ignoring parser state snapshot written by Buck version %s (current: %s).",
+            buckVersion, BuckVersion.getVersion());
+        return Optional.empty();
+      }
+      if (!in.readUTF().equals(configFingerprint)) {
+        LOG.debug("Ignoring parser state snapshot written with a different configuration.");
+        return Optional.empty();
+      }
+      int clockCount = in.readInt();
+      ImmutableMap.Builder<Path, String> clocks = ImmutableMap.builder();
+      for (int i = 0; i < clockCount; i++) {
+        clocks.put(filesystem.getPath(in.readUTF()), in.readUTF());
+      }
+      byte[] serializedState = new byte[in.readInt()];
+      in.readFully(serializedState);
+      RemoteDaemonicParserState state = new RemoteDaemonicParserState();
+      ThriftUtil.deserialize(ThriftProtocol.COMPACT, serializedState, state);
+      return Optional.of(new Snapshot(clocks.build(), state));
+    } catch (IOException e) {
+      LOG.warn(e, "Unable to read parser state snapshot %s, ignoring it.", snapshotPath);
+      return Optional.empty();
+    }
+  }
+
+  /** Removes the snapshot so it cannot be restored by a future daemon. */
+  public void delete() throws IOException {
+    filesystem.deleteFileAtPathIfExists(snapshotPath);
+  }
+
+  private static String computeConfigFingerprint(Cell rootCell) {
+    Hasher hasher = Hashing.sha1().newHasher();
+    // Sort everything so that the fingerprint does not depend on config file ordering.
+    Map<String, Cell> cellsByRoot = new TreeMap<>();
+    for (Cell cell : rootCell.getAllCells()) {
+      cellsByRoot.put(cell.getRoot().toString(), cell);
+    }
+    for (Map.Entry<String, Cell> cellEntry : cellsByRoot.entrySet()) {
+      hasher.putString(cellEntry.getKey(), StandardCharsets.UTF_8);
+      Map<String, Map<String, String>> sections = new TreeMap<>();
+      cellEntry
+          .getValue()
+          .getBuckConfig()
+          .getRawConfigForParser()
+          .forEach((section, entries) -> sections.put(section, new TreeMap<>(entries)));
+      hasher.putString(sections.toString(), StandardCharsets.UTF_8);
+    }
+    return hasher.hash().toString();
+  }
+}
@@ -572,12 +572,18 @@ public class Parser {
     return target.withFlavors(defaultFlavors);
   }
 
-  public RemoteDaemonicParserState storeParserState() throws IOException {
-    return getPermState().serialiseDaemonicParserState();
+  public RemoteDaemonicParserState storeParserState(Cell rootCell) throws IOException {
+    return getPermState().serialiseDaemonicParserState(rootCell.getRoot());
   }
 
   public void restoreParserState(RemoteDaemonicParserState state, Cell rootCell) {
-    getPermState().restoreState(state, rootCell);
+    try {
+      getPermState().restoreState(state, rootCell);
+    } catch (RuntimeException e) {
+      // Don't leave a partially restored state behind.
+      getPermState().invalidateAllCaches();
+      throw e;
+    }
   }
 
   @Subscribe
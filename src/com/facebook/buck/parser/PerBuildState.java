@@ -112,11 +112,16 @@ public class PerBuildState implements AutoCloseable {
     TargetNodeListener<TargetNode<?, ?>> symlinkCheckers = this::registerInputsUnderSymlinks;
     ParserConfig parserConfig = rootCell.getBuckConfig().getView(ParserConfig.class);
     int numParsingThreads = parserConfig.getNumParsingThreads();
+    // Skylark build files are parsed in-process by a parser shared by all parsing threads, so
+    // they get their own pool of parsing threads rather than one parser process each.
+    int threadSafeParsingThreads =
+        parserConfig.isPolyglotParsingEnabled() ? numParsingThreads : 0;
     this.projectBuildFileParserPool =
         new ProjectBuildFileParserPool(
             numParsingThreads, // Max parsers to create per cell.
             input -> createBuildFileParser(input),
-            enableProfiling);
+            enableProfiling,
+            threadSafeParsingThreads);
 
     this.rawNodeParsePipeline =
         new RawNodeParsePipeline(
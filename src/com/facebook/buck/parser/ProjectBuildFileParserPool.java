@@ -18,19 +18,26 @@ package com.facebook.buck.parser;
 
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.parser.api.ProjectBuildFileParser;
+import com.facebook.buck.parser.exceptions.BuildFileParseException;
 import com.facebook.buck.rules.Cell;
+import com.facebook.buck.util.Threads;
+import com.facebook.buck.util.concurrent.MostExecutors;
 import com.facebook.buck.util.concurrent.ResourcePool;
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 
 /**
@@ -39,6 +46,10 @@ import javax.annotation.concurrent.GuardedBy;
  * <p>Parser instances are lazily created up till a fixed maximum. If more than max parser are
  * requested the associated 'requests' are queued up. As soon as a parser is returned it will be
  * used to satisfy the first pending request, otherwise it is "parked".
+ *
+ * <p>Build files which a parser can parse concurrently with others, like Skylark ones, can instead
+ * be parsed by a single parser per cell, which is shared by the threads of a {@link ForkJoinPool}
+ * rather than limited to the maximum number of parsers.
  */
 class ProjectBuildFileParserPool implements AutoCloseable {
   private static final Logger LOG = Logger.get(ProjectBuildFileParserPool.class);
@@ -51,6 +62,14 @@ class ProjectBuildFileParserPool implements AutoCloseable {
   private final Function<Cell, ProjectBuildFileParser> parserFactory;
   private final AtomicBoolean closing;
   private final boolean enableProfiler;
+  private final int threadSafeParsingThreads;
+
+  @GuardedBy("this")
+  private final Map<Cell, ProjectBuildFileParser> sharedParsers;
+
+  @GuardedBy("this")
+  @Nullable
+  private ListeningExecutorService threadSafeParsingExecutor;
 
   /**
    * @param maxParsersPerCell maximum number of parsers to create for a single cell.
@@ -60,13 +79,31 @@ class ProjectBuildFileParserPool implements AutoCloseable {
       int maxParsersPerCell,
       Function<Cell, ProjectBuildFileParser> parserFactory,
       boolean enableProfiler) {
+    this(maxParsersPerCell, parserFactory, enableProfiler, 0);
+  }
+
+  /**
+   * @param maxParsersPerCell maximum number of parsers to create for a single cell.
+   * @param parserFactory function used to create a new parser.
+   * @param threadSafeParsingThreads number of threads parsing build files which parsers can parse
+   *     concurrently, with a parser shared by all of them, or 0 to parse all build files with the
+   *     pooled parsers.
+   */
+  public ProjectBuildFileParserPool(
+      int maxParsersPerCell,
+      Function<Cell, ProjectBuildFileParser> parserFactory,
+      boolean enableProfiler,
+      int threadSafeParsingThreads) {
     Preconditions.checkArgument(maxParsersPerCell > 0);
+    Preconditions.checkArgument(threadSafeParsingThreads >= 0);
 
     this.maxParsersPerCell = maxParsersPerCell;
     this.parserResourcePools = new HashMap<>();
     this.parserFactory = parserFactory;
     this.closing = new AtomicBoolean(false);
     this.enableProfiler = enableProfiler;
+    this.threadSafeParsingThreads = threadSafeParsingThreads;
+    this.sharedParsers = new HashMap<>();
   }
 
   /**
@@ -83,6 +120,23 @@ class ProjectBuildFileParserPool implements AutoCloseable {
       final ListeningExecutorService executorService) {
     Preconditions.checkState(!closing.get());
 
+    if (threadSafeParsingThreads > 0) {
+      ProjectBuildFileParser sharedParser = getSharedParserForCell(cell);
+      boolean isThreadSafe;
+      try {
+        isThreadSafe = sharedParser.isThreadSafeFor(buildFile);
+      } catch (BuildFileParseException | IOException e) {
+        return Futures.immediateFailedFuture(e);
+      }
+      if (isThreadSafe) {
+        return getThreadSafeParsingExecutor()
+            .submit(
+                () ->
+                    ImmutableSet.copyOf(
+                        sharedParser.getAllRulesAndMetaRules(buildFile, processedBytes)));
+      }
+    }
+
     return getResourcePoolForCell(cell)
         .scheduleOperationWithResource(
             parser ->
@@ -105,6 +159,19 @@ class ProjectBuildFileParserPool implements AutoCloseable {
     return pool;
   }
 
+  private synchronized ProjectBuildFileParser getSharedParserForCell(Cell cell) {
+    return sharedParsers.computeIfAbsent(cell, parserFactory::apply);
+  }
+
+  private synchronized ListeningExecutorService getThreadSafeParsingExecutor() {
+    if (threadSafeParsingExecutor == null) {
+      threadSafeParsingExecutor =
+          MoreExecutors.listeningDecorator(
+              MostExecutors.forkJoinPoolWithThreadLimit(threadSafeParsingThreads, 0));
+    }
+    return threadSafeParsingExecutor;
+  }
+
   private void reportProfile() {
     if (!enableProfiler) {
       return;
@@ -125,6 +192,13 @@ class ProjectBuildFileParserPool implements AutoCloseable {
                       }
                     });
               });
+      for (ProjectBuildFileParser parser : sharedParsers.values()) {
+        try {
+          parser.reportProfile();
+        } catch (IOException exception) {
+          LOG.debug(exception, "Exception raised during reportProfile() and we're ignoring it");
+        }
+      }
     }
   }
 
@@ -132,11 +206,25 @@ class ProjectBuildFileParserPool implements AutoCloseable {
   public void close() {
     reportProfile();
     ImmutableSet<ResourcePool<ProjectBuildFileParser>> resourcePools;
+    ImmutableSet<ProjectBuildFileParser> parsers;
     synchronized (this) {
       Preconditions.checkState(!closing.get());
       closing.set(true);
       resourcePools = ImmutableSet.copyOf(parserResourcePools.values());
+      parsers = ImmutableSet.copyOf(sharedParsers.values());
+      if (threadSafeParsingExecutor != null) {
+        threadSafeParsingExecutor.shutdown();
+      }
     }
     resourcePools.forEach(ResourcePool::close);
+    for (ProjectBuildFileParser parser : parsers) {
+      try {
+        parser.close();
+      } catch (BuildFileParseException | IOException e) {
+        LOG.debug(e, "Exception raised while closing a shared parser and we're ignoring it");
+      } catch (InterruptedException e) {
+        Threads.interruptCurrentThread();
+      }
+    }
   }
 }
@@ -44,6 +44,16 @@ public interface ProjectBuildFileParser extends AutoCloseable {
       Path buildFile, AtomicLong processedBytes)
       throws BuildFileParseException, InterruptedException, IOException;
 
+  /**
+   * @return whether {@code buildFile} can be parsed by this parser while it parses other build
+   *     files on other threads. Such build files do not need a parser of their own, so they can all
+   *     be parsed by the same instance.
+   */
+  @SuppressWarnings("unused")
+  default boolean isThreadSafeFor(Path buildFile) throws BuildFileParseException, IOException {
+    return false;
+  }
+
   /** Reports profile information captured while parsing build files. */
   void reportProfile() throws IOException;
 
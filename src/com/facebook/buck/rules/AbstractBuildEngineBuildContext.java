@@ -47,6 +47,25 @@ abstract class AbstractBuildEngineBuildContext {
     return false;
   }
 
+  /**
+   * Whether to fetch the artifacts of all the deps of a rule which missed the cache in one batch,
+   * rather than one by one as each of them gets built.
+   */
+  @Value.Default
+  public boolean isPrefetchDepsOnMissEnabled() {
+    return false;
+  }
+
+  /**
+   * Whether to check which of the rules to build the cache has, top-down, before building them, so
+   * that their artifacts can be fetched together and the deps of the ones it has are never
+   * scheduled.
+   */
+  @Value.Default
+  public boolean isSpeculativeCacheProbeEnabled() {
+    return false;
+  }
+
   /**
    * Creates an {@link OnDiskBuildInfo}.
    *
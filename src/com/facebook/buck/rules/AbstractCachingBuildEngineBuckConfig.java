@@ -72,6 +72,22 @@ abstract class AbstractCachingBuildEngineBuckConfig implements ConfigView<BuckCo
     return getDelegate().getLong("build", "input_rule_key_file_size_limit").orElse(Long.MAX_VALUE);
   }
 
+  /**
+   * @return whether to compute the rule keys of the whole action graph in parallel before starting
+   *     the build.
+   */
+  public boolean getPrecomputeRuleKeys() {
+    return getDelegate().getBooleanValue("build", "precompute_rule_keys", false);
+  }
+
+  /**
+   * @return whether to check which rules the cache has, from the rules to build down, before
+   *     starting a shallow build.
+   */
+  public boolean getSpeculativeCacheProbe() {
+    return getDelegate().getBooleanValue("build", "speculative_cache_probe", false);
+  }
+
   public ResourceAwareSchedulingInfo getResourceAwareSchedulingInfo() {
     ResourcesConfig resourcesConfig = getDelegate().getView(ResourcesConfig.class);
     return ResourceAwareSchedulingInfo.of(
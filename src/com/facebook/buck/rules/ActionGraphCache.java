@@ -49,6 +49,7 @@ import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
 import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
 import javax.annotation.Nullable;
 
 /**
@@ -70,6 +71,7 @@ public class ActionGraphCache {
         buckConfig.isActionGraphCheckingEnabled(),
         buckConfig.isSkipActionGraphCache(),
         targetGraph,
+        buckConfig.isIncrementalActionGraphEnabled(),
         buckConfig.getKeySeed(),
         buckConfig.getActionGraphParallelizationMode(),
         Optional.empty());
@@ -86,6 +88,7 @@ public class ActionGraphCache {
         buckConfig.isActionGraphCheckingEnabled(),
         buckConfig.isSkipActionGraphCache(),
         targetGraph,
+        buckConfig.isIncrementalActionGraphEnabled(),
         buckConfig.getKeySeed(),
         buckConfig.getActionGraphParallelizationMode(),
         ruleKeyLogger);
@@ -103,11 +106,31 @@ public class ActionGraphCache {
         checkActionGraphs,
         skipActionGraphCache,
         targetGraph,
+        /* incrementalActionGraph */ false,
         keySeed,
         parallelizationMode,
         Optional.empty());
   }
 
+  public ActionGraphAndResolver getActionGraph(
+      final BuckEventBus eventBus,
+      final boolean checkActionGraphs,
+      final boolean skipActionGraphCache,
+      final TargetGraph targetGraph,
+      int keySeed,
+      ActionGraphParallelizationMode parallelizationMode,
+      Optional<ThriftRuleKeyLogger> ruleKeyLogger) {
+    return getActionGraph(
+        eventBus,
+        checkActionGraphs,
+        skipActionGraphCache,
+        targetGraph,
+        /* incrementalActionGraph */ false,
+        keySeed,
+        parallelizationMode,
+        ruleKeyLogger);
+  }
+
   /**
    * It returns an {@link ActionGraphAndResolver}. If the {@code targetGraph} exists in the cache it
    * returns a cached version of the {@link ActionGraphAndResolver}, else returns a new one and
@@ -118,6 +141,8 @@ public class ActionGraphCache {
    *     memory. Instead, create a new {@link ActionGraph} for this request, which should be
    *     garbage-collected at the end of the request.
    * @param targetGraph the target graph that the action graph will be based on.
+   * @param incrementalActionGraph if true, create a new {@link ActionGraph} by updating the cached
+   *     one, keeping the rules of the targets whose dependencies did not change.
    * @return a {@link ActionGraphAndResolver}
    */
   public ActionGraphAndResolver getActionGraph(
@@ -125,6 +150,7 @@ public class ActionGraphCache {
       final boolean checkActionGraphs,
       final boolean skipActionGraphCache,
       final TargetGraph targetGraph,
+      final boolean incrementalActionGraph,
       int keySeed,
       ActionGraphParallelizationMode parallelizationMode,
       Optional<ThriftRuleKeyLogger> ruleKeyLogger) {
@@ -165,14 +191,38 @@ public class ActionGraphCache {
           }
         }
         lastTargetGraphHash = targetGraphHash;
-        Pair<TargetGraph, ActionGraphAndResolver> freshActionGraph =
-            new Pair<TargetGraph, ActionGraphAndResolver>(
+        ActionGraphAndResolver actionGraph;
+        if (incrementalActionGraph && lastActionGraph != null) {
+          LOG.info("Updating the cached ActionGraph incrementally.");
+          IncrementalActionGraphGenerator generator =
+              new IncrementalActionGraphGenerator(
+                  lastActionGraph.getFirst(), lastActionGraph.getSecond(), targetGraph);
+          actionGraph =
+              createActionGraph(
+                  eventBus,
+                  new DefaultTargetNodeToBuildRuleTransformer(),
+                  targetGraph,
+                  parallelizationMode,
+                  resolver -> generator.populate(eventBus, resolver));
+          if (checkActionGraphs) {
+            compareActionGraphs(
+                eventBus,
+                actionGraph,
                 targetGraph,
-                createActionGraph(
-                    eventBus,
-                    new DefaultTargetNodeToBuildRuleTransformer(),
-                    targetGraph,
-                    parallelizationMode));
+                fieldLoader,
+                parallelizationMode,
+                ruleKeyLogger);
+          }
+        } else {
+          actionGraph =
+              createActionGraph(
+                  eventBus,
+                  new DefaultTargetNodeToBuildRuleTransformer(),
+                  targetGraph,
+                  parallelizationMode);
+        }
+        Pair<TargetGraph, ActionGraphAndResolver> freshActionGraph =
+            new Pair<TargetGraph, ActionGraphAndResolver>(targetGraph, actionGraph);
         out = freshActionGraph.getSecond();
         if (!skipActionGraphCache) {
           LOG.info("ActionGraph cache assignment. skipActionGraphCache? %s", skipActionGraphCache);
@@ -234,6 +284,20 @@ public class ActionGraphCache {
       TargetNodeToBuildRuleTransformer transformer,
       TargetGraph targetGraph,
       ActionGraphParallelizationMode parallelizationMode) {
+    return createActionGraph(
+        eventBus, transformer, targetGraph, parallelizationMode, resolver -> {});
+  }
+
+  /**
+   * @param resolverInitializer called with the new, empty resolver before any node is
+   *     transformed. With a multi-threaded resolver, it runs in the resolver's pool.
+   */
+  private static ActionGraphAndResolver createActionGraph(
+      final BuckEventBus eventBus,
+      TargetNodeToBuildRuleTransformer transformer,
+      TargetGraph targetGraph,
+      ActionGraphParallelizationMode parallelizationMode,
+      Consumer<BuildRuleResolver> resolverInitializer) {
     switch (parallelizationMode) {
       case EXPERIMENT:
         parallelizationMode =
@@ -263,9 +327,10 @@ public class ActionGraphCache {
     }
     switch (parallelizationMode) {
       case ENABLED:
-        return createActionGraphInParallel(eventBus, transformer, targetGraph);
+        return createActionGraphInParallel(
+            eventBus, transformer, targetGraph, resolverInitializer);
       case DISABLED:
-        return createActionGraphSerially(eventBus, transformer, targetGraph);
+        return createActionGraphSerially(eventBus, transformer, targetGraph, resolverInitializer);
       case EXPERIMENT_UNSTABLE:
       case EXPERIMENT:
         throw new AssertionError(
@@ -277,13 +342,15 @@ public class ActionGraphCache {
   private static ActionGraphAndResolver createActionGraphInParallel(
       final BuckEventBus eventBus,
       TargetNodeToBuildRuleTransformer transformer,
-      TargetGraph targetGraph) {
+      TargetGraph targetGraph,
+      Consumer<BuildRuleResolver> resolverInitializer) {
     // TODO(yiding): inject the pool or allow parallelism to be configured.
     ForkJoinPool pool =
         MostExecutors.forkJoinPoolWithThreadLimit(Runtime.getRuntime().availableProcessors(), 16);
     try {
       BuildRuleResolver resolver =
           new MultiThreadedBuildRuleResolver(pool, targetGraph, transformer, eventBus);
+      pool.submit(() -> resolverInitializer.accept(resolver)).join();
       HashMap<BuildTarget, CompletableFuture<BuildRule>> futures = new HashMap<>();
 
       new AbstractBottomUpTraversal<TargetNode<?, ?>, RuntimeException>(targetGraph) {
@@ -325,9 +392,11 @@ public class ActionGraphCache {
   private static ActionGraphAndResolver createActionGraphSerially(
       final BuckEventBus eventBus,
       TargetNodeToBuildRuleTransformer transformer,
-      TargetGraph targetGraph) {
+      TargetGraph targetGraph,
+      Consumer<BuildRuleResolver> resolverInitializer) {
     BuildRuleResolver resolver =
         new SingleThreadedBuildRuleResolver(targetGraph, transformer, eventBus);
+    resolverInitializer.accept(resolver);
     new AbstractBottomUpTraversal<TargetNode<?, ?>, RuntimeException>(targetGraph) {
       @Override
       public void visit(TargetNode<?, ?> node) {
@@ -368,9 +437,9 @@ public class ActionGraphCache {
   }
 
   /**
-   * Compares the cached ActionGraph with a newly generated from the targetGraph. The comparison is
-   * done by generating and comparing content agnostic RuleKeys. In case of mismatch, the
-   * mismatching BuildRules are printed and the building process is stopped.
+   * Compares a cached or incrementally updated ActionGraph with a newly generated from the
+   * targetGraph. The comparison is done by generating and comparing content agnostic RuleKeys. In
+   * case of mismatch, the mismatching BuildRules are printed and the building process is stopped.
    *
    * @param eventBus Buck's event bus.
    * @param lastActionGraphAndResolver The cached version of the graph that gets compared.
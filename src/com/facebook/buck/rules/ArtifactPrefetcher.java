@@ -0,0 +1,150 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.artifact_cache.ArtifactCache;
+import com.facebook.buck.artifact_cache.CacheResult;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.log.Logger;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Fetches the artifacts of several rules from the {@link ArtifactCache} in a single batch, ahead of
+ * their {@link CachingBuildRuleBuilder}s looking them up one by one.
+ *
+ * <p>When a rule misses the cache, all of its deps have to be built or fetched before it can be
+ * built, so their artifacts are requested together, in as few round-trips as the cache supports.
+ * Each builder then takes the prefetched artifact of its rule key, if there is one, instead of
+ * fetching it again.
+ */
+class ArtifactPrefetcher {
+
+  private static final Logger LOG = Logger.get(ArtifactPrefetcher.class);
+
+  /** An artifact which is, or has been, fetched into a temporary zip file. */
+  static class PrefetchedArtifact {
+    private final LazyPath zipPath;
+    private final ListenableFuture<CacheResult> cacheResult;
+
+    private PrefetchedArtifact(LazyPath zipPath, ListenableFuture<CacheResult> cacheResult) {
+      this.zipPath = zipPath;
+      this.cacheResult = cacheResult;
+    }
+
+    /** The zip file the artifact is fetched into, which the taker becomes responsible for. */
+    LazyPath getZipPath() {
+      return zipPath;
+    }
+
+    ListenableFuture<CacheResult> getCacheResult() {
+      return cacheResult;
+    }
+
+    private void deleteZipWhenDone() {
+      cacheResult.addListener(
+          () -> {
+            try {
+              Files.deleteIfExists(zipPath.get());
+            } catch (IOException e) {
+              LOG.warn(e, "Failed to delete unused prefetched artifact %s.", zipPath);
+            }
+          },
+          MoreExecutors.directExecutor());
+    }
+  }
+
+  private final ConcurrentMap<RuleKey, PrefetchedArtifact> prefetchedArtifacts =
+      new ConcurrentHashMap<>();
+
+  /**
+   * Starts fetching the artifacts of the given rule keys, except those already being fetched.
+   *
+   * <p>Each rule key is reserved before it is fetched, so that when several threads prefetch the
+   * same rule key at once, only one of them fetches it and the others wait for its result.
+   *
+   * @return the results of the fetches of all the given rule keys.
+   */
+  ImmutableMap<RuleKey, ListenableFuture<CacheResult>> prefetch(
+      ArtifactCache artifactCache, Iterable<RuleKey> ruleKeys) {
+    Map<RuleKey, ListenableFuture<CacheResult>> results = new LinkedHashMap<>();
+    Map<RuleKey, LazyPath> requests = new LinkedHashMap<>();
+    Map<RuleKey, SettableFuture<CacheResult>> reservations = new LinkedHashMap<>();
+    for (RuleKey ruleKey : ruleKeys) {
+      if (results.containsKey(ruleKey)) {
+        continue;
+      }
+      SettableFuture<CacheResult> reservation = SettableFuture.create();
+      PrefetchedArtifact artifact = new PrefetchedArtifact(new TemporaryZipPath(), reservation);
+      PrefetchedArtifact existing = prefetchedArtifacts.putIfAbsent(ruleKey, artifact);
+      if (existing != null) {
+        results.put(ruleKey, existing.getCacheResult());
+      } else {
+        requests.put(ruleKey, artifact.getZipPath());
+        reservations.put(ruleKey, reservation);
+        results.put(ruleKey, reservation);
+      }
+    }
+    if (!requests.isEmpty()) {
+      LOG.verbose("Prefetching %d artifacts.", requests.size());
+      try {
+        ImmutableMap<RuleKey, ListenableFuture<CacheResult>> fetches =
+            artifactCache.multiFetchAsync(ImmutableMap.copyOf(requests));
+        for (Map.Entry<RuleKey, SettableFuture<CacheResult>> reservation :
+            reservations.entrySet()) {
+          reservation.getValue().setFuture(fetches.get(reservation.getKey()));
+        }
+      } catch (RuntimeException e) {
+        // Whoever waits for the reserved rule keys would otherwise wait forever.
+        for (SettableFuture<CacheResult> reservation : reservations.values()) {
+          reservation.setException(e);
+        }
+        throw e;
+      }
+    }
+    return ImmutableMap.copyOf(results);
+  }
+
+  /** Removes and returns the prefetched artifact of the given rule key, if there is one. */
+  Optional<PrefetchedArtifact> take(RuleKey ruleKey) {
+    return Optional.ofNullable(prefetchedArtifacts.remove(ruleKey));
+  }
+
+  /** Deletes the artifacts which were prefetched, but never taken. */
+  void close() {
+    for (RuleKey ruleKey : prefetchedArtifacts.keySet()) {
+      take(ruleKey).ifPresent(PrefetchedArtifact::deleteZipWhenDone);
+    }
+  }
+
+  private static class TemporaryZipPath extends LazyPath {
+    @Override
+    protected Path create() throws IOException {
+      return Files.createTempFile("buck_artifact_prefetch", ".zip");
+    }
+  }
+}
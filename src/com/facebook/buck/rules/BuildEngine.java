@@ -33,6 +33,14 @@ public interface BuildEngine {
   /** Calculate the total number of transitive build rules processed from the given roots. */
   int getNumRulesToBuild(Iterable<BuildRule> rule);
 
+  /**
+   * Called with all the rules which are about to be built, before {@link #build} is called for any
+   * of them. Does nothing by default.
+   */
+  @SuppressWarnings("unused")
+  default void prepareToBuild(BuildEngineBuildContext buildContext, Iterable<BuildRule> rules)
+      throws InterruptedException {}
+
   /** Build the given build rule and return a future to the build rule success. */
   BuildEngineResult build(
       BuildEngineBuildContext buildContext, ExecutionContext executionContext, BuildRule rule);
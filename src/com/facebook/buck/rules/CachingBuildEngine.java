@@ -125,6 +125,9 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
 
   @Nullable private volatile Throwable firstFailure = null;
 
+  // Completes once the speculative cache probe, if any, has found the rules the cache has.
+  private volatile ListenableFuture<?> speculativeCacheProbe = Futures.immediateFuture(null);
+
   private final CachingBuildEngineDelegate cachingBuildEngineDelegate;
 
   private final WeightedListeningExecutorService service;
@@ -146,6 +149,7 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
   private final BuildRuleDurationTracker buildRuleDurationTracker = new BuildRuleDurationTracker();
   private final RuleKeyDiagnostics<RuleKey, String> defaultRuleKeyDiagnostics;
   private final BuildRulePipelinesRunner pipelinesRunner = new BuildRulePipelinesRunner();
+  private final ArtifactPrefetcher artifactPrefetcher = new ArtifactPrefetcher();
 
   private final BuildInfoStoreManager buildInfoStoreManager;
 
@@ -257,6 +261,8 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
       e.printStackTrace();
     } catch (ExecutionException e) {
       throw new RuntimeException(e);
+    } finally {
+      artifactPrefetcher.close();
     }
   }
 
@@ -311,6 +317,9 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
   // Dispatch and return a future resolving to a list of all results of this rules dependencies.
   private ListenableFuture<List<BuildResult>> getDepResults(
       BuildRule rule, BuildEngineBuildContext buildContext, ExecutionContext executionContext) {
+    if (buildContext.isPrefetchDepsOnMissEnabled()) {
+      prefetchDepArtifacts(rule, buildContext);
+    }
     List<ListenableFuture<BuildResult>> depResults =
         new ArrayList<>(SortedSets.sizeEstimate(rule.getBuildDeps()));
     for (BuildRule dep : shuffled(rule.getBuildDeps())) {
@@ -319,6 +328,41 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     return Futures.allAsList(depResults);
   }
 
+  // The deps of a rule are only requested once it missed the cache, at which point all of them will
+  // be looked up, so fetch their artifacts in one batch rather than one by one.
+  private void prefetchDepArtifacts(BuildRule rule, BuildEngineBuildContext buildContext) {
+    List<RuleKey> depRuleKeys = new ArrayList<>();
+    for (BuildRule dep : rule.getBuildDeps()) {
+      if (!dep.isCacheable() || results.containsKey(dep.getBuildTarget())) {
+        continue;
+      }
+      if (!isBuiltLocally(dep, buildContext)) {
+        depRuleKeys.add(ruleKeyFactories.getDefaultRuleKeyFactory().build(dep));
+      }
+    }
+    artifactPrefetcher.prefetch(buildContext.getArtifactCache(), depRuleKeys);
+  }
+
+  private boolean isBuiltLocally(BuildRule rule, BuildEngineBuildContext buildContext) {
+    OnDiskBuildInfo onDiskBuildInfo =
+        buildContext.createOnDiskBuildInfoFor(
+            rule.getBuildTarget(),
+            rule.getProjectFilesystem(),
+            buildInfoStoreManager.get(rule.getProjectFilesystem(), metadataStorage));
+    return ruleKeyFactories
+        .getDefaultRuleKeyFactory()
+        .build(rule)
+        .equals(onDiskBuildInfo.getRuleKey(BuildInfo.MetadataKey.RULE_KEY).orElse(null));
+  }
+
+  private ImmutableSet<BuildRule> getRuntimeDeps(BuildRule rule) {
+    if (!(rule instanceof HasRuntimeDeps)) {
+      return ImmutableSet.of();
+    }
+    Stream<BuildTarget> runtimeDepPaths = ((HasRuntimeDeps) rule).getRuntimeDeps(ruleFinder);
+    return resolver.getAllRules(runtimeDepPaths.collect(MoreCollectors.toImmutableSet()));
+  }
+
   private static List<BuildRule> shuffled(Iterable<BuildRule> rules) {
     ArrayList<BuildRule> rulesList = Lists.newArrayList(rules);
     Collections.shuffle(rulesList);
@@ -360,11 +404,8 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     }
 
     // Collect any runtime deps we have into a list of futures.
-    Stream<BuildTarget> runtimeDepPaths = ((HasRuntimeDeps) rule).getRuntimeDeps(ruleFinder);
     List<ListenableFuture<BuildResult>> runtimeDepResults = new ArrayList<>();
-    ImmutableSet<BuildRule> runtimeDeps =
-        resolver.getAllRules(runtimeDepPaths.collect(MoreCollectors.toImmutableSet()));
-    for (BuildRule dep : runtimeDeps) {
+    for (BuildRule dep : getRuntimeDeps(rule)) {
       runtimeDepResults.add(
           getBuildRuleResultWithRuntimeDepsUnlocked(dep, buildContext, executionContext));
     }
@@ -486,14 +527,53 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     return calculated;
   }
 
+  /**
+   * In a shallow build, starts finding which of the rules to build and of their deps the cache has,
+   * and fetching them in batches. The rules are only built once the probe is done: by then, the
+   * rule keys of the rules it found are known, so building them neither computes nor schedules
+   * anything below them.
+   */
+  @Override
+  public void prepareToBuild(BuildEngineBuildContext buildContext, Iterable<BuildRule> rules) {
+    if (!buildContext.isSpeculativeCacheProbeEnabled() || buildMode != BuildMode.SHALLOW) {
+      return;
+    }
+    SpeculativeCacheProbe probe =
+        new SpeculativeCacheProbe(
+            ruleDeps::get,
+            this::getRuntimeDeps,
+            ruleKeyFactories.getDefaultRuleKeyFactory()::build,
+            rule -> isBuiltLocally(rule, buildContext));
+    // The probe never fails, and has to be done before the prefetched artifacts are cleaned up.
+    ListenableFuture<Void> done =
+        Futures.transform(
+            probe.probe(
+                buildContext.getArtifactCache(),
+                ruleKeys -> artifactPrefetcher.prefetch(buildContext.getArtifactCache(), ruleKeys),
+                rules,
+                serviceByAdjustingDefaultWeightsTo(RULE_KEY_COMPUTATION_RESOURCE_AMOUNTS)),
+            ruleKeys -> null,
+            MoreExecutors.directExecutor());
+    speculativeCacheProbe = done;
+    asyncCallbacks.add(done);
+  }
+
   @Override
   public BuildEngineResult build(
       BuildEngineBuildContext buildContext, ExecutionContext executionContext, BuildRule rule) {
     // Keep track of all jobs that run asynchronously with respect to the build dep chain.  We want
     // to make sure we wait for these before calling yielding the final build result.
     registerTopLevelRule(rule, buildContext.getEventBus());
-    ListenableFuture<BuildResult> resultFuture =
-        getBuildRuleResultWithRuntimeDeps(rule, buildContext, executionContext);
+    ListenableFuture<BuildResult> resultFuture;
+    if (speculativeCacheProbe.isDone()) {
+      resultFuture = getBuildRuleResultWithRuntimeDeps(rule, buildContext, executionContext);
+    } else {
+      resultFuture =
+          Futures.transformAsync(
+              speculativeCacheProbe,
+              ignored -> getBuildRuleResultWithRuntimeDeps(rule, buildContext, executionContext),
+              serviceByAdjustingDefaultWeightsTo(SCHEDULING_MORE_WORK_RESOURCE_AMOUNTS));
+    }
     return BuildEngineResult.builder().setResult(resultFuture).build();
   }
 
@@ -624,5 +704,11 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     public void onRuleAboutToBeBuilt(BuildRule rule) {
       cachingBuildEngine.cachingBuildEngineDelegate.onRuleAboutToBeBuilt(rule);
     }
+
+    @Override
+    public Optional<ArtifactPrefetcher.PrefetchedArtifact> takePrefetchedArtifact(
+        RuleKey ruleKey) {
+      return cachingBuildEngine.artifactPrefetcher.take(ruleKey);
+    }
   }
 }
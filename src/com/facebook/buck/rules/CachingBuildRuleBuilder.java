@@ -22,6 +22,7 @@ import com.facebook.buck.artifact_cache.CacheResult;
 import com.facebook.buck.artifact_cache.CacheResultType;
 import com.facebook.buck.artifact_cache.RuleKeyCacheResult;
 import com.facebook.buck.artifact_cache.RuleKeyCacheResultEvent;
+import com.facebook.buck.artifact_cache.StreamingFetchOutput;
 import com.facebook.buck.event.ArtifactCompressionEvent;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.ConsoleEvent;
@@ -1086,21 +1087,23 @@ class CachingBuildRuleBuilder {
 
     // Create a temp file whose extension must be ".zip" for Filesystems.newFileSystem() to infer
     // that we are creating a zip-based FileSystem.
-    final LazyPath lazyZipPath =
-        new LazyPath() {
-          @Override
-          protected Path create() throws IOException {
-            return Files.createTempFile(
-                "buck_artifact_" + MoreFiles.sanitize(rule.getBuildTarget().getShortName()),
-                ".zip");
-          }
-        };
+    final StreamingArtifactZip lazyZipPath;
+    final ListenableFuture<CacheResult> fetchResult;
+    Optional<ArtifactPrefetcher.PrefetchedArtifact> prefetchedArtifact =
+        buildRuleBuilderDelegate.takePrefetchedArtifact(ruleKey);
+    if (prefetchedArtifact.isPresent()) {
+      lazyZipPath = new StreamingArtifactZip(filesystem, prefetchedArtifact.get().getZipPath());
+      fetchResult = prefetchedArtifact.get().getCacheResult();
+    } else {
+      lazyZipPath = new StreamingArtifactZip(filesystem);
+      fetchResult = artifactCache.fetchAsync(ruleKey, lazyZipPath);
+    }
 
     // TODO(mbolin): Change ArtifactCache.fetch() so that it returns a File instead of takes one.
     // Then we could download directly from the remote cache into the on-disk cache and unzip it
     // from there.
     return Futures.transformAsync(
-        fetch(artifactCache, ruleKey, lazyZipPath),
+        fetch(artifactCache, ruleKey, fetchResult),
         cacheResult -> {
           try (Scope ignored = buildRuleScope()) {
             // Verify that the rule key we used to fetch the artifact is one of the rule keys reported in
@@ -1133,8 +1136,13 @@ class CachingBuildRuleBuilder {
 
   private ListenableFuture<CacheResult> fetch(
       ArtifactCache artifactCache, RuleKey ruleKey, LazyPath outputPath) {
+    return fetch(artifactCache, ruleKey, artifactCache.fetchAsync(ruleKey, outputPath));
+  }
+
+  private ListenableFuture<CacheResult> fetch(
+      ArtifactCache artifactCache, RuleKey ruleKey, ListenableFuture<CacheResult> fetchResult) {
     return Futures.transform(
-        artifactCache.fetchAsync(ruleKey, outputPath),
+        fetchResult,
         (CacheResult cacheResult) -> {
           try (Scope ignored = buildRuleScope()) {
             if (cacheResult.getType() != CacheResultType.HIT) {
@@ -1172,13 +1180,113 @@ class CachingBuildRuleBuilder {
     HashCode.fromString(ruleKeyValue);
   }
 
+  /**
+   * The zip file an artifact is fetched into. Caches which stream their artifacts let it extract
+   * the entries into a staging directory while the artifact is still being downloaded. They are
+   * only moved to their final location once the artifact has been verified.
+   */
+  private class StreamingArtifactZip extends StreamingFetchOutput {
+    private final ProjectFilesystem filesystem;
+    private volatile ImmutableSet<Path> extractedFiles = ImmutableSet.of();
+    private volatile Optional<Path> stagingDirectory = Optional.empty();
+
+    private final Optional<LazyPath> prefetchedZip;
+
+    private StreamingArtifactZip(ProjectFilesystem filesystem) {
+      this.filesystem = filesystem;
+      this.prefetchedZip = Optional.empty();
+    }
+
+    /** Wraps the zip file an artifact was prefetched into, by a {@link ArtifactPrefetcher}. */
+    private StreamingArtifactZip(ProjectFilesystem filesystem, LazyPath prefetchedZip) {
+      this.filesystem = filesystem;
+      this.prefetchedZip = Optional.of(prefetchedZip);
+    }
+
+    @Override
+    protected Path create() throws IOException {
+      if (prefetchedZip.isPresent()) {
+        return prefetchedZip.get().get();
+      }
+      return Files.createTempFile(
+          "buck_artifact_" + MoreFiles.sanitize(rule.getBuildTarget().getShortName()), ".zip");
+    }
+
+    @Override
+    protected void consumePayload(InputStream payload) throws IOException {
+      // The fetch may be retried, or go to another cache, so start over from an empty directory.
+      discardStagedFiles();
+      Path tmpDir = filesystem.getBuckPaths().getTmpDir();
+      filesystem.mkdirs(tmpDir);
+      Path staging =
+          Files.createTempDirectory(
+              filesystem.resolve(tmpDir),
+              "buck_artifact_" + MoreFiles.sanitize(rule.getBuildTarget().getShortName()));
+      stagingDirectory = Optional.of(staging);
+      extractedFiles = Unzip.extractZipStream(payload, filesystem, staging);
+    }
+
+    /**
+     * Moves the files of a streamed artifact into place, once it has been verified and is known to
+     * have been fully extracted.
+     *
+     * @return false if the artifact was not streamed, and still has to be unzipped.
+     */
+    private boolean finishExtraction() throws IOException {
+      try {
+        Optional<Path> staging = stagingDirectory;
+        if (!staging.isPresent()
+            || !isPayloadConsumed()
+            || !Unzip.listsExactly(getUnchecked().toAbsolutePath(), filesystem, extractedFiles)) {
+          return false;
+        }
+        deleteMetadataBeforeUnzipping();
+        Unzip.finishStreamedExtraction(
+            getUnchecked().toAbsolutePath(),
+            filesystem,
+            staging.get(),
+            Unzip.ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES);
+        return true;
+      } finally {
+        discardStagedFiles();
+      }
+    }
+
+    private void discardStagedFiles() throws IOException {
+      Optional<Path> staging = stagingDirectory;
+      stagingDirectory = Optional.empty();
+      extractedFiles = ImmutableSet.of();
+      if (staging.isPresent()) {
+        MoreFiles.deleteRecursivelyIfExists(staging.get());
+      }
+    }
+  }
+
+  private void deleteMetadataBeforeUnzipping() throws IOException {
+    // We have to do this *before* unpacking the zipped artifact, as it includes files that will be
+    // stored in the metadata directory.
+    buildInfoStoreManager
+        .get(rule.getProjectFilesystem(), metadataStorage)
+        .deleteMetadata(rule.getBuildTarget());
+
+    // Always remove the on-disk metadata dir, as some pieces of metadata are still stored here
+    // (e.g. `DEP_FILE`, manifest).
+    Path metadataDir =
+        BuildInfo.getPathToMetadataDirectory(rule.getBuildTarget(), rule.getProjectFilesystem());
+    rule.getProjectFilesystem().deleteRecursivelyIfExists(metadataDir);
+  }
+
   private CacheResult unzipArtifactFromCacheResult(
-      RuleKey ruleKey, LazyPath lazyZipPath, ProjectFilesystem filesystem, CacheResult cacheResult)
+      RuleKey ruleKey,
+      StreamingArtifactZip lazyZipPath,
+      ProjectFilesystem filesystem,
+      CacheResult cacheResult)
       throws IOException {
 
     // We only unpack artifacts from hits.
     if (!cacheResult.getType().isSuccess()) {
       LOG.debug("Cache miss for '%s' with rulekey '%s'", rule, ruleKey);
+      lazyZipPath.discardStagedFiles();
       return cacheResult;
     }
 
@@ -1206,30 +1314,24 @@ class CachingBuildRuleBuilder {
     eventBus.post(started);
     try {
 
-      // First, clear out the pre-existing metadata directory.  We have to do this *before*
-      // unpacking the zipped artifact, as it includes files that will be stored in the metadata
-      // directory.
-      BuildInfoStore buildInfoStore =
-          buildInfoStoreManager.get(rule.getProjectFilesystem(), metadataStorage);
-      buildInfoStore.deleteMetadata(rule.getBuildTarget());
-
-      // Always remove the on-disk metadata dir, as some pieces of metadata are still stored here
-      // (e.g. `DEP_FILE`, manifest).
-      Path metadataDir =
-          BuildInfo.getPathToMetadataDirectory(rule.getBuildTarget(), rule.getProjectFilesystem());
-      rule.getProjectFilesystem().deleteRecursivelyIfExists(metadataDir);
-
-      Unzip.extractZipFile(
-          zipPath.toAbsolutePath(),
-          filesystem,
-          Unzip.ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES);
+      // If the cache streamed the artifact, its entries have already been extracted while it was
+      // downloading. Otherwise, first clear out the pre-existing metadata directory and unzip it.
+      if (!lazyZipPath.finishExtraction()) {
+        deleteMetadataBeforeUnzipping();
+        Unzip.extractZipFile(
+            zipPath.toAbsolutePath(),
+            filesystem,
+            Unzip.ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES);
+      }
 
       // We only delete the ZIP file when it has been unzipped successfully. Otherwise, we leave it
       // around for debugging purposes.
       Files.delete(zipPath);
 
       // Also write out the build metadata.
-      buildInfoStore.updateMetadata(rule.getBuildTarget(), cacheResult.getMetadata());
+      buildInfoStoreManager
+          .get(rule.getProjectFilesystem(), metadataStorage)
+          .updateMetadata(rule.getBuildTarget(), cacheResult.getMetadata());
     } finally {
       eventBus.post(ArtifactCompressionEvent.finished(started));
     }
@@ -1790,6 +1892,8 @@ class CachingBuildRuleBuilder {
     Throwable getFirstFailure();
 
     void onRuleAboutToBeBuilt(BuildRule rule);
+
+    Optional<ArtifactPrefetcher.PrefetchedArtifact> takePrefetchedArtifact(RuleKey ruleKey);
   }
 
   /**
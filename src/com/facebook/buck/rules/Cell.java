@@ -31,6 +31,7 @@ import com.facebook.buck.parser.api.ProjectBuildFileParser;
 import com.facebook.buck.parser.api.Syntax;
 import com.facebook.buck.parser.options.ProjectBuildFileParserOptions;
 import com.facebook.buck.rules.coercer.TypeCoercerFactory;
+import com.facebook.buck.skylark.parser.SkylarkExtensionCache;
 import com.facebook.buck.skylark.parser.SkylarkProjectBuildFileParser;
 import com.facebook.buck.util.Console;
 import com.facebook.buck.util.DefaultProcessExecutor;
@@ -63,6 +64,8 @@ public class Cell {
   private final CellProvider cellProvider;
   private final Supplier<KnownBuildRuleTypes> knownBuildRuleTypesSupplier;
   @Nullable private final SdkEnvironment sdkEnvironment;
+  // Outlives the parsers created by this cell, so that daemons evaluate each extension file once.
+  private final SkylarkExtensionCache skylarkExtensionCache = new SkylarkExtensionCache();
 
   private final int hashCode;
 
@@ -332,7 +335,8 @@ public class Cell {
                   buildFileParserOptions,
                   eventBus,
                   SkylarkFilesystem.using(filesystem),
-                  typeCoercerFactory)),
+                  typeCoercerFactory,
+                  skylarkExtensionCache)),
           parserConfig.getDefaultBuildFileSyntax());
     }
     return pythonDslProjectBuildFileParser;
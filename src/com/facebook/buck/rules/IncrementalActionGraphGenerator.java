@@ -0,0 +1,225 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.PerfEventId;
+import com.facebook.buck.event.SimplePerfEvent;
+import com.facebook.buck.graph.AbstractBottomUpTraversal;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.UnflavoredBuildTarget;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.SetMultimap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Seeds the {@link BuildRuleResolver} of a new {@link TargetGraph} with the rules of the action
+ * graph of a previous target graph, so only the rules of changed targets are created again.
+ *
+ * <p>A node is unchanged if the previous target graph has an equal node and all its dependencies
+ * are unchanged too. As the edges of the target graph include target graph only deps, this covers
+ * everything a description can see. The rules created for the targets of unchanged nodes,
+ * including their flavors, are carried over to the new resolver, unless:
+ *
+ * <ul>
+ *   <li>they do not implement {@link SupportsIncrementalActionGraph}, as they could hold on to the
+ *       previous action graph, or create or look up rules in it after it is replaced,
+ *   <li>one of their build or runtime deps is not carried over, or
+ *   <li>a rule of one of the targets their node depends on is not carried over.
+ * </ul>
+ *
+ * <p>The carried over rules are pointed at the new resolver, so that no action graph keeps the
+ * previous one alive. The rest of the graph is then transformed as usual, finding the carried over
+ * rules in the resolver. The result can be checked against a fresh action graph with {@code [cache]
+ * action_graph_cache_check_enabled}.
+ */
+class IncrementalActionGraphGenerator {
+  private static final Logger LOG = Logger.get(IncrementalActionGraphGenerator.class);
+
+  private final TargetGraph lastTargetGraph;
+  private final ActionGraphAndResolver lastActionGraph;
+  private final TargetGraph targetGraph;
+
+  IncrementalActionGraphGenerator(
+      TargetGraph lastTargetGraph, ActionGraphAndResolver lastActionGraph, TargetGraph targetGraph) {
+    this.lastTargetGraph = lastTargetGraph;
+    this.lastActionGraph = lastActionGraph;
+    this.targetGraph = targetGraph;
+  }
+
+  /**
+   * Adds the rules which can be carried over to {@code resolver}, a new and empty resolver for the
+   * new target graph. When it is a {@link MultiThreadedBuildRuleResolver}, this must run in its
+   * pool.
+   */
+  void populate(BuckEventBus eventBus, BuildRuleResolver resolver) {
+    try (SimplePerfEvent.Scope scope =
+        SimplePerfEvent.scope(eventBus, PerfEventId.of("IncrementalActionGraphGeneration"))) {
+      Set<TargetNode<?, ?>> unchangedNodes = new HashSet<>();
+      Set<UnflavoredBuildTarget> changedTargets = new HashSet<>();
+      findUnchangedNodes(unchangedNodes, changedTargets);
+
+      BuildRuleResolver lastResolver = lastActionGraph.getResolver();
+      Set<BuildRule> reusableRules = findReusableRules(changedTargets);
+
+      SourcePathRuleFinder ruleFinder = new SourcePathRuleFinder(resolver);
+      SourcePathResolver pathResolver = DefaultSourcePathResolver.from(ruleFinder);
+      for (BuildRule rule : reusableRules) {
+        ((SupportsIncrementalActionGraph) rule)
+            .updateBuildRuleResolver(resolver, ruleFinder, pathResolver);
+        resolver.addToIndex(rule);
+      }
+      // Descriptions may return a rule with a different flavor than the node asked for, so also
+      // carry over which rule each node was resolved to.
+      for (TargetNode<?, ?> node : unchangedNodes) {
+        Optional<BuildRule> rule = lastResolver.getRuleOptional(node.getBuildTarget());
+        if (rule.isPresent() && reusableRules.contains(rule.get())) {
+          resolver.computeIfAbsent(node.getBuildTarget(), target -> rule.get());
+        }
+      }
+
+      int lastRuleCount = lastActionGraph.getActionGraph().getSize();
+      LOG.info(
+          "Reused %d of %d rules, %d of %d nodes were unchanged.",
+          reusableRules.size(),
+          lastRuleCount,
+          unchangedNodes.size(),
+          targetGraph.getSize());
+      scope.update("reused_rules", reusableRules.size());
+      scope.update("previous_rules", lastRuleCount);
+      scope.update("unchanged_nodes", unchangedNodes.size());
+    }
+  }
+
+  /**
+   * Splits the nodes of the new target graph into unchanged ones, and the base targets of the ones
+   * which were added, changed, or depend on one which was. Nodes which were removed are added to
+   * the latter too.
+   */
+  private void findUnchangedNodes(
+      Set<TargetNode<?, ?>> unchangedNodes, Set<UnflavoredBuildTarget> changedTargets) {
+    new AbstractBottomUpTraversal<TargetNode<?, ?>, RuntimeException>(targetGraph) {
+      @Override
+      public void visit(TargetNode<?, ?> node) {
+        if (lastTargetGraph.getOptional(node.getBuildTarget()).equals(Optional.of(node))
+            && unchangedNodes.containsAll(targetGraph.getOutgoingNodesFor(node))) {
+          unchangedNodes.add(node);
+        } else {
+          changedTargets.add(node.getBuildTarget().getUnflavoredBuildTarget());
+        }
+      }
+    }.traverse();
+
+    for (TargetNode<?, ?> node : lastTargetGraph.getNodes()) {
+      if (!targetGraph.getOptional(node.getBuildTarget()).isPresent()) {
+        changedTargets.add(node.getBuildTarget().getUnflavoredBuildTarget());
+      }
+    }
+  }
+
+  /**
+   * @return the rules of the previous action graph which belong to unchanged targets, support being
+   *     carried over, and whose deps and dependencies in the target graph are all reusable too.
+   */
+  private Set<BuildRule> findReusableRules(Set<UnflavoredBuildTarget> changedTargets) {
+    SetMultimap<UnflavoredBuildTarget, TargetNode<?, ?>> nodesByTarget = HashMultimap.create();
+    for (TargetNode<?, ?> node : targetGraph.getNodes()) {
+      nodesByTarget.put(node.getBuildTarget().getUnflavoredBuildTarget(), node);
+    }
+
+    BuildRuleResolver lastResolver = lastActionGraph.getResolver();
+    SourcePathRuleFinder ruleFinder = new SourcePathRuleFinder(lastResolver);
+    Set<BuildRule> rules = new HashSet<>();
+    lastResolver.getBuildRules().forEach(rules::add);
+
+    // Rules are discarded by walking the reverse edges from the rules which cannot be reused, both
+    // between rules and between the targets they belong to. Unlike a post-order traversal of the
+    // action graph, this is not thrown off by runtime deps forming cycles.
+    SetMultimap<BuildRule, BuildRule> dependents = HashMultimap.create();
+    SetMultimap<UnflavoredBuildTarget, BuildRule> rulesByTarget = HashMultimap.create();
+    Deque<BuildRule> toDiscard = new ArrayDeque<>();
+    for (BuildRule rule : rules) {
+      UnflavoredBuildTarget target = rule.getBuildTarget().getUnflavoredBuildTarget();
+      rulesByTarget.put(target, rule);
+      Optional<List<BuildRule>> deps = getDeps(rule, lastResolver, ruleFinder);
+      boolean depsAreKnown = deps.isPresent();
+      for (BuildRule dep : deps.orElse(ImmutableList.of())) {
+        depsAreKnown &= rules.contains(dep);
+        dependents.put(dep, rule);
+      }
+      if (!depsAreKnown
+          || !nodesByTarget.containsKey(target)
+          || changedTargets.contains(target)
+          || !(rule instanceof SupportsIncrementalActionGraph)) {
+        toDiscard.add(rule);
+      }
+    }
+
+    Set<BuildRule> discarded = new HashSet<>(toDiscard);
+    Set<UnflavoredBuildTarget> discardedTargets = new HashSet<>();
+    while (!toDiscard.isEmpty()) {
+      BuildRule rule = toDiscard.pop();
+      for (BuildRule dependent : dependents.get(rule)) {
+        if (discarded.add(dependent)) {
+          toDiscard.push(dependent);
+        }
+      }
+      UnflavoredBuildTarget target = rule.getBuildTarget().getUnflavoredBuildTarget();
+      if (!discardedTargets.add(target)) {
+        continue;
+      }
+      for (TargetNode<?, ?> node : nodesByTarget.get(target)) {
+        for (TargetNode<?, ?> dependentNode : targetGraph.getIncomingNodesFor(node)) {
+          for (BuildRule dependent :
+              rulesByTarget.get(dependentNode.getBuildTarget().getUnflavoredBuildTarget())) {
+            if (discarded.add(dependent)) {
+              toDiscard.push(dependent);
+            }
+          }
+        }
+      }
+    }
+
+    rules.removeAll(discarded);
+    return rules;
+  }
+
+  /** @return the build and runtime deps of a rule, or nothing if a runtime dep has no rule. */
+  private static Optional<List<BuildRule>> getDeps(
+      BuildRule rule, BuildRuleResolver resolver, SourcePathRuleFinder ruleFinder) {
+    List<BuildRule> deps = new ArrayList<>(rule.getBuildDeps());
+    if (rule instanceof HasRuntimeDeps) {
+      for (BuildTarget target :
+          (Iterable<BuildTarget>) ((HasRuntimeDeps) rule).getRuntimeDeps(ruleFinder)::iterator) {
+        Optional<BuildRule> dep = resolver.getRuleOptional(target);
+        if (!dep.isPresent()) {
+          return Optional.empty();
+        }
+        deps.add(dep.get());
+      }
+    }
+    return Optional.of(deps);
+  }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.artifact_cache.ArtifactCache;
+import com.facebook.buck.artifact_cache.CacheResult;
+import com.facebook.buck.artifact_cache.CacheResultType;
+import com.facebook.buck.log.Logger;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Finds which rules of a shallow build will be fetched from the cache, and starts fetching them,
+ * without waiting for the cache to answer.
+ *
+ * <p>The rules to build are checked against the cache first, with a single batched contains
+ * request. Only the deps of the rules which the cache does not have are checked next, one level of
+ * the graph per request, once the previous request has been answered, and so on. The rules the
+ * cache has are fetched as soon as they are found, and none of the rules below them is ever looked
+ * at. Rules the cache could not tell about, because it failed or skipped them, are left for the
+ * build to look up, and none of the rules below them is looked at either: a cache which can only
+ * answer by fetching, like the http and thrift caches, stops the probe after its first request.
+ */
+class SpeculativeCacheProbe {
+
+  private static final Logger LOG = Logger.get(SpeculativeCacheProbe.class);
+
+  /** Starts fetching the artifacts of some rule keys, so that the build can use them. */
+  @FunctionalInterface
+  interface Fetcher {
+    void fetch(ImmutableSet<RuleKey> ruleKeys);
+  }
+
+  private final Function<BuildRule, Iterable<BuildRule>> buildDepsFunction;
+  private final Function<BuildRule, Iterable<BuildRule>> runtimeDepsFunction;
+  private final Function<BuildRule, RuleKey> ruleKeyFunction;
+  private final Predicate<BuildRule> isBuiltLocally;
+
+  /**
+   * @param buildDepsFunction the deps which have to be built before a rule can be built.
+   * @param runtimeDepsFunction the deps which are built along with a rule, even if it is fetched.
+   * @param ruleKeyFunction computes the default rule key of a rule.
+   * @param isBuiltLocally whether the output of a rule on disk already matches its rule key.
+   */
+  SpeculativeCacheProbe(
+      Function<BuildRule, Iterable<BuildRule>> buildDepsFunction,
+      Function<BuildRule, Iterable<BuildRule>> runtimeDepsFunction,
+      Function<BuildRule, RuleKey> ruleKeyFunction,
+      Predicate<BuildRule> isBuiltLocally) {
+    this.buildDepsFunction = buildDepsFunction;
+    this.runtimeDepsFunction = runtimeDepsFunction;
+    this.ruleKeyFunction = ruleKeyFunction;
+    this.isBuiltLocally = isBuiltLocally;
+  }
+
+  /**
+   * Probes the cache for {@code rules} and the deps the build will need, and fetches the artifacts
+   * it has with {@code fetcher}.
+   *
+   * @param executor runs the computation of each level of the graph, once the cache has answered
+   *     for the previous one.
+   * @return a future of the rule keys of the rules the cache has. It does not fail: if the cache or
+   *     the computation of a rule key fails, the probe stops with the rules found until then.
+   */
+  ListenableFuture<ImmutableSet<RuleKey>> probe(
+      ArtifactCache artifactCache, Fetcher fetcher, Iterable<BuildRule> rules, Executor executor) {
+    Probe probe = new Probe(artifactCache, fetcher, executor);
+    List<BuildRule> level = new ArrayList<>();
+    addUnseen(rules, probe.seen, level);
+    ListenableFuture<Void> done =
+        Futures.catching(
+            Futures.transformAsync(
+                Futures.immediateFuture(level), probe::probeLevel, MoreExecutors.directExecutor()),
+            Exception.class,
+            e -> {
+              LOG.warn(e, "Failed to check the cache, stopping the speculative probe.");
+              return null;
+            },
+            MoreExecutors.directExecutor());
+    return Futures.transform(
+        done,
+        ignored -> {
+          LOG.debug(
+              "Speculative probe found %d cached rules out of %d, in %d requests.",
+              probe.containedRuleKeys.size(), probe.seen.size(), probe.requests);
+          return ImmutableSet.copyOf(probe.containedRuleKeys);
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  /**
+   * The state of a single probe. Only one level is ever probed at a time, each after the previous
+   * one, so it needs no synchronization.
+   */
+  private class Probe {
+    private final ArtifactCache artifactCache;
+    private final Fetcher fetcher;
+    private final Executor executor;
+    private final Set<RuleKey> containedRuleKeys = new LinkedHashSet<>();
+    private final Set<BuildRule> seen = new HashSet<>();
+    private int requests = 0;
+
+    private Probe(ArtifactCache artifactCache, Fetcher fetcher, Executor executor) {
+      this.artifactCache = artifactCache;
+      this.fetcher = fetcher;
+      this.executor = executor;
+    }
+
+    private ListenableFuture<Void> probeLevel(List<BuildRule> level) {
+      Map<RuleKey, List<BuildRule>> rulesToCheck = new LinkedHashMap<>();
+      while (rulesToCheck.isEmpty()) {
+        if (level.isEmpty()) {
+          return Futures.immediateFuture(null);
+        }
+        List<BuildRule> nextLevel = new ArrayList<>();
+        for (BuildRule rule : level) {
+          addUnseen(runtimeDepsFunction.apply(rule), seen, nextLevel);
+          if (isBuiltLocally.test(rule)) {
+            continue;
+          }
+          if (!rule.isCacheable()) {
+            addUnseen(buildDepsFunction.apply(rule), seen, nextLevel);
+            continue;
+          }
+          rulesToCheck
+              .computeIfAbsent(ruleKeyFunction.apply(rule), ruleKey -> new ArrayList<>())
+              .add(rule);
+        }
+        level = nextLevel;
+      }
+
+      requests++;
+      // The rules found below the checked ones without having to ask the cache.
+      List<BuildRule> uncheckedLevel = level;
+      return Futures.transformAsync(
+          artifactCache.multiContainsAsync(ImmutableSet.copyOf(rulesToCheck.keySet())),
+          results -> {
+            List<BuildRule> nextLevel = new ArrayList<>(uncheckedLevel);
+            ImmutableSet.Builder<RuleKey> found = ImmutableSet.builder();
+            for (Map.Entry<RuleKey, List<BuildRule>> entry : rulesToCheck.entrySet()) {
+              CacheResult result = results.get(entry.getKey());
+              CacheResultType type = result == null ? CacheResultType.MISS : result.getType();
+              if (type == CacheResultType.CONTAINS || type.isSuccess()) {
+                found.add(entry.getKey());
+              } else if (type == CacheResultType.MISS) {
+                for (BuildRule rule : entry.getValue()) {
+                  addUnseen(buildDepsFunction.apply(rule), seen, nextLevel);
+                }
+              }
+            }
+            ImmutableSet<RuleKey> foundRuleKeys = found.build();
+            if (!foundRuleKeys.isEmpty()) {
+              containedRuleKeys.addAll(foundRuleKeys);
+              fetcher.fetch(foundRuleKeys);
+            }
+            return probeLevel(nextLevel);
+          },
+          executor);
+    }
+  }
+
+  private static void addUnseen(
+      Iterable<BuildRule> rules, Set<BuildRule> seen, List<BuildRule> level) {
+    for (BuildRule rule : rules) {
+      if (seen.add(rule)) {
+        level.add(rule);
+      }
+    }
+  }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+/**
+ * Used to tag a rule which can be carried over from the action graph of a previous target graph
+ * to that of a new one when its target is unchanged.
+ *
+ * <p>A rule implementing this interface must not hold a {@link BuildRuleResolver}, and must hand
+ * every {@link SourcePathRuleFinder} and {@link SourcePathResolver} it holds, including those held
+ * by its helpers, over to {@link #updateBuildRuleResolver}. Otherwise the rule would keep the
+ * previous action graph, and the ones before it, alive.
+ *
+ * @see IncrementalActionGraphGenerator
+ */
+public interface SupportsIncrementalActionGraph extends BuildRule {
+  /**
+   * Makes the rule look up rules and paths in the new action graph it is carried over to, instead
+   * of the previous one.
+   */
+  void updateBuildRuleResolver(
+      BuildRuleResolver ruleResolver,
+      SourcePathRuleFinder ruleFinder,
+      SourcePathResolver pathResolver);
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.PerfEventId;
+import com.facebook.buck.event.SimplePerfEvent;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.rules.BuildRule;
+import com.facebook.buck.util.exceptions.BuckUncheckedExecutionException;
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.SettableFuture;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Computes the rule keys of a whole action graph on a {@link ForkJoinPool}, instead of recursively
+ * on the thread which first asks for the key of a top-level rule.
+ *
+ * <p>Rules are only scheduled once all of their dependencies have their keys in the {@link
+ * RuleKeyCache} backing the factory, so computing a key never recurses into (or blocks on) its
+ * dependencies. This keeps the stack shallow no matter how deep the graph is, and lets idle workers
+ * steal whichever rules became ready. Subtrees that are already cached, e.g. by a previous build in
+ * the same daemon, are not traversed at all.
+ *
+ * <p>The bookkeeping for a calculation is only kept for the rules that actually need a key and is
+ * dropped as soon as it is done, so that the cache remains the only long-lived copy of the keys.
+ *
+ * @param <T> The rule key type.
+ */
+public class ParallelRuleKeyCalculator<T> {
+
+  private static final Logger LOG = Logger.get(ParallelRuleKeyCalculator.class);
+
+  static final String TRAVERSAL_PHASE = "traversal";
+  static final String COMPUTATION_PHASE = "computation";
+
+  private final ForkJoinPool pool;
+  private final RuleKeyFactory<T> ruleKeyFactory;
+  private final RuleKeyCache<T> ruleKeyCache;
+  private final Function<? super BuildRule, ? extends Iterable<BuildRule>> depsFinder;
+
+  /**
+   * @param ruleKeyCache the cache used by {@code ruleKeyFactory}, used to report its statistics.
+   * @param depsFinder the rules whose keys go into the key of a rule.
+   */
+  public ParallelRuleKeyCalculator(
+      ForkJoinPool pool,
+      RuleKeyFactory<T> ruleKeyFactory,
+      RuleKeyCache<T> ruleKeyCache,
+      Function<? super BuildRule, ? extends Iterable<BuildRule>> depsFinder) {
+    this.pool = pool;
+    this.ruleKeyFactory = ruleKeyFactory;
+    this.ruleKeyCache = ruleKeyCache;
+    this.depsFinder = depsFinder;
+  }
+
+  /**
+   * Computes the keys of {@code rules} and all their transitive dependencies.
+   *
+   * @return the keys of {@code rules}.
+   */
+  public ImmutableMap<BuildRule, T> calculate(BuckEventBus eventBus, Iterable<BuildRule> rules)
+      throws InterruptedException {
+    List<Node> leaves = new ArrayList<>();
+    int pendingCount;
+    CacheStats startStats = ruleKeyCache.getStats();
+    long start = System.nanoTime();
+    try (SimplePerfEvent.Scope scope =
+        SimplePerfEvent.scope(eventBus, PerfEventId.of("rule_key_calculation_traversal"))) {
+      pendingCount = traverse(rules, leaves);
+      scope.update("rules", pendingCount);
+    }
+    postPhaseStats(eventBus, TRAVERSAL_PHASE, startStats, start);
+
+    startStats = ruleKeyCache.getStats();
+    start = System.nanoTime();
+    try (SimplePerfEvent.Scope scope =
+        SimplePerfEvent.scope(eventBus, PerfEventId.of("rule_key_calculation"))) {
+      if (pendingCount > 0) {
+        compute(leaves, pendingCount);
+      }
+      scope.update("rules", pendingCount);
+    }
+    postPhaseStats(eventBus, COMPUTATION_PHASE, startStats, start);
+
+    ImmutableMap.Builder<BuildRule, T> keys = ImmutableMap.builder();
+    for (BuildRule rule : rules) {
+      keys.put(rule, ruleKeyFactory.build(rule));
+    }
+    return keys.build();
+  }
+
+  /**
+   * Finds the rules which need a key computed and links each to the rules that depend on it. The
+   * graph is walked iteratively, as action graphs can be deeper than the stack.
+   *
+   * @return the number of rules to compute.
+   */
+  private int traverse(Iterable<BuildRule> rules, List<Node> leaves) {
+    Map<BuildRule, Node> nodes = new IdentityHashMap<>();
+    Deque<Node> toVisit = new ArrayDeque<>();
+    for (BuildRule rule : rules) {
+      if (!nodes.containsKey(rule) && ruleKeyFactory.getFromCache(rule) == null) {
+        Node node = new Node(rule);
+        nodes.put(rule, node);
+        toVisit.push(node);
+      }
+    }
+
+    while (!toVisit.isEmpty()) {
+      Node node = toVisit.pop();
+      int pendingDeps = 0;
+      for (BuildRule dep : depsFinder.apply(node.rule)) {
+        // A cached key implies that the keys of all its transitive dependencies are cached too.
+        if (ruleKeyFactory.getFromCache(dep) != null) {
+          continue;
+        }
+        Node depNode = nodes.get(dep);
+        if (depNode == null) {
+          depNode = new Node(dep);
+          nodes.put(dep, depNode);
+          toVisit.push(depNode);
+        }
+        depNode.dependents.add(node);
+        pendingDeps++;
+      }
+      node.pendingDeps.set(pendingDeps);
+      if (pendingDeps == 0) {
+        leaves.add(node);
+      }
+    }
+    return nodes.size();
+  }
+
+  private void compute(List<Node> leaves, int pendingCount) throws InterruptedException {
+    SettableFuture<Void> done = SettableFuture.create();
+    AtomicInteger remaining = new AtomicInteger(pendingCount);
+    for (Node leaf : leaves) {
+      pool.execute(new ComputeKeyAction(leaf, remaining, done));
+    }
+    try {
+      done.get();
+    } catch (ExecutionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new BuckUncheckedExecutionException(e.getCause());
+    } finally {
+      // Stops the tasks which are still running if we failed or got interrupted.
+      done.cancel(false);
+    }
+  }
+
+  private void postPhaseStats(
+      BuckEventBus eventBus, String phase, CacheStats startStats, long startNanos) {
+    long durationNanos = System.nanoTime() - startNanos;
+    CacheStats stats = ruleKeyCache.getStats().minus(startStats);
+    LOG.debug("Rule key %s phase took %d ns: %s", phase, durationNanos, stats);
+    eventBus.post(RuleKeyCacheStatsEvent.createForPhase(phase, stats, durationNanos));
+  }
+
+  private static final class Node {
+    private final BuildRule rule;
+    /** The number of dependencies whose keys still need to be computed. */
+    private final AtomicInteger pendingDeps = new AtomicInteger();
+    /** Only modified during the single-threaded traversal. */
+    private final List<Node> dependents = new ArrayList<>();
+
+    private Node(BuildRule rule) {
+      this.rule = rule;
+    }
+  }
+
+  private class ComputeKeyAction extends RecursiveAction {
+    private final Node node;
+    private final AtomicInteger remaining;
+    private final SettableFuture<Void> done;
+
+    private ComputeKeyAction(Node node, AtomicInteger remaining, SettableFuture<Void> done) {
+      this.node = node;
+      this.remaining = remaining;
+      this.done = done;
+    }
+
+    @Override
+    protected void compute() {
+      if (done.isDone()) {
+        return;
+      }
+      try {
+        ruleKeyFactory.build(node.rule);
+      } catch (Throwable e) {
+        done.setException(
+            new BuckUncheckedExecutionException(e, "When computing rulekey for %s.", node.rule));
+        return;
+      }
+      for (Node dependent : node.dependents) {
+        if (dependent.pendingDeps.decrementAndGet() == 0) {
+          new ComputeKeyAction(dependent, remaining, done).fork();
+        }
+      }
+      if (remaining.decrementAndGet() == 0) {
+        done.set(null);
+      }
+    }
+  }
+}
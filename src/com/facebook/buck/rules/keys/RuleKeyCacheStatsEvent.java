@@ -19,18 +19,30 @@ package com.facebook.buck.rules.keys;
 import com.facebook.buck.event.AbstractBuckEvent;
 import com.facebook.buck.event.EventKey;
 import com.google.common.cache.CacheStats;
+import java.util.Optional;
 
 public class RuleKeyCacheStatsEvent extends AbstractBuckEvent {
 
   private final CacheStats stats;
+  private final Optional<String> phase;
+  private final long durationNanos;
 
-  private RuleKeyCacheStatsEvent(EventKey eventKey, CacheStats stats) {
+  private RuleKeyCacheStatsEvent(
+      EventKey eventKey, CacheStats stats, Optional<String> phase, long durationNanos) {
     super(eventKey);
     this.stats = stats;
+    this.phase = phase;
+    this.durationNanos = durationNanos;
   }
 
   public static RuleKeyCacheStatsEvent create(CacheStats stats) {
-    return new RuleKeyCacheStatsEvent(EventKey.unique(), stats);
+    return new RuleKeyCacheStatsEvent(EventKey.unique(), stats, Optional.empty(), 0L);
+  }
+
+  /** @return an event for the stats of a single phase of a rule key calculation. */
+  public static RuleKeyCacheStatsEvent createForPhase(
+      String phase, CacheStats stats, long durationNanos) {
+    return new RuleKeyCacheStatsEvent(EventKey.unique(), stats, Optional.of(phase), durationNanos);
   }
 
   @Override
@@ -46,4 +58,14 @@ public class RuleKeyCacheStatsEvent extends AbstractBuckEvent {
   public CacheStats getStats() {
     return stats;
   }
+
+  /** @return the phase of the rule key calculation these stats are for, if any. */
+  public Optional<String> getPhase() {
+    return phase;
+  }
+
+  /** @return the wall time spent in the phase, or 0 if these stats are not for a phase. */
+  public long getDurationNanos() {
+    return durationNanos;
+  }
 }
@@ -16,13 +16,16 @@
 
 package com.facebook.buck.shell;
 
+import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.ConsoleEvent;
+import com.facebook.buck.event.LeafEvents;
 import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.StepExecutionResult;
 import com.facebook.buck.util.Escaper;
 import com.facebook.buck.util.HumanReadableException;
+import com.facebook.buck.util.Scope;
 import com.facebook.buck.util.Verbosity;
 import com.facebook.buck.util.environment.Platform;
 import com.facebook.buck.worker.WorkerJobParams;
@@ -81,7 +84,7 @@ public class WorkerShellStep implements Step {
       // Use the process's startup command as the key.
       WorkerJobParams paramsToUse = getWorkerJobParamsToUse(context.getPlatform());
       pool = factory.getWorkerProcessPool(context, paramsToUse.getWorkerProcessParams());
-      process = pool.borrowWorkerProcess();
+      process = pool.borrowWorkerProcess(newBorrowListener(context.getBuckEventBus()));
       WorkerJobResult result = process.submitAndWaitForJob(getExpandedJobArgs(context));
       pool.returnWorkerProcess(process);
       process = null; // to avoid finally below
@@ -116,6 +119,21 @@ public class WorkerShellStep implements Step {
     }
   }
 
+  /** Shows the time spent waiting for a worker, and starting one, on the console and in traces. */
+  private static WorkerProcessPool.BorrowListener newBorrowListener(BuckEventBus eventBus) {
+    return new WorkerProcessPool.BorrowListener() {
+      @Override
+      public Scope waitingForWorker() {
+        return LeafEvents.scope(eventBus, "waiting_for_worker");
+      }
+
+      @Override
+      public Scope startingWorker() {
+        return LeafEvents.scope(eventBus, "starting_worker");
+      }
+    };
+  }
+
   @VisibleForTesting
   String getExpandedJobArgs(ExecutionContext context) {
     return expandEnvironmentVariables(
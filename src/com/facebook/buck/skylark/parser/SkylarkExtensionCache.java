@@ -0,0 +1,113 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.skylark.parser;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.syntax.Environment;
+import com.google.devtools.build.lib.vfs.Path;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.annotation.Nullable;
+
+/**
+ * Memoizes evaluated Skylark extension files, so that an extension loaded by many build files is
+ * parsed and evaluated once rather than once per build file.
+ *
+ * <p>The cache is meant to live as long as the cell it belongs to, which includes subsequent
+ * commands run by the same daemon. Entries are therefore validated before they are used: an
+ * extension is evaluated again if its file's modification time or size changed, or if any of the
+ * extensions it loads was evaluated again.
+ *
+ * <p>Instances are thread-safe. Threads which load the same stale extension at the same time may
+ * each evaluate it, in which case the last one to finish is kept.
+ */
+public class SkylarkExtensionCache {
+
+  private final ConcurrentMap<Path, LoadedExtension> extensions = new ConcurrentHashMap<>();
+
+  /** @return the extension loaded from {@code path}, if any, whether or not it is up to date. */
+  @Nullable
+  LoadedExtension get(Path path) {
+    return extensions.get(path);
+  }
+
+  void put(LoadedExtension extension) {
+    extensions.put(extension.getPath(), extension);
+  }
+
+  /** An evaluated extension file, along with what is needed to tell whether it is up to date. */
+  static class LoadedExtension {
+    private final Path path;
+    private final String importString;
+    private final Environment.Extension extension;
+    private final long lastModifiedTime;
+    private final long size;
+    private final ImmutableList<LoadedExtension> dependencies;
+    private final ImmutableSet<Path> loadedPaths;
+
+    LoadedExtension(
+        Path path,
+        String importString,
+        Environment.Extension extension,
+        long lastModifiedTime,
+        long size,
+        ImmutableList<LoadedExtension> dependencies) {
+      this.path = path;
+      this.importString = importString;
+      this.extension = extension;
+      this.lastModifiedTime = lastModifiedTime;
+      this.size = size;
+      this.dependencies = dependencies;
+      ImmutableSet.Builder<Path> loadedPathsBuilder = ImmutableSet.builder();
+      loadedPathsBuilder.add(path);
+      for (LoadedExtension dependency : dependencies) {
+        loadedPathsBuilder.addAll(dependency.loadedPaths);
+      }
+      this.loadedPaths = loadedPathsBuilder.build();
+    }
+
+    Path getPath() {
+      return path;
+    }
+
+    /** @return the import string the extension was first loaded with, like {@code //pkg:a.bzl}. */
+    String getImportString() {
+      return importString;
+    }
+
+    Environment.Extension getExtension() {
+      return extension;
+    }
+
+    /** @return the extensions loaded by this extension. */
+    ImmutableList<LoadedExtension> getDependencies() {
+      return dependencies;
+    }
+
+    /** @return the paths of this extension and of all the extensions it loads, transitively. */
+    ImmutableSet<Path> getLoadedPaths() {
+      return loadedPaths;
+    }
+
+    /** @return whether the file of this extension is unchanged since it was evaluated. */
+    boolean isFileUnchanged() throws IOException {
+      return path.getLastModifiedTime() == lastModifiedTime && path.getFileSize() == size;
+    }
+  }
+}
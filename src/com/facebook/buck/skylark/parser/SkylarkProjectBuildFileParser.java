@@ -80,6 +80,10 @@ import javax.annotation.Nullable;
  *
  * <p>NOTE: This parser is a work in progress and does not support many functions provided by Python
  * DSL parser like {@code read_config} and {@code include_defs}, so DO NOT USE it production.
+ *
+ * <p>Unlike the Python DSL parser, instances are thread-safe, so a single instance can parse all
+ * the build files of a cell concurrently. Extension files are evaluated once and memoized in a
+ * {@link SkylarkExtensionCache}, which can outlive the parser.
  */
 public class SkylarkProjectBuildFileParser implements ProjectBuildFileParser {
 
@@ -103,18 +107,21 @@ public class SkylarkProjectBuildFileParser implements ProjectBuildFileParser {
   private final Supplier<ImmutableList<BuiltinFunction>> buckRuleFunctionsSupplier;
   private final Supplier<NativeModule> nativeModuleSupplier;
   private final Supplier<Environment.Frame> buckGlobalsSupplier;
+  private final SkylarkExtensionCache extensionCache;
 
   private SkylarkProjectBuildFileParser(
       ProjectBuildFileParserOptions options,
       BuckEventBus buckEventBus,
       FileSystem fileSystem,
       TypeCoercerFactory typeCoercerFactory,
-      PrintingEventHandler eventHandler) {
+      PrintingEventHandler eventHandler,
+      SkylarkExtensionCache extensionCache) {
     this.options = options;
     this.buckEventBus = buckEventBus;
     this.fileSystem = fileSystem;
     this.typeCoercerFactory = typeCoercerFactory;
     this.eventHandler = eventHandler;
+    this.extensionCache = extensionCache;
     // since Skylark parser is currently disabled by default, avoid creating functions in case
     // it's never used
     // TODO(ttsugrii): replace suppliers with eager loading once Skylark parser is on by default
@@ -131,12 +138,27 @@ public class SkylarkProjectBuildFileParser implements ProjectBuildFileParser {
       BuckEventBus buckEventBus,
       FileSystem fileSystem,
       TypeCoercerFactory typeCoercerFactory) {
+    return using(
+        options, buckEventBus, fileSystem, typeCoercerFactory, new SkylarkExtensionCache());
+  }
+
+  /**
+   * Create an instance of Skylark project build file parser using provided options, which memoizes
+   * extension files in {@code extensionCache}.
+   */
+  public static SkylarkProjectBuildFileParser using(
+      ProjectBuildFileParserOptions options,
+      BuckEventBus buckEventBus,
+      FileSystem fileSystem,
+      TypeCoercerFactory typeCoercerFactory,
+      SkylarkExtensionCache extensionCache) {
     return new SkylarkProjectBuildFileParser(
         options,
         buckEventBus,
         fileSystem,
         typeCoercerFactory,
-        new PrintingEventHandler(EnumSet.allOf(EventKind.class)));
+        new PrintingEventHandler(EnumSet.allOf(EventKind.class)),
+        extensionCache);
   }
 
   @Override
@@ -258,35 +280,82 @@ public class SkylarkProjectBuildFileParser implements ProjectBuildFileParser {
     ImmutableMap.Builder<String, Environment.Extension> extensionMapBuilder =
         ImmutableMap.builder();
     for (SkylarkImport skylarkImport : skylarkImports) {
-      try (Mutability mutability =
-          Mutability.create("importing " + skylarkImport.getImportString())) {
-        com.google.devtools.build.lib.vfs.Path extensionPath = getImportPath(skylarkImport);
-        BuildFileAST extensionAst =
-            BuildFileAST.parseSkylarkFile(ParserInputSource.create(extensionPath), eventHandler);
-        if (extensionAst.containsErrors()) {
-          throw BuildFileParseException.createForUnknownParseError(
-              "Cannot parse extension file " + skylarkImport.getImportString());
-        }
-        Environment.Builder envBuilder =
-            Environment.builder(mutability).setGlobals(buckGlobalsSupplier.get());
-        if (!extensionAst.getImports().isEmpty()) {
-          envBuilder.setImportedExtensions(buildImportMap(extensionAst.getImports(), parseContext));
-        }
-        Environment extensionEnv = envBuilder.build();
-        extensionEnv.setup("native", nativeModuleSupplier.get());
-        boolean success = extensionAst.exec(extensionEnv, eventHandler);
-        if (!success) {
-          throw BuildFileParseException.createForUnknownParseError(
-              "Cannot evaluate extension file " + skylarkImport.getImportString());
-        }
-        Environment.Extension extension = new Environment.Extension(extensionEnv);
-        extensionMapBuilder.put(skylarkImport.getImportString(), extension);
-        parseContext.recordLoadedPath(extensionPath);
+      SkylarkExtensionCache.LoadedExtension loadedExtension =
+          loadExtension(getImportPath(skylarkImport), skylarkImport.getImportString());
+      extensionMapBuilder.put(skylarkImport.getImportString(), loadedExtension.getExtension());
+      for (com.google.devtools.build.lib.vfs.Path loadedPath : loadedExtension.getLoadedPaths()) {
+        parseContext.recordLoadedPath(loadedPath);
       }
     }
     return extensionMapBuilder.build();
   }
 
+  /**
+   * @return The extension at {@code extensionPath}, from the extension cache if neither it nor any
+   *     of the extensions it loads changed since it was evaluated, and evaluated otherwise.
+   */
+  private SkylarkExtensionCache.LoadedExtension loadExtension(
+      com.google.devtools.build.lib.vfs.Path extensionPath, String importString)
+      throws IOException, InterruptedException, BuildFileParseException {
+    @Nullable SkylarkExtensionCache.LoadedExtension cached = extensionCache.get(extensionPath);
+    if (cached != null && cached.isFileUnchanged()) {
+      boolean upToDate = true;
+      for (SkylarkExtensionCache.LoadedExtension dependency : cached.getDependencies()) {
+        if (loadExtension(dependency.getPath(), dependency.getImportString()) != dependency) {
+          upToDate = false;
+          break;
+        }
+      }
+      if (upToDate) {
+        return cached;
+      }
+    }
+
+    // Stat the file before reading it, so that changes made while it is evaluated are noticed.
+    long lastModifiedTime = extensionPath.getLastModifiedTime();
+    long size = extensionPath.getFileSize();
+    try (Mutability mutability = Mutability.create("importing " + importString)) {
+      BuildFileAST extensionAst =
+          BuildFileAST.parseSkylarkFile(ParserInputSource.create(extensionPath), eventHandler);
+      if (extensionAst.containsErrors()) {
+        throw BuildFileParseException.createForUnknownParseError(
+            "Cannot parse extension file " + importString);
+      }
+      ImmutableList.Builder<SkylarkExtensionCache.LoadedExtension> dependencies =
+          ImmutableList.builder();
+      ImmutableMap.Builder<String, Environment.Extension> importMapBuilder = ImmutableMap.builder();
+      for (SkylarkImport skylarkImport : extensionAst.getImports()) {
+        SkylarkExtensionCache.LoadedExtension dependency =
+            loadExtension(getImportPath(skylarkImport), skylarkImport.getImportString());
+        dependencies.add(dependency);
+        importMapBuilder.put(skylarkImport.getImportString(), dependency.getExtension());
+      }
+      Environment.Builder envBuilder =
+          Environment.builder(mutability).setGlobals(buckGlobalsSupplier.get());
+      ImmutableMap<String, Environment.Extension> importMap = importMapBuilder.build();
+      if (!importMap.isEmpty()) {
+        envBuilder.setImportedExtensions(importMap);
+      }
+      Environment extensionEnv = envBuilder.build();
+      extensionEnv.setup("native", nativeModuleSupplier.get());
+      boolean success = extensionAst.exec(extensionEnv, eventHandler);
+      if (!success) {
+        throw BuildFileParseException.createForUnknownParseError(
+            "Cannot evaluate extension file " + importString);
+      }
+      SkylarkExtensionCache.LoadedExtension loadedExtension =
+          new SkylarkExtensionCache.LoadedExtension(
+              extensionPath,
+              importString,
+              new Environment.Extension(extensionEnv),
+              lastModifiedTime,
+              size,
+              dependencies.build());
+      extensionCache.put(loadedExtension);
+      return loadedExtension;
+    }
+  }
+
   /**
    * @return The environment frame with configured buck globals. This includes built-in rules like
    *     {@code java_library}.
@@ -428,6 +497,11 @@ public class SkylarkProjectBuildFileParser implements ProjectBuildFileParser {
     }
   }
 
+  @Override
+  public boolean isThreadSafeFor(Path buildFile) {
+    return true;
+  }
+
   @Override
   public void reportProfile() throws IOException {
     // TODO(ttsugrii): implement
@@ -31,6 +31,7 @@ import com.facebook.buck.util.ClassLoaderCache;
 import com.facebook.buck.util.Console;
 import com.facebook.buck.util.ProcessExecutor;
 import com.facebook.buck.util.Verbosity;
+import com.facebook.buck.util.cache.FileHashCache;
 import com.facebook.buck.util.concurrent.ConcurrencyLimit;
 import com.facebook.buck.util.concurrent.ResourceAllocationFairness;
 import com.facebook.buck.util.concurrent.ResourceAmountsEstimator;
@@ -98,6 +99,12 @@ abstract class AbstractExecutionContext implements Closeable {
   @Value.Parameter
   abstract ProjectFilesystemFactory getProjectFilesystemFactory();
 
+  /**
+   * The hashes of the files of the build, for the steps which keep what they read from files across
+   * builds, to tell whether the files changed since.
+   */
+  abstract Optional<FileHashCache> getFileHashCache();
+
   /**
    * Returns an {@link AndroidPlatformTarget} if the user specified one. If the user failed to
    * specify one, an exception will be thrown.
@@ -146,6 +153,49 @@ abstract class AbstractExecutionContext implements Closeable {
     return new ConcurrentHashMap<>();
   }
 
+  /**
+   * How many worker processes each worker process pool starts as soon as it is created, and keeps
+   * however long they have been idle.
+   */
+  @Value.Default
+  public int getPrewarmedWorkersPerPool() {
+    return 0;
+  }
+
+  /**
+   * How long a worker process may stay idle before its pool closes it, or 0 to keep idle workers
+   * until the pool is closed.
+   */
+  @Value.Default
+  public long getIdleWorkerTimeoutMillis() {
+    return 0L;
+  }
+
+  /**
+   * Whether steps which write zips compress their entries on the CPU executor rather than one after
+   * another on their own thread. The zips are the same either way.
+   */
+  @Value.Default
+  public boolean isParallelZipCompressionEnabled() {
+    return false;
+  }
+
+  /** @return the executor to compress zip entries on, if they are compressed in parallel. */
+  public Optional<ListeningExecutorService> getZipCompressionExecutor() {
+    if (!isParallelZipCompressionEnabled()) {
+      return Optional.empty();
+    }
+    return Optional.ofNullable(getExecutors().get(ExecutorPool.CPU));
+  }
+
+  /**
+   * @return the executor to compress the blocks of XZ files on, for the steps which split them in
+   *     blocks.
+   */
+  public Optional<ListeningExecutorService> getXzCompressionExecutor() {
+    return Optional.ofNullable(getExecutors().get(ExecutorPool.CPU));
+  }
+
   @Value.Default
   public ConcurrencyLimit getConcurrencyLimit() {
     return new ConcurrencyLimit(
@@ -0,0 +1,324 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.step.fs;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.XZ;
+import org.tukaani.xz.XZOutputStream;
+
+/**
+ * Compresses what is written to it with XZ, in blocks of a fixed size which are compressed
+ * independently of each other on an {@link Executor}.
+ *
+ * <p>The blocks are written in order as a single standard .xz stream, which any XZ decoder reads.
+ * The stream only depends on the block size, the preset and the check, not on the executor. Each
+ * block starts with an empty dictionary, so smaller blocks compress faster on more threads but not
+ * as well.
+ *
+ * <p>Blocks are kept in memory until they are written, so only so many of them are compressed ahead
+ * of the block being written. The block being written is compressed by the writing thread if no
+ * thread of the executor started on it yet, so that a busy executor only slows things down.
+ */
+class ParallelXzOutputStream extends OutputStream {
+  private static final int MIN_BLOCK_SIZE = 1024 * 1024;
+  private static final int STREAM_HEADER_SIZE = 12;
+  private static final int STREAM_FOOTER_SIZE = 12;
+
+  private final OutputStream out;
+  private final int preset;
+  private final int check;
+  private final int blockSize;
+  private final Executor executor;
+  private final int maxPendingBlocks;
+  private final Deque<PendingBlock> pendingBlocks = new ArrayDeque<>();
+  private final ByteArrayOutputStream indexRecords = new ByteArrayOutputStream();
+  private long writtenBlocks = 0;
+  private byte[] buffer;
+  private int bufferSize = 0;
+  private boolean finished = false;
+
+  /**
+   * @param preset the XZ preset, from {@link LZMA2Options#PRESET_MIN} to {@link
+   *     LZMA2Options#PRESET_MAX}, the blocks are compressed with.
+   * @param check the integrity check of the blocks, one of the {@code CHECK_*} constants of {@link
+   *     XZ}.
+   * @param blockSize how many uncompressed bytes go in each block.
+   * @param maxPendingBlocks how many blocks may be held in memory while the first is compressed.
+   */
+  ParallelXzOutputStream(
+      OutputStream out,
+      int preset,
+      int check,
+      int blockSize,
+      Executor executor,
+      int maxPendingBlocks)
+      throws IOException {
+    Preconditions.checkArgument(blockSize > 0, "blockSize must be positive.");
+    Preconditions.checkArgument(maxPendingBlocks > 0, "maxPendingBlocks must be positive.");
+    this.out = out;
+    this.preset = preset;
+    this.check = check;
+    this.blockSize = blockSize;
+    this.executor = executor;
+    this.maxPendingBlocks = maxPendingBlocks;
+    writeStreamHeader();
+  }
+
+  /**
+   * @return the block size {@code xz --threads} uses for {@code preset}, three times the size of
+   *     its dictionary, which keeps most of the compression ratio of a single block.
+   */
+  static int getDefaultBlockSize(int preset) {
+    try {
+      return Math.max(MIN_BLOCK_SIZE, 3 * new LZMA2Options(preset).getDictSize());
+    } catch (IOException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[] {(byte) b}, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] bytes, int offset, int length) throws IOException {
+    Preconditions.checkState(!finished, "The stream is finished.");
+    while (length > 0) {
+      if (buffer == null) {
+        buffer = new byte[blockSize];
+      }
+      int copied = Math.min(length, blockSize - bufferSize);
+      System.arraycopy(bytes, offset, buffer, bufferSize, copied);
+      bufferSize += copied;
+      offset += copied;
+      length -= copied;
+      if (bufferSize == blockSize) {
+        addBlock();
+      }
+    }
+  }
+
+  /** Writes all the blocks, then the index and the footer of the stream. */
+  public void finish() throws IOException {
+    if (finished) {
+      return;
+    }
+    if (bufferSize > 0) {
+      addBlock();
+    }
+    while (!pendingBlocks.isEmpty()) {
+      writeNextBlock();
+    }
+    writeIndexAndFooter();
+    finished = true;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      finish();
+    } finally {
+      out.close();
+    }
+  }
+
+  private void addBlock() throws IOException {
+    PendingBlock block = new PendingBlock(buffer, bufferSize);
+    buffer = null;
+    bufferSize = 0;
+    while (pendingBlocks.size() >= maxPendingBlocks) {
+      writeNextBlock();
+    }
+    pendingBlocks.addLast(block);
+    executor.execute(block::compress);
+  }
+
+  private void writeNextBlock() throws IOException {
+    PendingBlock pendingBlock = pendingBlocks.removeFirst();
+    pendingBlock.compress();
+    CompressedBlock block;
+    try {
+      block = Uninterruptibles.getUninterruptibly(pendingBlock.result);
+    } catch (ExecutionException e) {
+      Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new RuntimeException(e.getCause());
+    }
+
+    out.write(block.stream, STREAM_HEADER_SIZE, block.length);
+    writeVarInt(indexRecords, block.unpaddedSize);
+    writeVarInt(indexRecords, block.uncompressedSize);
+    writtenBlocks++;
+  }
+
+  private void writeStreamHeader() throws IOException {
+    ByteArrayOutputStream header = new ByteArrayOutputStream(STREAM_HEADER_SIZE);
+    header.write(XZ.HEADER_MAGIC);
+    byte[] streamFlags = {0x00, (byte) check};
+    header.write(streamFlags);
+    writeCrc32(header, streamFlags);
+    header.writeTo(out);
+  }
+
+  private void writeIndexAndFooter() throws IOException {
+    ByteArrayOutputStream index = new ByteArrayOutputStream();
+    // Index indicator, followed by the number of records.
+    index.write(0x00);
+    writeVarInt(index, writtenBlocks);
+    indexRecords.writeTo(index);
+    while (index.size() % 4 != 0) {
+      index.write(0x00);
+    }
+    writeCrc32(index, index.toByteArray());
+    index.writeTo(out);
+
+    // The footer repeats the stream flags after the size of the index, in units of four bytes.
+    byte[] footer = new byte[STREAM_FOOTER_SIZE];
+    long backwardSize = index.size() / 4 - 1;
+    for (int i = 0; i < 4; i++) {
+      footer[4 + i] = (byte) (backwardSize >>> (8 * i));
+    }
+    footer[8] = 0x00;
+    footer[9] = (byte) check;
+    CRC32 crc = new CRC32();
+    crc.update(footer, 4, 6);
+    for (int i = 0; i < 4; i++) {
+      footer[i] = (byte) (crc.getValue() >>> (8 * i));
+    }
+    System.arraycopy(XZ.FOOTER_MAGIC, 0, footer, 10, 2);
+    out.write(footer);
+  }
+
+  private static void writeVarInt(ByteArrayOutputStream out, long value) {
+    while (value >= 0x80) {
+      out.write((int) (value | 0x80));
+      value >>>= 7;
+    }
+    out.write((int) value);
+  }
+
+  private static void writeCrc32(ByteArrayOutputStream out, byte[] bytes) {
+    CRC32 crc = new CRC32();
+    crc.update(bytes);
+    for (int i = 0; i < 4; i++) {
+      out.write((int) (crc.getValue() >>> (8 * i)));
+    }
+  }
+
+  /** Uncompressed bytes of a block, and the block once it has been compressed. */
+  private class PendingBlock {
+    private final byte[] data;
+    private final int size;
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final SettableFuture<CompressedBlock> result = SettableFuture.create();
+
+    private PendingBlock(byte[] data, int size) {
+      this.data = data;
+      this.size = size;
+    }
+
+    /** Compresses the block, unless another thread did already. */
+    private void compress() {
+      if (!started.compareAndSet(false, true)) {
+        return;
+      }
+      XzMemorySemaphore.acquireMemory(preset);
+      try {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream(size / 2 + 64);
+        try (XZOutputStream xzOut = new XZOutputStream(stream, new LZMA2Options(preset), check)) {
+          xzOut.write(data, 0, size);
+        }
+        result.set(CompressedBlock.parse(stream.toByteArray(), size));
+      } catch (Throwable t) {
+        result.setException(t);
+      } finally {
+        XzMemorySemaphore.releaseMemory(preset);
+      }
+    }
+  }
+
+  /**
+   * A block compressed as a stream of its own, from which the block and its index record are taken.
+   */
+  private static class CompressedBlock {
+    private final byte[] stream;
+    private final int length;
+    private final long unpaddedSize;
+    private final long uncompressedSize;
+
+    private CompressedBlock(byte[] stream, int length, long unpaddedSize, long uncompressedSize) {
+      this.stream = stream;
+      this.length = length;
+      this.unpaddedSize = unpaddedSize;
+      this.uncompressedSize = uncompressedSize;
+    }
+
+    /**
+     * Finds the index of a single block stream from the backward size in its footer, and reads the
+     * one record of the index.
+     */
+    private static CompressedBlock parse(byte[] stream, int uncompressedSize) {
+      int footerStart = stream.length - STREAM_FOOTER_SIZE;
+      long backwardSize = 0;
+      for (int i = 0; i < 4; i++) {
+        backwardSize |= (stream[footerStart + 4 + i] & 0xFFL) << (8 * i);
+      }
+      int indexStart = footerStart - (int) ((backwardSize + 1) * 4);
+      Preconditions.checkState(stream[indexStart] == 0x00, "Expected an XZ index.");
+
+      int[] position = {indexStart + 1};
+      long recordCount = readVarInt(stream, position);
+      long unpaddedSize = readVarInt(stream, position);
+      long recordUncompressedSize = readVarInt(stream, position);
+      Preconditions.checkState(recordCount == 1, "Expected a single XZ block.");
+      Preconditions.checkState(
+          recordUncompressedSize == uncompressedSize, "Unexpected XZ block size.");
+      return new CompressedBlock(
+          stream, indexStart - STREAM_HEADER_SIZE, unpaddedSize, uncompressedSize);
+    }
+
+    private static long readVarInt(byte[] bytes, int[] position) {
+      long value = 0;
+      for (int shift = 0; ; shift += 7) {
+        int b = bytes[position[0]++];
+        value |= (b & 0x7FL) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+    }
+  }
+}
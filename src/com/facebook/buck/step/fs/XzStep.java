@@ -24,11 +24,15 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Optional;
+import java.util.concurrent.Executor;
 import org.tukaani.xz.LZMA2Options;
 import org.tukaani.xz.XZ;
 import org.tukaani.xz.XZOutputStream;
@@ -49,6 +53,7 @@ public class XzStep implements Step {
   private final int compressionLevel;
   private final boolean keep;
   private final int check;
+  private final boolean parallel;
 
   /**
    * Create an {@link XzStep} to compress a file using XZ.
@@ -61,6 +66,8 @@ public class XzStep implements Step {
    * @param check integrity check to use. Must be one of {@link XZ#CHECK_CRC32}, {@link
    *     XZ#CHECK_CRC64}, {@link XZ#CHECK_SHA256}, {@link XZ#CHECK_NONE} (Note: XZ Embedded can only
    *     verify CRC32).
+   * @param parallel whether to split the data in blocks which are compressed on several threads.
+   *     See {@link ParallelXzOutputStream}.
    */
   @VisibleForTesting
   XzStep(
@@ -69,7 +76,8 @@ public class XzStep implements Step {
       Path destinationFile,
       int compressionLevel,
       boolean keep,
-      int check) {
+      int check,
+      boolean parallel) {
     this.filesystem = filesystem;
     this.sourceFile = sourceFile;
     this.destinationFile = destinationFile;
@@ -79,6 +87,25 @@ public class XzStep implements Step {
     this.compressionLevel = compressionLevel;
     this.keep = keep;
     this.check = check;
+    this.parallel = parallel;
+  }
+
+  @VisibleForTesting
+  XzStep(
+      ProjectFilesystem filesystem,
+      Path sourceFile,
+      Path destinationFile,
+      int compressionLevel,
+      boolean keep,
+      int check) {
+    this(
+        filesystem,
+        sourceFile,
+        destinationFile,
+        compressionLevel,
+        keep,
+        check,
+        /* parallel */ false);
   }
 
   /**
@@ -117,7 +144,36 @@ public class XzStep implements Step {
    */
   public XzStep(
       ProjectFilesystem filesystem, Path sourceFile, Path outputPath, int compressionLevel) {
-    this(filesystem, sourceFile, outputPath, compressionLevel, /* keep */ false, XZ.CHECK_CRC32);
+    this(filesystem, sourceFile, outputPath, compressionLevel, /* parallel */ false);
+  }
+
+  /**
+   * Creates an XzStep to compress a file with the given XZ compression level and output path,
+   * optionally in blocks which are compressed on several threads.
+   *
+   * <p>The blocks are three times as large as the dictionary of the compression level, and at least
+   * 1MiB. They are part of a single .xz stream, which doesn't depend on the number of threads, and
+   * which decompresses with the same amount of RAM.
+   *
+   * @param sourceFile file to compress
+   * @param outputPath the desired output path.
+   * @param compressionLevel level of compression (from 0-9)
+   * @param parallel whether to split the file in blocks which are compressed on several threads.
+   */
+  public XzStep(
+      ProjectFilesystem filesystem,
+      Path sourceFile,
+      Path outputPath,
+      int compressionLevel,
+      boolean parallel) {
+    this(
+        filesystem,
+        sourceFile,
+        outputPath,
+        compressionLevel,
+        /* keep */ false,
+        XZ.CHECK_CRC32,
+        parallel);
   }
 
   /**
@@ -144,6 +200,10 @@ public class XzStep implements Step {
   @Override
   public StepExecutionResult execute(ExecutionContext context)
       throws IOException, InterruptedException {
+    if (parallel) {
+      compressInBlocks(context);
+      return StepExecutionResult.SUCCESS;
+    }
     try (InputStream in = filesystem.newFileInputStream(sourceFile);
         OutputStream out = filesystem.newFileOutputStream(destinationFile);
         XZOutputStream xzOut = new XZOutputStream(out, new LZMA2Options(compressionLevel), check)) {
@@ -159,6 +219,31 @@ public class XzStep implements Step {
     return StepExecutionResult.SUCCESS;
   }
 
+  private void compressInBlocks(ExecutionContext context) throws IOException {
+    // Without an executor, the blocks are compressed one after another, into the same stream.
+    Optional<ListeningExecutorService> compressionExecutor = context.getXzCompressionExecutor();
+    Executor executor =
+        compressionExecutor.isPresent()
+            ? compressionExecutor.get()
+            : MoreExecutors.directExecutor();
+    try (InputStream in = filesystem.newFileInputStream(sourceFile);
+        OutputStream out = filesystem.newFileOutputStream(destinationFile);
+        ParallelXzOutputStream xzOut =
+            new ParallelXzOutputStream(
+                out,
+                compressionLevel,
+                check,
+                ParallelXzOutputStream.getDefaultBlockSize(compressionLevel),
+                executor,
+                Runtime.getRuntime().availableProcessors())) {
+      ByteStreams.copy(in, xzOut);
+      xzOut.finish();
+    }
+    if (!keep) {
+      filesystem.deleteFileAtPath(sourceFile);
+    }
+  }
+
   public Path getDestinationFile() {
     return destinationFile;
   }
@@ -172,6 +257,7 @@ public class XzStep implements Step {
             "-z",
             "-" + compressionLevel,
             (keep ? "--keep" : null),
+            (parallel ? "--threads=0" : null),
             "--check=crc32",
             sourceFile);
   }
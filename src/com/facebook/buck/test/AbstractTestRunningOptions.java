@@ -19,6 +19,7 @@ package com.facebook.buck.test;
 import com.facebook.buck.test.selectors.TestSelectorList;
 import com.facebook.buck.util.immutables.BuckStyleImmutable;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import org.immutables.value.Value;
 import java.util.EnumSet;
 import java.util.Optional;
@@ -53,6 +54,46 @@ abstract class AbstractTestRunningOptions {
     return false;
   }
 
+  /** @return the number of shards the test classes of a single test rule may be split into. */
+  @Value.Default
+  public int getMaxShardsPerTestRule() {
+    return 1;
+  }
+
+  /**
+   * @return how long, in milliseconds, a test rule must have taken in the previous run for its test
+   *     classes to be split into shards.
+   */
+  @Value.Default
+  public long getMinShardedTestRuleDurationMs() {
+    return 60_000;
+  }
+
+  /**
+   * @return how many test rules a JUnit worker, a warm JVM which runs the tests of one rule after
+   *     another, runs before it is replaced, or 0 to run the tests of each rule in a JVM of its
+   *     own.
+   */
+  @Value.Default
+  public int getMaxRunsPerJUnitWorker() {
+    return 0;
+  }
+
+  /**
+   * @return whether the outputs of the test rules whose tests passed are stored in the artifact
+   *     cache, so that the tests of the rules which haven't changed since don't run again.
+   */
+  @Value.Default
+  public boolean isCachingTestResults() {
+    return false;
+  }
+
+  /** @return the labels of the test rules whose results are never cached. */
+  @Value.Default
+  public ImmutableSet<String> getNonHermeticTestLabels() {
+    return ImmutableSet.of("non_hermetic");
+  }
+
   public abstract Optional<String> getPathToXmlTestOutput();
 
   public abstract Optional<String> getPathToJavaAgent();
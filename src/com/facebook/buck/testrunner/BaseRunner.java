@@ -265,6 +265,14 @@ public abstract class BaseRunner {
   }
 
   protected void runAndExit() {
+    // Explicitly exit to force the test runner to complete even if tests have sloppily left
+    // behind non-daemon threads that would have otherwise forced the process to wait and
+    // eventually timeout.
+    System.exit(runAndGetExitCode());
+  }
+
+  /** Runs the tests, returning the code with which the JVM running them should exit. */
+  protected int runAndGetExitCode() {
     int exitCode;
 
     // Run the tests.
@@ -282,9 +290,6 @@ public abstract class BaseRunner {
       exitCode = 1;
     }
 
-    // Explicitly exit to force the test runner to complete even if tests have sloppily left
-    // behind non-daemon threads that would have otherwise forced the process to wait and
-    // eventually timeout.
-    System.exit(exitCode);
+    return exitCode;
   }
 }
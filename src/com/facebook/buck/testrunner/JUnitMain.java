@@ -39,12 +39,26 @@ public class JUnitMain {
   }
 
   public static void main(String[] args) {
+    JUnitRunner runner = newRunner(args);
+    runner.runAndExit();
+  }
+
+  /**
+   * Runs the tests like {@link #main} does, but returns the exit code instead of exiting, so that
+   * a JUnit worker JVM can go on to run the tests of other rules.
+   */
+  public static int run(String... args) {
+    JUnitRunner runner = newRunner(args);
+    return runner.runAndGetExitCode();
+  }
+
+  private static JUnitRunner newRunner(String... args) {
     // Ensure that both junit and hamcrest are on the classpath
     CheckDependency.isPresent("junit", "org.junit.Test");
     CheckDependency.isPresent("hamcrest", "org.hamcrest.Description");
 
     JUnitRunner runner = new JUnitRunner();
     runner.parseArgs(args);
-    runner.runAndExit();
+    return runner;
   }
 }
@@ -0,0 +1,494 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.testrunner;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.Permission;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.LogManager;
+
+/**
+ * Runs the tests of one test rule after another in a JVM which Buck keeps around between them, so
+ * that they don't each pay for starting a JVM and warming it up.
+ *
+ * <p>The worker speaks version 0 of Buck's worker process protocol on its stdin and stdout. The
+ * arguments file of each job holds one argument per line, with backslashes, carriage returns and
+ * newlines escaped as {@code \\}, {@code \r} and {@code \n}:
+ *
+ * <ul>
+ *   <li>(string...) {@code -D<name>=<value>} system properties to set while the tests run
+ *   <li>{@code --classpath-file} followed by the file listing the classpath of the tests
+ *   <li>(string) the runner class, which must have a static {@code int run(String...)} method
+ *   <li>(string...) the arguments of the runner
+ * </ul>
+ *
+ * <p>The tests of each job get a class loader of their own, and the system properties, standard
+ * streams and logging configuration are put back the way they were once they are over. What the
+ * tests print goes to the stderr file of the job. Tests which call {@link System#exit} fail
+ * instead of taking the worker down with them.
+ *
+ * <p>After {@code --max-jobs} jobs, or once the heap is nearly full even right after a garbage
+ * collection, the worker writes {@link #RECYCLE} to the stdout file of the job it just ran. Buck
+ * then shuts it down and starts a fresh one, rather than the worker exiting on its own while Buck
+ * may be about to send it another job.
+ *
+ * <p>IMPORTANT! This class limits itself to types that are available in the JDK, as it is on the
+ * classpath of the JVM which runs the tests.
+ */
+public class JUnitWorkerMain {
+
+  /** What the worker writes to the stdout file of a job to ask Buck to replace it. */
+  public static final String RECYCLE = "recycle";
+
+  /** How full the old generation may be right after a garbage collection before recycling. */
+  private static final double MAX_HEAP_OCCUPANCY_AFTER_GC = 0.75;
+
+  private final Reader in;
+  private final Writer out;
+  private final int maxJobs;
+  private int jobs = 0;
+  private int peeked = -1;
+
+  // VisibleForTesting
+  JUnitWorkerMain(Reader in, Writer out, int maxJobs) {
+    this.in = in;
+    this.out = out;
+    this.maxJobs = maxJobs;
+  }
+
+  public static void main(String[] args) throws IOException {
+    int maxJobs = Integer.MAX_VALUE;
+    for (int i = 0; i < args.length; i++) {
+      if ("--max-jobs".equals(args[i])) {
+        maxJobs = Integer.parseInt(args[++i]);
+      }
+    }
+
+    // Keep whatever the tests read or print away from the channel to Buck.
+    Reader in = new BufferedReader(new InputStreamReader(System.in, UTF_8));
+    Writer out = new BufferedWriter(new OutputStreamWriter(System.out, UTF_8));
+    System.setIn(new ByteArrayInputStream(new byte[0]));
+    System.setOut(System.err);
+
+    new JUnitWorkerMain(in, out, maxJobs).run();
+
+    // Explicitly exit, since tests may have left behind non-daemon threads.
+    System.exit(0);
+  }
+
+  // VisibleForTesting
+  void run() throws IOException {
+    expect('[');
+    Map<String, Object> handshake = readObject();
+    if (!"handshake".equals(handshake.get("type"))) {
+      throw new IOException("Expected a handshake, got " + handshake);
+    }
+    out.write(
+        String.format(
+            "[{\"id\":%d,\"type\":\"handshake\",\"protocol_version\":\"0\",\"capabilities\":[]}",
+            getId(handshake)));
+    out.flush();
+
+    while (true) {
+      int c = nextNonWhitespace();
+      if (c == ']') {
+        out.write(']');
+        out.flush();
+        return;
+      }
+      if (c != ',') {
+        throw new IOException("Expected ',' or ']', got " + describe(c));
+      }
+
+      Map<String, Object> command = readObject();
+      String type = "result";
+      int exitCode;
+      Object argsPath = command.get("args_path");
+      Object stdoutPath = command.get("stdout_path");
+      Object stderrPath = command.get("stderr_path");
+      if (!"command".equals(command.get("type"))) {
+        type = "error";
+        exitCode = 1;
+      } else if (!(argsPath instanceof String
+          && stdoutPath instanceof String
+          && stderrPath instanceof String)) {
+        type = "error";
+        exitCode = 2;
+      } else {
+        exitCode =
+            runJob(
+                Paths.get((String) argsPath),
+                Paths.get((String) stdoutPath),
+                Paths.get((String) stderrPath));
+      }
+      out.write(
+          String.format(
+              ",{\"id\":%d,\"type\":\"%s\",\"exit_code\":%d}", getId(command), type, exitCode));
+      out.flush();
+    }
+  }
+
+  private int runJob(Path argsPath, Path stdoutPath, Path stderrPath) throws IOException {
+    List<String> args = new ArrayList<>();
+    for (String line : Files.readAllLines(argsPath, UTF_8)) {
+      args.add(unescape(line));
+    }
+
+    int exitCode;
+    try (PrintStream output =
+        new PrintStream(new FileOutputStream(stderrPath.toFile()), true, UTF_8.name())) {
+      exitCode = runTests(args, output);
+    }
+
+    jobs++;
+    if (jobs >= maxJobs || isHeapNearlyFull()) {
+      Files.write(stdoutPath, RECYCLE.getBytes(UTF_8));
+    }
+    return exitCode;
+  }
+
+  private static int runTests(List<String> args, PrintStream output) {
+    Properties originalProperties = System.getProperties();
+    PrintStream originalOut = System.out;
+    PrintStream originalErr = System.err;
+    Thread thread = Thread.currentThread();
+    ClassLoader originalContextClassLoader = thread.getContextClassLoader();
+
+    Properties properties = new Properties();
+    properties.putAll(originalProperties);
+    System.setProperties(properties);
+    System.setOut(output);
+    System.setErr(output);
+    Runnable removeExitGuard = installExitGuard();
+    try {
+      int i = 0;
+      for (; i < args.size() && args.get(i).startsWith("-D"); i++) {
+        String property = args.get(i).substring(2);
+        int equals = property.indexOf('=');
+        if (equals < 0) {
+          System.setProperty(property, "");
+        } else {
+          System.setProperty(property.substring(0, equals), property.substring(equals + 1));
+        }
+      }
+      if (i + 2 >= args.size() || !"--classpath-file".equals(args.get(i))) {
+        throw new IllegalArgumentException("Expected --classpath-file and a runner in " + args);
+      }
+      Path classpathFile = Paths.get(args.get(i + 1));
+      String runnerClassName = args.get(i + 2);
+      String[] runnerArgs = args.subList(i + 3, args.size()).toArray(new String[0]);
+
+      // Like FileClassPathRunner, put the entries of the classpath file ahead of the runner.
+      List<URL> urls = new ArrayList<>();
+      StringBuilder classpath = new StringBuilder(System.getProperty("java.class.path"));
+      for (String line : Files.readAllLines(classpathFile, UTF_8)) {
+        if (line.isEmpty()) {
+          continue;
+        }
+        urls.add(Paths.get(line).toUri().toURL());
+        classpath.append(File.pathSeparatorChar).append(line);
+      }
+      urls.add(JUnitWorkerMain.class.getProtectionDomain().getCodeSource().getLocation());
+      System.setProperty("java.class.path", classpath.toString());
+
+      try (URLClassLoader classLoader =
+          new URLClassLoader(
+              urls.toArray(new URL[0]), ClassLoader.getSystemClassLoader().getParent())) {
+        thread.setContextClassLoader(classLoader);
+        Method run = classLoader.loadClass(runnerClassName).getMethod("run", String[].class);
+        return (Integer) run.invoke(null, (Object) runnerArgs);
+      }
+    } catch (InvocationTargetException e) {
+      e.getCause().printStackTrace();
+      return 1;
+    } catch (IOException | ReflectiveOperationException | RuntimeException e) {
+      e.printStackTrace();
+      return 1;
+    } finally {
+      removeExitGuard.run();
+      thread.setContextClassLoader(originalContextClassLoader);
+      System.setOut(originalOut);
+      System.setErr(originalErr);
+      System.setProperties(originalProperties);
+      resetLogging();
+    }
+  }
+
+  /**
+   * Installs an {@link ExitGuard}, unless the JDK no longer lets a security manager be installed.
+   *
+   * @return restores the previous security manager.
+   */
+  @SuppressWarnings("removal") // There is no other way to stop tests from calling System.exit.
+  private static Runnable installExitGuard() {
+    SecurityManager originalSecurityManager = System.getSecurityManager();
+    try {
+      System.setSecurityManager(new ExitGuard());
+    } catch (UnsupportedOperationException e) {
+      return () -> {};
+    }
+    return () -> System.setSecurityManager(originalSecurityManager);
+  }
+
+  @SuppressWarnings("PMD.EmptyCatchBlock")
+  private static void resetLogging() {
+    LogManager logManager = LogManager.getLogManager();
+    try {
+      logManager.readConfiguration();
+    } catch (IOException e) {
+      // Carry on with the configuration the tests left behind.
+    }
+  }
+
+  /** @return whether the old generation is still nearly full after the last garbage collection. */
+  private static boolean isHeapNearlyFull() {
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      // Only the old generation supports both kinds of thresholds; the young generation is always
+      // nearly empty after a collection, and its survivor spaces nearly full.
+      if (pool.getType() != MemoryType.HEAP
+          || !pool.isUsageThresholdSupported()
+          || !pool.isCollectionUsageThresholdSupported()) {
+        continue;
+      }
+      MemoryUsage usage = pool.getCollectionUsage();
+      if (usage != null
+          && usage.getMax() > 0
+          && usage.getUsed() > usage.getMax() * MAX_HEAP_OCCUPANCY_AFTER_GC) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // VisibleForTesting
+  static String unescape(String line) {
+    StringBuilder unescaped = new StringBuilder(line.length());
+    for (int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (c == '\\' && i + 1 < line.length()) {
+        c = line.charAt(++i);
+        if (c == 'n') {
+          c = '\n';
+        } else if (c == 'r') {
+          c = '\r';
+        }
+      }
+      unescaped.append(c);
+    }
+    return unescaped.toString();
+  }
+
+  private static int getId(Map<String, Object> message) throws IOException {
+    Object id = message.get("id");
+    if (!(id instanceof Long)) {
+      throw new IOException("Expected an integer id in " + message);
+    }
+    return ((Long) id).intValue();
+  }
+
+  /**
+   * Turns {@link System#exit} into a {@link SecurityException}, which fails the test calling it,
+   * and allows everything else.
+   */
+  @SuppressWarnings("removal")
+  private static class ExitGuard extends SecurityManager {
+    @Override
+    public void checkExit(int status) {
+      throw new SecurityException(
+          "Tests running in a JUnit worker may not call System.exit(" + status + ")");
+    }
+
+    @Override
+    public void checkPermission(Permission permission) {}
+
+    @Override
+    public void checkPermission(Permission permission, Object context) {}
+  }
+
+  // A reader for just enough JSON to receive Buck's messages, as Gson isn't on the classpath.
+
+  // VisibleForTesting
+  Map<String, Object> readObject() throws IOException {
+    expect('{');
+    Map<String, Object> object = new HashMap<>();
+    int c = nextNonWhitespace();
+    if (c == '}') {
+      return object;
+    }
+    while (true) {
+      if (c != '"') {
+        throw new IOException("Expected a name, got " + describe(c));
+      }
+      String name = readString();
+      expect(':');
+      object.put(name, readValue());
+      c = nextNonWhitespace();
+      if (c == '}') {
+        return object;
+      }
+      if (c != ',') {
+        throw new IOException("Expected ',' or '}', got " + describe(c));
+      }
+      c = nextNonWhitespace();
+    }
+  }
+
+  private Object readValue() throws IOException {
+    int c = nextNonWhitespace();
+    if (c == '"') {
+      return readString();
+    }
+    if (c == '{') {
+      peeked = c;
+      return readObject();
+    }
+    if (c == '[') {
+      List<Object> array = new ArrayList<>();
+      c = nextNonWhitespace();
+      if (c == ']') {
+        return array;
+      }
+      peeked = c;
+      while (true) {
+        array.add(readValue());
+        c = nextNonWhitespace();
+        if (c == ']') {
+          return array;
+        }
+        if (c != ',') {
+          throw new IOException("Expected ',' or ']', got " + describe(c));
+        }
+      }
+    }
+    StringBuilder literal = new StringBuilder();
+    while (c == '-' || c == '+' || c == '.' || Character.isLetterOrDigit(c)) {
+      literal.append((char) c);
+      c = in.read();
+    }
+    peeked = c;
+    String value = literal.toString();
+    switch (value) {
+      case "true":
+        return Boolean.TRUE;
+      case "false":
+        return Boolean.FALSE;
+      case "null":
+        return null;
+      default:
+        try {
+          return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+          try {
+            return Double.parseDouble(value);
+          } catch (NumberFormatException e2) {
+            throw new IOException("Expected a value, got " + describe(c));
+          }
+        }
+    }
+  }
+
+  /** Reads the rest of a string whose opening quote was just read. */
+  private String readString() throws IOException {
+    StringBuilder string = new StringBuilder();
+    while (true) {
+      int c = in.read();
+      if (c == '"') {
+        return string.toString();
+      }
+      if (c == '\\') {
+        c = in.read();
+        switch (c) {
+          case 'b':
+            c = '\b';
+            break;
+          case 'f':
+            c = '\f';
+            break;
+          case 'n':
+            c = '\n';
+            break;
+          case 'r':
+            c = '\r';
+            break;
+          case 't':
+            c = '\t';
+            break;
+          case 'u':
+            char[] hex = new char[4];
+            for (int i = 0; i < hex.length; i++) {
+              hex[i] = (char) in.read();
+            }
+            c = Integer.parseInt(new String(hex), 16);
+            break;
+          default:
+            break;
+        }
+      }
+      if (c < 0) {
+        throw new IOException("Unterminated string " + string);
+      }
+      string.append((char) c);
+    }
+  }
+
+  private void expect(char expected) throws IOException {
+    int c = nextNonWhitespace();
+    if (c != expected) {
+      throw new IOException("Expected '" + expected + "', got " + describe(c));
+    }
+  }
+
+  private int nextNonWhitespace() throws IOException {
+    int c = peeked >= 0 ? peeked : in.read();
+    peeked = -1;
+    while (Character.isWhitespace(c)) {
+      c = in.read();
+    }
+    return c;
+  }
+
+  private static String describe(int c) {
+    return c < 0 ? "the end of the input" : "'" + (char) c + "'";
+  }
+}
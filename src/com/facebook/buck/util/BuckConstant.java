@@ -32,6 +32,7 @@ public class BuckConstant {
   public static final String RULE_KEY_LOGGER_FILE_NAME = "rule_key_logger.tsv";
   public static final String RULE_KEY_DIAG_KEYS_FILE_NAME = "rule_key_diag_keys.txt";
   public static final String RULE_KEY_DIAG_GRAPH_FILE_NAME = "rule_key_diag_graph.txt";
+  public static final String CRITICAL_PATH_REPORT_FILE_NAME = "critical_path.txt";
 
   private BuckConstant() {}
 
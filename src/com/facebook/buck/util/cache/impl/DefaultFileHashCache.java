@@ -51,14 +51,25 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
   private final ProjectFilesystem projectFilesystem;
   private final Predicate<Path> ignoredPredicate;
 
+  final Optional<FileHashCacheSnapshotStore> snapshotStore;
+
   @VisibleForTesting FileHashCacheEngine fileHashCacheEngine;
 
   protected DefaultFileHashCache(
       ProjectFilesystem projectFilesystem,
       Predicate<Path> ignoredPredicate,
       FileHashCacheMode fileHashCacheMode) {
+    this(projectFilesystem, ignoredPredicate, fileHashCacheMode, Optional.empty());
+  }
+
+  protected DefaultFileHashCache(
+      ProjectFilesystem projectFilesystem,
+      Predicate<Path> ignoredPredicate,
+      FileHashCacheMode fileHashCacheMode,
+      Optional<FileHashCacheSnapshotStore> snapshotStore) {
     this.projectFilesystem = projectFilesystem;
     this.ignoredPredicate = ignoredPredicate;
+    this.snapshotStore = snapshotStore;
     FileHashCacheEngine.ValueLoader<HashCodeAndFileType> hashLoader =
         path -> {
           try {
@@ -104,6 +115,9 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
       case PREFIX_TREE:
         fileHashCacheEngine = FileSystemMapFileHashCache.createWithStats(hashLoader, sizeLoader);
         break;
+      case OFF_HEAP:
+        fileHashCacheEngine = OffHeapFileHashCacheEngine.createWithStats(hashLoader, sizeLoader);
+        break;
       case LIMITED_PREFIX_TREE:
         fileHashCacheEngine =
             new StatsTrackingFileHashCacheEngine(
@@ -189,6 +203,13 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
   }
 
   private HashCode getFileHashCode(Path path) throws IOException {
+    if (snapshotStore.isPresent()) {
+      return snapshotStore.get().get(path, this::computeFileHashCode);
+    }
+    return computeFileHashCode(path);
+  }
+
+  private HashCode computeFileHashCode(Path path) throws IOException {
     return projectFilesystem.computeSha1(path).asHashCode();
   }
 
@@ -229,6 +250,7 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
   @Override
   public void invalidate(Path relativePath) {
     fileHashCacheEngine.invalidate(relativePath);
+    snapshotStore.ifPresent(store -> store.invalidate(relativePath));
   }
 
   @Override
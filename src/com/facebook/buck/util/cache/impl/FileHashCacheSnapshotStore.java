@@ -0,0 +1,208 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache.impl;
+
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.HashCode;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.annotation.Nullable;
+
+/**
+ * Remembers the hashes of the files of a {@link ProjectFilesystem} across daemon restarts, so that
+ * a new daemon does not have to rehash every input of its first build.
+ *
+ * <p>Each hash is recorded together with the modification time, size and file key (the inode, on
+ * most file systems) that the file had right before it was hashed. A hash restored from disk is
+ * only used once a stat of the file still matches, which is checked the first time the file is
+ * hashed by the new daemon, so restoring is cheap and only the files a build reads are checked.
+ * Changes which keep all three, e.g. rewriting a file in place within the resolution of the file
+ * system clock, are not detected.
+ */
+public class FileHashCacheSnapshotStore {
+
+  private static final Logger LOG = Logger.get(FileHashCacheSnapshotStore.class);
+
+  private static final int MAGIC = 0xB0C4F11E;
+  private static final int FORMAT_VERSION = 1;
+  private static final String SNAPSHOT_FILE_NAME = "file_hash_cache.bin.gz";
+
+  /** Computes the hash of a file, if it could not be restored. */
+  @FunctionalInterface
+  interface Hasher {
+    HashCode hash(Path path) throws IOException;
+  }
+
+  private static final class Record {
+    private final long modifiedMillis;
+    private final long size;
+    private final String fileKey;
+    private final HashCode hashCode;
+
+    private Record(long modifiedMillis, long size, String fileKey, HashCode hashCode) {
+      this.modifiedMillis = modifiedMillis;
+      this.size = size;
+      this.fileKey = fileKey;
+      this.hashCode = hashCode;
+    }
+
+    private boolean matches(BasicFileAttributes attributes) {
+      return modifiedMillis == attributes.lastModifiedTime().toMillis()
+          && size == attributes.size()
+          && fileKey.equals(getFileKey(attributes));
+    }
+  }
+
+  private final ProjectFilesystem filesystem;
+  private final Path snapshotPath;
+
+  /** Hashes read from disk, which have not been checked against the file system yet. */
+  private final ConcurrentMap<Path, Record> restored = new ConcurrentHashMap<>();
+
+  /** Hashes computed or checked by this daemon. */
+  private final ConcurrentMap<Path, Record> current = new ConcurrentHashMap<>();
+
+  public FileHashCacheSnapshotStore(ProjectFilesystem filesystem) {
+    this.filesystem = filesystem;
+    this.snapshotPath = filesystem.getBuckPaths().getCacheDir().resolve(SNAPSHOT_FILE_NAME);
+  }
+
+  @VisibleForTesting
+  Path getSnapshotPath() {
+    return snapshotPath;
+  }
+
+  /**
+   * Returns the hash of {@code path}, reusing the restored one if the file did not change since it
+   * was recorded.
+   */
+  HashCode get(Path path, Hasher hasher) throws IOException {
+    // Stat before hashing, so that a change made while hashing makes the record stale rather than
+    // attaching the new stat to the old contents.
+    BasicFileAttributes attributes = filesystem.readAttributes(path, BasicFileAttributes.class);
+    Record record = restored.remove(path);
+    if (record == null || !record.matches(attributes)) {
+      record =
+          new Record(
+              attributes.lastModifiedTime().toMillis(),
+              attributes.size(),
+              getFileKey(attributes),
+              hasher.hash(path));
+    }
+    current.put(path, record);
+    return record.hashCode;
+  }
+
+  /**
+   * Forgets the hash of {@code path}. Records are checked against the file system before being
+   * used anyway, this just keeps the hashes of deleted files out of the snapshot.
+   */
+  void invalidate(Path path) {
+    restored.remove(path);
+    current.remove(path);
+  }
+
+  private static String getFileKey(BasicFileAttributes attributes) {
+    @Nullable Object fileKey = attributes.fileKey();
+    return fileKey == null ? "" : fileKey.toString();
+  }
+
+  /**
+   * Loads the hashes written by a previous daemon, if any.
+   *
+   * @return the number of restored hashes.
+   */
+  public int restore() {
+    if (!filesystem.exists(snapshotPath)) {
+      return 0;
+    }
+    Map<Path, Record> records = new HashMap<>();
+    try (InputStream fileStream = filesystem.newFileInputStream(snapshotPath);
+        GZIPInputStream gzipStream = new GZIPInputStream(fileStream);
+        DataInputStream in = new DataInputStream(gzipStream)) {
+      if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+        LOG.debug("Ignoring file hash cache snapshot %s with unknown format.", snapshotPath);
+        return 0;
+      }
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        Path path = filesystem.getPath(in.readUTF());
+        long modifiedMillis = in.readLong();
+        long size = in.readLong();
+        String fileKey = in.readUTF();
+        byte[] hash = new byte[in.readUnsignedByte()];
+        in.readFully(hash);
+        records.put(path, new Record(modifiedMillis, size, fileKey, HashCode.fromBytes(hash)));
+      }
+    } catch (IOException | IllegalArgumentException e) {
+      LOG.warn(e, "Unable to read file hash cache snapshot %s, ignoring it.", snapshotPath);
+      return 0;
+    }
+    restored.putAll(records);
+    LOG.info("Restored %d file hashes from %s.", records.size(), snapshotPath);
+    return records.size();
+  }
+
+  /**
+   * Writes the known hashes, replacing any previous snapshot. Restored hashes which were not
+   * checked by this daemon are kept, so that they remain available to the next one.
+   */
+  public void write() throws IOException {
+    Map<Path, Record> records = new HashMap<>(restored);
+    records.putAll(current);
+    filesystem.mkdirs(snapshotPath.getParent());
+    Path tempPath =
+        filesystem.createTempFile(snapshotPath.getParent(), SNAPSHOT_FILE_NAME, ".tmp");
+    try {
+      try (OutputStream fileStream = filesystem.newFileOutputStream(tempPath);
+          GZIPOutputStream gzipStream = new GZIPOutputStream(fileStream);
+          DataOutputStream out = new DataOutputStream(gzipStream)) {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(records.size());
+        for (Map.Entry<Path, Record> entry : records.entrySet()) {
+          Record record = entry.getValue();
+          byte[] hash = record.hashCode.asBytes();
+          out.writeUTF(entry.getKey().toString());
+          out.writeLong(record.modifiedMillis);
+          out.writeLong(record.size);
+          out.writeUTF(record.fileKey);
+          out.writeByte(hash.length);
+          out.write(hash);
+        }
+      }
+      filesystem.move(tempPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      filesystem.deleteFileAtPathIfExists(tempPath);
+    }
+    LOG.debug("Wrote %d file hashes to %s.", records.size(), snapshotPath);
+  }
+}
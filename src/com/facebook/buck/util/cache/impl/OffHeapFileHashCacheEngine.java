@@ -0,0 +1,637 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache.impl;
+
+import com.facebook.buck.event.AbstractBuckEvent;
+import com.facebook.buck.io.ArchiveMemberPath;
+import com.facebook.buck.util.cache.FileHashCacheEngine;
+import com.facebook.buck.util.cache.HashCodeAndFileType;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.HashCode;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import javax.annotation.Nullable;
+
+/**
+ * A FileHashCacheEngine which keeps the hashes of files and the sizes of paths outside of the Java
+ * heap, so that caching millions of files does not grow the heap that the garbage collector has to
+ * walk.
+ *
+ * <p>Entries live in an open-addressing hash table in a direct buffer. Each entry is keyed by the
+ * id of its parent directory and the bytes of its file name, which are kept in a second direct
+ * buffer. Parent directories are interned on the heap, as there are far fewer of them than files.
+ * Directories and archives carry references to other objects (their children, a jar content hasher)
+ * so their values are kept on the heap, as are hashes longer than a SHA-1. Those are grouped by
+ * their parent directory, so that invalidating a directory only looks at the values below it.
+ *
+ * <p>Invalidation behaves like {@link com.facebook.buck.util.FileSystemMap}: invalidating a path
+ * also invalidates everything below it and the values of all its ancestors.
+ */
+class OffHeapFileHashCacheEngine implements FileHashCacheEngine {
+
+  private static final Path ROOT = Paths.get("");
+
+  // Layout of a slot in the table.
+  private static final int STATE = 0;
+  private static final int FLAGS = 1;
+  private static final int HASH_LENGTH = 2;
+  private static final int DIRECTORY_ID = 4;
+  private static final int KEY_HASH = 8;
+  private static final int NAME_OFFSET = 12;
+  private static final int NAME_LENGTH = 16;
+  private static final int HASH = 20;
+  private static final int MAX_HASH_BYTES = 20;
+  private static final int SIZE = 40;
+  private static final int SLOT_BYTES = 48;
+
+  private static final byte EMPTY = 0;
+  private static final byte FULL = 1;
+  private static final byte DELETED = 2;
+
+  private static final byte HAS_HASH = 1;
+  private static final byte HAS_SIZE = 2;
+
+  private static final int INITIAL_CAPACITY = 1 << 12;
+  private static final int MAX_CAPACITY = Integer.MAX_VALUE / SLOT_BYTES;
+  private static final int INITIAL_NAMES_BYTES = 1 << 16;
+
+  private final ValueLoader<HashCodeAndFileType> hashLoader;
+  private final ValueLoader<Long> sizeLoader;
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  // Everything below is guarded by the lock.
+  private final Map<Path, Integer> directoryIds = new HashMap<>();
+  private final List<Path> directories = new ArrayList<>();
+  private final List<List<Integer>> subdirectories = new ArrayList<>();
+  private int[] entriesPerDirectory = new int[16];
+  private final Map<Path, Map<Path, HashCodeAndFileType>> heapValuesByDirectory = new HashMap<>();
+
+  private ByteBuffer table;
+  private int capacity;
+  private int usedSlots;
+  private int deletedSlots;
+  private ByteBuffer names;
+
+  private OffHeapFileHashCacheEngine(
+      ValueLoader<HashCodeAndFileType> hashLoader, ValueLoader<Long> sizeLoader) {
+    this.hashLoader = hashLoader;
+    this.sizeLoader = sizeLoader;
+    allocate(INITIAL_CAPACITY);
+  }
+
+  @VisibleForTesting
+  static OffHeapFileHashCacheEngine create(
+      ValueLoader<HashCodeAndFileType> hashLoader, ValueLoader<Long> sizeLoader) {
+    return new OffHeapFileHashCacheEngine(hashLoader, sizeLoader);
+  }
+
+  public static FileHashCacheEngine createWithStats(
+      ValueLoader<HashCodeAndFileType> hashLoader, ValueLoader<Long> sizeLoader) {
+    return new StatsTrackingFileHashCacheEngine(create(hashLoader, sizeLoader), "offheap");
+  }
+
+  private void allocate(int newCapacity) {
+    capacity = newCapacity;
+    table = ByteBuffer.allocateDirect(newCapacity * SLOT_BYTES);
+    names = ByteBuffer.allocateDirect(INITIAL_NAMES_BYTES);
+    usedSlots = 0;
+    deletedSlots = 0;
+  }
+
+  @Override
+  public void put(Path path, HashCodeAndFileType value) {
+    path = path.normalize();
+    Key key = new Key(path);
+    Lock writeLock = lock.writeLock();
+    writeLock.lock();
+    try {
+      byte[] hash = value.getHashCode().asBytes();
+      if (value.getType() == HashCodeAndFileType.Type.FILE && hash.length <= MAX_HASH_BYTES) {
+        removeHeapValue(path);
+        int slot = findOrInsertSlot(key);
+        int offset = slot * SLOT_BYTES;
+        table.put(offset + FLAGS, (byte) (table.get(offset + FLAGS) | HAS_HASH));
+        table.put(offset + HASH_LENGTH, (byte) hash.length);
+        for (int i = 0; i < hash.length; i++) {
+          table.put(offset + HASH + i, hash[i]);
+        }
+      } else {
+        clearFlag(key, HAS_HASH);
+        internDirectory(key.directory);
+        heapValuesByDirectory
+            .computeIfAbsent(key.directory, directory -> new HashMap<>())
+            .put(path, value);
+      }
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  @Override
+  public void putSize(Path path, long value) {
+    Key key = new Key(path.normalize());
+    Lock writeLock = lock.writeLock();
+    writeLock.lock();
+    try {
+      int offset = findOrInsertSlot(key) * SLOT_BYTES;
+      table.put(offset + FLAGS, (byte) (table.get(offset + FLAGS) | HAS_SIZE));
+      table.putLong(offset + SIZE, value);
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  @Override
+  public void invalidate(Path path) {
+    path = path.normalize();
+    Lock writeLock = lock.writeLock();
+    writeLock.lock();
+    try {
+      remove(path);
+      removeDescendants(path);
+      for (Path parent = path.getParent(); parent != null; parent = parent.getParent()) {
+        remove(parent);
+      }
+      if (!path.equals(ROOT)) {
+        remove(ROOT);
+      }
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  @Override
+  public void invalidateWithParents(Path path) {
+    invalidate(path);
+  }
+
+  @Override
+  public HashCode get(Path path) throws IOException {
+    return getOrLoad(path.normalize()).getHashCode();
+  }
+
+  @Override
+  public HashCode get(ArchiveMemberPath archiveMemberPath) throws IOException {
+    Path relativeFilePath = archiveMemberPath.getArchivePath().normalize();
+    HashCodeAndFileType fileHashCodeAndFileType = getOrLoad(relativeFilePath);
+    Path memberPath = archiveMemberPath.getMemberPath();
+    HashCodeAndFileType memberHashCodeAndFileType =
+        fileHashCodeAndFileType.getContents().get(memberPath);
+    if (memberHashCodeAndFileType == null) {
+      throw new NoSuchFileException(archiveMemberPath.toString());
+    }
+    return memberHashCodeAndFileType.getHashCode();
+  }
+
+  private HashCodeAndFileType getOrLoad(Path path) {
+    HashCodeAndFileType value = getIfPresent(path);
+    if (value == null) {
+      // Like the other engines, loading is done without holding any locks, as it may call back
+      // into this cache to hash the children of a directory.
+      value = hashLoader.load(path);
+      put(path, value);
+    }
+    return value;
+  }
+
+  @Override
+  @Nullable
+  public HashCodeAndFileType getIfPresent(Path path) {
+    path = path.normalize();
+    Lock readLock = lock.readLock();
+    readLock.lock();
+    try {
+      Map<Path, HashCodeAndFileType> directoryHeapValues =
+          heapValuesByDirectory.get(getParent(path));
+      HashCodeAndFileType value =
+          directoryHeapValues == null ? null : directoryHeapValues.get(path);
+      if (value != null) {
+        return value;
+      }
+      int slot = findSlot(path);
+      if (slot < 0) {
+        return null;
+      }
+      int offset = slot * SLOT_BYTES;
+      if ((table.get(offset + FLAGS) & HAS_HASH) == 0) {
+        return null;
+      }
+      byte[] hash = new byte[table.get(offset + HASH_LENGTH)];
+      for (int i = 0; i < hash.length; i++) {
+        hash[i] = table.get(offset + HASH + i);
+      }
+      return HashCodeAndFileType.ofFile(HashCode.fromBytes(hash));
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  @Nullable
+  public Long getSizeIfPresent(Path path) {
+    path = path.normalize();
+    Lock readLock = lock.readLock();
+    readLock.lock();
+    try {
+      int slot = findSlot(path);
+      if (slot < 0) {
+        return null;
+      }
+      int offset = slot * SLOT_BYTES;
+      if ((table.get(offset + FLAGS) & HAS_SIZE) == 0) {
+        return null;
+      }
+      return table.getLong(offset + SIZE);
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  public long getSize(Path relativePath) throws IOException {
+    Path path = relativePath.normalize();
+    Long size = getSizeIfPresent(path);
+    if (size == null) {
+      size = sizeLoader.load(path);
+      putSize(path, size);
+    }
+    return size;
+  }
+
+  @Override
+  public void invalidateAll() {
+    Lock writeLock = lock.writeLock();
+    writeLock.lock();
+    try {
+      directoryIds.clear();
+      directories.clear();
+      subdirectories.clear();
+      entriesPerDirectory = new int[16];
+      heapValuesByDirectory.clear();
+      allocate(INITIAL_CAPACITY);
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  @Override
+  public ConcurrentMap<Path, HashCodeAndFileType> asMap() {
+    Lock readLock = lock.readLock();
+    readLock.lock();
+    try {
+      ConcurrentMap<Path, HashCodeAndFileType> map = new ConcurrentHashMap<>();
+      for (Map<Path, HashCodeAndFileType> directoryHeapValues : heapValuesByDirectory.values()) {
+        map.putAll(directoryHeapValues);
+      }
+      for (int slot = 0; slot < capacity; slot++) {
+        int offset = slot * SLOT_BYTES;
+        if (table.get(offset + STATE) == FULL && (table.get(offset + FLAGS) & HAS_HASH) != 0) {
+          byte[] hash = new byte[table.get(offset + HASH_LENGTH)];
+          for (int i = 0; i < hash.length; i++) {
+            hash[i] = table.get(offset + HASH + i);
+          }
+          byte[] name = new byte[table.getInt(offset + NAME_LENGTH)];
+          for (int i = 0; i < name.length; i++) {
+            name[i] = names.get(table.getInt(offset + NAME_OFFSET) + i);
+          }
+          Path path =
+              directories
+                  .get(table.getInt(offset + DIRECTORY_ID))
+                  .resolve(new String(name, StandardCharsets.UTF_8));
+          map.put(path, HashCodeAndFileType.ofFile(HashCode.fromBytes(hash)));
+        }
+      }
+      return map;
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  public List<AbstractBuckEvent> getStatsEvents() {
+    return Collections.emptyList();
+  }
+
+  /** @return the number of bytes allocated outside of the heap. */
+  @VisibleForTesting
+  long getOffHeapBytes() {
+    Lock readLock = lock.readLock();
+    readLock.lock();
+    try {
+      return (long) table.capacity() + names.capacity();
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  /** @return the number of values kept on the heap. */
+  @VisibleForTesting
+  int getHeapValueCount() {
+    Lock readLock = lock.readLock();
+    readLock.lock();
+    try {
+      return heapValuesByDirectory.values().stream().mapToInt(Map::size).sum();
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  /** Removes the value and the size of {@code path}. Must hold the write lock. */
+  private void remove(Path path) {
+    removeHeapValue(path);
+    int slot = findSlot(path);
+    if (slot >= 0) {
+      deleteSlot(slot);
+    }
+  }
+
+  /** Must hold the write lock. */
+  private void removeHeapValue(Path path) {
+    Path directory = getParent(path);
+    Map<Path, HashCodeAndFileType> directoryHeapValues = heapValuesByDirectory.get(directory);
+    if (directoryHeapValues != null
+        && directoryHeapValues.remove(path) != null
+        && directoryHeapValues.isEmpty()) {
+      heapValuesByDirectory.remove(directory);
+    }
+  }
+
+  /** Removes everything below {@code directory}. Must hold the write lock. */
+  private void removeDescendants(Path directory) {
+    Integer directoryId = directoryIds.get(directory);
+    if (directoryId == null) {
+      // Interning a directory interns all its ancestors, so there is nothing below it.
+      return;
+    }
+    BitSet removedDirectories = new BitSet();
+    Deque<Integer> toVisit = new ArrayDeque<>();
+    toVisit.push(directoryId);
+    while (!toVisit.isEmpty()) {
+      int id = toVisit.pop();
+      heapValuesByDirectory.remove(directories.get(id));
+      if (entriesPerDirectory[id] > 0) {
+        removedDirectories.set(id);
+      }
+      for (int subdirectoryId : subdirectories.get(id)) {
+        toVisit.push(subdirectoryId);
+      }
+    }
+    if (removedDirectories.isEmpty()) {
+      return;
+    }
+    for (int slot = 0; slot < capacity; slot++) {
+      int offset = slot * SLOT_BYTES;
+      if (table.get(offset + STATE) == FULL
+          && removedDirectories.get(table.getInt(offset + DIRECTORY_ID))) {
+        deleteSlot(slot);
+      }
+    }
+  }
+
+  /** Must hold the write lock. */
+  private void clearFlag(Key key, byte flag) {
+    int slot = findSlot(key);
+    if (slot < 0) {
+      return;
+    }
+    int offset = slot * SLOT_BYTES;
+    byte flags = (byte) (table.get(offset + FLAGS) & ~flag);
+    if (flags == 0) {
+      deleteSlot(slot);
+    } else {
+      table.put(offset + FLAGS, flags);
+    }
+  }
+
+  private void deleteSlot(int slot) {
+    int offset = slot * SLOT_BYTES;
+    table.put(offset + STATE, DELETED);
+    entriesPerDirectory[table.getInt(offset + DIRECTORY_ID)]--;
+    usedSlots--;
+    deletedSlots++;
+  }
+
+  /** Must hold the read or the write lock. */
+  private int findSlot(Path path) {
+    return findSlot(new Key(path));
+  }
+
+  private int findSlot(Key key) {
+    if (key.directoryId < 0) {
+      Integer directoryId = directoryIds.get(key.directory);
+      if (directoryId == null) {
+        return -1;
+      }
+      key.directoryId = directoryId;
+    }
+    int mask = capacity - 1;
+    for (int slot = key.hash & mask; ; slot = (slot + 1) & mask) {
+      byte state = table.get(slot * SLOT_BYTES + STATE);
+      if (state == EMPTY) {
+        return -1;
+      }
+      if (state == FULL && matches(slot, key)) {
+        return slot;
+      }
+    }
+  }
+
+  /** Must hold the write lock. */
+  private int findOrInsertSlot(Key key) {
+    key.directoryId = internDirectory(key.directory);
+    int existing = findSlot(key);
+    if (existing >= 0) {
+      return existing;
+    }
+    if ((usedSlots + deletedSlots + 1) * 10L > capacity * 7L) {
+      rehash();
+    }
+    int mask = capacity - 1;
+    int slot = key.hash & mask;
+    while (table.get(slot * SLOT_BYTES + STATE) == FULL) {
+      slot = (slot + 1) & mask;
+    }
+    if (table.get(slot * SLOT_BYTES + STATE) == DELETED) {
+      deletedSlots--;
+    }
+    int nameOffset = appendName(key.name);
+    writeSlot(table, slot * SLOT_BYTES, key.directoryId, key.hash, nameOffset, key.name.length);
+    entriesPerDirectory[key.directoryId]++;
+    usedSlots++;
+    return slot;
+  }
+
+  private static void writeSlot(
+      ByteBuffer table,
+      int offset,
+      int directoryId,
+      int keyHash,
+      int nameOffset,
+      int nameLength) {
+    table.put(offset + STATE, FULL);
+    table.put(offset + FLAGS, (byte) 0);
+    table.putInt(offset + DIRECTORY_ID, directoryId);
+    table.putInt(offset + KEY_HASH, keyHash);
+    table.putInt(offset + NAME_OFFSET, nameOffset);
+    table.putInt(offset + NAME_LENGTH, nameLength);
+  }
+
+  private boolean matches(int slot, Key key) {
+    int offset = slot * SLOT_BYTES;
+    if (table.getInt(offset + KEY_HASH) != key.hash
+        || table.getInt(offset + DIRECTORY_ID) != key.directoryId
+        || table.getInt(offset + NAME_LENGTH) != key.name.length) {
+      return false;
+    }
+    int nameOffset = table.getInt(offset + NAME_OFFSET);
+    for (int i = 0; i < key.name.length; i++) {
+      if (names.get(nameOffset + i) != key.name[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int appendName(byte[] name) {
+    if (names.remaining() < name.length) {
+      long needed = (long) names.position() + name.length;
+      long newCapacity = Math.max(needed, (long) names.capacity() * 2);
+      if (newCapacity > Integer.MAX_VALUE) {
+        throw new IllegalStateException("Too many paths for the off heap file hash cache.");
+      }
+      ByteBuffer newNames = ByteBuffer.allocateDirect((int) newCapacity);
+      names.flip();
+      newNames.put(names);
+      names = newNames;
+    }
+    int offset = names.position();
+    names.put(name);
+    return offset;
+  }
+
+  /**
+   * Copies the live entries into a new table, growing it if it is more than half full. This also
+   * drops the names and tombstones of removed entries.
+   */
+  private void rehash() {
+    int newCapacity = usedSlots * 2L >= capacity ? capacity * 2 : capacity;
+    if (newCapacity > MAX_CAPACITY) {
+      throw new IllegalStateException("Too many paths for the off heap file hash cache.");
+    }
+    ByteBuffer oldTable = table;
+    ByteBuffer oldNames = names;
+    int oldCapacity = capacity;
+    table = ByteBuffer.allocateDirect(newCapacity * SLOT_BYTES);
+    names = ByteBuffer.allocateDirect(Math.max(INITIAL_NAMES_BYTES, oldNames.position()));
+    capacity = newCapacity;
+    deletedSlots = 0;
+
+    int mask = newCapacity - 1;
+    for (int oldSlot = 0; oldSlot < oldCapacity; oldSlot++) {
+      int oldOffset = oldSlot * SLOT_BYTES;
+      if (oldTable.get(oldOffset + STATE) != FULL) {
+        continue;
+      }
+      int keyHash = oldTable.getInt(oldOffset + KEY_HASH);
+      int slot = keyHash & mask;
+      while (table.get(slot * SLOT_BYTES + STATE) == FULL) {
+        slot = (slot + 1) & mask;
+      }
+      byte[] name = new byte[oldTable.getInt(oldOffset + NAME_LENGTH)];
+      for (int i = 0; i < name.length; i++) {
+        name[i] = oldNames.get(oldTable.getInt(oldOffset + NAME_OFFSET) + i);
+      }
+      int offset = slot * SLOT_BYTES;
+      for (int i = 0; i < SLOT_BYTES; i++) {
+        table.put(offset + i, oldTable.get(oldOffset + i));
+      }
+      table.putInt(offset + NAME_OFFSET, appendName(name));
+    }
+  }
+
+  /**
+   * Interns {@code directory} and its ancestors, so that a path is an interned directory iff there
+   * may be entries below it.
+   */
+  private int internDirectory(Path directory) {
+    Integer id = directoryIds.get(directory);
+    if (id == null) {
+      int parentId = directory.equals(ROOT) ? -1 : internDirectory(getParent(directory));
+      id = directories.size();
+      directories.add(directory);
+      subdirectories.add(new ArrayList<>(0));
+      directoryIds.put(directory, id);
+      if (parentId >= 0) {
+        subdirectories.get(parentId).add(id);
+      }
+      if (id == entriesPerDirectory.length) {
+        entriesPerDirectory = Arrays.copyOf(entriesPerDirectory, id * 2);
+      }
+    }
+    return id;
+  }
+
+  private static Path getParent(Path path) {
+    Path parent = path.getParent();
+    return parent == null ? ROOT : parent;
+  }
+
+  /** The key of a path in the table. Its directory id is only known once it is interned. */
+  private static final class Key {
+    private final Path directory;
+    private final byte[] name;
+    private final int hash;
+    private int directoryId = -1;
+
+    private Key(Path path) {
+      this.directory = getParent(path);
+      Path fileName = path.getFileName();
+      this.name =
+          (fileName == null ? "" : fileName.toString()).getBytes(StandardCharsets.UTF_8);
+      // The directory is hashed by path rather than by id so that the hash is known before the
+      // directory is interned.
+      this.hash = mix(directory.hashCode() * 31 + Arrays.hashCode(name));
+    }
+
+    private static int mix(int hash) {
+      // Spread the bits, as the table is indexed with the low bits of the hash.
+      hash ^= hash >>> 16;
+      hash *= 0x85ebca6b;
+      hash ^= hash >>> 13;
+      return hash;
+    }
+  }
+}
@@ -76,6 +76,10 @@ public class CustomJarOutputStream extends CustomZipOutputStream {
 
     @Override
     public void actuallyPutNextEntry(ZipEntry entry) throws IOException {
+      if (shouldHashEntries && entry instanceof RawZipEntry) {
+        throw new IllegalStateException(
+            "Attempted to write a raw entry with hashing enabled: " + entry.getName());
+      }
       inner.actuallyPutNextEntry(entry);
 
       currentEntry = entry;
@@ -77,6 +77,24 @@ public class CustomZipOutputStream extends OutputStream {
     entryOpen = true;
   }
 
+  /**
+   * Puts an entry whose data is already compressed with the method of the entry, such as an entry
+   * copied from another zip, so that the data written for it goes to the zip as it is. The CRC,
+   * size and compressed size of the entry must be known, and exactly the compressed size of bytes
+   * must be written.
+   */
+  public final void putNextRawEntry(ZipEntry entry) throws IOException {
+    Preconditions.checkArgument(
+        entry.getMethod() == ZipEntry.STORED || entry.getMethod() == ZipEntry.DEFLATED,
+        "Raw entries must be STORED or DEFLATED: %s",
+        entry.getName());
+    Preconditions.checkArgument(
+        entry.getCrc() != -1 && entry.getSize() != -1 && entry.getCompressedSize() != -1,
+        "Raw entries must have a CRC, size and compressed size: %s",
+        entry.getName());
+    putNextEntry(new RawZipEntry(entry));
+  }
+
   private void validateEntry(ZipEntry entry) {
     if (entry.getMethod() == ZipEntry.STORED) {
       Preconditions.checkState(
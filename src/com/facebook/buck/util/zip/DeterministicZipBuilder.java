@@ -22,15 +22,29 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Optional;
+import java.util.concurrent.Executor;
 import java.util.zip.CRC32;
 
 public class DeterministicZipBuilder implements Closeable {
   // TODO(cjhopman): Should this buffer the entries and then sort them by name? We may have to
   // buffer them on disk to keep memory use sensible.
   private final CustomZipOutputStream output;
+  private final Optional<ParallelZipEntryCompressor> compressor;
 
   public DeterministicZipBuilder(Path path) throws IOException {
+    this(path, Optional.empty());
+  }
+
+  /**
+   * @param compressionExecutor if present, the entries are compressed on it, and written in the
+   *     order they were added once they are.
+   */
+  public DeterministicZipBuilder(Path path, Optional<? extends Executor> compressionExecutor)
+      throws IOException {
     this.output = ZipOutputStreams.newOutputStream(path);
+    this.compressor =
+        compressionExecutor.map(executor -> new ParallelZipEntryCompressor(output, executor));
   }
 
   public void addEntry(
@@ -48,6 +62,10 @@ public class DeterministicZipBuilder implements Closeable {
       outputEntry.setCompressedSize(dataLength);
     }
     outputEntry.setSize(dataLength);
+    if (compressor.isPresent()) {
+      compressor.get().addEntry(outputEntry, dataLength, data);
+      return;
+    }
     output.putNextEntry(outputEntry);
     ByteStreams.copy(data, output);
     output.closeEntry();
@@ -63,6 +81,10 @@ public class DeterministicZipBuilder implements Closeable {
       outputEntry.setCompressedSize(data.length);
     }
     outputEntry.setSize(data.length);
+    if (compressor.isPresent()) {
+      compressor.get().addEntry(outputEntry, data);
+      return;
+    }
     output.putNextEntry(outputEntry);
     output.write(data);
     output.closeEntry();
@@ -70,6 +92,12 @@ public class DeterministicZipBuilder implements Closeable {
 
   @Override
   public void close() throws IOException {
-    output.close();
+    try {
+      if (compressor.isPresent()) {
+        compressor.get().finish();
+      }
+    } finally {
+      output.close();
+    }
   }
 }
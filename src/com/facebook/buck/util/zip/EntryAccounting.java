@@ -53,6 +53,7 @@ class EntryAccounting {
 
   private final ZipEntry entry;
   private final Method method;
+  private final boolean raw;
   private Hasher crc = Hashing.crc32().newHasher();
   private long offset;
   private long length = 0;
@@ -75,6 +76,7 @@ class EntryAccounting {
   public EntryAccounting(Clock clock, ZipEntry entry, long currentOffset) {
     this.entry = entry;
     this.method = Method.detect(entry.getMethod());
+    this.raw = entry instanceof RawZipEntry;
     this.offset = currentOffset;
 
     if (entry.getTime() == -1) {
@@ -202,7 +204,7 @@ class EntryAccounting {
         ByteIo.writeInt(stream, 0);
       } else {
         ByteIo.writeInt(stream, entry.getCrc());
-        ByteIo.writeInt(stream, entry.getSize());
+        ByteIo.writeInt(stream, entry.getCompressedSize());
         ByteIo.writeInt(stream, entry.getSize());
       }
 
@@ -243,6 +245,12 @@ class EntryAccounting {
     if (len == 0) {
       return;
     }
+    if (raw) {
+      // The data is compressed already, and its CRC is that of the uncompressed data.
+      out.write(b, off, len);
+      length += len;
+      return;
+    }
     updateCrc(b, off, len);
 
     if (method == Method.STORE) {
@@ -262,7 +270,11 @@ class EntryAccounting {
    * local file header, but counting the data descriptor if present). Must be called exactly once.
    */
   public long finish(OutputStream out) throws IOException {
-    if (method == Method.STORE) {
+    if (raw) {
+      Preconditions.checkState(
+          entry.getCompressedSize() == length,
+          "Number of bytes written differs from what is specified in the entry.");
+    } else if (method == Method.STORE) {
       Preconditions.checkState(
           entry.getSize() == length && entry.getCompressedSize() == length,
           "Number of bytes written differs from what is specified in the entry.");
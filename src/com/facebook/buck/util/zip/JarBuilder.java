@@ -269,6 +269,21 @@ public class JarBuilder {
       return;
     }
 
+    // Entries of other zips are copied without inflating and deflating them again, unless they are
+    // hashed, which needs their uncompressed contents.
+    if (!shouldHashEntries && entrySupplier.hasCompressedData()) {
+      CustomZipEntry rawEntry = new CustomZipEntry(entry);
+      rawEntry.setExternalAttributes(entry.getExternalAttributes());
+      rawEntry.setCompressedSize(entrySupplier.getCompressedSize());
+      jar.putNextRawEntry(rawEntry);
+      try (InputStream compressedInputStream =
+          Preconditions.checkNotNull(entrySupplier.getCompressedInputStreamSupplier()).get()) {
+        ByteStreams.copy(compressedInputStream, jar);
+      }
+      jar.closeEntry();
+      return;
+    }
+
     jar.putNextEntry(entry);
     try (InputStream entryInputStream = entrySupplier.getInputStreamSupplier().get()) {
       if (entryInputStream != null) {
@@ -19,6 +19,7 @@ package com.facebook.buck.util.zip;
 import com.facebook.buck.util.function.ThrowingSupplier;
 import java.io.IOException;
 import java.io.InputStream;
+import javax.annotation.Nullable;
 
 /**
  * Encapsulates a file or directory to be added as a single entry to a jar by {@link JarBuilder}.
@@ -27,14 +28,33 @@ public class JarEntrySupplier {
   private final CustomZipEntry entry;
   private final String owner;
   private final ThrowingSupplier<InputStream, IOException> inputStreamSupplier;
+  private final long compressedSize;
+  @Nullable private final ThrowingSupplier<InputStream, IOException> compressedInputStreamSupplier;
 
   public JarEntrySupplier(
       CustomZipEntry entry,
       String owner,
       ThrowingSupplier<InputStream, IOException> inputStreamSupplier) {
+    this(entry, owner, inputStreamSupplier, -1, null);
+  }
+
+  /**
+   * @param compressedSize the size of the data the {@code compressedInputStreamSupplier} supplies.
+   * @param compressedInputStreamSupplier supplies the data of an entry which is already compressed
+   *     with the method, and has the CRC and size, of {@code entry}, so that it can be copied to
+   *     another zip as it is.
+   */
+  public JarEntrySupplier(
+      CustomZipEntry entry,
+      String owner,
+      ThrowingSupplier<InputStream, IOException> inputStreamSupplier,
+      long compressedSize,
+      @Nullable ThrowingSupplier<InputStream, IOException> compressedInputStreamSupplier) {
     this.entry = entry;
     this.owner = owner;
     this.inputStreamSupplier = inputStreamSupplier;
+    this.compressedSize = compressedSize;
+    this.compressedInputStreamSupplier = compressedInputStreamSupplier;
   }
 
   public CustomZipEntry getEntry() {
@@ -48,4 +68,18 @@ public class JarEntrySupplier {
   public ThrowingSupplier<InputStream, IOException> getInputStreamSupplier() {
     return inputStreamSupplier;
   }
+
+  /** @return whether the compressed data of the entry can be copied without inflating it. */
+  public boolean hasCompressedData() {
+    return compressedInputStreamSupplier != null;
+  }
+
+  public long getCompressedSize() {
+    return compressedSize;
+  }
+
+  @Nullable
+  public ThrowingSupplier<InputStream, IOException> getCompressedInputStreamSupplier() {
+    return compressedInputStreamSupplier;
+  }
 }
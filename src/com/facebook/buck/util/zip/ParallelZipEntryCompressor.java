@@ -0,0 +1,220 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.zip;
+
+import com.facebook.buck.util.function.ThrowingSupplier;
+import com.google.common.base.Throwables;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Compresses entries on an {@link Executor} and writes them to a {@link CustomZipOutputStream} in
+ * the order they were added. Deflated entries are written with {@link
+ * CustomZipOutputStream#putNextRawEntry(ZipEntry)}, which gives exactly the bytes the stream would
+ * have written had it compressed them itself.
+ *
+ * <p>Entries are kept in memory until they are written, so only so many bytes of them are added
+ * ahead of the entry being written. The entry being written is compressed by the writing thread if
+ * no thread of the executor started on it yet, so that a busy executor only slows things down.
+ * Entries larger than that bound are never read into memory: the writing thread streams them with
+ * {@link CustomZipOutputStream#putNextEntry(ZipEntry)}, once the entries added before them are
+ * written.
+ */
+public class ParallelZipEntryCompressor {
+  private static final long DEFAULT_MAX_PENDING_BYTES = 64L * 1024 * 1024;
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final CustomZipOutputStream output;
+  private final Executor executor;
+  private final long maxPendingBytes;
+  private final Deque<PendingEntry> pendingEntries = new ArrayDeque<>();
+  private long pendingBytes = 0;
+
+  public ParallelZipEntryCompressor(CustomZipOutputStream output, Executor executor) {
+    this(output, executor, DEFAULT_MAX_PENDING_BYTES);
+  }
+
+  public ParallelZipEntryCompressor(
+      CustomZipOutputStream output, Executor executor, long maxPendingBytes) {
+    this.output = output;
+    this.executor = executor;
+    this.maxPendingBytes = maxPendingBytes;
+  }
+
+  /**
+   * Adds an entry whose data is read on the executor as well, unless it is too large to be kept in
+   * memory.
+   *
+   * @param size how many bytes the stream will supply, which is used to bound memory use.
+   */
+  public void addEntry(
+      CustomZipEntry entry, long size, ThrowingSupplier<InputStream, IOException> inputSupplier)
+      throws IOException {
+    if (size > maxPendingBytes) {
+      try (InputStream input = inputSupplier.throwingGet()) {
+        writeStreamedEntry(entry, input);
+      }
+      return;
+    }
+    addPendingEntry(
+        entry,
+        size,
+        () -> {
+          try (InputStream input = inputSupplier.throwingGet()) {
+            return ByteStreams.toByteArray(input);
+          }
+        });
+  }
+
+  /**
+   * Adds an entry whose data is read by the calling thread, into memory unless it is too large to
+   * be kept there.
+   *
+   * @param size how many bytes the stream will supply, which is used to bound memory use.
+   */
+  public void addEntry(CustomZipEntry entry, long size, InputStream input) throws IOException {
+    if (size > maxPendingBytes) {
+      writeStreamedEntry(entry, input);
+    } else {
+      addEntry(entry, ByteStreams.toByteArray(input));
+    }
+  }
+
+  public void addEntry(CustomZipEntry entry, byte[] data) throws IOException {
+    addPendingEntry(entry, data.length, () -> data);
+  }
+
+  private void addPendingEntry(
+      CustomZipEntry entry, long size, ThrowingSupplier<byte[], IOException> dataSupplier)
+      throws IOException {
+    PendingEntry pendingEntry = new PendingEntry(entry, size, dataSupplier);
+    pendingEntries.addLast(pendingEntry);
+    pendingBytes += size;
+    if (entry.getMethod() == ZipEntry.DEFLATED) {
+      executor.execute(pendingEntry::compress);
+    }
+    while (pendingBytes > maxPendingBytes && !pendingEntries.isEmpty()) {
+      writeNextEntry();
+    }
+  }
+
+  private void writeStreamedEntry(CustomZipEntry entry, InputStream input) throws IOException {
+    finish();
+    output.putNextEntry(entry);
+    ByteStreams.copy(input, output);
+    output.closeEntry();
+  }
+
+  /** Writes all the entries which were added and not written yet. */
+  public void finish() throws IOException {
+    while (!pendingEntries.isEmpty()) {
+      writeNextEntry();
+    }
+  }
+
+  private void writeNextEntry() throws IOException {
+    PendingEntry pendingEntry = pendingEntries.removeFirst();
+    pendingBytes -= pendingEntry.size;
+    pendingEntry.compress();
+    byte[] data;
+    try {
+      data = Uninterruptibles.getUninterruptibly(pendingEntry.result);
+    } catch (ExecutionException e) {
+      Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new RuntimeException(e.getCause());
+    }
+
+    if (pendingEntry.entry.getMethod() == ZipEntry.DEFLATED) {
+      output.putNextRawEntry(pendingEntry.entry);
+    } else {
+      output.putNextEntry(pendingEntry.entry);
+    }
+    output.write(data);
+    output.closeEntry();
+  }
+
+  /** An entry, and its data once it has been read and, if need be, compressed. */
+  private static class PendingEntry {
+    private final CustomZipEntry entry;
+    private final long size;
+    private final ThrowingSupplier<byte[], IOException> dataSupplier;
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final SettableFuture<byte[]> result = SettableFuture.create();
+
+    private PendingEntry(
+        CustomZipEntry entry, long size, ThrowingSupplier<byte[], IOException> dataSupplier) {
+      this.entry = entry;
+      this.size = size;
+      this.dataSupplier = dataSupplier;
+    }
+
+    /** Reads and compresses the data, unless another thread did already. */
+    private void compress() {
+      if (!started.compareAndSet(false, true)) {
+        return;
+      }
+      try {
+        byte[] data = dataSupplier.throwingGet();
+        result.set(entry.getMethod() == ZipEntry.DEFLATED ? deflate(data) : data);
+      } catch (Throwable t) {
+        result.setException(t);
+      }
+    }
+
+    /**
+     * Deflates the data like {@link EntryAccounting} does, and records the CRC and sizes of the
+     * entry, which the data descriptor written after the entry needs.
+     */
+    private byte[] deflate(byte[] data) {
+      Deflater deflater = new Deflater(entry.getCompressionLevel(), true);
+      try (ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 2 + 64)) {
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        while (!deflater.finished()) {
+          int written = deflater.deflate(buffer);
+          compressed.write(buffer, 0, written);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        entry.setCrc(crc.getValue());
+        entry.setSize(data.length);
+        entry.setCompressedSize(compressed.size());
+        return compressed.toByteArray();
+      } catch (IOException e) {
+        // ByteArrayOutputStream does not throw.
+        throw new IllegalStateException(e);
+      } finally {
+        deflater.end();
+      }
+    }
+  }
+}
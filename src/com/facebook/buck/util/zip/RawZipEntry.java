@@ -0,0 +1,44 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.zip;
+
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * An entry whose data is written to the zip as it is, already compressed with its method, as put
+ * by {@link CustomZipOutputStream#putNextRawEntry(ZipEntry)}. Its headers are written like those of
+ * an entry compressed by the stream itself, so that both give the same bytes.
+ */
+class RawZipEntry extends CustomZipEntry {
+
+  RawZipEntry(ZipEntry other) {
+    super(other);
+    if (other instanceof CustomZipEntry) {
+      CustomZipEntry customEntry = (CustomZipEntry) other;
+      if (customEntry.getCompressionLevel() != Deflater.DEFAULT_COMPRESSION) {
+        // The level is only recorded in the flags of the entry, but setting it resets the rest.
+        setCompressionLevel(customEntry.getCompressionLevel());
+        setMethod(other.getMethod());
+        setCrc(other.getCrc());
+        setSize(other.getSize());
+        setCompressedSize(other.getCompressedSize());
+      }
+      setExternalAttributes(customEntry.getExternalAttributes());
+    }
+  }
+}
@@ -27,6 +27,7 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.io.ByteStreams;
 import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -36,14 +37,17 @@ import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.PosixFilePermission;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.zip.ZipError;
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
 import org.apache.commons.compress.archivers.zip.ZipFile;
 
 public class Unzip {
@@ -150,10 +154,15 @@ public class Unzip {
     // POSIX permissions. If we find it was executable, use the platform independent java
     // interface to make this unpacked file executable.
 
+    makeExecutableIfNeeded(entry, filePath);
+  }
+
+  private static void makeExecutableIfNeeded(ZipArchiveEntry entry, Path filePath)
+      throws IOException {
     Set<PosixFilePermission> permissions =
         MorePosixFilePermissions.fromMode(entry.getExternalAttributes() >> 16);
     if (permissions.contains(PosixFilePermission.OWNER_EXECUTE)
-        && file.getCanonicalFile().exists()) {
+        && filePath.toFile().getCanonicalFile().exists()) {
       MoreFiles.makeExecutable(filePath);
     }
   }
@@ -239,6 +248,136 @@ public class Unzip {
     return filesWritten.build();
   }
 
+  /**
+   * Unzips an archive into {@code stagingDirectory} as it is read from {@code zipStream}, e.g.
+   * while it is still being downloaded, and returns the paths of the written files relative to
+   * {@code stagingDirectory}.
+   *
+   * <p>Only the local headers of the entries are available at this point, so symlinks are written
+   * as regular files and executable bits are not set. Once the whole archive has been written to
+   * disk and verified, {@link #finishStreamedExtraction} fixes those up from its central directory
+   * and moves the files to their final location. Reading stops at the central directory, the
+   * remaining bytes of {@code zipStream} are not read, and {@code zipStream} is not closed.
+   */
+  public static ImmutableSet<Path> extractZipStream(
+      InputStream zipStream, ProjectFilesystem filesystem, Path stagingDirectory)
+      throws IOException {
+    ImmutableSet.Builder<Path> filesWritten = ImmutableSet.builder();
+    InputStream unclosableStream =
+        new FilterInputStream(zipStream) {
+          @Override
+          public void close() {
+            // The caller owns the stream.
+          }
+        };
+    try (ZipArchiveInputStream zip =
+        new ZipArchiveInputStream(
+            unclosableStream,
+            Charsets.UTF_8.name(),
+            /* useUnicodeExtraFields */ true,
+            /* allowStoredEntriesWithDataDescriptor */ true)) {
+      for (ZipArchiveEntry entry = zip.getNextZipEntry();
+          entry != null;
+          entry = zip.getNextZipEntry()) {
+        Path path = filesystem.getPath(entry.getName()).normalize();
+        Path target = stagingDirectory.resolve(path);
+        if (entry.isDirectory()) {
+          filesystem.mkdirs(target);
+          continue;
+        }
+        filesystem.createParentDirs(target);
+        try (OutputStream out = filesystem.newFileOutputStream(target)) {
+          ByteStreams.copy(zip, out);
+        }
+        filesystem.resolve(target).toFile().setLastModified(entry.getTime());
+        filesWritten.add(path);
+      }
+    }
+    return filesWritten.build();
+  }
+
+  /**
+   * @return whether the central directory of {@code zipFile} lists exactly the files in {@code
+   *     extractedFiles}, as returned by {@link #extractZipStream}. If not, the streamed extraction
+   *     cannot be finished and the archive should be extracted again with {@link #extractZipFile}.
+   */
+  public static boolean listsExactly(
+      Path zipFile, ProjectFilesystem filesystem, ImmutableSet<Path> extractedFiles)
+      throws IOException {
+    Set<Path> listedFiles = new HashSet<>();
+    try (ZipFile zip = new ZipFile(zipFile.toFile())) {
+      for (ZipArchiveEntry entry : Collections.list(zip.getEntries())) {
+        if (!entry.isDirectory()) {
+          listedFiles.add(filesystem.getPath(entry.getName()).normalize());
+        }
+      }
+    }
+    return listedFiles.equals(extractedFiles);
+  }
+
+  /**
+   * Completes an extraction done by {@link #extractZipStream} into {@code stagingDirectory}, using
+   * the central directory of the same archive, which has been fully written to {@code zipFile}
+   * since: the files are moved to the root of {@code filesystem}, symlinks and executable bits are
+   * restored and, depending on {@code existingFileMode}, stale contents of the archive's
+   * directories are removed. Callers must check {@link #listsExactly} first.
+   */
+  public static void finishStreamedExtraction(
+      Path zipFile,
+      ProjectFilesystem filesystem,
+      Path stagingDirectory,
+      ExistingFileMode existingFileMode)
+      throws IOException {
+    try (ZipFile zip = new ZipFile(zipFile.toFile())) {
+      SortedMap<Path, ZipArchiveEntry> pathMap = new TreeMap<>();
+      for (ZipArchiveEntry entry : Collections.list(zip.getEntries())) {
+        pathMap.put(filesystem.getPath(entry.getName()).normalize(), entry);
+      }
+      for (SortedMap.Entry<Path, ZipArchiveEntry> p : new ArrayList<>(pathMap.entrySet())) {
+        if (!isTopLevel(p.getKey(), pathMap)) {
+          fillIntermediatePaths(p.getKey(), pathMap);
+        }
+      }
+      for (SortedMap.Entry<Path, ZipArchiveEntry> p : pathMap.entrySet()) {
+        Path target = p.getKey();
+        ZipArchiveEntry entry = p.getValue();
+        if (entry.isDirectory()) {
+          if (filesystem.isDirectory(target, LinkOption.NOFOLLOW_LINKS)) {
+            if (existingFileMode == ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES) {
+              for (Path path : filesystem.getDirectoryContents(target)) {
+                if (!pathMap.containsKey(path)) {
+                  filesystem.deleteRecursivelyIfExists(path);
+                }
+              }
+            }
+          } else {
+            if (filesystem.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+              filesystem.deleteFileAtPath(target);
+            }
+            filesystem.mkdirs(target);
+          }
+          continue;
+        }
+        if (!filesystem.isFile(target, LinkOption.NOFOLLOW_LINKS)
+            && filesystem.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+          filesystem.deleteRecursivelyIfExists(target);
+        }
+        filesystem.createParentDirs(target);
+        Path staged = stagingDirectory.resolve(target);
+        if (entry.isUnixSymlink()) {
+          String linkTarget;
+          try (InputStream is = filesystem.newFileInputStream(staged)) {
+            linkTarget = new String(ByteStreams.toByteArray(is), Charsets.UTF_8);
+          }
+          filesystem.createSymLink(target, filesystem.getPath(linkTarget), /* force */ true);
+        } else {
+          filesystem.move(staged, target, StandardCopyOption.REPLACE_EXISTING);
+          makeExecutableIfNeeded(entry, filesystem.resolve(target));
+        }
+      }
+    }
+  }
+
   public static ImmutableList<Path> extractZipFile(
       Path zipFile, ProjectFilesystem filesystem, ExistingFileMode existingFileMode)
       throws IOException {
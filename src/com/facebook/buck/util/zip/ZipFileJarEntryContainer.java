@@ -16,20 +16,42 @@
 
 package com.facebook.buck.util.zip;
 
+import com.facebook.buck.util.function.ThrowingSupplier;
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 import javax.annotation.Nullable;
 
-/** Provides all entries of a given zip or jar file, so they can be added to another jar. */
+/**
+ * Provides all entries of a given zip or jar file, so they can be added to another jar. The
+ * compressed data of the entries is provided too, so that they can be copied without being
+ * inflated and deflated again.
+ */
 class ZipFileJarEntryContainer implements JarEntryContainer {
+  private static final long NO_OFFSET = -1;
+  private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+  private static final int ENCRYPTED_FLAG = 1;
+
   private final String owner;
   private final Path jarFilePath;
   @Nullable private JarFile jar;
+  @Nullable private FileChannel channel;
+  @Nullable private Map<String, Long> localHeaderOffsets;
 
   public ZipFileJarEntryContainer(Path jarFilePath) {
     this.jarFilePath = jarFilePath;
@@ -44,17 +66,38 @@ class ZipFileJarEntryContainer implements JarEntryContainer {
 
   @Override
   public Stream<JarEntrySupplier> stream() throws IOException {
+    Map<String, Long> offsets = getLocalHeaderOffsets();
     return getJarFile()
         .stream()
         .map(
-            entry ->
-                new JarEntrySupplier(
-                    makeCustomEntry(entry), owner, () -> getJarFile().getInputStream(entry)));
+            entry -> {
+              long offset = offsets.getOrDefault(entry.getName(), NO_OFFSET);
+              boolean canCopyCompressedData =
+                  offset != NO_OFFSET
+                      && entry.getCompressedSize() >= 0
+                      && entry.getSize() >= 0
+                      && (entry.getMethod() == ZipEntry.DEFLATED
+                          || entry.getMethod() == ZipEntry.STORED);
+              return new JarEntrySupplier(
+                  makeCustomEntry(entry),
+                  owner,
+                  () -> getJarFile().getInputStream(entry),
+                  entry.getCompressedSize(),
+                  canCopyCompressedData
+                      ? compressedDataSupplier(offset, entry.getCompressedSize())
+                      : null);
+            });
   }
 
   @Override
   public void close() throws IOException {
-    getJarFile().close();
+    try {
+      if (channel != null) {
+        channel.close();
+      }
+    } finally {
+      getJarFile().close();
+    }
   }
 
   private JarFile getJarFile() throws IOException {
@@ -70,6 +113,130 @@ class ZipFileJarEntryContainer implements JarEntryContainer {
     return jar;
   }
 
+  private FileChannel getChannel() throws IOException {
+    if (channel == null) {
+      channel = FileChannel.open(jarFilePath, StandardOpenOption.READ);
+    }
+    return channel;
+  }
+
+  /**
+   * Reads where the local header of each entry starts from the central directory, which {@link
+   * JarFile} does not tell. Entries whose name appears more than once, encrypted entries, and the
+   * entries of zip64 files are left out, so that they are inflated and deflated as usual.
+   */
+  private Map<String, Long> getLocalHeaderOffsets() throws IOException {
+    if (localHeaderOffsets != null) {
+      return localHeaderOffsets;
+    }
+    localHeaderOffsets = new HashMap<>();
+    FileChannel channel = getChannel();
+
+    // The end of central directory record is followed by a comment of at most 64KB.
+    long tailStart = Math.max(0, channel.size() - ZipEntry.ENDHDR - 0xFFFF);
+    ByteBuffer tail = read(channel, tailStart, (int) (channel.size() - tailStart));
+    int eocdOffset = tail.limit() - ZipEntry.ENDHDR;
+    while (eocdOffset >= 0 && tail.getInt(eocdOffset) != ZipEntry.ENDSIG) {
+      eocdOffset--;
+    }
+    if (eocdOffset < 0) {
+      return localHeaderOffsets;
+    }
+    long cdSize = tail.getInt(eocdOffset + ZipEntry.ENDSIZ) & ZIP64_MAGIC;
+    long cdOffset = tail.getInt(eocdOffset + ZipEntry.ENDOFF) & ZIP64_MAGIC;
+    if (cdSize == ZIP64_MAGIC || cdOffset == ZIP64_MAGIC) {
+      return localHeaderOffsets;
+    }
+
+    ByteBuffer cd = read(channel, cdOffset, (int) cdSize);
+    int position = 0;
+    while (position + ZipEntry.CENHDR <= cd.limit()
+        && cd.getInt(position) == ZipEntry.CENSIG) {
+      int flags = cd.getShort(position + ZipEntry.CENFLG) & 0xFFFF;
+      long compressedSize = cd.getInt(position + ZipEntry.CENSIZ) & ZIP64_MAGIC;
+      long size = cd.getInt(position + ZipEntry.CENLEN) & ZIP64_MAGIC;
+      long offset = cd.getInt(position + ZipEntry.CENOFF) & ZIP64_MAGIC;
+      int nameLength = cd.getShort(position + ZipEntry.CENNAM) & 0xFFFF;
+      int extraLength = cd.getShort(position + ZipEntry.CENEXT) & 0xFFFF;
+      int commentLength = cd.getShort(position + ZipEntry.CENCOM) & 0xFFFF;
+
+      byte[] nameBytes = new byte[nameLength];
+      ByteBuffer nameBuffer = cd.duplicate();
+      nameBuffer.position(position + ZipEntry.CENHDR);
+      nameBuffer.get(nameBytes);
+      // JarFile reads all names as UTF-8, whether the entry is flagged as such or not.
+      String name = new String(nameBytes, Charsets.UTF_8);
+
+      boolean canCopy =
+          (flags & ENCRYPTED_FLAG) == 0
+              && compressedSize != ZIP64_MAGIC
+              && size != ZIP64_MAGIC
+              && offset != ZIP64_MAGIC;
+      Long previous = localHeaderOffsets.put(name, canCopy ? offset : NO_OFFSET);
+      if (previous != null) {
+        localHeaderOffsets.put(name, NO_OFFSET);
+      }
+      position += ZipEntry.CENHDR + nameLength + extraLength + commentLength;
+    }
+    return localHeaderOffsets;
+  }
+
+  private ThrowingSupplier<InputStream, IOException> compressedDataSupplier(
+      long localHeaderOffset, long compressedSize) {
+    return () -> {
+      FileChannel channel = getChannel();
+      ByteBuffer header = read(channel, localHeaderOffset, ZipEntry.LOCHDR);
+      if (header.getInt(0) != ZipEntry.LOCSIG) {
+        throw new ZipException(
+            String.format("Expected a local header at %d in %s", localHeaderOffset, owner));
+      }
+      long dataOffset =
+          localHeaderOffset
+              + ZipEntry.LOCHDR
+              + (header.getShort(ZipEntry.LOCNAM) & 0xFFFF)
+              + (header.getShort(ZipEntry.LOCEXT) & 0xFFFF);
+      return ByteStreams.limit(new ChannelInputStream(channel, dataOffset), compressedSize);
+    };
+  }
+
+  private static ByteBuffer read(FileChannel channel, long position, int length)
+      throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new EOFException();
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  /** Reads a channel from a position on, without moving the position of the channel itself. */
+  private static class ChannelInputStream extends InputStream {
+    private final FileChannel channel;
+    private long position;
+
+    private ChannelInputStream(FileChannel channel, long position) {
+      this.channel = channel;
+      this.position = position;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int read = channel.read(ByteBuffer.wrap(b, off, len), position);
+      if (read > 0) {
+        position += read;
+      }
+      return read;
+    }
+  }
+
   private static CustomZipEntry makeCustomEntry(ZipEntry entry) {
     CustomZipEntry wrappedEntry = new CustomZipEntry(entry);
 
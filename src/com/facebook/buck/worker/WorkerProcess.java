@@ -27,12 +27,16 @@ import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicInteger;
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 
 public class WorkerProcess implements Closeable {
 
@@ -45,15 +49,29 @@ public class WorkerProcess implements Closeable {
   private final Path stdErr;
   private final AtomicInteger currentMessageID = new AtomicInteger();
   private boolean handshakePerformed = false;
-  @Nullable private WorkerProcessProtocol.CommandSender protocol;
+  @Nullable private volatile WorkerProcessProtocol.CommandSender protocol;
   @Nullable private ProcessExecutor.LaunchedProcess launchedProcess;
 
+  /** Serializes the commands sent to workers which run several jobs at once. */
+  private final Object sendLock = new Object();
+
+  /**
+   * Exit codes of the concurrent jobs whose responses were read by a thread waiting for another
+   * job, by message id.
+   */
+  @GuardedBy("unclaimedExitCodes")
+  private final Map<Integer, Integer> unclaimedExitCodes = new HashMap<>();
+
+  @GuardedBy("unclaimedExitCodes")
+  private boolean isReceivingResponses = false;
+
   /**
    * Worker process is a process that stays alive and receives commands which describe jobs. Worker
    * processes may be combined into pools so they can perform different jobs concurrently. It
    * communicates via JSON stream and via files. Submitted job blocks the calling thread until it
    * receives the result back. Worker process must understand the protocol that Buck will use to
-   * communicate with it.
+   * communicate with it. Worker processes which declare in their handshake that they can run jobs
+   * concurrently are sent the jobs of all the threads submitting them as soon as they arrive.
    *
    * @param executor Process executor that will start worker process.
    * @param processParams Arguments for process executor.
@@ -103,10 +121,28 @@ public class WorkerProcess implements Closeable {
     handshakePerformed = true;
   }
 
-  public synchronized WorkerJobResult submitAndWaitForJob(String jobArgs) throws IOException {
+  /** @return whether this worker process can be sent a job while it is running another. */
+  public boolean supportsConcurrentJobs() {
+    WorkerProcessProtocol.CommandSender currentProtocol = protocol;
+    return currentProtocol != null && currentProtocol.supportsConcurrentJobs();
+  }
+
+  public WorkerJobResult submitAndWaitForJob(String jobArgs) throws IOException {
+    WorkerProcessProtocol.CommandSender currentProtocol = protocol;
     Preconditions.checkState(
-        protocol != null,
+        currentProtocol != null,
         "Tried to submit a job to the worker process before the handshake was performed.");
+    if (currentProtocol.supportsConcurrentJobs()) {
+      return runJob(currentProtocol, jobArgs, true);
+    }
+    synchronized (this) {
+      return runJob(currentProtocol, jobArgs, false);
+    }
+  }
+
+  private WorkerJobResult runJob(
+      WorkerProcessProtocol.CommandSender protocol, String jobArgs, boolean concurrent)
+      throws IOException {
 
     int messageID = currentMessageID.getAndAdd(1);
     Path argsPath = Paths.get(tmpPath.toString(), String.format("%d.args", messageID));
@@ -119,9 +155,14 @@ public class WorkerProcess implements Closeable {
     LOG.debug(
         "Sending job %d to process %d \n" + " job arguments: \'%s\'",
         messageID, this.hashCode(), jobArgs);
-    protocol.send(messageID, WorkerProcessCommand.of(argsPath, stdoutPath, stderrPath));
+    synchronized (sendLock) {
+      protocol.send(messageID, WorkerProcessCommand.of(argsPath, stdoutPath, stderrPath));
+    }
     LOG.debug("Receiving response for job %d from process %d", messageID, this.hashCode());
-    int exitCode = protocol.receiveCommandResponse(messageID);
+    int exitCode =
+        concurrent
+            ? receiveConcurrentJobResponse(protocol, messageID)
+            : protocol.receiveCommandResponse(messageID);
     Optional<String> stdout = filesystem.readFileIfItExists(stdoutPath);
     Optional<String> stderr = filesystem.readFileIfItExists(stderrPath);
     LOG.debug(
@@ -134,6 +175,53 @@ public class WorkerProcess implements Closeable {
     return WorkerJobResult.of(exitCode, stdout, stderr);
   }
 
+  /**
+   * Waits for the response to a job sent to a worker running several jobs at once. One of the
+   * waiting threads at a time reads the responses, keeping those of the other jobs for their
+   * threads, until the response to its own job arrives.
+   */
+  private int receiveConcurrentJobResponse(
+      WorkerProcessProtocol.CommandSender protocol, int messageID) throws IOException {
+    synchronized (unclaimedExitCodes) {
+      while (true) {
+        Integer exitCode = unclaimedExitCodes.remove(messageID);
+        if (exitCode != null) {
+          return exitCode;
+        }
+        if (!isReceivingResponses) {
+          isReceivingResponses = true;
+          break;
+        }
+        try {
+          unclaimedExitCodes.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException(
+              String.format(
+                  "Interrupted while waiting for job %d of process %d.", messageID, hashCode()));
+        }
+      }
+    }
+
+    try {
+      while (true) {
+        WorkerProcessResponse response = protocol.receiveNextCommandResponse();
+        if (response.getMessageId() == messageID) {
+          return response.getExitCode();
+        }
+        synchronized (unclaimedExitCodes) {
+          unclaimedExitCodes.put(response.getMessageId(), response.getExitCode());
+          unclaimedExitCodes.notifyAll();
+        }
+      }
+    } finally {
+      synchronized (unclaimedExitCodes) {
+        isReceivingResponses = false;
+        unclaimedExitCodes.notifyAll();
+      }
+    }
+  }
+
   @Override
   public void close() {
     LOG.debug("Closing process %d", this.hashCode());
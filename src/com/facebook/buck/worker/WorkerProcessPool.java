@@ -17,35 +17,119 @@
 package com.facebook.buck.worker;
 
 import com.facebook.buck.log.Logger;
-import com.facebook.buck.util.concurrent.LinkedBlockingStack;
+import com.facebook.buck.timing.Clock;
+import com.facebook.buck.timing.DefaultClock;
+import com.facebook.buck.util.Scope;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.HashCode;
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 
+/**
+ * Hands out worker processes to the jobs which need them, starting at most {@code maxWorkers}.
+ *
+ * <p>Workers are started when no idle worker is left, or ahead of time by {@link #prewarm()}.
+ * Workers which have been idle for longer than the idle timeout are closed, down to the number of
+ * workers the pool pre-warms. Once the pool cannot start any more workers, jobs are shared among
+ * the busy workers which said in their handshake that they can run several jobs at once, before
+ * waiting for a worker to be returned.
+ */
 public abstract class WorkerProcessPool implements Closeable {
   private static final Logger LOG = Logger.get(WorkerProcessPool.class);
 
-  private final int capacity;
-  private final BlockingQueue<WorkerProcess> availableWorkers;
+  /** Told where the time spent borrowing a worker process goes, e.g. to show it in traces. */
+  public interface BorrowListener {
+    /** Called when the borrower starts waiting for a worker, which ends when the scope closes. */
+    Scope waitingForWorker();
+
+    /** Called when the borrower starts a new worker, which is up when the scope closes. */
+    Scope startingWorker();
+  }
 
-  @GuardedBy("createdWorkers")
-  private final List<WorkerProcess> createdWorkers;
+  public static final BorrowListener NO_OP_BORROW_LISTENER =
+      new BorrowListener() {
+        @Override
+        public Scope waitingForWorker() {
+          return () -> {};
+        }
 
+        @Override
+        public Scope startingWorker() {
+          return () -> {};
+        }
+      };
+
+  private final int capacity;
+  private final int prewarmedWorkers;
+  private final long idleTimeoutMillis;
   private final HashCode poolHash;
+  private final Clock clock;
+
+  private final Object lock = new Object();
+
+  /** Every worker started and not destroyed yet, with how many jobs it is running. */
+  @GuardedBy("lock")
+  private final Map<WorkerProcess, Integer> jobsByWorker = new HashMap<>();
+
+  /** The workers not running any job, the most recently returned first. */
+  @GuardedBy("lock")
+  private final Deque<WorkerProcess> idleWorkers = new ArrayDeque<>();
+
+  @GuardedBy("lock")
+  private final Map<WorkerProcess, Long> idleSinceNanos = new HashMap<>();
+
+  /** Workers destroyed while other jobs were still running on them, closed after the last one. */
+  @GuardedBy("lock")
+  private final Set<WorkerProcess> brokenWorkers = new HashSet<>();
+
+  @GuardedBy("lock")
+  private int workersStarting = 0;
+
+  @GuardedBy("lock")
+  private boolean isClosed = false;
 
   public WorkerProcessPool(int maxWorkers, HashCode poolHash) {
+    this(maxWorkers, 0, 0, poolHash);
+  }
+
+  /**
+   * @param prewarmedWorkers how many workers {@link #prewarm()} starts, and how many idle workers
+   *     are kept however long they have been idle.
+   * @param idleTimeoutMillis how long a worker may stay idle before it is closed, or 0 to keep idle
+   *     workers until the pool is closed.
+   */
+  public WorkerProcessPool(
+      int maxWorkers, int prewarmedWorkers, long idleTimeoutMillis, HashCode poolHash) {
+    this(maxWorkers, prewarmedWorkers, idleTimeoutMillis, poolHash, new DefaultClock());
+  }
+
+  @VisibleForTesting
+  WorkerProcessPool(
+      int maxWorkers,
+      int prewarmedWorkers,
+      long idleTimeoutMillis,
+      HashCode poolHash,
+      Clock clock) {
     this.capacity = maxWorkers;
-    this.availableWorkers = new LinkedBlockingStack<>();
-    this.createdWorkers = new ArrayList<>();
+    this.prewarmedWorkers = Math.min(prewarmedWorkers, maxWorkers);
+    this.idleTimeoutMillis = idleTimeoutMillis;
     this.poolHash = poolHash;
+    this.clock = clock;
   }
 
   /**
@@ -54,67 +138,260 @@ public abstract class WorkerProcessPool implements Closeable {
    * or {@link #destroyWorkerProcess(WorkerProcess)} methods after you finish using it.
    */
   public WorkerProcess borrowWorkerProcess() throws IOException, InterruptedException {
+    return borrowWorkerProcess(NO_OP_BORROW_LISTENER);
+  }
+
+  /**
+   * Same as {@link #borrowWorkerProcess()}, telling the listener how long was spent waiting for a
+   * worker, and starting one.
+   */
+  public WorkerProcess borrowWorkerProcess(BorrowListener listener)
+      throws IOException, InterruptedException {
+    Scope waiting = null;
+    try {
+      while (true) {
+        List<WorkerProcess> deadWorkers = new ArrayList<>();
+        WorkerProcess workerProcess;
+        boolean shouldStartWorker = false;
+        synchronized (lock) {
+          workerProcess = takeIdleWorker(deadWorkers);
+          if (workerProcess == null) {
+            if (jobsByWorker.size() + workersStarting < capacity) {
+              workersStarting++;
+              shouldStartWorker = true;
+            } else {
+              workerProcess = findLeastBusyConcurrentWorker();
+            }
+          }
+          if (workerProcess != null) {
+            jobsByWorker.merge(workerProcess, 1, Integer::sum);
+          } else if (!shouldStartWorker && deadWorkers.isEmpty()) {
+            if (waiting == null) {
+              waiting = listener.waitingForWorker();
+            }
+            lock.wait();
+          }
+        }
+        closeAll(deadWorkers);
+        if (workerProcess != null) {
+          return workerProcess;
+        }
+        if (shouldStartWorker) {
+          if (waiting != null) {
+            waiting.close();
+            waiting = null;
+          }
+          try (Scope ignored = listener.startingWorker()) {
+            return startWorker(true);
+          }
+        }
+      }
+    } finally {
+      if (waiting != null) {
+        waiting.close();
+      }
+    }
+  }
+
+  @GuardedBy("lock")
+  @Nullable
+  private WorkerProcess takeIdleWorker(List<WorkerProcess> deadWorkers) {
     WorkerProcess workerProcess;
-    while ((workerProcess = availableWorkers.poll(0, TimeUnit.SECONDS)) != null) {
+    while ((workerProcess = idleWorkers.poll()) != null) {
+      idleSinceNanos.remove(workerProcess);
       if (workerProcess.isAlive()) {
-        break;
+        return workerProcess;
       }
+      jobsByWorker.remove(workerProcess);
+      deadWorkers.add(workerProcess);
+    }
+    return null;
+  }
 
-      try {
-        destroyWorkerProcess(workerProcess);
-      } catch (Exception ex) {
-        LOG.error(ex, "Failed to close dead worker process; ignoring.");
+  @GuardedBy("lock")
+  @Nullable
+  private WorkerProcess findLeastBusyConcurrentWorker() {
+    WorkerProcess leastBusy = null;
+    int leastJobs = Integer.MAX_VALUE;
+    for (Map.Entry<WorkerProcess, Integer> entry : jobsByWorker.entrySet()) {
+      WorkerProcess workerProcess = entry.getKey();
+      if (entry.getValue() < leastJobs
+          && !brokenWorkers.contains(workerProcess)
+          && workerProcess.supportsConcurrentJobs()
+          && workerProcess.isAlive()) {
+        leastBusy = workerProcess;
+        leastJobs = entry.getValue();
       }
     }
-    if (workerProcess == null) {
-      workerProcess = createNewWorkerIfPossible();
+    return leastBusy;
+  }
+
+  /**
+   * Starts a worker, which is either handed to the borrower which started it, or left idle for the
+   * next one. Workers pre-warmed after the pool was closed are closed right away.
+   */
+  private WorkerProcess startWorker(boolean forBorrower) throws IOException {
+    WorkerProcess workerProcess = null;
+    boolean shouldClose = false;
+    try {
+      workerProcess = Preconditions.checkNotNull(startWorkerProcess());
+    } finally {
+      synchronized (lock) {
+        workersStarting--;
+        if (workerProcess != null) {
+          if (forBorrower) {
+            jobsByWorker.put(workerProcess, 1);
+          } else if (isClosed) {
+            shouldClose = true;
+          } else {
+            jobsByWorker.put(workerProcess, 0);
+            makeIdle(workerProcess);
+          }
+        }
+        lock.notifyAll();
+      }
     }
-    if (workerProcess != null) {
-      return workerProcess;
+    if (shouldClose) {
+      closeAll(ImmutableList.of(workerProcess));
     }
-    return availableWorkers.take();
+    return workerProcess;
   }
 
-  private @Nullable WorkerProcess createNewWorkerIfPossible() throws IOException {
-    synchronized (createdWorkers) {
-      if (createdWorkers.size() == capacity) {
-        return null;
-      }
-      WorkerProcess process = Preconditions.checkNotNull(startWorkerProcess());
-      createdWorkers.add(process);
-      return process;
+  @GuardedBy("lock")
+  private void makeIdle(WorkerProcess workerProcess) {
+    idleWorkers.push(workerProcess);
+    idleSinceNanos.put(workerProcess, clock.nanoTime());
+  }
+
+  /**
+   * Starts, in the background, as many workers as the pool pre-warms, less those it already has, so
+   * that the first jobs do not wait for the workers to start.
+   */
+  public void prewarm() {
+    int workersToStart;
+    synchronized (lock) {
+      workersToStart = Math.max(0, prewarmedWorkers - jobsByWorker.size() - workersStarting);
+      workersStarting += workersToStart;
+    }
+    for (int i = 0; i < workersToStart; i++) {
+      Thread thread =
+          new Thread(
+              () -> {
+                try {
+                  startWorker(false);
+                } catch (Exception e) {
+                  LOG.warn(e, "Failed to pre-warm a worker process.");
+                }
+              },
+              "WorkerProcessPool prewarm");
+      thread.setDaemon(true);
+      thread.start();
     }
   }
 
   public void returnWorkerProcess(WorkerProcess workerProcess) {
-    synchronized (createdWorkers) {
+    List<WorkerProcess> workersToClose = new ArrayList<>();
+    synchronized (lock) {
+      Integer jobs = jobsByWorker.get(workerProcess);
       Preconditions.checkArgument(
-          createdWorkers.contains(workerProcess),
-          "Trying to return a foreign WorkerProcess to the pool");
+          jobs != null, "Trying to return a foreign WorkerProcess to the pool");
+      Preconditions.checkState(jobs > 0, "Trying to return a WorkerProcess which was not borrowed");
+      if (jobs > 1) {
+        jobsByWorker.put(workerProcess, jobs - 1);
+      } else if (brokenWorkers.remove(workerProcess)) {
+        jobsByWorker.remove(workerProcess);
+        workersToClose.add(workerProcess);
+      } else {
+        jobsByWorker.put(workerProcess, 0);
+        makeIdle(workerProcess);
+      }
+      workersToClose.addAll(removeExpiredIdleWorkers());
+      lock.notifyAll();
     }
-    // Note: put() can throw, offer doesn't.
-    boolean added = availableWorkers.offer(workerProcess);
-    Preconditions.checkState(added, "Should have had enough room for existing worker");
+    closeAll(workersToClose);
   }
 
   // Same as returnWorkerProcess, except this assumes the worker is borked and should be terminated
-  // with prejudice.
+  // with prejudice. Workers running other jobs are terminated once the last of them is done.
   public void destroyWorkerProcess(WorkerProcess workerProcess) {
-    synchronized (createdWorkers) {
-      boolean removed = createdWorkers.remove(workerProcess);
-      Preconditions.checkArgument(removed, "Trying to return a foreign WorkerProcess to the pool");
+    synchronized (lock) {
+      Integer jobs = jobsByWorker.get(workerProcess);
+      Preconditions.checkArgument(
+          jobs != null, "Trying to return a foreign WorkerProcess to the pool");
+      if (jobs > 1) {
+        jobsByWorker.put(workerProcess, jobs - 1);
+        brokenWorkers.add(workerProcess);
+        return;
+      }
+      jobsByWorker.remove(workerProcess);
+      brokenWorkers.remove(workerProcess);
+      if (idleWorkers.remove(workerProcess)) {
+        idleSinceNanos.remove(workerProcess);
+      }
+      lock.notifyAll();
     }
     workerProcess.close();
   }
 
+  /**
+   * Closes the workers which have been idle for longer than the idle timeout, keeping as many as
+   * the pool pre-warms.
+   */
+  public void closeIdleWorkers() {
+    List<WorkerProcess> workersToClose;
+    synchronized (lock) {
+      workersToClose = removeExpiredIdleWorkers();
+    }
+    closeAll(workersToClose);
+  }
+
+  @GuardedBy("lock")
+  private List<WorkerProcess> removeExpiredIdleWorkers() {
+    List<WorkerProcess> expiredWorkers = new ArrayList<>();
+    if (idleTimeoutMillis <= 0) {
+      return expiredWorkers;
+    }
+    long idleSinceCutoff = clock.nanoTime() - TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+    Iterator<WorkerProcess> leastRecentlyUsedFirst = idleWorkers.descendingIterator();
+    while (leastRecentlyUsedFirst.hasNext() && jobsByWorker.size() > prewarmedWorkers) {
+      WorkerProcess workerProcess = leastRecentlyUsedFirst.next();
+      if (idleSinceNanos.get(workerProcess) >= idleSinceCutoff) {
+        break;
+      }
+      leastRecentlyUsedFirst.remove();
+      idleSinceNanos.remove(workerProcess);
+      jobsByWorker.remove(workerProcess);
+      expiredWorkers.add(workerProcess);
+    }
+    if (!expiredWorkers.isEmpty()) {
+      LOG.debug("Closing %d idle worker processes.", expiredWorkers.size());
+    }
+    return expiredWorkers;
+  }
+
+  private static void closeAll(List<WorkerProcess> workerProcesses) {
+    for (WorkerProcess workerProcess : workerProcesses) {
+      try {
+        workerProcess.close();
+      } catch (Exception ex) {
+        LOG.error(ex, "Failed to close worker process; ignoring.");
+      }
+    }
+  }
+
   @Override
   public void close() {
     ImmutableSet<WorkerProcess> processesToClose;
-    synchronized (createdWorkers) {
-      processesToClose = ImmutableSet.copyOf(createdWorkers);
+    synchronized (lock) {
       Preconditions.checkState(
-          availableWorkers.size() == createdWorkers.size(),
+          idleWorkers.size() == jobsByWorker.size(),
           "WorkerProcessPool was still running when shutdown was called.");
+      processesToClose = ImmutableSet.copyOf(jobsByWorker.keySet());
+      jobsByWorker.clear();
+      idleWorkers.clear();
+      idleSinceNanos.clear();
+      isClosed = true;
+      lock.notifyAll();
     }
 
     Exception ex = null;
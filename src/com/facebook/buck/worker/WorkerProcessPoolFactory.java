@@ -114,7 +114,11 @@ public class WorkerProcessPoolFactory {
     final AtomicInteger workerNumber = new AtomicInteger(0);
 
     WorkerProcessPool newPool =
-        new WorkerProcessPool(paramsToUse.getMaxWorkers(), workerHash) {
+        new WorkerProcessPool(
+            paramsToUse.getMaxWorkers(),
+            context.getPrewarmedWorkersPerPool(),
+            context.getIdleWorkerTimeoutMillis(),
+            workerHash) {
           @Override
           protected WorkerProcess startWorkerProcess() throws IOException {
             Path tmpDir = workerTmpDir.resolve(Integer.toString(workerNumber.getAndIncrement()));
@@ -128,7 +132,11 @@ public class WorkerProcessPoolFactory {
     // If putIfAbsent does not return null, then that means another thread beat this thread
     // into putting an WorkerProcessPool in the map for this key. If that's the case, then we
     // should ignore newPool and return the existing one.
-    return previousPool == null ? newPool : previousPool;
+    if (previousPool != null) {
+      return previousPool;
+    }
+    newPool.prewarm();
+    return newPool;
   }
 
   public ImmutableList<String> getCommand(Platform platform, WorkerProcessParams paramsToUse) {
@@ -27,6 +27,15 @@ public interface WorkerProcessProtocol {
 
     int receiveCommandResponse(int messageID) throws IOException;
 
+    /**
+     * Receives the response to whichever job the worker process finishes next. Only workers which
+     * said in their handshake that they can run several jobs at once may answer out of order.
+     */
+    WorkerProcessResponse receiveNextCommandResponse() throws IOException;
+
+    /** @return whether the worker process said in its handshake that it can run concurrent jobs. */
+    boolean supportsConcurrentJobs();
+
     /** Instructs the CommandReceiver to shut itself down. */
     @Override
     void close() throws IOException;
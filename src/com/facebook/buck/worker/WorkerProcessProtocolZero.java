@@ -18,6 +18,7 @@ package com.facebook.buck.worker;
 import com.facebook.buck.util.HumanReadableException;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
@@ -39,6 +40,7 @@ public class WorkerProcessProtocolZero {
     private final JsonReader processStdoutReader;
     private final Optional<Path> stdErr;
     private final Runnable onClose;
+    private ImmutableSet<String> capabilities = ImmutableSet.of();
     private boolean isClosed = false;
 
     public CommandSender(
@@ -63,8 +65,13 @@ public class WorkerProcessProtocolZero {
 
     @Override
     public void handshake(int messageId) throws IOException {
-      sendHandshake(processStdinWriter, messageId);
-      receiveHandshake(processStdoutReader, messageId, stdErr);
+      sendHandshake(processStdinWriter, messageId, ImmutableSet.of());
+      capabilities = receiveHandshake(processStdoutReader, messageId, stdErr);
+    }
+
+    @Override
+    public boolean supportsConcurrentJobs() {
+      return capabilities.contains(CAPABILITY_CONCURRENT_JOBS);
     }
 
     /*
@@ -122,6 +129,18 @@ public class WorkerProcessProtocolZero {
     */
     @Override
     public int receiveCommandResponse(int messageID) throws IOException {
+      WorkerProcessResponse response = receiveNextCommandResponse();
+      if (response.getMessageId() != messageID) {
+        throw new HumanReadableException(
+            String.format(
+                "Expected response's \"id\" value to be " + "\"%d\", got \"%d\" instead.",
+                messageID, response.getMessageId()));
+      }
+      return response.getExitCode();
+    }
+
+    @Override
+    public WorkerProcessResponse receiveNextCommandResponse() throws IOException {
       int id = -1;
       int exitCode = -1;
       String type = "";
@@ -149,12 +168,6 @@ public class WorkerProcessProtocolZero {
             getStdErrorOutput(stdErr));
       }
 
-      if (id != messageID) {
-        throw new HumanReadableException(
-            String.format(
-                "Expected response's \"id\" value to be " + "\"%d\", got \"%d\" instead.",
-                messageID, id));
-      }
       if (!type.equals(TYPE_RESULT) && !type.equals(TYPE_ERROR)) {
         throw new HumanReadableException(
             String.format(
@@ -162,7 +175,7 @@ public class WorkerProcessProtocolZero {
                     + "to be one of [\"%s\",\"%s\"], got \"%s\" instead.",
                 TYPE_RESULT, TYPE_ERROR, type));
       }
-      return exitCode;
+      return WorkerProcessResponse.of(id, exitCode);
     }
 
     @Override
@@ -189,14 +202,26 @@ public class WorkerProcessProtocolZero {
     private final JsonWriter processStdinWriter;
     private final JsonReader processStdoutReader;
     private final Optional<Path> stdErr;
+    private final ImmutableSet<String> capabilities;
     private boolean isClosed = false;
 
     public CommandReceiver(OutputStream processStdin, InputStream processStdout) {
+      this(processStdin, processStdout, ImmutableSet.of());
+    }
+
+    /**
+     * @param capabilities what this end tells Buck it can do in its handshake, e.g. {@link
+     *     WorkerProcessProtocolZero#CAPABILITY_CONCURRENT_JOBS} if it may be sent a command before
+     *     it answered the last one.
+     */
+    public CommandReceiver(
+        OutputStream processStdin, InputStream processStdout, ImmutableSet<String> capabilities) {
       this.processStdinWriter =
           new JsonWriter(new BufferedWriter(new OutputStreamWriter(processStdin)));
       this.processStdoutReader =
           new JsonReader(new BufferedReader(new InputStreamReader(processStdout)));
       this.stdErr = Optional.empty();
+      this.capabilities = capabilities;
     }
 
     @VisibleForTesting
@@ -211,7 +236,7 @@ public class WorkerProcessProtocolZero {
 
     @Override
     public void handshake(int messageId) throws IOException {
-      sendHandshake(processStdinWriter, messageId);
+      sendHandshake(processStdinWriter, messageId, capabilities);
       receiveHandshake(processStdoutReader, messageId, Optional.empty());
     }
 
@@ -359,6 +384,12 @@ public class WorkerProcessProtocolZero {
   private static final String TYPE_RESULT = "result";
   private static final String TYPE_ERROR = "error";
 
+  /**
+   * Declared in the handshake by worker processes which can run several jobs at once. Buck may then
+   * send them a command before they answered the previous ones, and they may answer in any order.
+   */
+  public static final String CAPABILITY_CONCURRENT_JOBS = "concurrent_jobs";
+
   /*
    Sends a message that looks like this:
      [
@@ -366,16 +397,21 @@ public class WorkerProcessProtocolZero {
          id: 0,
          type: 'handshake',
          protocol_version: '0',
-         capabilities: []
+         capabilities: [<capability>, ...]
        }
   */
-  private static void sendHandshake(JsonWriter writer, int messageId) throws IOException {
+  private static void sendHandshake(
+      JsonWriter writer, int messageId, ImmutableSet<String> capabilities) throws IOException {
     writer.beginArray();
     writer.beginObject();
     writer.name("id").value(messageId);
     writer.name("type").value(TYPE_HANDSHAKE);
     writer.name("protocol_version").value(PROTOCOL_VERSION);
-    writer.name("capabilities").beginArray().endArray();
+    writer.name("capabilities").beginArray();
+    for (String capability : capabilities) {
+      writer.value(capability);
+    }
+    writer.endArray();
     writer.endObject();
     writer.flush();
   }
@@ -387,14 +423,15 @@ public class WorkerProcessProtocolZero {
          id: 0,
          type: 'handshake',
          protocol_version: '0',
-         capabilities: []
+         capabilities: [<capability>, ...]
        }
   */
-  private static void receiveHandshake(JsonReader reader, int messageId, Optional<Path> stdErr)
-      throws IOException {
+  private static ImmutableSet<String> receiveHandshake(
+      JsonReader reader, int messageId, Optional<Path> stdErr) throws IOException {
     int id = -1;
     String type = "";
     String protocolVersion = "";
+    ImmutableSet.Builder<String> capabilities = ImmutableSet.builder();
 
     try {
       reader.beginArray();
@@ -410,10 +447,13 @@ public class WorkerProcessProtocolZero {
         } else if (property.equals("capabilities")) {
           try {
             reader.beginArray();
+            while (reader.hasNext()) {
+              capabilities.add(reader.nextString());
+            }
             reader.endArray();
           } catch (IllegalStateException e) {
             throw new HumanReadableException(
-                "Expected handshake response's \"capabilities\" to " + "be an empty array.");
+                "Expected handshake response's \"capabilities\" to " + "be an array of strings.");
           }
         } else {
           reader.skipValue();
@@ -447,6 +487,7 @@ public class WorkerProcessProtocolZero {
                   + "\"protocol_version\" to be \"%s\", got \"%s\" instead.",
               PROTOCOL_VERSION, protocolVersion));
     }
+    return capabilities.build();
   }
 
   private static String getStdErrorOutput(Optional<Path> stdErr) throws IOException {
@@ -28,12 +28,14 @@ import com.facebook.buck.step.Step;
 import com.facebook.buck.step.StepExecutionResult;
 import com.facebook.buck.util.zip.CustomZipEntry;
 import com.facebook.buck.util.zip.CustomZipOutputStream;
+import com.facebook.buck.util.zip.ParallelZipEntryCompressor;
 import com.facebook.buck.util.zip.ZipCompressionLevel;
 import com.facebook.buck.util.zip.ZipOutputStreams;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.Hashing;
 import com.google.common.io.ByteSource;
 import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -178,20 +180,46 @@ public class ZipStep implements Step {
       filesystem.walkRelativeFileTree(baseDir, pathFileVisitor);
 
       // Write the entries out using the iteration order of the tree map above.
-      for (Pair<CustomZipEntry, Optional<Path>> entry : entries.values()) {
-        out.putNextEntry(entry.getFirst());
-        if (entry.getSecond().isPresent()) {
-          try (InputStream input = filesystem.newFileInputStream(entry.getSecond().get())) {
-            ByteStreams.copy(input, out);
+      Optional<ListeningExecutorService> compressionExecutor =
+          context.getZipCompressionExecutor();
+      if (compressionExecutor.isPresent()) {
+        writeEntriesInParallel(entries.values(), out, compressionExecutor.get());
+      } else {
+        for (Pair<CustomZipEntry, Optional<Path>> entry : entries.values()) {
+          out.putNextEntry(entry.getFirst());
+          if (entry.getSecond().isPresent()) {
+            try (InputStream input = filesystem.newFileInputStream(entry.getSecond().get())) {
+              ByteStreams.copy(input, out);
+            }
           }
+          out.closeEntry();
         }
-        out.closeEntry();
       }
     }
 
     return StepExecutionResult.SUCCESS;
   }
 
+  private void writeEntriesInParallel(
+      Iterable<Pair<CustomZipEntry, Optional<Path>>> entries,
+      CustomZipOutputStream out,
+      ListeningExecutorService executor)
+      throws IOException {
+    ParallelZipEntryCompressor compressor = new ParallelZipEntryCompressor(out, executor);
+    for (Pair<CustomZipEntry, Optional<Path>> entry : entries) {
+      Optional<Path> path = entry.getSecond();
+      if (path.isPresent()) {
+        compressor.addEntry(
+            entry.getFirst(),
+            filesystem.getFileSize(path.get()),
+            () -> filesystem.newFileInputStream(path.get()));
+      } else {
+        compressor.addEntry(entry.getFirst(), new byte[0]);
+      }
+    }
+    compressor.finish();
+  }
+
   @Override
   public String getDescription(ExecutionContext context) {
     StringBuilder args = new StringBuilder("zip ");
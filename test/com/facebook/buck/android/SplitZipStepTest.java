@@ -184,6 +184,8 @@ public class SplitZipStepTest {
             /* pathToReportDir */
             ImmutableSortedMap.of(),
             null,
+            /* secondaryPlacementPath */ Optional.empty(),
+            /* maxUnderfilledSecondaryJars */ 0,
             Paths.get(""));
 
     Predicate<String> requiredInPrimaryZipPredicate =
@@ -278,6 +280,8 @@ public class SplitZipStepTest {
             /* pathToReportDir */
             ImmutableSortedMap.of(),
             null,
+            /* secondaryPlacementPath */ Optional.empty(),
+            /* maxUnderfilledSecondaryJars */ 0,
             Paths.get(""));
 
     ProguardTranslatorFactory translatorFactory =
@@ -357,6 +361,8 @@ public class SplitZipStepTest {
             /* pathToReportDir */
             ImmutableSortedMap.of(),
             null,
+            /* secondaryPlacementPath */ Optional.empty(),
+            /* maxUnderfilledSecondaryJars */ 0,
             Paths.get(""));
 
     ProguardTranslatorFactory translatorFactory =
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.google.common.hash.HashCode;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class ContentAddressedBlobStoreTest {
+  @Rule public TemporaryPaths tmpDir = new TemporaryPaths();
+
+  private ProjectFilesystem filesystem;
+  private ContentAddressedBlobStore blobStore;
+
+  @Before
+  public void setUp() throws Exception {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmpDir.getRoot());
+    assumeTrue(ContentAddressedBlobStore.isSupported(filesystem));
+    blobStore = new ContentAddressedBlobStore(filesystem, Paths.get("blobs"));
+    filesystem.mkdirs(Paths.get("entries"));
+  }
+
+  private int getLinkCount(Path path) throws Exception {
+    return ContentAddressedBlobStore.getLinkCount(filesystem.resolve(path));
+  }
+
+  @Test
+  public void identicalContentIsStoredOnce() throws Exception {
+    Path first = Paths.get("first");
+    Path second = Paths.get("second");
+    filesystem.writeContentsToPath("payload", first);
+    filesystem.writeContentsToPath("payload", second);
+
+    HashCode firstHash =
+        blobStore.store(BorrowablePath.notBorrowablePath(first), Paths.get("entries/a"));
+    HashCode secondHash =
+        blobStore.store(BorrowablePath.borrowablePath(second), Paths.get("entries/b"));
+
+    assertEquals(firstHash, secondHash);
+    assertEquals(3, getLinkCount(blobStore.getBlobPath(firstHash)));
+    assertEquals(Optional.of("payload"), filesystem.readFileIfItExists(Paths.get("entries/b")));
+    // The payload was already stored, so the borrowable content was left alone.
+    assertTrue(filesystem.exists(second));
+  }
+
+  @Test
+  public void borrowableContentIsMovedIntoTheStore() throws Exception {
+    Path content = Paths.get("content");
+    filesystem.writeContentsToPath("payload", content);
+
+    HashCode hash = blobStore.store(BorrowablePath.borrowablePath(content), Paths.get("entries/a"));
+
+    assertFalse(filesystem.exists(content));
+    assertEquals(2, getLinkCount(blobStore.getBlobPath(hash)));
+  }
+
+  @Test
+  public void blobIsReleasedOnceUnreferenced() throws Exception {
+    Path content = Paths.get("content");
+    filesystem.writeContentsToPath("payload", content);
+    HashCode hash =
+        blobStore.store(BorrowablePath.notBorrowablePath(content), Paths.get("entries/a"));
+    blobStore.store(BorrowablePath.notBorrowablePath(content), Paths.get("entries/b"));
+    Path blob = blobStore.getBlobPath(hash);
+
+    filesystem.deleteFileAtPath(Paths.get("entries/a"));
+    blobStore.release(hash);
+    assertTrue(filesystem.exists(blob));
+
+    filesystem.deleteFileAtPath(Paths.get("entries/b"));
+    blobStore.releasePending();
+    assertFalse(filesystem.exists(blob));
+  }
+
+  @Test
+  public void garbageCollectionOnlyDeletesUnreferencedBlobs() throws Exception {
+    Path kept = Paths.get("kept");
+    Path dropped = Paths.get("dropped");
+    filesystem.writeContentsToPath("kept", kept);
+    filesystem.writeContentsToPath("dropped", dropped);
+    HashCode keptHash =
+        blobStore.store(BorrowablePath.notBorrowablePath(kept), Paths.get("entries/a"));
+    HashCode droppedHash =
+        blobStore.store(BorrowablePath.notBorrowablePath(dropped), Paths.get("entries/b"));
+
+    filesystem.deleteFileAtPath(Paths.get("entries/b"));
+
+    assertEquals(1, blobStore.collectGarbage());
+    assertTrue(filesystem.exists(blobStore.getBlobPath(keptHash)));
+    assertFalse(filesystem.exists(blobStore.getBlobPath(droppedHash)));
+  }
+
+  @Test
+  public void linkOrCopyReplacesExistingTarget() throws Exception {
+    Path content = Paths.get("content");
+    filesystem.writeContentsToPath("payload", content);
+    Path output = Paths.get("output");
+    filesystem.writeContentsToPath("stale", output);
+
+    blobStore.linkOrCopy(content, output);
+
+    assertEquals(Optional.of("payload"), filesystem.readFileIfItExists(output));
+    assertEquals(2, getLinkCount(content));
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.Futures;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+
+/** Compares the indexed and the directory-walking modes of {@link DirArtifactCache}. */
+public class DirArtifactCacheBenchmark {
+  @Rule public TemporaryPaths tmpDir = new TemporaryPaths();
+
+  @Param({"1000", "10000", "100000"})
+  private int opCount = 100;
+
+  @Param({"false", "true"})
+  private boolean indexed = true;
+
+  private static final Random random = new Random(12345);
+  private static final int ARTIFACT_BYTES = 1024;
+
+  private ProjectFilesystem filesystem;
+  private List<RuleKey> storedKeys;
+  private List<RuleKey> missingKeys;
+  private Path artifactFile;
+
+  private Path cacheDir;
+  private LazyPath output;
+  private DirArtifactCache artifactCache;
+
+  @Before
+  public void setUp() throws InterruptedException, IOException {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmpDir.getRoot());
+
+    artifactFile = tmpDir.newFile(".artifact");
+    byte[] contents = new byte[ARTIFACT_BYTES];
+    random.nextBytes(contents);
+    Files.write(artifactFile, contents);
+
+    cacheDir = tmpDir.newFolder();
+    output = LazyPath.ofInstance(tmpDir.getRoot().resolve(".output"));
+
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  private void setUpBenchmark() throws IOException {
+    // Unbounded, so that only the trim benchmark pays for trimming.
+    artifactCache = cache(Optional.empty());
+    byte[] randomRuleKey = new byte[20];
+
+    storedKeys = new ArrayList<>(opCount);
+    missingKeys = new ArrayList<>(opCount);
+    for (int i = 0; i < opCount; i++) {
+      random.nextBytes(randomRuleKey);
+      storedKeys.add(new RuleKey(HashCode.fromBytes(randomRuleKey)));
+      random.nextBytes(randomRuleKey);
+      missingKeys.add(new RuleKey(HashCode.fromBytes(randomRuleKey)));
+    }
+  }
+
+  @After
+  @AfterExperiment
+  public void tearDown() {
+    artifactCache.close();
+  }
+
+  private DirArtifactCache cache(Optional<Long> maxCacheSizeBytes) throws IOException {
+    return new DirArtifactCache(
+        "dir",
+        filesystem,
+        cacheDir,
+        CacheReadMode.READWRITE,
+        maxCacheSizeBytes,
+        indexed,
+        Optional.empty());
+  }
+
+  @Ignore
+  @Test
+  public void testAllBenchmarks() throws IOException {
+    benchStore();
+    benchFetchHit();
+    benchFetchMiss();
+    benchTrim();
+  }
+
+  @Benchmark
+  private void benchStore() {
+    for (RuleKey key : storedKeys) {
+      artifactCache.store(
+          ArtifactInfo.builder().addRuleKeys(key).build(),
+          BorrowablePath.notBorrowablePath(artifactFile));
+    }
+  }
+
+  @Benchmark
+  private void benchFetchHit() {
+    for (RuleKey key : storedKeys) {
+      Futures.getUnchecked(artifactCache.fetchAsync(key, output));
+    }
+  }
+
+  @Benchmark
+  private void benchFetchMiss() {
+    for (RuleKey key : missingKeys) {
+      Futures.getUnchecked(artifactCache.fetchAsync(key, output));
+    }
+  }
+
+  @Benchmark
+  private void benchTrim() throws IOException {
+    // Bound the cache just below its current size. When indexed, the cost of the trim should track
+    // the number of evicted entries rather than the size of the whole cache.
+    artifactCache.close();
+    artifactCache = cache(Optional.of((long) opCount * ARTIFACT_BYTES * 9 / 10));
+    artifactCache.deleteOldFiles();
+  }
+}
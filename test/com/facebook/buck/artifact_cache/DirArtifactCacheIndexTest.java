@@ -0,0 +1,166 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class DirArtifactCacheIndexTest {
+  @Rule public TemporaryPaths tmpDir = new TemporaryPaths();
+
+  private static final RuleKey KEY_A = new RuleKey("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+  private static final RuleKey KEY_B = new RuleKey("bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb");
+  private static final RuleKey KEY_C = new RuleKey("cccc");
+
+  private DirArtifactCacheIndex open(Path indexDir) throws IOException {
+    Optional<DirArtifactCacheIndex> index = DirArtifactCacheIndex.open(indexDir);
+    assertTrue(index.isPresent());
+    return index.get();
+  }
+
+  @Test
+  public void newIndexIsEmptyAndReportsReset() throws IOException {
+    try (DirArtifactCacheIndex index = open(tmpDir.getRoot().resolve("index"))) {
+      assertTrue(index.wasReset());
+      assertEquals(0, index.size());
+      assertEquals(0L, index.getTotalSizeBytes());
+      assertFalse(index.recordAccess(KEY_A));
+    }
+  }
+
+  @Test
+  public void entriesSurviveReopening() throws IOException {
+    Path indexDir = tmpDir.getRoot().resolve("index");
+    try (DirArtifactCacheIndex index = open(indexDir)) {
+      index.recordStore(KEY_A, 10);
+      index.recordStore(KEY_B, 20);
+      index.recordStore(KEY_C, 30);
+      index.recordRemove(KEY_B);
+      index.recordAccess(KEY_A);
+    }
+
+    try (DirArtifactCacheIndex index = open(indexDir)) {
+      assertFalse(index.wasReset());
+      assertTrue(index.contains(KEY_A));
+      assertFalse(index.contains(KEY_B));
+      assertTrue(index.contains(KEY_C));
+      assertEquals(40L, index.getTotalSizeBytes());
+      // The access to A made C the least recently used entry.
+      assertEquals(ImmutableList.of(KEY_C), index.evict(10));
+    }
+  }
+
+  @Test
+  public void evictRemovesLeastRecentlyUsedEntriesFirst() throws IOException {
+    try (DirArtifactCacheIndex index = open(tmpDir.getRoot().resolve("index"))) {
+      index.recordStore(KEY_A, 10);
+      index.recordStore(KEY_B, 10);
+      index.recordStore(KEY_C, 10);
+      index.recordAccess(KEY_A);
+
+      assertEquals(ImmutableList.of(), index.evict(30));
+      assertEquals(ImmutableList.of(KEY_B, KEY_C), index.evict(15));
+      assertEquals(10L, index.getTotalSizeBytes());
+      assertTrue(index.contains(KEY_A));
+    }
+  }
+
+  @Test
+  public void compactionKeepsLiveEntriesInOrder() throws IOException {
+    Path indexDir = tmpDir.getRoot().resolve("index");
+    try (DirArtifactCacheIndex index = open(indexDir)) {
+      for (int i = 0; i < 100; i++) {
+        index.recordStore(KEY_A, 10);
+        index.recordStore(KEY_B, 20);
+        index.recordAccess(KEY_A);
+      }
+      index.recordStore(KEY_C, 30);
+      index.compact();
+      index.recordAccess(KEY_B);
+    }
+
+    try (DirArtifactCacheIndex index = open(indexDir)) {
+      assertEquals(3, index.size());
+      assertEquals(60L, index.getTotalSizeBytes());
+      assertEquals(ImmutableList.of(KEY_A, KEY_C, KEY_B), index.evict(0));
+    }
+  }
+
+  @Test
+  public void indexCanOnlyBeOpenedOnce() throws IOException {
+    Path indexDir = tmpDir.getRoot().resolve("index");
+    try (DirArtifactCacheIndex index = open(indexDir)) {
+      assertFalse(DirArtifactCacheIndex.open(indexDir).isPresent());
+    }
+    open(indexDir).close();
+  }
+
+  @Test
+  public void replayStopsAtTornRecord() throws IOException {
+    Path indexDir = tmpDir.getRoot().resolve("index");
+    try (DirArtifactCacheIndex index = open(indexDir)) {
+      index.recordStore(KEY_A, 10);
+      index.recordStore(KEY_B, 20);
+    }
+
+    // Corrupt the type of the second record, as if the process died while writing it.
+    try (FileChannel channel =
+        FileChannel.open(indexDir.resolve("log"), StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.wrap(new byte[] {0}), 8 + DirArtifactCacheIndex.RECORD_SIZE);
+    }
+
+    try (DirArtifactCacheIndex index = open(indexDir)) {
+      assertTrue(index.contains(KEY_A));
+      assertFalse(index.contains(KEY_B));
+      index.recordStore(KEY_C, 30);
+    }
+
+    try (DirArtifactCacheIndex index = open(indexDir)) {
+      assertEquals(40L, index.getTotalSizeBytes());
+    }
+  }
+
+  @Test
+  public void logWithUnknownFormatIsDiscarded() throws IOException {
+    Path indexDir = tmpDir.getRoot().resolve("index");
+    try (DirArtifactCacheIndex index = open(indexDir)) {
+      index.recordStore(KEY_A, 10);
+    }
+    try (FileChannel channel =
+        FileChannel.open(indexDir.resolve("log"), StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.wrap(new byte[] {0, 0, 0, 0}), 0);
+    }
+
+    try (DirArtifactCacheIndex index = open(indexDir)) {
+      assertTrue(index.wasReset());
+      assertFalse(index.contains(KEY_A));
+    }
+  }
+}
@@ -22,9 +22,11 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
 
 import com.facebook.buck.io.file.BorrowablePath;
 import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.TestProjectFilesystems;
 import com.facebook.buck.model.BuildTargetFactory;
 import com.facebook.buck.rules.AddToRuleKey;
@@ -170,6 +172,30 @@ public class DirArtifactCacheTest {
     assertEquals(inputRuleX, new BuildRuleForTest(fileX));
   }
 
+  @Test
+  public void testMultiContains() throws Exception {
+    Path cacheDir = tmpDir.newFolder();
+    Path fileX = tmpDir.newFile("x");
+    RuleKey storedKey = new RuleKey("aaaa");
+    RuleKey missingKey = new RuleKey("bbbb");
+
+    dirArtifactCache =
+        new DirArtifactCache(
+            "dir",
+            TestProjectFilesystems.createProjectFilesystem(cacheDir),
+            Paths.get("."),
+            CacheReadMode.READWRITE,
+            /* maxCacheSizeBytes */ Optional.empty());
+    dirArtifactCache.store(
+        ArtifactInfo.builder().addRuleKeys(storedKey).build(),
+        BorrowablePath.notBorrowablePath(fileX));
+
+    ImmutableMap<RuleKey, CacheResult> results =
+        dirArtifactCache.multiContainsAsync(ImmutableSet.of(storedKey, missingKey)).get();
+    assertEquals(CacheResultType.CONTAINS, results.get(storedKey).getType());
+    assertEquals(CacheResultType.MISS, results.get(missingKey).getType());
+  }
+
   @Test
   public void testCacheStoreOverwrite() throws InterruptedException, IOException {
     Path cacheDir = tmpDir.newFolder();
@@ -774,6 +800,203 @@ public class DirArtifactCacheTest {
     cache.close();
   }
 
+  @Test
+  public void testIndexedCacheEvictsLeastRecentlyUsed() throws InterruptedException, IOException {
+    Path cacheDir = tmpDir.newFolder();
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(cacheDir);
+    // An entry takes its artifact size plus 4 bytes of metadata. Trimming a 24-byte cache down to
+    // 2/3 of 20 bytes only needs to evict the 14-byte entry, as long as it is the least recently
+    // used one.
+    dirArtifactCache =
+        new DirArtifactCache(
+            "dir",
+            filesystem,
+            Paths.get("cache"),
+            CacheReadMode.READWRITE,
+            /* maxCacheSizeBytes */ Optional.of(20L),
+            /* indexed */ true,
+            /* blobStore */ Optional.empty());
+
+    RuleKey ruleKeyX = new RuleKey("aaaa");
+    RuleKey ruleKeyY = new RuleKey("bbbb");
+    RuleKey ruleKeyZ = new RuleKey("cccc");
+    Path smallData = Paths.get("small");
+    filesystem.writeContentsToPath("x", smallData);
+    Path largeData = Paths.get("large");
+    filesystem.writeContentsToPath("yyyyyyyyyy", largeData);
+
+    dirArtifactCache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKeyX).build(),
+        BorrowablePath.notBorrowablePath(smallData));
+    dirArtifactCache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKeyY).build(),
+        BorrowablePath.notBorrowablePath(largeData));
+    // Make X more recently used than Y.
+    assertEquals(
+        CacheResultType.HIT,
+        Futures.getUnchecked(
+                dirArtifactCache.fetchAsync(ruleKeyX, LazyPath.ofInstance(Paths.get("out"))))
+            .getType());
+    dirArtifactCache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKeyZ).build(),
+        BorrowablePath.notBorrowablePath(smallData));
+    dirArtifactCache.deleteOldFiles();
+
+    assertTrue(filesystem.exists(dirArtifactCache.getPathForRuleKey(ruleKeyX, Optional.empty())));
+    assertFalse(filesystem.exists(dirArtifactCache.getPathForRuleKey(ruleKeyY, Optional.empty())));
+    assertFalse(
+        filesystem.exists(dirArtifactCache.getPathForRuleKey(ruleKeyY, Optional.of(".metadata"))));
+    assertTrue(filesystem.exists(dirArtifactCache.getPathForRuleKey(ruleKeyZ, Optional.empty())));
+    assertEquals(
+        CacheResultType.MISS,
+        Futures.getUnchecked(
+                dirArtifactCache.fetchAsync(ruleKeyY, LazyPath.ofInstance(Paths.get("out"))))
+            .getType());
+  }
+
+  @Test
+  public void testIndexIsBuiltFromExistingCacheContents() throws InterruptedException, IOException {
+    Path cacheDir = tmpDir.newFolder();
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(cacheDir);
+    RuleKey ruleKey = new RuleKey("aaaa");
+    Path data = Paths.get("data");
+    filesystem.writeContentsToPath("x", data);
+
+    DirArtifactCache unindexedCache =
+        new DirArtifactCache(
+            "dir",
+            filesystem,
+            Paths.get("cache"),
+            CacheReadMode.READWRITE,
+            /* maxCacheSizeBytes */ Optional.empty());
+    unindexedCache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKey).build(),
+        BorrowablePath.notBorrowablePath(data));
+    unindexedCache.close();
+
+    dirArtifactCache =
+        new DirArtifactCache(
+            "dir",
+            filesystem,
+            Paths.get("cache"),
+            CacheReadMode.READWRITE,
+            /* maxCacheSizeBytes */ Optional.empty(),
+            /* indexed */ true,
+            /* blobStore */ Optional.empty());
+
+    assertEquals(
+        CacheResultType.HIT,
+        Futures.getUnchecked(dirArtifactCache.fetchAsync(ruleKey, LazyPath.ofInstance(data)))
+            .getType());
+    assertEquals(
+        CacheResultType.MISS,
+        Futures.getUnchecked(
+                dirArtifactCache.fetchAsync(new RuleKey("bbbb"), LazyPath.ofInstance(data)))
+            .getType());
+  }
+
+  @Test
+  public void testIndexedCacheMissesArtifactsDeletedBehindItsBack()
+      throws InterruptedException, IOException {
+    Path cacheDir = tmpDir.newFolder();
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(cacheDir);
+    dirArtifactCache =
+        new DirArtifactCache(
+            "dir",
+            filesystem,
+            Paths.get("cache"),
+            CacheReadMode.READWRITE,
+            /* maxCacheSizeBytes */ Optional.empty(),
+            /* indexed */ true,
+            /* blobStore */ Optional.empty());
+    RuleKey ruleKey = new RuleKey("aaaa");
+    Path data = Paths.get("data");
+    filesystem.writeContentsToPath("x", data);
+
+    dirArtifactCache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKey).build(),
+        BorrowablePath.notBorrowablePath(data));
+    filesystem.deleteFileAtPath(dirArtifactCache.getPathForRuleKey(ruleKey, Optional.empty()));
+
+    assertEquals(
+        CacheResultType.MISS,
+        Futures.getUnchecked(dirArtifactCache.fetchAsync(ruleKey, LazyPath.ofInstance(data)))
+            .getType());
+
+    // The entry has been dropped from the index, so it can be stored again.
+    dirArtifactCache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKey).build(),
+        BorrowablePath.notBorrowablePath(data));
+    assertEquals(
+        CacheResultType.HIT,
+        Futures.getUnchecked(dirArtifactCache.fetchAsync(ruleKey, LazyPath.ofInstance(data)))
+            .getType());
+  }
+
+  @Test
+  public void testBlobStoreDeduplicatesAndReleasesArtifacts()
+      throws InterruptedException, IOException {
+    Path cacheDir = tmpDir.newFolder();
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(cacheDir);
+    assumeTrue(ContentAddressedBlobStore.isSupported(filesystem));
+    ContentAddressedBlobStore blobStore =
+        new ContentAddressedBlobStore(filesystem, Paths.get("blobs"));
+    dirArtifactCache =
+        new DirArtifactCache(
+            "dir",
+            filesystem,
+            Paths.get("cache"),
+            CacheReadMode.READWRITE,
+            /* maxCacheSizeBytes */ Optional.empty(),
+            /* indexed */ true,
+            Optional.of(blobStore));
+
+    RuleKey ruleKeyX = new RuleKey("aaaa");
+    RuleKey ruleKeyY = new RuleKey("bbbb");
+    Path data = Paths.get("data");
+    filesystem.writeContentsToPath("payload", data);
+
+    dirArtifactCache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKeyX).putMetadata("key", "value").build(),
+        BorrowablePath.notBorrowablePath(data));
+    dirArtifactCache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKeyY).build(),
+        BorrowablePath.notBorrowablePath(data));
+
+    Path blob = blobStore.getBlobPath(filesystem.computeSha1(data).asHashCode());
+    assertEquals(3, ContentAddressedBlobStore.getLinkCount(filesystem.resolve(blob)));
+    CacheResult result =
+        Futures.getUnchecked(
+            dirArtifactCache.fetchAsync(ruleKeyX, LazyPath.ofInstance(Paths.get("out"))));
+    assertEquals(CacheResultType.HIT, result.getType());
+    assertEquals(ImmutableMap.of("key", "value"), result.getMetadata());
+    assertEquals(Optional.of("payload"), filesystem.readFileIfItExists(Paths.get("out")));
+    // Rewriting a fetched output in place must not change the entries sharing its blob.
+    assertEquals(3, ContentAddressedBlobStore.getLinkCount(filesystem.resolve(blob)));
+    Files.write(filesystem.resolve("out"), "rewritten".getBytes(UTF_8));
+    Futures.getUnchecked(
+        dirArtifactCache.fetchAsync(ruleKeyY, LazyPath.ofInstance(Paths.get("out-y"))));
+    assertEquals(Optional.of("payload"), filesystem.readFileIfItExists(Paths.get("out-y")));
+    filesystem.deleteFileAtPath(Paths.get("out"));
+    filesystem.deleteFileAtPath(Paths.get("out-y"));
+    dirArtifactCache.close();
+
+    dirArtifactCache =
+        new DirArtifactCache(
+            "dir",
+            filesystem,
+            Paths.get("cache"),
+            CacheReadMode.READWRITE,
+            /* maxCacheSizeBytes */ Optional.of(1L),
+            /* indexed */ true,
+            Optional.of(blobStore));
+    dirArtifactCache.deleteOldFiles();
+
+    assertFalse(filesystem.exists(dirArtifactCache.getPathForRuleKey(ruleKeyX, Optional.empty())));
+    assertFalse(filesystem.exists(dirArtifactCache.getPathForRuleKey(ruleKeyY, Optional.empty())));
+    assertFalse(filesystem.exists(blob));
+  }
+
   private static class BuildRuleForTest extends FakeBuildRule {
 
     @SuppressWarnings("PMD.UnusedPrivateField")
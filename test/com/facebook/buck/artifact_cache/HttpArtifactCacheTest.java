@@ -18,6 +18,7 @@ package com.facebook.buck.artifact_cache;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
@@ -26,12 +27,15 @@ import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.event.DefaultBuckEventBus;
 import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
 import com.facebook.buck.model.BuildId;
 import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.slb.HttpResponse;
 import com.facebook.buck.slb.HttpService;
 import com.facebook.buck.slb.OkHttpResponseWrapper;
 import com.facebook.buck.testutil.FakeProjectFilesystem;
+import com.facebook.buck.testutil.integration.TemporaryPaths;
 import com.facebook.buck.timing.IncrementingFakeClock;
 import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableMap;
@@ -45,6 +49,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -62,6 +67,7 @@ import okhttp3.ResponseBody;
 import okio.Buffer;
 import org.hamcrest.Matchers;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
 
 public class HttpArtifactCacheTest {
@@ -76,6 +82,8 @@ public class HttpArtifactCacheTest {
   private static final String ERROR_TEXT_TEMPLATE =
       "{cache_name} encountered an error: {error_message}";
 
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
   private NetworkCacheArgs.Builder argsBuilder;
 
   private ResponseBody createResponseBody(
@@ -300,6 +308,147 @@ public class HttpArtifactCacheTest {
     cache.close();
   }
 
+  @Test
+  public void testStreamingFetchPassesPayloadToOutput() throws Exception {
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    final String data = "test";
+    final RuleKey ruleKey = new RuleKey("00000000000000000000000000000000");
+    argsBuilder.setProjectFilesystem(filesystem).setStreamingFetchEnabled(true);
+    argsBuilder.setFetchClient(
+        withMakeRequest(
+            (path, requestBuilder) -> {
+              Request request = requestBuilder.url(SERVER + path).build();
+              return new OkHttpResponseWrapper(
+                  new Response.Builder()
+                      .request(request)
+                      .protocol(Protocol.HTTP_1_1)
+                      .code(HttpURLConnection.HTTP_OK)
+                      .body(
+                          createResponseBody(
+                              ImmutableSet.of(ruleKey),
+                              ImmutableMap.of(),
+                              ByteSource.wrap(data.getBytes(Charsets.UTF_8)),
+                              data))
+                      .build());
+            }));
+    HttpArtifactCache cache = new HttpArtifactCache(argsBuilder.build());
+    Path output = tmp.getRoot().resolve("output/file");
+    ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+    StreamingFetchOutput streamingOutput =
+        new StreamingFetchOutput() {
+          @Override
+          protected Path create() {
+            return output;
+          }
+
+          @Override
+          protected void consumePayload(InputStream payload) throws IOException {
+            // Stop early: the rest of the payload must still make it to the output.
+            streamed.write(payload.read());
+            streamed.write(payload.read());
+          }
+        };
+
+    CacheResult result = Futures.getUnchecked(cache.fetchAsync(ruleKey, streamingOutput));
+    assertEquals(result.cacheError().orElse(""), CacheResultType.HIT, result.getType());
+    assertEquals("te", streamed.toString(Charsets.UTF_8.name()));
+    assertEquals(Optional.of(data), filesystem.readFileIfItExists(output));
+    assertTrue(streamingOutput.isPayloadConsumed());
+    cache.close();
+  }
+
+  @Test
+  public void testStreamingFetchBadChecksum() throws Exception {
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    final RuleKey ruleKey = new RuleKey("00000000000000000000000000000000");
+    argsBuilder.setProjectFilesystem(filesystem).setStreamingFetchEnabled(true);
+    argsBuilder.setFetchClient(
+        withMakeRequest(
+            (path, requestBuilder) -> {
+              Request request = requestBuilder.url(SERVER + path).build();
+              return new OkHttpResponseWrapper(
+                  new Response.Builder()
+                      .request(request)
+                      .protocol(Protocol.HTTP_1_1)
+                      .code(HttpURLConnection.HTTP_OK)
+                      .body(
+                          createResponseBody(
+                              ImmutableSet.of(ruleKey),
+                              ImmutableMap.of(),
+                              ByteSource.wrap(new byte[0]),
+                              "data"))
+                      .build());
+            }));
+    HttpArtifactCache cache = new HttpArtifactCache(argsBuilder.build());
+    Path output = tmp.getRoot().resolve("output/file");
+    AtomicBoolean consumed = new AtomicBoolean();
+    StreamingFetchOutput streamingOutput =
+        new StreamingFetchOutput() {
+          @Override
+          protected Path create() {
+            return output;
+          }
+
+          @Override
+          protected void consumePayload(InputStream payload) {
+            consumed.set(true);
+          }
+        };
+
+    CacheResult result = Futures.getUnchecked(cache.fetchAsync(ruleKey, streamingOutput));
+    assertEquals(CacheResultType.ERROR, result.getType());
+    assertTrue(consumed.get());
+    assertFalse(streamingOutput.isPayloadConsumed());
+    assertEquals(Optional.empty(), filesystem.readFileIfItExists(output));
+    cache.close();
+  }
+
+  @Test
+  public void testStreamingFetchSkipsTwoLevelStubs() throws Exception {
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    final RuleKey ruleKey = new RuleKey("00000000000000000000000000000000");
+    final String data = "0123456789abcdef";
+    argsBuilder.setProjectFilesystem(filesystem).setStreamingFetchEnabled(true);
+    argsBuilder.setFetchClient(
+        withMakeRequest(
+            (path, requestBuilder) -> {
+              Request request = requestBuilder.url(SERVER + path).build();
+              return new OkHttpResponseWrapper(
+                  new Response.Builder()
+                      .request(request)
+                      .protocol(Protocol.HTTP_1_1)
+                      .code(HttpURLConnection.HTTP_OK)
+                      .body(
+                          createResponseBody(
+                              ImmutableSet.of(ruleKey),
+                              ImmutableMap.of(TwoLevelArtifactCacheDecorator.METADATA_KEY, data),
+                              ByteSource.wrap(new byte[0]),
+                              ""))
+                      .build());
+            }));
+    HttpArtifactCache cache = new HttpArtifactCache(argsBuilder.build());
+    Path output = tmp.getRoot().resolve("output/file");
+    AtomicBoolean consumed = new AtomicBoolean();
+    StreamingFetchOutput streamingOutput =
+        new StreamingFetchOutput() {
+          @Override
+          protected Path create() {
+            return output;
+          }
+
+          @Override
+          protected void consumePayload(InputStream payload) {
+            consumed.set(true);
+          }
+        };
+
+    CacheResult result = Futures.getUnchecked(cache.fetchAsync(ruleKey, streamingOutput));
+    assertEquals(result.cacheError().orElse(""), CacheResultType.HIT, result.getType());
+    assertFalse(consumed.get());
+    assertFalse(streamingOutput.isPayloadConsumed());
+    cache.close();
+  }
+
   @Test
   public void testFetchIOException() throws Exception {
     FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
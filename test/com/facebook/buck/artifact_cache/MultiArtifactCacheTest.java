@@ -19,6 +19,7 @@ package com.facebook.buck.artifact_cache;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.io.file.BorrowablePath;
 import com.facebook.buck.io.file.LazyPath;
@@ -28,12 +29,15 @@ import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.testutil.integration.TemporaryPaths;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicReference;
@@ -313,4 +317,68 @@ public class MultiArtifactCacheTest {
 
     multiArtifactCache.close();
   }
+
+  @Test
+  public void multiFetchAsksLaterCachesOnlyForTheMisses() throws Exception {
+    RuleKey firstCacheKey = new RuleKey("aaaa");
+    RuleKey secondCacheKey = new RuleKey("bbbb");
+    RuleKey missingKey = new RuleKey("cccc");
+    List<ImmutableSet<RuleKey>> secondCacheRequests = new ArrayList<>();
+    InMemoryArtifactCache cache1 = new InMemoryArtifactCache();
+    InMemoryArtifactCache cache2 =
+        new InMemoryArtifactCache() {
+          @Override
+          public ImmutableMap<RuleKey, ListenableFuture<CacheResult>> multiFetchAsync(
+              ImmutableMap<RuleKey, LazyPath> requests) {
+            secondCacheRequests.add(requests.keySet());
+            return super.multiFetchAsync(requests);
+          }
+        };
+    MultiArtifactCache multiArtifactCache =
+        new MultiArtifactCache(ImmutableList.of(cache1, cache2));
+    cache1.store(ArtifactInfo.builder().addRuleKeys(firstCacheKey).build(), new byte[0]);
+    cache2.store(ArtifactInfo.builder().addRuleKeys(secondCacheKey).build(), new byte[0]);
+
+    ImmutableMap<RuleKey, ListenableFuture<CacheResult>> results =
+        multiArtifactCache.multiFetchAsync(
+            ImmutableMap.of(
+                firstCacheKey, LazyPath.ofInstance(tmp.newFile("first")),
+                secondCacheKey, LazyPath.ofInstance(tmp.newFile("second")),
+                missingKey, LazyPath.ofInstance(tmp.newFile("missing"))));
+
+    assertEquals(CacheResultType.HIT, results.get(firstCacheKey).get().getType());
+    assertEquals(CacheResultType.HIT, results.get(secondCacheKey).get().getType());
+    assertEquals(CacheResultType.MISS, results.get(missingKey).get().getType());
+    assertEquals(
+        ImmutableList.of(ImmutableSet.of(secondCacheKey, missingKey)), secondCacheRequests);
+    assertTrue(
+        "Artifacts found in a later cache should be propagated to the earlier ones.",
+        cache1.hasArtifact(secondCacheKey));
+
+    multiArtifactCache.close();
+  }
+
+  @Test
+  public void multiContainsFindsArtifactsInAnyCache() throws Exception {
+    RuleKey firstCacheKey = new RuleKey("aaaa");
+    RuleKey secondCacheKey = new RuleKey("bbbb");
+    RuleKey missingKey = new RuleKey("cccc");
+    InMemoryArtifactCache cache1 = new InMemoryArtifactCache();
+    InMemoryArtifactCache cache2 = new InMemoryArtifactCache();
+    MultiArtifactCache multiArtifactCache =
+        new MultiArtifactCache(ImmutableList.of(cache1, cache2));
+    cache1.store(ArtifactInfo.builder().addRuleKeys(firstCacheKey).build(), new byte[0]);
+    cache2.store(ArtifactInfo.builder().addRuleKeys(secondCacheKey).build(), new byte[0]);
+
+    ImmutableMap<RuleKey, CacheResult> results =
+        multiArtifactCache
+            .multiContainsAsync(ImmutableSet.of(firstCacheKey, secondCacheKey, missingKey))
+            .get();
+
+    assertEquals(CacheResultType.CONTAINS, results.get(firstCacheKey).getType());
+    assertEquals(CacheResultType.CONTAINS, results.get(secondCacheKey).getType());
+    assertEquals(CacheResultType.MISS, results.get(missingKey).getType());
+
+    multiArtifactCache.close();
+  }
 }
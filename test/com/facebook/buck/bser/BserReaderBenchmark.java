@@ -0,0 +1,143 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.bser;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableMap;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Decodes a Watchman response listing changed files with {@link BserDeserializer}, and with {@link
+ * BserReader} both into maps and into the names of the files which exist. Run with {@code -i
+ * allocation} to compare how much each of them allocates as well as how long they take.
+ */
+public class BserReaderBenchmark {
+  @Param({"100", "10000"})
+  private int fileCount = 100;
+
+  private byte[] response;
+
+  @Before
+  public void setUpTest() throws IOException {
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() throws IOException {
+    List<Object> files = new ArrayList<>(fileCount);
+    for (int i = 0; i < fileCount; i++) {
+      files.add(
+          ImmutableMap.of(
+              "name",
+              String.format("java/com/example/package%d/Class%d.java", i / 50, i),
+              "exists",
+              i % 10 != 0,
+              "new",
+              i % 7 == 0,
+              "mode",
+              0644,
+              "size",
+              (long) i * 37));
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    new BserSerializer()
+        .serializeToStream(
+            ImmutableMap.of(
+                "version", "4.9.0",
+                "clock", "c:1508250000:1234:1:5678",
+                "is_fresh_instance", false,
+                "files", files),
+            bytes);
+    response = bytes.toByteArray();
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void decodersAgreeOnTheResponse() throws IOException {
+    Map<String, Object> deserialized = (Map<String, Object>) deserializer();
+    assertEquals(deserialized, readerIntoMaps());
+
+    List<String> existing = new ArrayList<>();
+    for (Object file : (List<Object>) deserialized.get("files")) {
+      Map<String, Object> fields = (Map<String, Object>) file;
+      if ((Boolean) fields.get("exists")) {
+        existing.add((String) fields.get("name"));
+      }
+    }
+    assertEquals(existing, readerIntoExistingFileNames());
+  }
+
+  @Benchmark
+  public Object deserializer() throws IOException {
+    return new BserDeserializer(BserDeserializer.KeyOrdering.UNSORTED)
+        .deserializeBserValue(new ByteArrayInputStream(response));
+  }
+
+  @Benchmark
+  public Object readerIntoMaps() throws IOException {
+    return BserReader.forNextValue(new ByteArrayInputStream(response)).readValue();
+  }
+
+  @Benchmark
+  public Object readerIntoExistingFileNames() throws IOException {
+    BserReader reader = BserReader.forNextValue(new ByteArrayInputStream(response));
+    List<String> existing = new ArrayList<>();
+    reader.beginObject();
+    while (reader.hasNext()) {
+      if (!reader.nextName().equals("files")) {
+        reader.skipValue();
+        continue;
+      }
+      reader.beginArray();
+      while (reader.hasNext()) {
+        String name = null;
+        boolean exists = true;
+        reader.beginObject();
+        while (reader.hasNext()) {
+          switch (reader.nextName()) {
+            case "name":
+              name = reader.nextString();
+              break;
+            case "exists":
+              exists = reader.nextBoolean();
+              break;
+            default:
+              reader.skipValue();
+          }
+        }
+        reader.endObject();
+        if (exists) {
+          existing.add(name);
+        }
+      }
+      reader.endArray();
+    }
+    reader.endObject();
+    return existing;
+  }
+}
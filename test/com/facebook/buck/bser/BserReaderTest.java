@@ -0,0 +1,233 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.bser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.BaseEncoding;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class BserReaderTest {
+  @Rule public ExpectedException thrown = ExpectedException.none();
+
+  private static final String TEMPLATE =
+      "000103280B0003020203046E616D6502030361676503030203046672656403140203"
+          + "0470657465031E0C0319";
+
+  private static InputStream serialize(Object... values) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    BserSerializer serializer = new BserSerializer();
+    for (Object value : values) {
+      serializer.serializeToStream(value, bytes);
+    }
+    return new ByteArrayInputStream(bytes.toByteArray());
+  }
+
+  @Test
+  public void readValueMatchesDeserializer() throws IOException {
+    Object value =
+        ImmutableMap.of(
+            "name",
+            "café",
+            "numbers",
+            ImmutableList.of((byte) 1, (short) 300, 70000, 5000000000L, 0.5),
+            "flags",
+            Arrays.asList(true, false, null),
+            "nested",
+            ImmutableMap.of("empty", ImmutableList.of()));
+
+    Object expected =
+        new BserDeserializer(BserDeserializer.KeyOrdering.UNSORTED)
+            .deserializeBserValue(serialize(value));
+    assertEquals(expected, BserReader.forNextValue(serialize(value)).readValue());
+  }
+
+  @Test
+  public void decodesOnlyTheRequestedFieldsAndSkipsTheOthers() throws IOException {
+    InputStream input =
+        serialize(
+            ImmutableMap.of(
+                "ignored",
+                ImmutableMap.of("list", ImmutableList.of("a", 1, 2.0, true)),
+                "files",
+                ImmutableList.of(
+                    ImmutableMap.of("name", "foo", "exists", true),
+                    ImmutableMap.of("name", "bar", "exists", false)),
+                "clock",
+                "c:123"),
+            "next");
+
+    BserReader reader = BserReader.forNextValue(input);
+    List<String> existing = new ArrayList<>();
+    String clock = null;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      switch (reader.nextName()) {
+        case "files":
+          assertEquals(2, reader.beginArray());
+          while (reader.hasNext()) {
+            String name = null;
+            boolean exists = false;
+            reader.beginObject();
+            while (reader.hasNext()) {
+              switch (reader.nextName()) {
+                case "name":
+                  name = reader.nextString();
+                  break;
+                case "exists":
+                  exists = reader.nextBoolean();
+                  break;
+                default:
+                  reader.skipValue();
+              }
+            }
+            reader.endObject();
+            if (exists) {
+              existing.add(name);
+            }
+          }
+          reader.endArray();
+          break;
+        case "clock":
+          clock = reader.nextString();
+          break;
+        default:
+          reader.skipValue();
+      }
+    }
+    reader.endObject();
+    reader.finish();
+
+    assertEquals(ImmutableList.of("foo"), existing);
+    assertEquals("c:123", clock);
+    assertEquals("next", BserReader.forNextValue(input).nextString());
+  }
+
+  @Test
+  public void readsTemplatesAsArraysOfObjects() throws IOException {
+    BserReader reader =
+        BserReader.forNextValue(
+            new ByteArrayInputStream(BaseEncoding.base16().decode(TEMPLATE)));
+    assertEquals(BserReader.Token.ARRAY, reader.peek());
+    assertEquals(3, reader.beginArray());
+
+    List<String> fields = new ArrayList<>();
+    while (reader.hasNext()) {
+      assertEquals(BserReader.Token.OBJECT, reader.peek());
+      reader.beginObject();
+      while (reader.hasNext()) {
+        String name = reader.nextName();
+        fields.add(name + "=" + (name.equals("age") ? reader.nextInt() : reader.nextString()));
+      }
+      reader.endObject();
+    }
+    reader.endArray();
+
+    assertEquals(
+        ImmutableList.of("name=fred", "age=20", "name=pete", "age=30", "age=25"), fields);
+  }
+
+  @Test
+  public void skipsTemplates() throws IOException {
+    BserReader reader =
+        BserReader.forNextValue(
+            new ByteArrayInputStream(BaseEncoding.base16().decode(TEMPLATE)));
+    reader.beginArray();
+    reader.skipValue();
+    reader.skipValue();
+    reader.beginObject();
+    assertEquals("age", reader.nextName());
+    assertEquals(25L, reader.nextLong());
+    assertFalse(reader.hasNext());
+    reader.endObject();
+    reader.endArray();
+  }
+
+  @Test
+  public void readsStringsLargerThanTheBuffer() throws IOException {
+    String large = Strings.repeat("éabc", 10 * 1024);
+    BserReader reader = BserReader.forNextValue(serialize(ImmutableList.of(large, large)));
+    assertEquals(2, reader.beginArray());
+    reader.skipValue();
+    assertTrue(reader.hasNext());
+    assertEquals(large, reader.nextString());
+    reader.endArray();
+  }
+
+  @Test
+  public void numbersAreBoxedLikeTheDeserializerBoxesThem() throws IOException {
+    BserReader reader =
+        BserReader.forNextValue(
+            serialize(ImmutableList.of((byte) 1, (short) 300, 70000, 5000000000L, 0.5)));
+    reader.beginArray();
+    assertEquals((byte) 1, reader.nextNumber());
+    assertEquals((short) 300, reader.nextNumber());
+    assertEquals(70000, reader.nextNumber());
+    assertEquals(5000000000L, reader.nextNumber());
+    assertEquals(0.5, reader.nextDouble(), 0);
+    reader.endArray();
+  }
+
+  @Test
+  public void nextIntRejectsLongs() throws IOException {
+    BserReader reader = BserReader.forNextValue(serialize(5000000000L));
+    thrown.expect(IOException.class);
+    thrown.expectMessage("does not fit in an int");
+    reader.nextInt();
+  }
+
+  @Test
+  public void unexpectedTypesAreReported() throws IOException {
+    BserReader reader = BserReader.forNextValue(serialize("foo"));
+    thrown.expect(IOException.class);
+    thrown.expectMessage("Expected an object");
+    reader.beginObject();
+  }
+
+  @Test
+  public void invalidUtf8IsRejected() throws IOException {
+    BserReader reader =
+        BserReader.forNextValue(
+            new ByteArrayInputStream(BaseEncoding.base16().decode("00010305020302C328")));
+    thrown.expect(IOException.class);
+    thrown.expectMessage("Invalid UTF-8");
+    reader.nextString();
+  }
+
+  @Test
+  public void readsNoFurtherThanTheValue() throws IOException {
+    InputStream input =
+        new ByteArrayInputStream(BaseEncoding.base16().decode("00010303020303666F6F"));
+    BserReader reader = BserReader.forNextValue(input);
+    thrown.expect(BserDeserializer.BserEofException.class);
+    reader.nextString();
+  }
+}
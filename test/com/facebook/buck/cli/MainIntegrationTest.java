@@ -134,6 +134,7 @@ public class MainIntegrationTest {
             "  build          builds the specified target",
             "  cache          makes calls to the artifact cache",
             "  clean          deletes any generated files",
+            "  critical-path  prints the critical path of the last build",
             "  distbuild      attaches to a distributed build (experimental)",
             "  doctor         debug and fix issues of Buck commands",
             "  fetch          downloads remote resources to your local machine",
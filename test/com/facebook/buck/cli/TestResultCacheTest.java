@@ -0,0 +1,232 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.artifact_cache.InMemoryArtifactCache;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.jvm.java.FakeJavaLibrary;
+import com.facebook.buck.jvm.java.JavaTest;
+import com.facebook.buck.jvm.java.JavaTestBuilder;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.rules.BuildRuleResolver;
+import com.facebook.buck.rules.BuildRules;
+import com.facebook.buck.rules.DefaultTargetNodeToBuildRuleTransformer;
+import com.facebook.buck.rules.FakeBuildEngine;
+import com.facebook.buck.rules.FakeTestRule;
+import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.rules.SingleThreadedBuildRuleResolver;
+import com.facebook.buck.rules.TargetGraph;
+import com.facebook.buck.rules.TestBuildRuleParams;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.test.TestCaseSummary;
+import com.facebook.buck.test.TestResultSummary;
+import com.facebook.buck.test.TestResults;
+import com.facebook.buck.test.TestRunningOptions;
+import com.facebook.buck.test.result.type.ResultType;
+import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class TestResultCacheTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private static final BuildTarget TARGET = BuildTargetFactory.newInstance("//:test");
+  private static final Path OUTPUT_DIRECTORY = Paths.get("buck-out/gen/__java_test_test_output__");
+
+  private ProjectFilesystem filesystem;
+  private InMemoryArtifactCache artifactCache;
+  private FakeBuildEngine buildEngine;
+
+  @Before
+  public void setUp() throws InterruptedException {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    artifactCache = new InMemoryArtifactCache();
+    buildEngine =
+        new FakeBuildEngine(ImmutableMap.of(), ImmutableMap.of(TARGET, new RuleKey("aaaa")));
+  }
+
+  @Test
+  public void outputsOfPassingTestsAreFetchedBackIntoTheOutputDirectory() throws Exception {
+    FakeTestRule test = createTestRule(ImmutableSet.of());
+    filesystem.mkdirs(OUTPUT_DIRECTORY);
+    filesystem.writeContentsToPath("<testcase/>", OUTPUT_DIRECTORY.resolve("FooTest.xml"));
+
+    TestResultCache storingCache = createCache(cachingOptions().build());
+    storingCache.store(test, createResults(ResultType.SUCCESS));
+    storingCache.waitForStores();
+    assertEquals(1, artifactCache.getArtifactCount());
+
+    filesystem.deleteRecursivelyIfExists(OUTPUT_DIRECTORY);
+    filesystem.mkdirs(OUTPUT_DIRECTORY);
+    filesystem.writeContentsToPath("<stale/>", OUTPUT_DIRECTORY.resolve("BarTest.xml"));
+
+    TestResultCache fetchingCache = createCache(cachingOptions().build());
+    assertEquals(ImmutableSet.of(TARGET), fetchingCache.fetch(ImmutableList.of(test)));
+    assertEquals(
+        Optional.of("<testcase/>"),
+        filesystem.readFileIfItExists(OUTPUT_DIRECTORY.resolve("FooTest.xml")));
+    assertFalse(filesystem.exists(OUTPUT_DIRECTORY.resolve("BarTest.xml")));
+  }
+
+  @Test
+  public void outputsOfFailingTestsAreNotStored() throws Exception {
+    FakeTestRule test = createTestRule(ImmutableSet.of());
+    filesystem.mkdirs(OUTPUT_DIRECTORY);
+    filesystem.writeContentsToPath("<testcase/>", OUTPUT_DIRECTORY.resolve("FooTest.xml"));
+
+    TestResultCache cache = createCache(cachingOptions().build());
+    cache.store(test, createResults(ResultType.FAILURE));
+    cache.waitForStores();
+
+    assertEquals(0, artifactCache.getArtifactCount());
+  }
+
+  @Test
+  public void testsWithANonHermeticLabelAreNeverCached() throws Exception {
+    TestResultCache cache =
+        createCache(cachingOptions().setNonHermeticTestLabels(ImmutableSet.of("network")).build());
+
+    assertFalse(cache.isCacheable(createTestRule(ImmutableSet.of("network"))));
+    assertTrue(cache.isCacheable(createTestRule(ImmutableSet.of("non_hermetic"))));
+    assertTrue(cache.isCacheable(createTestRule(ImmutableSet.of())));
+  }
+
+  @Test
+  public void testsAreNotCachedUnlessEnabled() throws Exception {
+    TestResultCache cache = createCache(TestRunningOptions.builder().build());
+
+    assertFalse(cache.isCacheable(createTestRule(ImmutableSet.of())));
+  }
+
+  @Test
+  public void keyDependsOnTheEnvironmentOverrides() throws Exception {
+    FakeTestRule test = createTestRule(ImmutableSet.of());
+
+    RuleKey key = createCache(cachingOptions().build()).getKey(test);
+    RuleKey keyWithEnvironment =
+        createCache(cachingOptions().setEnvironmentOverrides(ImmutableMap.of("A", "1")).build())
+            .getKey(test);
+
+    assertEquals(key, createCache(cachingOptions().build()).getKey(test));
+    assertNotEquals(key, keyWithEnvironment);
+    assertNotEquals(new RuleKey("aaaa"), key);
+  }
+
+  @Test
+  public void keyChangesWithTheImplementationOfATransitiveRuntimeDep() throws Exception {
+    BuildRuleResolver resolver =
+        new SingleThreadedBuildRuleResolver(
+            TargetGraph.EMPTY, new DefaultTargetNodeToBuildRuleTransformer());
+    FakeJavaLibrary transitiveDep =
+        resolver.addToIndex(
+            new FakeJavaLibrary(BuildTargetFactory.newInstance("//:transitive_dep")));
+    FakeJavaLibrary firstOrderDep =
+        resolver.addToIndex(
+            new FakeJavaLibrary(
+                BuildTargetFactory.newInstance("//:first_order_dep"),
+                ImmutableSortedSet.of(transitiveDep)));
+    JavaTest test =
+        JavaTestBuilder.createBuilder(TARGET)
+            .addSrc(Paths.get("ExampleTest.java"))
+            .addDep(firstOrderDep.getBuildTarget())
+            .build(resolver);
+
+    // With compile_against_abis, a change to the implementation of a dep changes neither the
+    // rule key of the test nor those of the rules compiling against the dep.
+    Map<BuildTarget, RuleKey> ruleKeys = new HashMap<>();
+    ruleKeys.put(TARGET, new RuleKey("aaaa"));
+    for (BuildTarget runtimeDep : BuildRules.getTransitiveRuntimeDeps(test, resolver)) {
+      ruleKeys.put(runtimeDep, new RuleKey("bbbb"));
+    }
+    RuleKey key = createCache(cachingOptions().build(), ruleKeys, resolver).getKey(test);
+    ruleKeys.put(transitiveDep.getBuildTarget(), new RuleKey("cccc"));
+    RuleKey keyAfterChange =
+        createCache(cachingOptions().build(), ruleKeys, resolver).getKey(test);
+
+    assertNotEquals(key, keyAfterChange);
+  }
+
+  private TestRunningOptions.Builder cachingOptions() {
+    return TestRunningOptions.builder().setCachingTestResults(true);
+  }
+
+  private TestResultCache createCache(TestRunningOptions options) {
+    return new TestResultCache(
+        artifactCache,
+        buildEngine,
+        new SingleThreadedBuildRuleResolver(
+            TargetGraph.EMPTY, new DefaultTargetNodeToBuildRuleTransformer()),
+        TestExecutionContext.newInstance(),
+        options);
+  }
+
+  private TestResultCache createCache(
+      TestRunningOptions options,
+      Map<BuildTarget, RuleKey> ruleKeys,
+      BuildRuleResolver resolver) {
+    return new TestResultCache(
+        artifactCache,
+        new FakeBuildEngine(ImmutableMap.of(), ruleKeys),
+        resolver,
+        TestExecutionContext.newInstance(),
+        options);
+  }
+
+  private FakeTestRule createTestRule(ImmutableSet<String> labels) {
+    return new FakeTestRule(
+        TARGET,
+        filesystem,
+        TestBuildRuleParams.create(),
+        labels,
+        Optional.of(OUTPUT_DIRECTORY),
+        /* runTestSeparately */ false,
+        ImmutableList.of(),
+        () -> {
+          throw new UnsupportedOperationException();
+        });
+  }
+
+  private static TestResults createResults(ResultType type) {
+    return TestResults.of(
+        TARGET,
+        ImmutableList.of(
+            new TestCaseSummary(
+                "FooTest",
+                ImmutableList.of(
+                    new TestResultSummary("FooTest", "testFoo", type, 1, null, null, null, null)))),
+        ImmutableSet.of(),
+        ImmutableSet.of());
+  }
+}
@@ -27,6 +27,8 @@ import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.artifact_cache.CacheResult;
+import com.facebook.buck.artifact_cache.NoopArtifactCache;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.jvm.java.DefaultJavaPackageFinder;
 import com.facebook.buck.jvm.java.JavaLibrary;
 import com.facebook.buck.jvm.java.JavaLibraryBuilder;
@@ -496,10 +498,10 @@ public class TestRunningTest {
                 separateTest3Target, new RuleKey("00")));
     ExecutionContext fakeExecutionContext = TestExecutionContext.newInstance();
     DefaultStepRunner stepRunner = new DefaultStepRunner();
-    SourcePathRuleFinder ruleFinder =
-        new SourcePathRuleFinder(
-            new SingleThreadedBuildRuleResolver(
-                TargetGraph.EMPTY, new DefaultTargetNodeToBuildRuleTransformer()));
+    BuildRuleResolver ruleResolver =
+        new SingleThreadedBuildRuleResolver(
+            TargetGraph.EMPTY, new DefaultTargetNodeToBuildRuleTransformer());
+    SourcePathRuleFinder ruleFinder = new SourcePathRuleFinder(ruleResolver);
     int ret =
         TestRunning.runTests(
             commandRunnerParams,
@@ -508,9 +510,10 @@ public class TestRunningTest {
             DEFAULT_OPTIONS,
             service,
             fakeBuildEngine,
+            new NoopArtifactCache(),
             stepRunner,
             FakeBuildContext.withSourcePathResolver(DefaultSourcePathResolver.from(ruleFinder)),
-            ruleFinder);
+            ruleResolver);
 
     assertThat(ret, equalTo(0));
     assertThat(separateTestStep1.getExecutionBeginOrder(), equalTo(Optional.of(0)));
@@ -665,10 +668,10 @@ public class TestRunningTest {
                 .build());
     ExecutionContext fakeExecutionContext = TestExecutionContext.newInstance();
     DefaultStepRunner stepRunner = new DefaultStepRunner();
-    SourcePathRuleFinder ruleFinder =
-        new SourcePathRuleFinder(
-            new SingleThreadedBuildRuleResolver(
-                TargetGraph.EMPTY, new DefaultTargetNodeToBuildRuleTransformer()));
+    BuildRuleResolver ruleResolver =
+        new SingleThreadedBuildRuleResolver(
+            TargetGraph.EMPTY, new DefaultTargetNodeToBuildRuleTransformer());
+    SourcePathRuleFinder ruleFinder = new SourcePathRuleFinder(ruleResolver);
     int ret =
         TestRunning.runTests(
             commandRunnerParams,
@@ -683,9 +686,10 @@ public class TestRunningTest {
             DEFAULT_OPTIONS,
             service,
             fakeBuildEngine,
+            new NoopArtifactCache(),
             stepRunner,
             FakeBuildContext.withSourcePathResolver(DefaultSourcePathResolver.from(ruleFinder)),
-            ruleFinder);
+            ruleResolver);
 
     assertThat(ret, equalTo(0));
 
@@ -748,6 +752,81 @@ public class TestRunningTest {
         actualSeparateStepExecutionOrderList, equalTo(expectedSeparateStepExecutionOrderList));
   }
 
+  @Test
+  public void parallelTestsWhichTookLongestInThePreviousRunStartFirst() throws Exception {
+    CommandRunnerParams commandRunnerParams = CommandRunnerParamsForTesting.builder().build();
+    ProjectFilesystem filesystem = commandRunnerParams.getCell().getFilesystem();
+    Path historyPath = TestDurationHistory.getPath(filesystem);
+    filesystem.mkdirs(historyPath.getParent());
+    filesystem.writeContentsToPath(
+        "{\"//:fast\":{\"FastTest\":10},\"//:slow\":{\"SlowTest\":5000}}", historyPath);
+
+    AtomicInteger atomicExecutionOrder = new AtomicInteger(0);
+    BuildTarget fastTarget = BuildTargetFactory.newInstance("//:fast");
+    ExecutionOrderAwareFakeStep fastTestStep =
+        new ExecutionOrderAwareFakeStep("fast", "fast", 0, atomicExecutionOrder);
+    FakeTestRule fastTest =
+        new FakeTestRule(
+            fastTarget,
+            new FakeProjectFilesystem(),
+            TestBuildRuleParams.create(),
+            ImmutableSet.of(),
+            Optional.of(Paths.get("fastTestOutputDir")),
+            false, // runTestSeparately
+            ImmutableList.of(fastTestStep),
+            () -> newSingleTestResults(fastTarget, "FastTest", 20));
+    BuildTarget slowTarget = BuildTargetFactory.newInstance("//:slow");
+    ExecutionOrderAwareFakeStep slowTestStep =
+        new ExecutionOrderAwareFakeStep("slow", "slow", 0, atomicExecutionOrder);
+    FakeTestRule slowTest =
+        new FakeTestRule(
+            slowTarget,
+            new FakeProjectFilesystem(),
+            TestBuildRuleParams.create(),
+            ImmutableSet.of(),
+            Optional.of(Paths.get("slowTestOutputDir")),
+            false, // runTestSeparately
+            ImmutableList.of(slowTestStep),
+            () -> newSingleTestResults(slowTarget, "SlowTest", 4000));
+
+    FakeBuildEngine fakeBuildEngine =
+        new FakeBuildEngine(
+            ImmutableMap.of(
+                fastTarget,
+                BuildResult.success(fastTest, BUILT_LOCALLY, CacheResult.miss()),
+                slowTarget,
+                BuildResult.success(slowTest, BUILT_LOCALLY, CacheResult.miss())),
+            ImmutableMap.of(fastTarget, new RuleKey("00"), slowTarget, new RuleKey("00")));
+    BuildRuleResolver ruleResolver =
+        new SingleThreadedBuildRuleResolver(
+            TargetGraph.EMPTY, new DefaultTargetNodeToBuildRuleTransformer());
+    SourcePathRuleFinder ruleFinder = new SourcePathRuleFinder(ruleResolver);
+    int ret =
+        TestRunning.runTests(
+            commandRunnerParams,
+            ImmutableList.of(fastTest, slowTest),
+            TestExecutionContext.newInstance(),
+            DEFAULT_OPTIONS,
+            MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor()),
+            fakeBuildEngine,
+            new NoopArtifactCache(),
+            new DefaultStepRunner(),
+            FakeBuildContext.withSourcePathResolver(DefaultSourcePathResolver.from(ruleFinder)),
+            ruleResolver);
+
+    assertThat(ret, equalTo(0));
+    assertThat(slowTestStep.getExecutionBeginOrder(), equalTo(Optional.of(0)));
+    assertThat(fastTestStep.getExecutionBeginOrder(), equalTo(Optional.of(2)));
+
+    TestDurationHistory durationHistory = TestDurationHistory.load(filesystem);
+    assertThat(
+        durationHistory.getTestClassDurations(slowTarget),
+        equalTo(ImmutableMap.of("SlowTest", 4000L)));
+    assertThat(
+        durationHistory.getTestClassDurations(fastTarget),
+        equalTo(ImmutableMap.of("FastTest", 20L)));
+  }
+
   @Test
   public void whenSeparateTestFailsThenBuildFails() throws Exception {
     CommandRunnerParams commandRunnerParams = CommandRunnerParamsForTesting.builder().build();
@@ -767,10 +846,10 @@ public class TestRunningTest {
                             null,
                             null)))));
     BuildTarget failingTestTarget = BuildTargetFactory.newInstance("//:failingtest");
-    SourcePathRuleFinder ruleFinder =
-        new SourcePathRuleFinder(
-            new SingleThreadedBuildRuleResolver(
-                TargetGraph.EMPTY, new DefaultTargetNodeToBuildRuleTransformer()));
+    BuildRuleResolver ruleResolver =
+        new SingleThreadedBuildRuleResolver(
+            TargetGraph.EMPTY, new DefaultTargetNodeToBuildRuleTransformer());
+    SourcePathRuleFinder ruleFinder = new SourcePathRuleFinder(ruleResolver);
     SourcePathResolver resolver = DefaultSourcePathResolver.from(ruleFinder);
     FakeTestRule failingTest =
         new FakeTestRule(
@@ -801,10 +880,32 @@ public class TestRunningTest {
             DEFAULT_OPTIONS,
             service,
             fakeBuildEngine,
+            new NoopArtifactCache(),
             stepRunner,
             FakeBuildContext.withSourcePathResolver(resolver),
-            ruleFinder);
+            ruleResolver);
 
     assertThat(ret, equalTo(TestRunning.TEST_FAILURES_EXIT_CODE));
   }
+
+  private static TestResults newSingleTestResults(
+      BuildTarget target, String testCaseName, long time) {
+    return TestResults.of(
+        target,
+        ImmutableList.of(
+            new TestCaseSummary(
+                testCaseName,
+                ImmutableList.of(
+                    new TestResultSummary(
+                        testCaseName,
+                        "passTest",
+                        ResultType.SUCCESS,
+                        time,
+                        null,
+                        null,
+                        null,
+                        null)))),
+        ImmutableSet.of(),
+        ImmutableSet.of());
+  }
 }
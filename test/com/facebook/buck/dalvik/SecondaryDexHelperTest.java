@@ -0,0 +1,217 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.dalvik;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.jvm.java.classes.AbstractFileLike;
+import com.facebook.buck.jvm.java.classes.FileLike;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.junit.Test;
+
+public class SecondaryDexHelperTest {
+
+  @Test
+  public void entriesFillOneZipAfterAnother() throws IOException {
+    FakeSecondaryDexHelper helper = new FakeSecondaryDexHelper(ImmutableMap.of());
+
+    write(helper, "A", "B", "C", "D", "E");
+
+    assertEquals(
+        ImmutableMap.of(
+            "secondary-1.jar", ImmutableList.of("A", "B"),
+            "secondary-2.jar", ImmutableList.of("C", "D"),
+            "secondary-3.jar", ImmutableList.of("E")),
+        helper.getContents());
+    assertEquals(0, helper.getUnderfilledZipCount());
+  }
+
+  @Test
+  public void entriesGoBackToTheZipsOfThePreviousSplit() throws IOException {
+    FakeSecondaryDexHelper helper =
+        new FakeSecondaryDexHelper(
+            ImmutableMap.<String, Integer>builder()
+                .put("A", 1)
+                .put("B", 1)
+                .put("C", 2)
+                .put("D", 2)
+                .put("E", 3)
+                .put("F", 3)
+                .put("G", 4)
+                .build());
+
+    // B was removed and X was added, which only changes the first and last zips.
+    write(helper, "A", "X", "C", "D", "E", "F", "G");
+
+    assertEquals(
+        ImmutableMap.of(
+            "secondary-1.jar", ImmutableList.of("A"),
+            "secondary-2.jar", ImmutableList.of("C", "D"),
+            "secondary-3.jar", ImmutableList.of("E", "F"),
+            "secondary-4.jar", ImmutableList.of("X", "G")),
+        helper.getContents());
+    // X would have fit in the first zip.
+    assertEquals(1, helper.getUnderfilledZipCount());
+  }
+
+  @Test
+  public void zipsStayContiguousWhenAllTheirEntriesAreRemoved() throws IOException {
+    FakeSecondaryDexHelper helper =
+        new FakeSecondaryDexHelper(ImmutableMap.of("A", 1, "B", 1, "C", 2, "D", 3));
+
+    write(helper, "A", "B", "D", "E", "F");
+
+    assertEquals(
+        ImmutableMap.of(
+            "secondary-1.jar", ImmutableList.of("A", "B"),
+            "secondary-2.jar", ImmutableList.of(),
+            "secondary-3.jar", ImmutableList.of("D", "E"),
+            "secondary-4.jar", ImmutableList.of("F")),
+        helper.getContents());
+    assertEquals(
+        ImmutableList.of(
+            Paths.get("secondary-1.jar"),
+            Paths.get("secondary-2.jar"),
+            Paths.get("secondary-3.jar"),
+            Paths.get("secondary-4.jar")),
+        helper.getFiles());
+    assertEquals(1, helper.getUnderfilledZipCount());
+  }
+
+  @Test
+  public void discardingThePreviousPlacementPacksTheZipsAfresh() throws IOException {
+    FakeSecondaryDexHelper helper =
+        new FakeSecondaryDexHelper(ImmutableMap.of("A", 1, "B", 1, "C", 2, "D", 3));
+
+    write(helper, "A", "D", "E");
+    assertEquals(2, helper.getUnderfilledZipCount());
+    helper.discardPreviousPlacement();
+    write(helper, "A", "D", "E");
+
+    // The third zip is left over from the first split, and isn't one of the files any more.
+    assertEquals(
+        ImmutableMap.of(
+            "secondary-1.jar", ImmutableList.of("A", "D"),
+            "secondary-2.jar", ImmutableList.of("E"),
+            "secondary-3.jar", ImmutableList.of("D", "E")),
+        helper.getContents());
+    assertEquals(
+        ImmutableList.of(Paths.get("secondary-1.jar"), Paths.get("secondary-2.jar")),
+        helper.getFiles());
+    assertEquals(0, helper.getUnderfilledZipCount());
+  }
+
+  private static void write(FakeSecondaryDexHelper helper, String... names) throws IOException {
+    helper.reset();
+    for (String name : names) {
+      FileLike entry = new FakeFileLike(name);
+      helper.getOutputToWriteTo(entry).putEntry(entry);
+    }
+    helper.close();
+  }
+
+  private static class FakeSecondaryDexHelper extends SecondaryDexHelper<FakeZipOutput> {
+
+    private final Map<String, FakeZipOutput> outputs = new TreeMap<>();
+
+    FakeSecondaryDexHelper(ImmutableMap<String, Integer> previousPlacement) {
+      super(
+          "secondary",
+          Paths.get(""),
+          "secondary-%d.jar",
+          ZipSplitter.CanaryStrategy.DONT_INCLUDE_CANARIES,
+          previousPlacement);
+    }
+
+    @Override
+    protected FakeZipOutput newZipOutput(Path file) {
+      FakeZipOutput output = new FakeZipOutput();
+      outputs.put(file.toString(), output);
+      return output;
+    }
+
+    ImmutableMap<String, ImmutableList<String>> getContents() {
+      ImmutableMap.Builder<String, ImmutableList<String>> contents = ImmutableMap.builder();
+      for (Map.Entry<String, FakeZipOutput> entry : outputs.entrySet()) {
+        contents.put(entry.getKey(), ImmutableList.copyOf(entry.getValue().entries));
+      }
+      return contents.build();
+    }
+  }
+
+  /** Holds at most two entries. */
+  private static class FakeZipOutput implements ZipOutputStreamHelper {
+
+    private final List<String> entries = new ArrayList<>();
+
+    @Override
+    public boolean canPutEntry(FileLike fileLike) {
+      return entries.size() < 2;
+    }
+
+    @Override
+    public void putEntry(FileLike fileLike) {
+      entries.add(fileLike.getRelativePath());
+    }
+
+    @Override
+    public boolean containsEntry(FileLike fileLike) {
+      return entries.contains(fileLike.getRelativePath());
+    }
+
+    @Override
+    public void close() {}
+  }
+
+  private static class FakeFileLike extends AbstractFileLike {
+
+    private final String relativePath;
+
+    FakeFileLike(String relativePath) {
+      this.relativePath = relativePath;
+    }
+
+    @Override
+    public Path getContainer() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String getRelativePath() {
+      return relativePath;
+    }
+
+    @Override
+    public long getSize() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public InputStream getInput() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.distributed;
+
+import com.facebook.buck.distributed.thrift.WorkUnit;
+import com.facebook.buck.util.ObjectMappers;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Replays a recorded build graph through a {@link MinionWorkloadAllocator}, as if minions with a
+ * fixed number of slots built each rule in exactly its recorded duration, and reports the makespan
+ * of the build, so that scheduling strategies can be compared.
+ *
+ * <p>A recorded graph is a JSON list of rules, each with its {@code target}, its rule {@code type},
+ * the {@code duration_millis} it took to build, and the targets of its {@code deps}.
+ */
+public class BuildTargetsQueueSimulator {
+
+  /** A rule of a recorded build graph. */
+  public static class RecordedRule {
+    @JsonProperty("target")
+    public String target;
+
+    @JsonProperty("type")
+    public String type;
+
+    @JsonProperty("duration_millis")
+    public long durationMillis;
+
+    @JsonProperty("deps")
+    public List<String> deps = new ArrayList<>();
+  }
+
+  /** The outcome of a simulated build. */
+  public static class Result {
+    private final long makespanMillis;
+    private final long lowerBoundMillis;
+
+    private Result(long makespanMillis, long lowerBoundMillis) {
+      this.makespanMillis = makespanMillis;
+      this.lowerBoundMillis = lowerBoundMillis;
+    }
+
+    public long getMakespanMillis() {
+      return makespanMillis;
+    }
+
+    /** No schedule can finish sooner than this: the critical path, or all the work split evenly. */
+    public long getLowerBoundMillis() {
+      return lowerBoundMillis;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "makespan [%s ms], lower bound [%s ms], %.2fx the lower bound",
+          makespanMillis, lowerBoundMillis, (double) makespanMillis / lowerBoundMillis);
+    }
+  }
+
+  private final Map<String, RecordedRule> rules;
+  private final int numberOfMinions;
+  private final int workUnitsPerMinion;
+
+  public BuildTargetsQueueSimulator(
+      List<RecordedRule> recordedGraph, int numberOfMinions, int workUnitsPerMinion) {
+    this.rules = new LinkedHashMap<>();
+    recordedGraph.forEach(rule -> rules.put(rule.target, rule));
+    this.numberOfMinions = numberOfMinions;
+    this.workUnitsPerMinion = workUnitsPerMinion;
+  }
+
+  public static ImmutableList<RecordedRule> readRecordedGraph(Path file) throws IOException {
+    return ImmutableList.copyOf(
+        ObjectMappers.readValue(file, new TypeReference<List<RecordedRule>>() {}));
+  }
+
+  /** The average recorded duration of each rule type, as a previous build would have recorded. */
+  public RuleTypeDurations getRecordedRuleTypeDurations() {
+    return RuleTypeDurations.of(
+        rules
+            .values()
+            .stream()
+            .collect(
+                Collectors.groupingBy(
+                    rule -> rule.type,
+                    Collectors.collectingAndThen(
+                        Collectors.averagingLong(rule -> rule.durationMillis), Math::round))));
+  }
+
+  /** Simulates a build whose queue orders the work units by critical path, using the estimates. */
+  public Result simulate(Function<RecordedRule, Long> estimatedMillis) {
+    Map<String, Set<String>> forwardDeps = new HashMap<>();
+    Map<String, Long> estimates = new HashMap<>();
+    for (RecordedRule rule : rules.values()) {
+      forwardDeps.put(rule.target, rule.deps.stream().collect(Collectors.toSet()));
+      estimates.put(rule.target, estimatedMillis.apply(rule));
+    }
+    MinionWorkloadAllocator allocator =
+        new MinionWorkloadAllocator(BuildTargetsQueue.newQueue(forwardDeps, estimates));
+
+    List<SimulatedMinion> minions = new ArrayList<>();
+    for (int i = 0; i < numberOfMinions; i++) {
+      minions.add(new SimulatedMinion("minion" + i, workUnitsPerMinion));
+    }
+    PriorityQueue<RuleCompletion> completions =
+        new PriorityQueue<>(
+            Comparator.<RuleCompletion>comparingLong(completion -> completion.timeMillis)
+                .thenComparingLong(completion -> completion.sequenceNumber));
+    long nowMillis = 0;
+    long sequenceNumber = 0;
+    while (true) {
+      for (SimulatedMinion minion : minions) {
+        List<WorkUnit> workUnits =
+            allocator.dequeueZeroDependencyNodes(
+                minion.id, minion.takeFinishedTargets(), minion.freeSlots);
+        for (WorkUnit workUnit : workUnits) {
+          minion.freeSlots--;
+          List<String> targets = workUnit.getBuildTargets();
+          completions.add(
+              new RuleCompletion(
+                  nowMillis + rules.get(targets.get(0)).durationMillis,
+                  sequenceNumber++,
+                  minion,
+                  targets,
+                  0));
+        }
+      }
+      if (completions.isEmpty()) {
+        if (!allocator.isBuildFinished()) {
+          throw new IllegalStateException("The simulated build stalled before finishing.");
+        }
+        break;
+      }
+
+      nowMillis = completions.peek().timeMillis;
+      while (!completions.isEmpty() && completions.peek().timeMillis == nowMillis) {
+        RuleCompletion completion = completions.remove();
+        completion.minion.finishedTargets.add(completion.targets.get(completion.index));
+        int next = completion.index + 1;
+        if (next < completion.targets.size()) {
+          completions.add(
+              new RuleCompletion(
+                  nowMillis + rules.get(completion.targets.get(next)).durationMillis,
+                  sequenceNumber++,
+                  completion.minion,
+                  completion.targets,
+                  next));
+        } else {
+          completion.minion.freeSlots++;
+        }
+      }
+    }
+
+    long totalMillis = rules.values().stream().mapToLong(rule -> rule.durationMillis).sum();
+    int slots = numberOfMinions * workUnitsPerMinion;
+    long lowerBoundMillis = Math.max(getCriticalPathMillis(), (totalMillis + slots - 1) / slots);
+    return new Result(nowMillis, lowerBoundMillis);
+  }
+
+  private long getCriticalPathMillis() {
+    Map<String, Long> pathMillis = new HashMap<>();
+    long longestPath = 0;
+    for (String target : rules.keySet()) {
+      longestPath = Math.max(longestPath, getPathMillis(target, pathMillis));
+    }
+    return longestPath;
+  }
+
+  private long getPathMillis(String target, Map<String, Long> pathMillis) {
+    Long cached = pathMillis.get(target);
+    if (cached != null) {
+      return cached;
+    }
+    RecordedRule rule = rules.get(target);
+    long longestDep = 0;
+    for (String dep : rule.deps) {
+      longestDep = Math.max(longestDep, getPathMillis(dep, pathMillis));
+    }
+    pathMillis.put(target, rule.durationMillis + longestDep);
+    return rule.durationMillis + longestDep;
+  }
+
+  private static class SimulatedMinion {
+    private final String id;
+    private int freeSlots;
+    private List<String> finishedTargets = new ArrayList<>();
+
+    private SimulatedMinion(String id, int slots) {
+      this.id = id;
+      this.freeSlots = slots;
+    }
+
+    private List<String> takeFinishedTargets() {
+      List<String> finished = finishedTargets;
+      finishedTargets = new ArrayList<>();
+      return finished;
+    }
+  }
+
+  private static class RuleCompletion {
+    private final long timeMillis;
+    private final long sequenceNumber;
+    private final SimulatedMinion minion;
+    private final List<String> targets;
+    private final int index;
+
+    private RuleCompletion(
+        long timeMillis,
+        long sequenceNumber,
+        SimulatedMinion minion,
+        List<String> targets,
+        int index) {
+      this.timeMillis = timeMillis;
+      this.sequenceNumber = sequenceNumber;
+      this.minion = minion;
+      this.targets = targets;
+      this.index = index;
+    }
+  }
+
+  /**
+   * Replays a recorded graph, and prints the makespan of the build when the work units are handed
+   * out in no particular order, and when they are ordered by critical path.
+   *
+   * <p>Usage: {@code BuildTargetsQueueSimulator <recorded graph> <minions> <work units per minion>}
+   */
+  public static void main(String[] args) throws IOException {
+    BuildTargetsQueueSimulator simulator =
+        new BuildTargetsQueueSimulator(
+            readRecordedGraph(Paths.get(args[0])),
+            Integer.parseInt(args[1]),
+            Integer.parseInt(args[2]));
+    RuleTypeDurations durations = simulator.getRecordedRuleTypeDurations();
+    System.out.println("Unordered:     " + simulator.simulate(rule -> 0L));
+    System.out.println(
+        "Critical path: " + simulator.simulate(rule -> durations.estimateMillis(rule.type)));
+  }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.distributed;
+
+import com.facebook.buck.testutil.integration.TestDataHelper;
+import java.io.IOException;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BuildTargetsQueueSimulatorTest {
+
+  @Test
+  public void testLongChainStartsFirstWithCriticalPathOrdering() throws IOException {
+    BuildTargetsQueueSimulator simulator =
+        new BuildTargetsQueueSimulator(
+            BuildTargetsQueueSimulator.readRecordedGraph(
+                TestDataHelper.getTestDataDirectory(this)
+                    .resolve("recorded_graphs")
+                    .resolve("long_chain.json")),
+            2,
+            1);
+    RuleTypeDurations durations = simulator.getRecordedRuleTypeDurations();
+
+    BuildTargetsQueueSimulator.Result unordered = simulator.simulate(rule -> 0L);
+    BuildTargetsQueueSimulator.Result criticalPath =
+        simulator.simulate(rule -> durations.estimateMillis(rule.type));
+
+    // The 60s chain waits for the 120s of independent rules to be built first.
+    Assert.assertEquals(120000, unordered.getMakespanMillis());
+    // The chain starts right away, and the independent rules fill in around it.
+    Assert.assertEquals(90000, criticalPath.getMakespanMillis());
+    Assert.assertEquals(90000, criticalPath.getLowerBoundMillis());
+  }
+}
@@ -35,8 +35,12 @@ import com.facebook.buck.rules.TargetGraph;
 import com.facebook.buck.rules.TestBuildRuleParams;
 import com.facebook.buck.testutil.integration.TemporaryPaths;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Maps;
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Stream;
 import org.junit.Assert;
 import org.junit.Rule;
@@ -111,6 +115,34 @@ public class BuildTargetsQueueTest {
             .size());
   }
 
+  @Test
+  public void testWorkUnitsWithLongestCriticalPathAreDequeuedFirst() {
+    ImmutableMap<String, Set<String>> forwardDeps =
+        ImmutableMap.of(
+            "//:root", ImmutableSet.of("//:a_short", "//:deep2"),
+            "//:a_short", ImmutableSet.of(),
+            "//:deep2", ImmutableSet.of("//:deep1"),
+            "//:deep1", ImmutableSet.of("//:deep0"),
+            "//:deep0", ImmutableSet.of());
+
+    BuildTargetsQueue queue =
+        BuildTargetsQueue.newQueue(
+            forwardDeps, Maps.toMap(forwardDeps.keySet(), target -> 1L));
+    List<WorkUnit> workUnits = queue.dequeueZeroDependencyNodes(ImmutableList.of(), 1);
+    Assert.assertEquals(1, workUnits.size());
+    Assert.assertEquals(
+        ImmutableList.of("//:deep0", "//:deep1", "//:deep2"), workUnits.get(0).getBuildTargets());
+
+    queue =
+        BuildTargetsQueue.newQueue(
+            forwardDeps,
+            Maps.toMap(
+                forwardDeps.keySet(), target -> target.equals("//:a_short") ? 10L : 1L));
+    workUnits = queue.dequeueZeroDependencyNodes(ImmutableList.of(), 1);
+    Assert.assertEquals(1, workUnits.size());
+    Assert.assertEquals(ImmutableList.of("//:a_short"), workUnits.get(0).getBuildTargets());
+  }
+
   @Test
   public void testResolverWithTargetThatHasRuntimeDep()
       throws NoSuchBuildTargetException, InterruptedException {
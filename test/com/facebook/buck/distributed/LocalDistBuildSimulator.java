@@ -0,0 +1,333 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.distributed;
+
+import com.facebook.buck.distributed.BuildTargetsQueueSimulator.RecordedRule;
+import com.facebook.buck.distributed.thrift.StampedeId;
+import com.facebook.buck.util.concurrent.MostExecutors;
+import com.google.common.base.Preconditions;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Runs a distributed build of a recorded graph entirely on this machine: a real coordinator, with
+ * its {@link ThriftCoordinatorServer}, and minions running in threads, which talk to it over
+ * localhost. The frontend is not involved, and the minions do not build or fetch anything: they
+ * sleep for the recorded duration of each rule, scaled down, instead.
+ *
+ * <p>This measures the overhead of the coordinator and of the minions' polling, which is what
+ * changes to scheduling and heartbeats affect, without needing a Stampede frontend or a build farm.
+ */
+public class LocalDistBuildSimulator {
+
+  private static final StampedeId STAMPEDE_ID = new StampedeId().setId("local_simulation");
+
+  /** What a simulated build measured. */
+  public static class Report {
+    private final int exitCode;
+    private final long wallMillis;
+    private final int targetsBuilt;
+    private final List<Long> queueWaitMillis;
+    private final double idleMinionPercentage;
+
+    private Report(
+        int exitCode,
+        long wallMillis,
+        int targetsBuilt,
+        List<Long> queueWaitMillis,
+        double idleMinionPercentage) {
+      this.exitCode = exitCode;
+      this.wallMillis = wallMillis;
+      this.targetsBuilt = targetsBuilt;
+      this.queueWaitMillis = queueWaitMillis;
+      this.idleMinionPercentage = idleMinionPercentage;
+    }
+
+    public int getExitCode() {
+      return exitCode;
+    }
+
+    public long getWallMillis() {
+      return wallMillis;
+    }
+
+    public int getTargetsBuilt() {
+      return targetsBuilt;
+    }
+
+    public double getTargetsPerSecond() {
+      return targetsBuilt * 1000.0 / Math.max(1, wallMillis);
+    }
+
+    /**
+     * How long each target waited between all its deps finishing, and a minion starting to build
+     * it, sorted.
+     */
+    public List<Long> getQueueWaitMillis() {
+      return queueWaitMillis;
+    }
+
+    /** How much of the minions' time was spent outside of building, while the build ran. */
+    public double getIdleMinionPercentage() {
+      return idleMinionPercentage;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "exit code [%d], [%d] targets in [%d ms], [%.1f] targets/s, "
+              + "queue wait p50 [%d ms] p90 [%d ms] max [%d ms], minions idle [%.1f%%]",
+          exitCode,
+          targetsBuilt,
+          wallMillis,
+          getTargetsPerSecond(),
+          percentile(50),
+          percentile(90),
+          percentile(100),
+          idleMinionPercentage);
+    }
+
+    private long percentile(int percentile) {
+      if (queueWaitMillis.isEmpty()) {
+        return 0;
+      }
+      int index = (int) Math.ceil(percentile / 100.0 * queueWaitMillis.size()) - 1;
+      return queueWaitMillis.get(Math.max(0, index));
+    }
+  }
+
+  private final Map<String, RecordedRule> rules;
+  private final int numberOfMinions;
+  private final int workUnitsPerMinion;
+  private final long minionPollIntervalMillis;
+  private final double timeScale;
+
+  /**
+   * @param timeScale how much faster than recorded the simulated rules build, e.g. {@code 0.01}
+   *     sleeps for 10ms for a rule which took a second.
+   */
+  public LocalDistBuildSimulator(
+      List<RecordedRule> recordedGraph,
+      int numberOfMinions,
+      int workUnitsPerMinion,
+      long minionPollIntervalMillis,
+      double timeScale) {
+    this.rules = new LinkedHashMap<>();
+    recordedGraph.forEach(rule -> rules.put(rule.target, rule));
+    this.numberOfMinions = numberOfMinions;
+    this.workUnitsPerMinion = workUnitsPerMinion;
+    this.minionPollIntervalMillis = minionPollIntervalMillis;
+    this.timeScale = timeScale;
+  }
+
+  public Report run(RuleTypeDurations ruleTypeDurations)
+      throws IOException, InterruptedException, ExecutionException {
+    Map<String, Set<String>> forwardDeps = new HashMap<>();
+    Map<String, Long> estimatedMillis = new HashMap<>();
+    for (RecordedRule rule : rules.values()) {
+      forwardDeps.put(rule.target, rule.deps.stream().collect(Collectors.toSet()));
+      estimatedMillis.put(rule.target, ruleTypeDurations.estimateMillis(rule.type));
+    }
+    BuildTargetsQueue queue = BuildTargetsQueue.newQueue(forwardDeps, estimatedMillis);
+
+    int port;
+    try (ServerSocket socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+    CountDownLatch buildFinished = new CountDownLatch(1);
+    Map<String, Long> startNanos = new ConcurrentHashMap<>();
+    Map<String, Long> finishNanos = new ConcurrentHashMap<>();
+    AtomicLong busyNanos = new AtomicLong();
+
+    long buildStartNanos = System.nanoTime();
+    int exitCode;
+    ExecutorService minionThreads = Executors.newFixedThreadPool(numberOfMinions);
+    List<SleepingLocalBuilder> builders = new ArrayList<>();
+    try (CoordinatorModeRunner.AsyncCoordinatorRun coordinator =
+        new CoordinatorModeRunner(port, queue, STAMPEDE_ID, new NoOpEventListener())
+            .runAsyncAndReturnExitCode()) {
+      List<Future<Integer>> minions = new ArrayList<>();
+      for (int i = 0; i < numberOfMinions; i++) {
+        SleepingLocalBuilder builder = new SleepingLocalBuilder(startNanos, finishNanos, busyNanos);
+        builders.add(builder);
+        MinionModeRunner minion =
+            new MinionModeRunner(
+                "localhost",
+                port,
+                builder,
+                STAMPEDE_ID,
+                workUnitsPerMinion,
+                minionPollIntervalMillis,
+                () -> hasBuildFinished(buildFinished));
+        minions.add(minionThreads.submit(minion::runAndReturnExitCode));
+      }
+      exitCode = coordinator.getExitCode();
+      buildFinished.countDown();
+      for (Future<Integer> minion : minions) {
+        minion.get();
+      }
+    } finally {
+      MostExecutors.shutdownOrThrow(
+          minionThreads, 1, TimeUnit.MINUTES, new IllegalStateException("Minions did not stop."));
+      // Minions only shut their builder down when told to stop, not when they give up on an error.
+      builders.forEach(SleepingLocalBuilder::shutdown);
+    }
+    long wallNanos = System.nanoTime() - buildStartNanos;
+
+    List<Long> queueWaitMillis = new ArrayList<>();
+    for (Map.Entry<String, Long> started : startNanos.entrySet()) {
+      long readyNanos = buildStartNanos;
+      for (String dep : rules.get(started.getKey()).deps) {
+        readyNanos = Math.max(readyNanos, Preconditions.checkNotNull(finishNanos.get(dep)));
+      }
+      queueWaitMillis.add(TimeUnit.NANOSECONDS.toMillis(started.getValue() - readyNanos));
+    }
+    Collections.sort(queueWaitMillis);
+    double idleMinionPercentage =
+        100.0 * (1 - (double) busyNanos.get() / (wallNanos * numberOfMinions));
+
+    return new Report(
+        exitCode,
+        TimeUnit.NANOSECONDS.toMillis(wallNanos),
+        finishNanos.size(),
+        queueWaitMillis,
+        idleMinionPercentage);
+  }
+
+  /**
+   * Minions which ask for work after the coordinator decided the build is over get an error, so
+   * give the coordinator's exit code a moment to come back before telling them it was not over.
+   */
+  private static boolean hasBuildFinished(CountDownLatch buildFinished) {
+    try {
+      return buildFinished.await(1, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * Builds each batch of targets with as many threads as work units a minion takes, sleeping for
+   * the scaled duration of each target once its deps in the same batch are done.
+   */
+  private class SleepingLocalBuilder implements LocalBuilder {
+    private final ExecutorService buildThreads = Executors.newFixedThreadPool(workUnitsPerMinion);
+    private final Map<String, Long> startNanos;
+    private final Map<String, Long> finishNanos;
+    private final AtomicLong busyNanos;
+
+    private SleepingLocalBuilder(
+        Map<String, Long> startNanos, Map<String, Long> finishNanos, AtomicLong busyNanos) {
+      this.startNanos = startNanos;
+      this.finishNanos = finishNanos;
+      this.busyNanos = busyNanos;
+    }
+
+    @Override
+    public int buildLocallyAndReturnExitCode(Iterable<String> targetsToBuild)
+        throws IOException, InterruptedException {
+      long batchStartNanos = System.nanoTime();
+      Map<String, CompletableFuture<Void>> builds = new HashMap<>();
+      for (String target : targetsToBuild) {
+        RecordedRule rule = Preconditions.checkNotNull(rules.get(target));
+        CompletableFuture<?>[] depsInBatch =
+            rule.deps
+                .stream()
+                .map(builds::get)
+                .filter(build -> build != null)
+                .toArray(CompletableFuture<?>[]::new);
+        builds.put(
+            target,
+            CompletableFuture.allOf(depsInBatch)
+                .thenRunAsync(() -> build(rule), buildThreads));
+      }
+      try {
+        CompletableFuture.allOf(builds.values().toArray(new CompletableFuture<?>[0])).get();
+      } catch (ExecutionException e) {
+        throw new IOException(e.getCause());
+      } finally {
+        busyNanos.addAndGet(System.nanoTime() - batchStartNanos);
+      }
+      return 0;
+    }
+
+    private void build(RecordedRule rule) {
+      startNanos.put(rule.target, System.nanoTime());
+      try {
+        Thread.sleep(Math.round(rule.durationMillis * timeScale));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(e);
+      }
+      finishNanos.put(rule.target, System.nanoTime());
+    }
+
+    @Override
+    public void shutdown() {
+      buildThreads.shutdownNow();
+    }
+  }
+
+  /** Stands in for the frontend, which is told when the coordinator starts and stops. */
+  private static class NoOpEventListener implements ThriftCoordinatorServer.EventListener {
+    @Override
+    public void onThriftServerStarted(String address, int port) {}
+
+    @Override
+    public void onThriftServerClosing(int buildExitCode) {}
+  }
+
+  /**
+   * Replays a recorded graph on local minions, and prints what it measured.
+   *
+   * <p>Usage: {@code LocalDistBuildSimulator <recorded graph> <minions> <work units per minion>
+   * <minion poll interval millis> <time scale>}
+   */
+  public static void main(String[] args) throws Exception {
+    List<RecordedRule> recordedGraph =
+        BuildTargetsQueueSimulator.readRecordedGraph(Paths.get(args[0]));
+    LocalDistBuildSimulator simulator =
+        new LocalDistBuildSimulator(
+            recordedGraph,
+            Integer.parseInt(args[1]),
+            Integer.parseInt(args[2]),
+            Long.parseLong(args[3]),
+            Double.parseDouble(args[4]));
+    System.out.println(
+        simulator.run(
+            new BuildTargetsQueueSimulator(recordedGraph, 1, 1).getRecordedRuleTypeDurations()));
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.distributed;
+
+import com.facebook.buck.testutil.integration.TestDataHelper;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LocalDistBuildSimulatorIntegrationTest {
+
+  @Test
+  public void testRecordedGraphIsBuiltByLocalMinions() throws Exception {
+    List<BuildTargetsQueueSimulator.RecordedRule> recordedGraph =
+        BuildTargetsQueueSimulator.readRecordedGraph(
+            TestDataHelper.getTestDataDirectory(this)
+                .resolve("recorded_graphs")
+                .resolve("long_chain.json"));
+    LocalDistBuildSimulator simulator =
+        new LocalDistBuildSimulator(recordedGraph, 3, 2, 1, 0.001);
+
+    LocalDistBuildSimulator.Report report = simulator.run(RuleTypeDurations.empty());
+
+    Assert.assertEquals(0, report.getExitCode());
+    Assert.assertEquals(recordedGraph.size(), report.getTargetsBuilt());
+    Assert.assertEquals(recordedGraph.size(), report.getQueueWaitMillis().size());
+    Assert.assertTrue(report.getIdleMinionPercentage() >= 0);
+    Assert.assertTrue(report.getIdleMinionPercentage() < 100);
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.distributed;
+
+import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.nio.file.Path;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class RuleTypeDurationsTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  @Test
+  public void testUnknownRuleTypesAreEstimatedWithTheAverage() {
+    RuleTypeDurations durations =
+        RuleTypeDurations.of(ImmutableMap.of("java_library", 1000L, "android_binary", 5000L));
+    Assert.assertEquals(1000, durations.estimateMillis("java_library"));
+    Assert.assertEquals(3000, durations.estimateMillis("genrule"));
+    Assert.assertEquals(1, RuleTypeDurations.empty().estimateMillis("genrule"));
+  }
+
+  @Test
+  public void testUpdatedDurationsAreSavedAndLoaded() throws IOException {
+    Path file = tmp.getRoot().resolve("durations").resolve("rule_types.json");
+    Assert.assertEquals(ImmutableMap.of(), RuleTypeDurations.load(file).getMillisByRuleType());
+
+    RuleTypeDurations.of(ImmutableMap.of("java_library", 1000L, "genrule", 200L))
+        .update(ImmutableMap.of("java_library", 3000L, "android_binary", 5000L))
+        .save(file);
+
+    Assert.assertEquals(
+        ImmutableMap.of("android_binary", 5000L, "genrule", 200L, "java_library", 2000L),
+        RuleTypeDurations.load(file).getMillisByRuleType());
+  }
+}
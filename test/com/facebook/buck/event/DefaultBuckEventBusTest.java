@@ -17,16 +17,24 @@
 package com.facebook.buck.event;
 
 import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import com.facebook.buck.timing.DefaultClock;
 import com.facebook.buck.timing.SettableFakeClock;
+import com.google.common.collect.Iterables;
 import com.google.common.eventbus.Subscribe;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Test;
 
 public class DefaultBuckEventBusTest {
@@ -115,6 +123,160 @@ public class DefaultBuckEventBusTest {
     assertEquals(event.getNanoTime(), 64738);
   }
 
+  @Test
+  public void slowListenerDoesNotHoldUpTheOthers() throws Exception {
+    DefaultBuckEventBus eb =
+        new DefaultBuckEventBus(
+            new DefaultClock(), true, BuckEventBusForTests.BUILD_ID_FOR_TEST, timeoutMillis * 10);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch received = new CountDownLatch(1);
+    eb.register(new BlockingSubscriber(release));
+    eb.register(
+        new Object() {
+          @Subscribe
+          public void receive(TestEvent event) {
+            received.countDown();
+          }
+        });
+    eb.post(new TestEvent());
+    try {
+      assertTrue(
+          "The other listener should receive the event while the first one is blocked.",
+          received.await(timeoutMillis, TimeUnit.MILLISECONDS));
+    } finally {
+      release.countDown();
+      eb.close();
+    }
+  }
+
+  @Test
+  public void eventsAreDeliveredToEachListenerInOrder() throws IOException {
+    DefaultBuckEventBus eb =
+        new DefaultBuckEventBus(
+            new DefaultClock(), true, BuckEventBusForTests.BUILD_ID_FOR_TEST, timeoutMillis * 10);
+    RecordingSubscriber first = new RecordingSubscriber();
+    RecordingSubscriber second = new RecordingSubscriber();
+    eb.register(first);
+    eb.register(second);
+    List<TestEvent> posted = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      TestEvent event = new TestEvent();
+      posted.add(event);
+      eb.post(event);
+    }
+    eb.close();
+    assertEquals(posted, first.events);
+    assertEquals(posted, second.events);
+  }
+
+  @Test
+  public void eventsOfDroppedTypesAreDroppedWhenTheQueueIsFull() throws IOException {
+    DefaultBuckEventBus eb =
+        new DefaultBuckEventBus(
+            new DefaultClock(),
+            true,
+            BuckEventBusForTests.BUILD_ID_FOR_TEST,
+            timeoutMillis * 10,
+            ListenerQueueConfig.builder()
+                .setMaxQueuedEvents(2)
+                .addDroppedEventTypes(TestEvent.class.getSimpleName())
+                .build());
+    CountDownLatch release = new CountDownLatch(1);
+    BlockingSubscriber subscriber = new BlockingSubscriber(release);
+    eb.register(subscriber);
+    for (int i = 0; i < 10; i++) {
+      eb.post(new TestEvent());
+    }
+    ListenerQueueStats stats = Iterables.getOnlyElement(eb.getListenerQueueStats());
+    release.countDown();
+    eb.close();
+
+    // The first event may or may not have been taken off the queue when the others were posted.
+    assertThat(stats.getDroppedEvents(), greaterThanOrEqualTo(7L));
+    assertEquals(10 - stats.getDroppedEvents(), subscriber.received.get());
+    assertEquals(
+        subscriber.received.get(),
+        Iterables.getOnlyElement(eb.getListenerQueueStats()).getDeliveredEvents());
+  }
+
+  @Test
+  public void eventsWhichWaitTooLongForRoomAreQueuedOverTheLimit() throws IOException {
+    DefaultBuckEventBus eb =
+        new DefaultBuckEventBus(
+            new DefaultClock(),
+            true,
+            BuckEventBusForTests.BUILD_ID_FOR_TEST,
+            timeoutMillis * 10,
+            ListenerQueueConfig.builder().setMaxQueuedEvents(2).setMaxBlockMillis(10).build());
+    CountDownLatch release = new CountDownLatch(1);
+    BlockingSubscriber subscriber = new BlockingSubscriber(release);
+    eb.register(subscriber);
+    // Without a bound on the wait, the third event would wait for the listener forever.
+    for (int i = 0; i < 10; i++) {
+      eb.post(new TestEvent());
+    }
+    ListenerQueueStats stats = Iterables.getOnlyElement(eb.getListenerQueueStats());
+    release.countDown();
+    eb.close();
+
+    assertEquals(0, stats.getDroppedEvents());
+    assertThat(stats.getMaxQueuedEvents(), greaterThanOrEqualTo(9));
+    assertEquals(10, subscriber.received.get());
+  }
+
+  @Test
+  public void coalescedEventsOnlyDeliverTheLatestOne() throws IOException {
+    DefaultBuckEventBus eb =
+        new DefaultBuckEventBus(
+            new DefaultClock(), true, BuckEventBusForTests.BUILD_ID_FOR_TEST, timeoutMillis * 10);
+    CountDownLatch release = new CountDownLatch(1);
+    RecordingProgressSubscriber progress = new RecordingProgressSubscriber();
+    eb.register(progress);
+    // Holds up the first update, so that the others queue up behind it for this listener.
+    eb.register(
+        new Object() {
+          @Subscribe
+          public void block(ProgressEvent event) throws InterruptedException {
+            release.await();
+          }
+        });
+    for (int i = 0; i <= 100; i++) {
+      eb.post(ProgressEvent.buildProgressUpdated(i / 100.0));
+    }
+    release.countDown();
+    eb.close();
+
+    assertEquals(1.0, Iterables.getLast(progress.values), 0);
+    long coalesced =
+        eb.getListenerQueueStats()
+            .stream()
+            .mapToLong(ListenerQueueStats::getCoalescedEvents)
+            .max()
+            .getAsLong();
+    assertThat(coalesced, greaterThanOrEqualTo(99L));
+  }
+
+  @Test
+  public void closeDeliversTheEventsListenersPost() throws IOException {
+    DefaultBuckEventBus eb =
+        new DefaultBuckEventBus(
+            new DefaultClock(), true, BuckEventBusForTests.BUILD_ID_FOR_TEST, timeoutMillis * 10);
+    RecordingSubscriber recorder = new RecordingSubscriber();
+    eb.register(recorder);
+    eb.register(
+        new Object() {
+          @Subscribe
+          public void repost(SleepEvent event) {
+            eb.post(new TestEvent());
+          }
+        });
+    for (int i = 0; i < 100; i++) {
+      eb.post(new SleepEvent(0));
+    }
+    eb.close();
+    assertEquals(100, recorder.events.size());
+  }
+
   private static class SleepEvent extends AbstractBuckEvent {
     public final long milliseconds;
 
@@ -141,6 +303,39 @@ public class DefaultBuckEventBusTest {
     }
   }
 
+  private static class BlockingSubscriber {
+    private final CountDownLatch release;
+    private final AtomicInteger received = new AtomicInteger();
+
+    private BlockingSubscriber(CountDownLatch release) {
+      this.release = release;
+    }
+
+    @Subscribe
+    public void block(TestEvent event) throws InterruptedException {
+      release.await();
+      received.incrementAndGet();
+    }
+  }
+
+  private static class RecordingSubscriber {
+    private final List<TestEvent> events = Collections.synchronizedList(new ArrayList<>());
+
+    @Subscribe
+    public void record(TestEvent event) {
+      events.add(event);
+    }
+  }
+
+  private static class RecordingProgressSubscriber {
+    private final List<Double> values = Collections.synchronizedList(new ArrayList<>());
+
+    @Subscribe
+    public void record(ProgressEvent event) {
+      values.add(event.getProgressValue());
+    }
+  }
+
   private static class TestEvent extends AbstractBuckEvent {
 
     public TestEvent() {
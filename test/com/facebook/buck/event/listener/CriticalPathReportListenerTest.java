@@ -0,0 +1,159 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event.listener;
+
+import static com.facebook.buck.event.TestEventConfigurator.configureTestEventAtTime;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+
+import com.facebook.buck.artifact_cache.CacheResult;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.log.InvocationInfo;
+import com.facebook.buck.model.BuildId;
+import com.facebook.buck.rules.BuildEvent;
+import com.facebook.buck.rules.BuildRule;
+import com.facebook.buck.rules.BuildRuleDurationTracker;
+import com.facebook.buck.rules.BuildRuleEvent;
+import com.facebook.buck.rules.BuildRuleKeys;
+import com.facebook.buck.rules.BuildRuleStatus;
+import com.facebook.buck.rules.BuildRuleSuccessType;
+import com.facebook.buck.rules.FakeBuildRule;
+import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.step.StepEvent;
+import com.facebook.buck.util.BuckConstant;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CriticalPathReportListenerTest {
+
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private ProjectFilesystem projectFilesystem;
+  private InvocationInfo info;
+  private BuildRuleDurationTracker durationTracker;
+  private CriticalPathReportListener listener;
+
+  @Before
+  public void setUp() throws InterruptedException, IOException {
+    projectFilesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot().toPath());
+    info =
+        InvocationInfo.of(
+            new BuildId(),
+            false,
+            false,
+            "build",
+            ImmutableList.of(),
+            ImmutableList.of(),
+            tmp.getRoot().toPath());
+    durationTracker = new BuildRuleDurationTracker();
+    listener = new CriticalPathReportListener(projectFilesystem, info);
+  }
+
+  @Test
+  public void criticalPathFollowsTheDependenciesWhichFinishedLast() throws IOException {
+    BuildRule a = new FakeBuildRule("//:a");
+    BuildRule b = new FakeBuildRule("//:b", a);
+    BuildRule c = new FakeBuildRule("//:c");
+    BuildRule d = new FakeBuildRule("//:d", b, c);
+
+    BuildEvent.Started buildStarted = BuildEvent.started(ImmutableList.of());
+    listener.buildStarted(configureTestEventAtTime(buildStarted, 0, TimeUnit.MILLISECONDS, 1));
+    runRule(a, 0, 100, 1);
+    runRule(c, 0, 50, 2);
+    BuildRuleEvent.Started bStarted = startRule(b, 100, 1);
+    StepEvent.Started stepStarted = StepEvent.started("javac", "javac", UUID.randomUUID());
+    listener.stepStarted(configureTestEventAtTime(stepStarted, 120, TimeUnit.MILLISECONDS, 1));
+    listener.stepFinished(
+        configureTestEventAtTime(
+            StepEvent.finished(stepStarted, 0), 280, TimeUnit.MILLISECONDS, 1));
+    finishRule(bStarted, 300);
+    runRule(d, 300, 350, 2);
+    listener.buildFinished(
+        configureTestEventAtTime(
+            BuildEvent.finished(buildStarted, 0), 400, TimeUnit.MILLISECONDS, 1));
+
+    assertEquals(ImmutableList.of(a, b, d), listener.getCriticalPath());
+
+    listener.outputTrace(info.getBuildId());
+    Path reportPath =
+        projectFilesystem
+            .resolve(info.getLogDirectoryPath())
+            .resolve(BuckConstant.CRITICAL_PATH_REPORT_FILE_NAME);
+    String report = new String(Files.readAllBytes(reportPath), StandardCharsets.UTF_8);
+    assertThat(report, containsString("Critical path: 3 rules, 0.350s of a 0.400s build."));
+    assertThat(report, containsString("160  BUILT    //:b (fake_build_rule)"));
+    assertThat(report, containsString("Build threads: 2, busy 50.0% of the time, idle 50.0%."));
+    assertThat(report, containsString("Thread 1: busy 0.300s (75.0%)"));
+  }
+
+  @Test
+  public void noReportIsWrittenWithoutRules() throws IOException {
+    listener.outputTrace(info.getBuildId());
+    assertFalse(
+        Files.exists(
+            projectFilesystem
+                .resolve(info.getLogDirectoryPath())
+                .resolve(BuckConstant.CRITICAL_PATH_REPORT_FILE_NAME)));
+  }
+
+  private void runRule(BuildRule rule, long startMillis, long finishMillis, long threadId) {
+    finishRule(startRule(rule, startMillis, threadId), finishMillis);
+  }
+
+  private BuildRuleEvent.Started startRule(BuildRule rule, long startMillis, long threadId) {
+    BuildRuleEvent.Started started =
+        configureTestEventAtTime(
+            BuildRuleEvent.started(rule, durationTracker),
+            startMillis,
+            TimeUnit.MILLISECONDS,
+            threadId);
+    listener.buildRuleBeginning(started);
+    return started;
+  }
+
+  private void finishRule(BuildRuleEvent.Started started, long finishMillis) {
+    listener.buildRuleEnding(
+        configureTestEventAtTime(
+            BuildRuleEvent.finished(
+                started,
+                BuildRuleKeys.of(new RuleKey("aaaa")),
+                BuildRuleStatus.SUCCESS,
+                CacheResult.miss(),
+                Optional.empty(),
+                Optional.of(BuildRuleSuccessType.BUILT_LOCALLY),
+                false,
+                Optional.empty(),
+                Optional.empty(),
+                Optional.empty()),
+            finishMillis,
+            TimeUnit.MILLISECONDS,
+            started.getThreadId()));
+  }
+}
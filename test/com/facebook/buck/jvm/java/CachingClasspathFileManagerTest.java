@@ -0,0 +1,286 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.testutil.FakeFileHashCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+import org.hamcrest.Matchers;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CachingClasspathFileManagerTest {
+
+  @Rule public TemporaryFolder temp = new TemporaryFolder();
+
+  private JavaCompiler compiler;
+  private ClasspathJarCache cache;
+  private Map<Path, HashCode> hashes;
+  private FakeFileHashCache fileHashCache;
+
+  @Before
+  public void setUp() {
+    compiler = ToolProvider.getSystemJavaCompiler();
+    cache = new ClasspathJarCache(1000, 1024 * 1024);
+    hashes = new HashMap<>();
+    fileHashCache = new FakeFileHashCache(hashes);
+  }
+
+  @Test
+  public void compilesAgainstJarsListedFromTheCache() throws IOException {
+    Path jar =
+        writeJar(
+            "dep.jar",
+            ImmutableMap.of("dep/Dep.class", compileClass("dep.Dep", "public class Dep {}")));
+
+    assertTrue(compile(jar, "import dep.Dep; public class Main { Dep dep; }"));
+    long cachedBytes = cache.getCachedBytes();
+    assertThat(cachedBytes, Matchers.greaterThan(0L));
+
+    // The second compilation reads the class from memory.
+    assertTrue(compile(jar, "import dep.Dep; public class Other { Dep dep; }"));
+    assertEquals(cachedBytes, cache.getCachedBytes());
+  }
+
+  @Test
+  public void reportsMissingClassesLikeJavac() throws IOException {
+    Path jar =
+        writeJar(
+            "dep.jar",
+            ImmutableMap.of("dep/Dep.class", compileClass("dep.Dep", "public class Dep {}")));
+
+    assertFalse(compile(jar, "import dep.Missing; public class Main { Missing missing; }"));
+  }
+
+  @Test
+  public void listsEntriesInClasspathOrder() throws IOException {
+    byte[] dep = compileClass("dep.Dep", "public class Dep {}");
+    Path first = writeJar("first.jar", ImmutableMap.of("dep/Dep.class", dep));
+    Path second =
+        writeJar("second.jar", ImmutableMap.of("dep/Dep.class", dep, "dep/Other.class", dep));
+
+    try (CachingClasspathFileManager fileManager = newFileManager(first, second)) {
+      List<JavaFileObject> listed =
+          ImmutableList.copyOf(
+              fileManager.list(
+                  StandardLocation.CLASS_PATH,
+                  "dep",
+                  ImmutableSet.of(JavaFileObject.Kind.CLASS),
+                  false));
+
+      assertEquals(
+          ImmutableList.of(
+              "jar:" + first.toUri() + "!/dep/Dep.class",
+              "jar:" + second.toUri() + "!/dep/Dep.class",
+              "jar:" + second.toUri() + "!/dep/Other.class"),
+          listed.stream().map(file -> file.toUri().toString()).collect(Collectors.toList()));
+      assertEquals(
+          "dep.Other", fileManager.inferBinaryName(StandardLocation.CLASS_PATH, listed.get(2)));
+      assertTrue(listed.get(2).isNameCompatible("Other", JavaFileObject.Kind.CLASS));
+      assertFalse(fileManager.isSameFile(listed.get(0), listed.get(1)));
+    }
+  }
+
+  @Test
+  public void listsSubpackagesWhenRecursing() throws IOException {
+    byte[] dep = compileClass("dep.Dep", "public class Dep {}");
+    Path jar =
+        writeJar(
+            "dep.jar",
+            ImmutableMap.of(
+                "dep/Dep.class", dep, "dep/sub/Sub.class", dep, "depth/Unrelated.class", dep));
+
+    try (CachingClasspathFileManager fileManager = newFileManager(jar)) {
+      Iterable<JavaFileObject> listed =
+          fileManager.list(
+              StandardLocation.CLASS_PATH, "dep", ImmutableSet.of(JavaFileObject.Kind.CLASS), true);
+
+      assertEquals(
+          ImmutableSet.of("dep.Dep", "dep.sub.Sub"),
+          ImmutableSet.copyOf(
+              Iterables.transform(
+                  listed,
+                  file -> fileManager.inferBinaryName(StandardLocation.CLASS_PATH, file))));
+    }
+  }
+
+  @Test
+  public void rewrittenJarsAreIndexedAgainEvenWithTheSameModificationTime() throws IOException {
+    byte[] dep = compileClass("dep.Dep", "public class Dep {}");
+    Path jar = writeJar("dep.jar", ImmutableMap.of("dep/Dep.class", dep));
+    FileTime fakeTime = FileTime.fromMillis(1000);
+    Files.setLastModifiedTime(jar, fakeTime);
+    ClasspathJarCache.JarIndex index = cache.getIndex(jar, fileHashCache);
+    assertSame(index, cache.getIndex(jar, fileHashCache));
+
+    writeJar("dep.jar", ImmutableMap.of("dep/Dep.class", dep, "dep/New.class", dep));
+    Files.setLastModifiedTime(jar, fakeTime);
+
+    ClasspathJarCache.JarIndex newIndex = cache.getIndex(jar, fileHashCache);
+    assertNotSame(index, newIndex);
+    assertEquals(ImmutableList.of("dep/Dep.class", "dep/New.class"), newIndex.getEntries("dep"));
+  }
+
+  @Test
+  public void jarsTheBuildDoesNotKnowAreNotShared() throws IOException {
+    byte[] dep = compileClass("dep.Dep", "public class Dep {}");
+    Path jar = writeJar("dep.jar", ImmutableMap.of("dep/Dep.class", dep));
+    hashes.remove(jar);
+
+    ClasspathJarCache.JarIndex index = cache.getIndex(jar, fileHashCache);
+    assertNotSame(index, cache.getIndex(jar, fileHashCache));
+    try (ZipFile openJar = new ZipFile(jar.toFile())) {
+      index.readContents("dep/Dep.class", openJar);
+    }
+    assertEquals(0, cache.getCachedBytes());
+  }
+
+  @Test
+  public void contentsReadFromEvictedIndexesAreNotCounted() throws IOException {
+    cache = new ClasspathJarCache(1, 1024 * 1024);
+    byte[] dep = compileClass("dep.Dep", "public class Dep {}");
+    Path first = writeJar("first.jar", ImmutableMap.of("dep/Dep.class", dep));
+    Path second = writeJar("second.jar", ImmutableMap.of("dep/Dep.class", dep));
+
+    ClasspathJarCache.JarIndex firstIndex = cache.getIndex(first, fileHashCache);
+    try (ZipFile openJar = new ZipFile(first.toFile())) {
+      firstIndex.readContents("dep/Dep.class", openJar);
+    }
+    assertEquals(dep.length, cache.getCachedBytes());
+
+    // Only one entry fits, so indexing the second jar evicts the first one, which compilations
+    // holding it can still read from.
+    cache.getIndex(second, fileHashCache);
+    assertEquals(0, cache.getCachedBytes());
+    try (ZipFile openJar = new ZipFile(first.toFile())) {
+      assertEquals(dep.length, firstIndex.readContents("dep/Dep.class", openJar).length);
+    }
+    assertEquals(0, cache.getCachedBytes());
+  }
+
+  @Test
+  public void classpathsWithDirectoriesAreLeftToJavac() throws IOException {
+    Path jar =
+        writeJar(
+            "dep.jar",
+            ImmutableMap.of("dep/Dep.class", compileClass("dep.Dep", "public class Dep {}")));
+    Path directory = temp.newFolder("classes").toPath();
+
+    try (CachingClasspathFileManager fileManager = newFileManager(jar, directory)) {
+      JavaFileObject listed =
+          Iterables.getOnlyElement(
+              fileManager.list(
+                  StandardLocation.CLASS_PATH,
+                  "dep",
+                  ImmutableSet.of(JavaFileObject.Kind.CLASS),
+                  false));
+
+      assertEquals("dep.Dep", fileManager.inferBinaryName(StandardLocation.CLASS_PATH, listed));
+      assertEquals(0, cache.getCachedBytes());
+    }
+  }
+
+  private CachingClasspathFileManager newFileManager(Path... classpath) throws IOException {
+    StandardJavaFileManager standardFileManager = compiler.getStandardFileManager(null, null, null);
+    standardFileManager.setLocation(
+        StandardLocation.CLASS_PATH,
+        ImmutableList.copyOf(classpath).stream().map(Path::toFile).collect(Collectors.toList()));
+    return new CachingClasspathFileManager(standardFileManager, cache, fileHashCache);
+  }
+
+  private boolean compile(Path classpath, String source) throws IOException {
+    Path sourceFile = temp.newFolder().toPath().resolve(getClassName(source) + ".java");
+    Files.write(sourceFile, source.getBytes(StandardCharsets.UTF_8));
+    File output = temp.newFolder().getAbsoluteFile();
+    try (CachingClasspathFileManager fileManager = newFileManager(classpath)) {
+      return compiler
+          .getTask(
+              null,
+              fileManager,
+              null,
+              ImmutableList.of("-d", output.toString(), "-proc:none"),
+              null,
+              fileManager.getJavaFileObjects(sourceFile.toFile()))
+          .call();
+    }
+  }
+
+  private byte[] compileClass(String className, String source) throws IOException {
+    String packageName = className.substring(0, className.lastIndexOf('.'));
+    String simpleName = className.substring(packageName.length() + 1);
+    Path sourceFile = temp.newFolder().toPath().resolve(simpleName + ".java");
+    Files.write(
+        sourceFile,
+        ("package " + packageName + "; " + source).getBytes(StandardCharsets.UTF_8));
+    Path output = temp.newFolder().toPath();
+    assertEquals(
+        0,
+        compiler.run(null, null, null, "-d", output.toString(), sourceFile.toString()));
+    return Files.readAllBytes(output.resolve(className.replace('.', '/') + ".class"));
+  }
+
+  private static String getClassName(String source) {
+    String afterClass = source.substring(source.indexOf("class ") + "class ".length());
+    return afterClass.substring(0, afterClass.indexOf(' '));
+  }
+
+  private Path writeJar(String name, Map<String, byte[]> entries) throws IOException {
+    Path jar = temp.getRoot().toPath().resolve(name);
+    try (OutputStream outputStream = Files.newOutputStream(jar);
+        JarOutputStream jarOutputStream = new JarOutputStream(outputStream)) {
+      for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+        jarOutputStream.putNextEntry(new ZipEntry(entry.getKey()));
+        jarOutputStream.write(entry.getValue());
+        jarOutputStream.closeEntry();
+      }
+    }
+    hashes.put(jar, Hashing.sha1().hashBytes(Files.readAllBytes(jar)));
+    return jar;
+  }
+}
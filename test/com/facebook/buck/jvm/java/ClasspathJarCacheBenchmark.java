@@ -0,0 +1,204 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.io.file.MoreFiles;
+import com.facebook.buck.testutil.FakeFileHashCache;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compiles many small libraries against the same large classpath of jars, one after the other like
+ * a build with in-process javac does, with the file manager of javac alone and with a warm {@link
+ * ClasspathJarCache}.
+ *
+ * <p>Caliper compares the two through {@code fileManagerType}. As a test, it only checks that a few
+ * libraries compile with the cached file manager.
+ */
+public class ClasspathJarCacheBenchmark {
+  @Param({"300"})
+  private int libraryCount = 5;
+
+  @Param({"100"})
+  private int jarCount = 10;
+
+  @Param({"200"})
+  private int classesPerJar = 20;
+
+  @Param({"javac", "cached"})
+  private String fileManagerType = "cached";
+
+  private static final int REFERENCES_PER_LIBRARY = 30;
+
+  private final Random random = new Random(12345);
+  private final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+  private Path root;
+  private List<File> classpath;
+  private List<Path> librarySources;
+  private ClasspathJarCache cache;
+  private FakeFileHashCache fileHashCache;
+
+  @Before
+  public void setUpTest() throws IOException {
+    setUpBenchmark();
+  }
+
+  @After
+  public void tearDownTest() throws IOException {
+    tearDownBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() throws IOException {
+    root = Files.createTempDirectory("classpath-jar-cache-benchmark");
+    classpath = new ArrayList<>(jarCount);
+    Map<Path, HashCode> jarHashes = new HashMap<>();
+    for (int jar = 0; jar < jarCount; jar++) {
+      Path jarPath = writeClasspathJar(jar);
+      classpath.add(jarPath.toFile());
+      jarHashes.put(jarPath, Hashing.sha1().hashBytes(Files.readAllBytes(jarPath)));
+    }
+    fileHashCache = new FakeFileHashCache(jarHashes);
+
+    librarySources = new ArrayList<>(libraryCount);
+    for (int library = 0; library < libraryCount; library++) {
+      StringBuilder source = new StringBuilder("package library; public class Library" + library);
+      source.append(" {");
+      for (int reference = 0; reference < REFERENCES_PER_LIBRARY; reference++) {
+        int jar = random.nextInt(jarCount);
+        source.append(
+            String.format(
+                " jar%d.Class%d field%d;", jar, random.nextInt(classesPerJar), reference));
+      }
+      source.append(" }");
+      librarySources.add(write(root.resolve("library/Library" + library + ".java"), source));
+    }
+
+    cache = new ClasspathJarCache(Long.MAX_VALUE, Long.MAX_VALUE);
+  }
+
+  @AfterExperiment
+  public void tearDownBenchmark() throws IOException {
+    MoreFiles.deleteRecursively(root);
+  }
+
+  private Path writeClasspathJar(int jar) throws IOException {
+    Path sources = root.resolve("jar" + jar + "-src");
+    List<String> sourcePaths = new ArrayList<>();
+    for (int i = 0; i < classesPerJar; i++) {
+      String source =
+          String.format(
+              "package jar%d; public class Class%d { public int method%d() { return %d; } }",
+              jar, i, i, i);
+      sourcePaths.add(write(sources.resolve("Class" + i + ".java"), source).toString());
+    }
+    Path classes = Files.createDirectories(root.resolve("jar" + jar + "-classes"));
+    List<String> arguments =
+        new ArrayList<>(ImmutableList.of("-d", classes.toString(), "-proc:none"));
+    arguments.addAll(sourcePaths);
+    if (compiler.run(null, null, null, arguments.toArray(new String[0])) != 0) {
+      throw new IOException("Unable to compile the classes of jar " + jar);
+    }
+
+    Path jarPath = root.resolve("jar" + jar + ".jar");
+    try (OutputStream outputStream = Files.newOutputStream(jarPath);
+        JarOutputStream jarOutputStream = new JarOutputStream(outputStream)) {
+      for (int i = 0; i < classesPerJar; i++) {
+        String entry = String.format("jar%d/Class%d.class", jar, i);
+        jarOutputStream.putNextEntry(new ZipEntry(entry));
+        jarOutputStream.write(Files.readAllBytes(classes.resolve(entry)));
+        jarOutputStream.closeEntry();
+      }
+    }
+    return jarPath;
+  }
+
+  private static Path write(Path path, CharSequence contents) throws IOException {
+    Files.createDirectories(path.getParent());
+    return Files.write(path, contents.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  private StandardJavaFileManager createFileManager() {
+    StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null);
+    switch (fileManagerType) {
+      case "javac":
+        return fileManager;
+      case "cached":
+        return new CachingClasspathFileManager(fileManager, cache, fileHashCache);
+      default:
+        throw new IllegalArgumentException(fileManagerType);
+    }
+  }
+
+  private boolean compile(Path source, Path output) throws IOException {
+    try (StandardJavaFileManager fileManager = createFileManager()) {
+      fileManager.setLocation(StandardLocation.CLASS_PATH, classpath);
+      fileManager.setLocation(StandardLocation.CLASS_OUTPUT, ImmutableList.of(output.toFile()));
+      return compiler
+          .getTask(
+              null,
+              fileManager,
+              null,
+              ImmutableList.of("-proc:none"),
+              null,
+              fileManager.getJavaFileObjects(source.toFile()))
+          .call();
+    }
+  }
+
+  @Test
+  public void compileLibraries() throws IOException {
+    assertTrue(benchCompileLibraries());
+  }
+
+  @Benchmark
+  public boolean benchCompileLibraries() throws IOException {
+    Path output = Files.createTempDirectory(root, "output");
+    boolean success = true;
+    for (Path source : librarySources) {
+      success &= compile(source, output);
+    }
+    return success;
+  }
+}
@@ -19,6 +19,7 @@ package com.facebook.buck.jvm.java;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.hasEntry;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 
 import com.facebook.buck.io.file.MorePaths;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
@@ -27,10 +28,12 @@ import com.facebook.buck.model.BuildId;
 import com.facebook.buck.model.BuildTargetFactory;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.test.selectors.TestSelectorList;
 import com.facebook.buck.testutil.FakeProjectFilesystem;
 import com.facebook.buck.testutil.MoreAsserts;
 import com.facebook.buck.testutil.TestConsole;
 import com.facebook.buck.util.Verbosity;
+import com.facebook.buck.worker.WorkerProcessParams;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -87,7 +90,8 @@ public class JUnitStepTest {
             /* testCaseTimeoutMs */ Optional.empty(),
             ImmutableMap.of(),
             ImmutableList.of("/foo/bar/custom/java"),
-            args);
+            args,
+            /* maxRunsPerJUnitWorker */ 0);
 
     ExecutionContext executionContext =
         TestExecutionContext.newBuilder()
@@ -155,7 +159,8 @@ public class JUnitStepTest {
             /* testCaseTimeoutMs */ Optional.empty(),
             ImmutableMap.of("FOO", "BAR"),
             ImmutableList.of("/foo/bar/custom/java"),
-            args);
+            args,
+            /* maxRunsPerJUnitWorker */ 0);
 
     ImmutableMap<String, String> observedEnvironment =
         junit.getEnvironmentVariables(TestExecutionContext.newInstance());
@@ -206,7 +211,8 @@ public class JUnitStepTest {
             /* testCaseTimeoutMs */ Optional.empty(),
             ImmutableMap.of(),
             ImmutableList.of("/foo/bar/custom/java"),
-            args);
+            args,
+            /* maxRunsPerJUnitWorker */ 0);
 
     TestConsole console = new TestConsole(Verbosity.ALL);
     ExecutionContext executionContext =
@@ -244,4 +250,117 @@ public class JUnitStepTest {
         "Debugging. Suspending JVM. Connect a JDWP debugger to port 5005 to proceed.",
         console.getTextWrittenToStdErr().trim());
   }
+
+  @Test
+  public void junitWorkerJobEscapesNewlinesInArguments() throws InterruptedException {
+    ProjectFilesystem filesystem = FakeProjectFilesystem.createJavaOnlyFilesystem();
+    Path classpathFile = filesystem.resolve("foo");
+    Path directoryForTestResults = Paths.get("buck-out/gen/theresults/");
+    Path testRunnerClasspath = Paths.get("build/classes/junit");
+    TestSelectorList testSelectorList =
+        TestSelectorList.builder()
+            .addRawSelectors("com.example.FooTest", "com.example.BarTest")
+            .build();
+
+    JUnitJvmArgs args =
+        JUnitJvmArgs.builder()
+            .setBuildId(new BuildId("pretend-build-id"))
+            .setBuckModuleBaseSourceCodePath(Paths.get("module/submodule"))
+            .setClasspathFile(classpathFile)
+            .setTestRunnerClasspath(testRunnerClasspath)
+            .setExtraJvmArgs(ImmutableList.of("-Xmx1g"))
+            .setTestType(TestType.JUNIT)
+            .setDirectoryForTestResults(directoryForTestResults)
+            .setTestSelectorList(testSelectorList)
+            .addTestClasses("com.example.FooTest")
+            .build();
+
+    JUnitStep junit =
+        new JUnitStep(
+            BuildTargetFactory.newInstance("//dummy:target"),
+            filesystem,
+            /* nativeLibsEnvironment */ ImmutableMap.of(),
+            /* testRuleTimeoutMs */ Optional.empty(),
+            /* testCaseTimeoutMs */ Optional.empty(),
+            ImmutableMap.of(),
+            ImmutableList.of("/foo/bar/custom/java"),
+            args,
+            /* maxRunsPerJUnitWorker */ 10);
+
+    ExecutionContext executionContext =
+        TestExecutionContext.newBuilder().setDefaultTestTimeoutMillis(5000L).build();
+    assertEquals(
+        String.join(
+            "\n",
+            "-Dbuck.testrunner_classes=" + testRunnerClasspath,
+            "-Dcom.facebook.buck.buildId=pretend-build-id",
+            "-Dcom.facebook.buck.moduleBasePath=" + Paths.get("module/submodule"),
+            "-Dapple.awt.UIElement=true",
+            "--classpath-file",
+            classpathFile.toString(),
+            "com.facebook.buck.testrunner.JUnitMain",
+            "--output",
+            directoryForTestResults.toString(),
+            "--default-test-timeout",
+            "5000",
+            "--test-selectors",
+            String.join("\\n", testSelectorList.getRawSelectors()) + "\\n",
+            "com.example.FooTest",
+            ""),
+        junit.getJUnitWorkerJobArgs(executionContext));
+    MoreAsserts.assertListEquals(
+        ImmutableList.of(
+            "/foo/bar/custom/java",
+            "-Xmx1g",
+            "-classpath",
+            testRunnerClasspath.toString(),
+            "com.facebook.buck.testrunner.JUnitWorkerMain",
+            "--max-jobs",
+            "10"),
+        junit.getJUnitWorkerParams(executionContext).getStartupCommand());
+  }
+
+  @Test
+  public void rulesWhichDifferOnlyInTheirSystemPropertiesShareJUnitWorkers()
+      throws InterruptedException {
+    ProjectFilesystem filesystem = FakeProjectFilesystem.createJavaOnlyFilesystem();
+    ExecutionContext executionContext = TestExecutionContext.newInstance();
+
+    WorkerProcessParams first =
+        newJUnitStepForWorkers(filesystem, "first/module", ImmutableList.of())
+            .getJUnitWorkerParams(executionContext);
+    WorkerProcessParams second =
+        newJUnitStepForWorkers(filesystem, "second/module", ImmutableList.of())
+            .getJUnitWorkerParams(executionContext);
+    WorkerProcessParams withOtherJvmArgs =
+        newJUnitStepForWorkers(filesystem, "first/module", ImmutableList.of("-Xmx1g"))
+            .getJUnitWorkerParams(executionContext);
+
+    assertEquals(first.getWorkerProcessIdentity(), second.getWorkerProcessIdentity());
+    assertNotEquals(first.getWorkerProcessIdentity(), withOtherJvmArgs.getWorkerProcessIdentity());
+  }
+
+  private static JUnitStep newJUnitStepForWorkers(
+      ProjectFilesystem filesystem, String modulePath, ImmutableList<String> vmArgs) {
+    JUnitJvmArgs args =
+        JUnitJvmArgs.builder()
+            .setBuildId(new BuildId("pretend-build-id"))
+            .setBuckModuleBaseSourceCodePath(Paths.get(modulePath))
+            .setClasspathFile(filesystem.resolve(modulePath).resolve("classpath-file"))
+            .setTestRunnerClasspath(Paths.get("build/classes/junit"))
+            .setExtraJvmArgs(vmArgs)
+            .setTestType(TestType.JUNIT)
+            .addTestClasses("com.example.FooTest")
+            .build();
+    return new JUnitStep(
+        BuildTargetFactory.newInstance("//" + modulePath + ":test"),
+        filesystem,
+        /* nativeLibsEnvironment */ ImmutableMap.of(),
+        /* testRuleTimeoutMs */ Optional.empty(),
+        /* testCaseTimeoutMs */ Optional.empty(),
+        ImmutableMap.of(),
+        ImmutableList.of("/foo/bar/custom/java"),
+        args,
+        /* maxRunsPerJUnitWorker */ 10);
+  }
 }
@@ -16,7 +16,10 @@
 
 package com.facebook.buck.jvm.java;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 
 import com.facebook.buck.util.zip.CustomZipEntry;
 import com.facebook.buck.util.zip.JarBuilder;
@@ -24,19 +27,28 @@ import com.facebook.buck.util.zip.JarEntryContainer;
 import com.facebook.buck.util.zip.JarEntrySupplier;
 import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.CharStreams;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 import javax.annotation.Nullable;
 import org.junit.Rule;
 import org.junit.Test;
@@ -235,6 +247,60 @@ public class JarBuilderTest {
     }
   }
 
+  @Test
+  public void testCopiesEntriesOfZipsWithoutRecompressingThem() throws IOException {
+    byte[] text = "Some text which deflates well, again and again. ".getBytes(UTF_8);
+    byte[] random = new byte[4096];
+    new Random(42).nextBytes(random);
+    Path zip = temporaryFolder.newFile("source.zip").toPath();
+    try (OutputStream outputStream = Files.newOutputStream(zip);
+        ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream)) {
+      zipOutputStream.setComment("A comment after the central directory.");
+      zipOutputStream.putNextEntry(new ZipEntry("foo/deflated.txt"));
+      for (int i = 0; i < 100; i++) {
+        zipOutputStream.write(text);
+      }
+      zipOutputStream.closeEntry();
+
+      ZipEntry stored = new ZipEntry("foo/stored.bin");
+      stored.setMethod(ZipEntry.STORED);
+      stored.setSize(random.length);
+      CRC32 crc = new CRC32();
+      crc.update(random);
+      stored.setCrc(crc.getValue());
+      zipOutputStream.putNextEntry(stored);
+      zipOutputStream.write(random);
+      zipOutputStream.closeEntry();
+    }
+
+    for (boolean shouldHashEntries : new boolean[] {false, true}) {
+      File tempFile = temporaryFolder.newFile();
+      new JarBuilder()
+          .setEntriesToJar(ImmutableList.of(zip))
+          .setShouldHashEntries(shouldHashEntries)
+          .createJarFile(tempFile.toPath());
+
+      try (JarFile source = new JarFile(zip.toFile());
+          JarFile jarFile = new JarFile(tempFile)) {
+        for (String name : ImmutableList.of("foo/deflated.txt", "foo/stored.bin")) {
+          JarEntry sourceEntry = source.getJarEntry(name);
+          JarEntry entry = jarFile.getJarEntry(name);
+          assertNotNull(entry);
+          assertEquals(sourceEntry.getMethod(), entry.getMethod());
+          assertEquals(sourceEntry.getCrc(), entry.getCrc());
+          assertEquals(sourceEntry.getSize(), entry.getSize());
+          assertArrayEquals(readEntry(source, sourceEntry), readEntry(jarFile, entry));
+        }
+      }
+    }
+  }
+
+  private static byte[] readEntry(JarFile jarFile, JarEntry entry) throws IOException {
+    try (InputStream inputStream = jarFile.getInputStream(entry)) {
+      return ByteStreams.toByteArray(inputStream);
+    }
+  }
+
   private static class TestJarEntryContainer implements JarEntryContainer {
     @Nullable private Manifest manifest;
     private final List<JarEntrySupplier> suppliers = new ArrayList<>();
@@ -24,7 +24,9 @@ import static org.junit.Assume.assumeTrue;
 import com.facebook.buck.testutil.integration.ProjectWorkspace;
 import com.facebook.buck.testutil.integration.TemporaryPaths;
 import com.facebook.buck.testutil.integration.TestDataHelper;
+import com.facebook.buck.util.ObjectMappers;
 import com.facebook.buck.util.environment.Platform;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Ordering;
@@ -32,6 +34,7 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.Map;
 import org.hamcrest.Matchers;
 import org.junit.Rule;
 import org.junit.Test;
@@ -172,6 +175,41 @@ public class JavaTestIntegrationTest {
     assertThat(stderr, Matchers.containsString("100ms"));
   }
 
+  @Test
+  public void shardsOfATestRuleRunConcurrentlyAndReportTogether() throws IOException {
+    ProjectWorkspace workspace =
+        TestDataHelper.createProjectWorkspaceForScenario(this, "sharded_tests", temp);
+    workspace.setUp();
+
+    // Each test class only passes if the other one runs at the same time, in another shard.
+    workspace.runBuckCommand("test", "//:sharded").assertSuccess();
+
+    Map<String, Map<String, Long>> durations =
+        ObjectMappers.readValue(
+            workspace.getFileContents("buck-out/log/test_durations.json"),
+            new TypeReference<Map<String, Map<String, Long>>>() {});
+    assertThat(
+        durations.get("//:sharded").keySet(),
+        Matchers.containsInAnyOrder("ShardOneTest", "ShardTwoTest"));
+  }
+
+  @Test
+  public void timedOutShardOnlyFailsItsOwnTestClasses() throws IOException {
+    ProjectWorkspace workspace =
+        TestDataHelper.createProjectWorkspaceForScenario(this, "sharded_tests", temp);
+    workspace.setUp();
+
+    ProjectWorkspace.ProcessResult result =
+        workspace.runBuckCommand("test", "//:sharded_timeout");
+    result.assertSpecialExitCode("test should fail", 42);
+    String stderr = result.getStderr();
+    assertThat(stderr, Matchers.containsString("test timed out before generating results file"));
+    assertThat(
+        stderr, Matchers.not(Matchers.containsString("test exited before generating results file")));
+    assertThat(stderr, Matchers.containsString("1 Passed   0 Skipped   0 Failed   QuickTest"));
+    assertThat(stderr, Matchers.containsString("0 Passed   0 Skipped   1 Failed   SpinningTest"));
+  }
+
   @Test
   public void normalTestDoesNotTimeOut() throws IOException {
     ProjectWorkspace workspace =
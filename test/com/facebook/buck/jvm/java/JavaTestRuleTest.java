@@ -32,6 +32,8 @@ import com.facebook.buck.step.TargetDevice;
 import com.facebook.buck.testutil.MoreAsserts;
 import com.facebook.buck.util.MoreCollectors;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
 import java.nio.file.Paths;
 import java.util.List;
@@ -123,6 +125,41 @@ public class JavaTestRuleTest {
             transitiveDep.getBuildTarget()));
   }
 
+  @Test
+  public void testClassesArePartitionedIntoShardsOfSimilarDuration() {
+    ImmutableList<ImmutableSet<String>> shards =
+        JavaTest.partitionTestClasses(
+            ImmutableSet.of("A", "B", "C", "D", "E"),
+            ImmutableMap.of("A", 60L, "B", 50L, "C", 40L, "D", 30L, "E", 20L),
+            2);
+
+    assertThat(
+        shards,
+        Matchers.contains(ImmutableSet.of("A", "D", "E"), ImmutableSet.of("B", "C")));
+  }
+
+  @Test
+  public void testClassesWithoutDurationsAreExpectedToTakeTheAverageDuration() {
+    ImmutableList<ImmutableSet<String>> shards =
+        JavaTest.partitionTestClasses(
+            ImmutableSet.of("A", "B", "C", "D"),
+            ImmutableMap.of("A", 100L, "B", 20L),
+            3);
+
+    assertThat(
+        shards,
+        Matchers.contains(
+            ImmutableSet.of("A"), ImmutableSet.of("C", "B"), ImmutableSet.of("D")));
+  }
+
+  @Test
+  public void thereAreNoMoreShardsThanTestClasses() {
+    ImmutableList<ImmutableSet<String>> shards =
+        JavaTest.partitionTestClasses(ImmutableSet.of("A", "B"), ImmutableMap.of(), 4);
+
+    assertThat(shards, Matchers.contains(ImmutableSet.of("A"), ImmutableSet.of("B")));
+  }
+
   private JavaTest newRule(ImmutableList<String> vmArgs) throws NoSuchBuildTargetException {
     return JavaTestBuilder.createBuilder(BuildTargetFactory.newInstance("//example:test"))
         .setVmArgs(vmArgs)
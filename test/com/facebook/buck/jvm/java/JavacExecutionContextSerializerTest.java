@@ -100,7 +100,8 @@ public class JavacExecutionContextSerializerTest {
             environment,
             processExecutor,
             pathToInputs,
-            Optional.of(directToJarParameters));
+            Optional.of(directToJarParameters),
+            Optional.empty());
     Map<String, Object> data = JavacExecutionContextSerializer.serialize(input);
     JavacExecutionContext output =
         JavacExecutionContextSerializer.deserialize(
@@ -131,6 +131,7 @@ public class Jsr199JavacIntegrationTest {
             executionContext.getEnvironment(),
             executionContext.getProcessExecutor(),
             ImmutableList.of(),
+            Optional.empty(),
             Optional.empty());
 
     int exitCode =
@@ -184,6 +185,7 @@ public class Jsr199JavacIntegrationTest {
             executionContext.getEnvironment(),
             executionContext.getProcessExecutor(),
             ImmutableList.of(),
+            Optional.empty(),
             Optional.empty());
 
     int exitCode =
@@ -284,6 +286,7 @@ public class Jsr199JavacIntegrationTest {
             executionContext.getEnvironment(),
             executionContext.getProcessExecutor(),
             ImmutableList.of(fakeJavacJar),
+            Optional.empty(),
             Optional.empty());
 
     boolean caught = false;
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.junit.Test;
+
+public class ShardTwoTest {
+
+  /** Only passes if the other shard runs at the same time as this one. */
+  @Test
+  public void runsConcurrentlyWithTheOtherShard() throws Exception {
+    Files.createFile(Paths.get("ShardTwoTest.started"));
+    Path other = Paths.get("ShardOneTest.started");
+    long deadline = System.currentTimeMillis() + 60000;
+    while (!Files.exists(other) && System.currentTimeMillis() < deadline) {
+      Thread.sleep(50);
+    }
+    assertTrue(Files.exists(other));
+  }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.config.FakeBuckConfig;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.parser.thrift.RemoteDaemonicCellState;
+import com.facebook.buck.parser.thrift.RemoteDaemonicParserState;
+import com.facebook.buck.rules.Cell;
+import com.facebook.buck.rules.TestCellBuilder;
+import com.facebook.buck.testutil.FakeProjectFilesystem;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.nio.file.Path;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DaemonicParserStateSnapshotStoreTest {
+
+  private ProjectFilesystem filesystem;
+  private Cell cell;
+
+  @Before
+  public void setUp() throws Exception {
+    filesystem = new FakeProjectFilesystem();
+    cell =
+        new TestCellBuilder()
+            .setFilesystem(filesystem)
+            .setBuckConfig(FakeBuckConfig.builder().setFilesystem(filesystem).build())
+            .build();
+  }
+
+  private static RemoteDaemonicParserState createState() {
+    RemoteDaemonicCellState cellState = new RemoteDaemonicCellState();
+    cellState.setAllRawNodesJsons(
+        ImmutableMap.of("foo/BUCK", "[{\"name\":\"lib\",\"buck.base_path\":\"foo\"}]"));
+    cellState.setBuildFileDependents(ImmutableMap.of());
+    cellState.setBuildFileEnv(ImmutableMap.of());
+    RemoteDaemonicParserState state = new RemoteDaemonicParserState();
+    state.setCellPaths(ImmutableList.of(""));
+    state.setCellPathToDaemonicState(ImmutableMap.of("", cellState));
+    state.setCachedIncludes(ImmutableMap.of());
+    return state;
+  }
+
+  @Test
+  public void snapshotRoundTrips() throws Exception {
+    DaemonicParserStateSnapshotStore store = new DaemonicParserStateSnapshotStore(cell);
+    ImmutableMap<Path, String> clocks = ImmutableMap.of(cell.getRoot(), "c:1234:56");
+    RemoteDaemonicParserState state = createState();
+
+    store.write(clocks, state);
+    Optional<DaemonicParserStateSnapshotStore.Snapshot> snapshot = store.read();
+
+    assertTrue(snapshot.isPresent());
+    assertEquals(clocks, snapshot.get().getWatchmanClocks());
+    assertEquals(state, snapshot.get().getParserState());
+  }
+
+  @Test
+  public void missingSnapshotIsEmpty() throws Exception {
+    assertFalse(new DaemonicParserStateSnapshotStore(cell).read().isPresent());
+  }
+
+  @Test
+  public void snapshotIsIgnoredWhenParserConfigChanges() throws Exception {
+    new DaemonicParserStateSnapshotStore(cell)
+        .write(ImmutableMap.of(cell.getRoot(), "c:1234:56"), createState());
+
+    Cell changedCell =
+        new TestCellBuilder()
+            .setFilesystem(filesystem)
+            .setBuckConfig(
+                FakeBuckConfig.builder()
+                    .setFilesystem(filesystem)
+                    .setSections("[buildfile]", "includes = //DEFS")
+                    .build())
+            .build();
+
+    assertFalse(new DaemonicParserStateSnapshotStore(changedCell).read().isPresent());
+  }
+
+  @Test
+  public void corruptSnapshotIsIgnored() throws Exception {
+    DaemonicParserStateSnapshotStore store = new DaemonicParserStateSnapshotStore(cell);
+    filesystem.mkdirs(store.getSnapshotPath().getParent());
+    filesystem.writeContentsToPath("not a snapshot", store.getSnapshotPath());
+
+    assertFalse(store.read().isPresent());
+  }
+
+  @Test
+  public void deleteRemovesSnapshot() throws Exception {
+    DaemonicParserStateSnapshotStore store = new DaemonicParserStateSnapshotStore(cell);
+    store.write(ImmutableMap.of(cell.getRoot(), "c:1234:56"), createState());
+
+    store.delete();
+
+    assertFalse(filesystem.exists(store.getSnapshotPath()));
+    assertFalse(store.read().isPresent());
+  }
+}
@@ -23,6 +23,7 @@ import com.facebook.buck.event.BuckEventBusForTests;
 import com.facebook.buck.event.listener.BroadcastEventListener;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.parser.api.Syntax;
 import com.facebook.buck.rules.Cell;
 import com.facebook.buck.rules.TestCellBuilder;
 import com.facebook.buck.rules.coercer.ConstructorArgMarshaller;
@@ -52,6 +53,9 @@ public class ParserBenchmark {
   @Param({"1", "2", "10"})
   private int threadCount = 1;
 
+  @Param({"PYTHON_DSL", "SKYLARK"})
+  private Syntax syntax = Syntax.PYTHON_DSL;
+
   private TemporaryPaths tempDir = new TemporaryPaths();
 
   private Parser parser;
@@ -73,6 +77,10 @@ public class ParserBenchmark {
     Files.createDirectories(root);
     filesystem = TestProjectFilesystems.createProjectFilesystem(root);
 
+    Path defsRoot = root.resolve("defs");
+    Files.createDirectories(defsRoot);
+    Files.write(defsRoot.resolve("srcs.bzl"), "SRCS = ['A.java']\n".getBytes("UTF-8"));
+
     Path fbJavaRoot = root.resolve(root.resolve("java/com/facebook"));
     Files.createDirectories(fbJavaRoot);
 
@@ -83,7 +91,9 @@ public class ParserBenchmark {
       Files.createFile(buckFile);
       Files.write(
           buckFile,
-          ("java_library(name = 'foo', srcs = ['A.java'])\n" + "genrule(name = 'baz', out = '')\n")
+          ("load('//defs:srcs.bzl', 'SRCS')\n"
+                  + "java_library(name = 'foo', srcs = SRCS)\n"
+                  + "genrule(name = 'baz', out = '')\n")
               .getBytes("UTF-8"));
       Path javaFile = targetRoot.resolve("A.java");
       Files.createFile(javaFile);
@@ -100,6 +110,12 @@ public class ParserBenchmark {
           ImmutableMap.of(
               "parallel_parsing", "true", "parsing_threads", Integer.toString(threadCount)));
     }
+    if (syntax == Syntax.SKYLARK) {
+      configSectionsBuilder.put(
+          "parser",
+          ImmutableMap.of(
+              "polyglot_parsing_enabled", "true", "default_build_file_syntax", syntax.name()));
+    }
     BuckConfig config =
         FakeBuckConfig.builder()
             .setFilesystem(filesystem)
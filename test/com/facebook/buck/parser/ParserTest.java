@@ -1611,7 +1611,7 @@ public class ParserTest {
         parser.buildTargetGraph(eventBus, cell, false, executorService, buildTargets);
 
     // Serialise target graph information.
-    RemoteDaemonicParserState remote = parser.storeParserState();
+    RemoteDaemonicParserState remote = parser.storeParserState(cell);
 
     assertTrue(remote.isSetCachedIncludes());
     assertEquals(remote.cachedIncludes.size(), 1);
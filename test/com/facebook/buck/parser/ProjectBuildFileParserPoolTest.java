@@ -333,6 +333,56 @@ public class ProjectBuildFileParserPoolTest {
     }
   }
 
+  @Test
+  public void threadSafeParserIsSharedByMoreThreadsThanMaxParsers() throws Exception {
+    int threadCount = 3;
+    AtomicInteger createCount = new AtomicInteger(0);
+    Cell cell = EasyMock.createMock(Cell.class);
+    ListeningExecutorService executorService = MoreExecutors.newDirectExecutorService();
+
+    CountDownLatch allParsing = new CountDownLatch(threadCount);
+    try (ProjectBuildFileParserPool parserPool =
+        new ProjectBuildFileParserPool(
+            /* maxParsersPerCell */ 1,
+            input -> {
+              createCount.incrementAndGet();
+              // Not a mock, since EasyMock serializes the calls to its mocks.
+              return new ProjectBuildFileParser() {
+                @Override
+                public boolean isThreadSafeFor(Path buildFile) {
+                  return true;
+                }
+
+                @Override
+                public ImmutableList<Map<String, Object>> getAll(
+                    Path buildFile, AtomicLong processedBytes) throws InterruptedException {
+                  return getAllRulesAndMetaRules(buildFile, processedBytes);
+                }
+
+                @Override
+                public ImmutableList<Map<String, Object>> getAllRulesAndMetaRules(
+                    Path buildFile, AtomicLong processedBytes) throws InterruptedException {
+                  // Only returns once all the threads are parsing at the same time.
+                  allParsing.countDown();
+                  assertThat(allParsing.await(1, TimeUnit.SECONDS), Matchers.is(true));
+                  return ImmutableList.of();
+                }
+
+                @Override
+                public void reportProfile() {}
+
+                @Override
+                public void close() {}
+              };
+            },
+            false,
+            threadCount)) {
+
+      Futures.allAsList(scheduleWork(cell, parserPool, executorService, threadCount)).get();
+      assertThat(createCount.get(), Matchers.is(1));
+    }
+  }
+
   private static ImmutableSet<ListenableFuture<?>> scheduleWork(
       Cell cell,
       ProjectBuildFileParserPool pool,
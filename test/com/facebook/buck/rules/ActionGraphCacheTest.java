@@ -23,6 +23,8 @@ import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.hasProperty;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 
 import com.facebook.buck.config.ActionGraphParallelizationMode;
@@ -32,16 +34,19 @@ import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.BuckEventBusForTests;
 import com.facebook.buck.event.ExperimentEvent;
 import com.facebook.buck.jvm.java.JavaLibraryBuilder;
+import com.facebook.buck.jvm.java.JavaTestBuilder;
 import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.model.BuildTargetFactory;
 import com.facebook.buck.rules.keys.ContentAgnosticRuleKeyFactory;
 import com.facebook.buck.rules.keys.RuleKeyFieldLoader;
+import com.facebook.buck.shell.GenruleBuilder;
 import com.facebook.buck.testutil.TargetGraphFactory;
 import com.facebook.buck.testutil.integration.TemporaryPaths;
 import com.facebook.buck.timing.IncrementingFakeClock;
 import com.facebook.buck.util.RichStream;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.eventbus.Subscribe;
+import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -218,6 +223,144 @@ public class ActionGraphCacheTest {
     assertThat(resultRun1RuleKeys, equalTo(resultRun2RuleKeys));
   }
 
+  @Test
+  public void incrementalActionGraphKeepsRulesOfUnchangedTargets() {
+    ActionGraphCache cache = new ActionGraphCache();
+    ActionGraphAndResolver resultRun1 =
+        cache.getActionGraph(
+            eventBus,
+            CHECK_GRAPHS,
+            /* skipActionGraphCache */ false,
+            targetGraph,
+            /* incrementalActionGraph */ true,
+            keySeed,
+            ActionGraphParallelizationMode.DISABLED,
+            Optional.empty());
+
+    // Make A depend on a new target C, which leaves B unchanged.
+    TargetNode<?, ?> nodeC = createTargetNode("C");
+    TargetNode<?, ?> newNodeA = createTargetNode("A", nodeB, nodeC);
+    ActionGraphAndResolver resultRun2 =
+        cache.getActionGraph(
+            eventBus,
+            CHECK_GRAPHS,
+            /* skipActionGraphCache */ false,
+            TargetGraphFactory.newInstance(newNodeA, nodeB, nodeC),
+            /* incrementalActionGraph */ true,
+            keySeed,
+            ActionGraphParallelizationMode.DISABLED,
+            Optional.empty());
+    assertEquals(2, countEventsOf(ActionGraphEvent.Cache.Miss.class));
+
+    BuildRuleResolver resolver1 = resultRun1.getResolver();
+    BuildRuleResolver resolver2 = resultRun2.getResolver();
+    assertSame(
+        resolver1.getRule(nodeB.getBuildTarget()), resolver2.getRule(nodeB.getBuildTarget()));
+    assertNotSame(
+        resolver1.getRule(nodeA.getBuildTarget()), resolver2.getRule(nodeA.getBuildTarget()));
+    assertThat(
+        resolver2.getRule(newNodeA.getBuildTarget()).getBuildDeps(),
+        Matchers.hasItems(
+            resolver2.getRule(nodeB.getBuildTarget()), resolver2.getRule(nodeC.getBuildTarget())));
+  }
+
+  @Test
+  public void incrementalActionGraphRecreatesRulesWhichCannotBeCarriedOver() {
+    ActionGraphCache cache = new ActionGraphCache();
+    TargetNode<?, ?> genruleNode =
+        GenruleBuilder.newGenruleBuilder(BuildTargetFactory.newInstance("//foo:gen"))
+            .setOut("out")
+            .setCmd("echo")
+            .build();
+    ActionGraphAndResolver resultRun1 =
+        getIncrementalActionGraph(
+            cache,
+            TargetGraphFactory.newInstance(genruleNode, nodeA, nodeB),
+            ActionGraphParallelizationMode.DISABLED);
+
+    TargetNode<?, ?> nodeC = createTargetNode("C");
+    ActionGraphAndResolver resultRun2 =
+        getIncrementalActionGraph(
+            cache,
+            TargetGraphFactory.newInstance(
+                genruleNode, createTargetNode("A", nodeB, nodeC), nodeB, nodeC),
+            ActionGraphParallelizationMode.DISABLED);
+
+    BuildRuleResolver resolver1 = resultRun1.getResolver();
+    BuildRuleResolver resolver2 = resultRun2.getResolver();
+    assertNotSame(
+        resolver1.getRule(genruleNode.getBuildTarget()),
+        resolver2.getRule(genruleNode.getBuildTarget()));
+    assertSame(
+        resolver1.getRule(nodeB.getBuildTarget()), resolver2.getRule(nodeB.getBuildTarget()));
+  }
+
+  @Test
+  public void incrementalActionGraphRecreatesRulesWhoseRuntimeDepChanged() {
+    ActionGraphCache cache = new ActionGraphCache();
+    TargetNode<?, ?> testNode =
+        JavaTestBuilder.createBuilder(BuildTargetFactory.newInstance("//foo:test"))
+            .addDep(nodeA.getBuildTarget())
+            .build();
+    ActionGraphAndResolver resultRun1 =
+        getIncrementalActionGraph(
+            cache,
+            TargetGraphFactory.newInstance(testNode, nodeA, nodeB),
+            ActionGraphParallelizationMode.DISABLED);
+
+    // B is only a transitive runtime dep of the test, through A.
+    TargetNode<?, ?> newNodeB =
+        JavaLibraryBuilder.createBuilder(nodeB.getBuildTarget())
+            .addSrc(Paths.get("B.java"))
+            .build();
+    TargetNode<?, ?> newNodeA = createTargetNode("A", newNodeB);
+    ActionGraphAndResolver resultRun2 =
+        getIncrementalActionGraph(
+            cache,
+            TargetGraphFactory.newInstance(testNode, newNodeA, newNodeB),
+            ActionGraphParallelizationMode.DISABLED);
+
+    BuildRuleResolver resolver2 = resultRun2.getResolver();
+    HasRuntimeDeps testRule = (HasRuntimeDeps) resolver2.getRule(testNode.getBuildTarget());
+    assertNotSame(resultRun1.getResolver().getRule(testNode.getBuildTarget()), testRule);
+    assertThat(
+        testRule
+            .getRuntimeDeps(new SourcePathRuleFinder(resolver2))
+            .map(resolver2::getRule)
+            .collect(Collectors.toList()),
+        Matchers.hasItem(Matchers.sameInstance(resolver2.getRule(nodeB.getBuildTarget()))));
+    assertNotSame(
+        resultRun1.getResolver().getRule(nodeB.getBuildTarget()),
+        resolver2.getRule(nodeB.getBuildTarget()));
+  }
+
+  @Test
+  public void incrementalActionGraphDropsRemovedDepsInParallel() {
+    ActionGraphCache cache = new ActionGraphCache();
+    TargetNode<?, ?> nodeC = createTargetNode("C");
+    TargetNode<?, ?> nodeAWithC = createTargetNode("A", nodeB, nodeC);
+    ActionGraphAndResolver resultRun1 =
+        getIncrementalActionGraph(
+            cache,
+            TargetGraphFactory.newInstance(nodeAWithC, nodeB, nodeC),
+            ActionGraphParallelizationMode.ENABLED);
+
+    ActionGraphAndResolver resultRun2 =
+        getIncrementalActionGraph(cache, targetGraph, ActionGraphParallelizationMode.ENABLED);
+
+    BuildRuleResolver resolver1 = resultRun1.getResolver();
+    BuildRuleResolver resolver2 = resultRun2.getResolver();
+    assertThat(resolver2, Matchers.instanceOf(MultiThreadedBuildRuleResolver.class));
+    assertSame(
+        resolver1.getRule(nodeB.getBuildTarget()), resolver2.getRule(nodeB.getBuildTarget()));
+    BuildRule ruleA = resolver2.getRule(nodeA.getBuildTarget());
+    assertNotSame(resolver1.getRule(nodeA.getBuildTarget()), ruleA);
+    assertThat(
+        ruleA.getBuildDeps(),
+        Matchers.not(Matchers.hasItem(resolver1.getRule(nodeC.getBuildTarget()))));
+    assertEquals(Optional.empty(), resolver2.getRuleOptional(nodeC.getBuildTarget()));
+  }
+
   @Test
   public void actionGraphParallelizationStateIsLogged() throws Exception {
     List<ExperimentEvent> experimentEvents;
@@ -284,6 +427,21 @@ public class ActionGraphCacheTest {
                 hasProperty("variant", anyOf(equalTo("ENABLED"), equalTo("DISABLED"))))));
   }
 
+  private ActionGraphAndResolver getIncrementalActionGraph(
+      ActionGraphCache cache,
+      TargetGraph targetGraph,
+      ActionGraphParallelizationMode parallelizationMode) {
+    return cache.getActionGraph(
+        eventBus,
+        CHECK_GRAPHS,
+        /* skipActionGraphCache */ false,
+        targetGraph,
+        /* incrementalActionGraph */ true,
+        keySeed,
+        parallelizationMode,
+        Optional.empty());
+  }
+
   private TargetNode<?, ?> createTargetNode(String name, TargetNode<?, ?>... deps) {
     BuildTarget buildTarget = BuildTargetFactory.newInstance("//foo:" + name);
     JavaLibraryBuilder targetNodeBuilder = JavaLibraryBuilder.createBuilder(buildTarget);
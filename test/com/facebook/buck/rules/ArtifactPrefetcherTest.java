@@ -0,0 +1,106 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.artifact_cache.CacheResult;
+import com.facebook.buck.artifact_cache.NoopArtifactCache;
+import com.facebook.buck.io.file.LazyPath;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class ArtifactPrefetcherTest {
+
+  private static final RuleKey RULE_KEY = new RuleKey("aaaa");
+  private static final RuleKey OTHER_RULE_KEY = new RuleKey("bbbb");
+
+  @Test
+  public void concurrentPrefetchesOfARuleKeyFetchItOnce() throws Exception {
+    List<ImmutableSet<RuleKey>> requests = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch fetching = new CountDownLatch(1);
+    CountDownLatch secondPrefetchDone = new CountDownLatch(1);
+    SettableFuture<CacheResult> fetch = SettableFuture.create();
+    NoopArtifactCache cache =
+        new NoopArtifactCache() {
+          @Override
+          public ImmutableMap<RuleKey, ListenableFuture<CacheResult>> multiFetchAsync(
+              ImmutableMap<RuleKey, LazyPath> fetchRequests) {
+            requests.add(fetchRequests.keySet());
+            fetching.countDown();
+            try {
+              // Keep the first prefetch between reserving its rule key and fetching it.
+              secondPrefetchDone.await(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+              throw new IllegalStateException(e);
+            }
+            return ImmutableMap.of(RULE_KEY, fetch);
+          }
+        };
+    ArtifactPrefetcher prefetcher = new ArtifactPrefetcher();
+
+    Thread first =
+        new Thread(() -> prefetcher.prefetch(cache, ImmutableList.of(RULE_KEY)), "first");
+    first.start();
+    assertTrue(fetching.await(1, TimeUnit.SECONDS));
+    ImmutableMap<RuleKey, ListenableFuture<CacheResult>> second =
+        prefetcher.prefetch(cache, ImmutableList.of(RULE_KEY));
+    secondPrefetchDone.countDown();
+    first.join();
+
+    assertEquals(ImmutableList.of(ImmutableSet.of(RULE_KEY)), requests);
+    assertFalse(second.get(RULE_KEY).isDone());
+    fetch.set(CacheResult.miss());
+    assertEquals(CacheResult.miss(), second.get(RULE_KEY).get());
+    assertEquals(
+        second.get(RULE_KEY).get(),
+        prefetcher.take(RULE_KEY).get().getCacheResult().get());
+  }
+
+  @Test
+  public void failuresToStartFetchingAreSeenByWhoeverWaits() {
+    NoopArtifactCache cache =
+        new NoopArtifactCache() {
+          @Override
+          public ImmutableMap<RuleKey, ListenableFuture<CacheResult>> multiFetchAsync(
+              ImmutableMap<RuleKey, LazyPath> fetchRequests) {
+            throw new IllegalStateException("failed");
+          }
+        };
+    ArtifactPrefetcher prefetcher = new ArtifactPrefetcher();
+
+    try {
+      prefetcher.prefetch(cache, ImmutableList.of(RULE_KEY, OTHER_RULE_KEY));
+    } catch (IllegalStateException e) {
+      // Expected.
+    }
+
+    assertTrue(prefetcher.take(RULE_KEY).get().getCacheResult().isDone());
+    assertTrue(prefetcher.take(OTHER_RULE_KEY).get().getCacheResult().isDone());
+  }
+}
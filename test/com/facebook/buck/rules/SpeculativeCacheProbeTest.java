@@ -0,0 +1,197 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.facebook.buck.artifact_cache.ArtifactCacheMode;
+import com.facebook.buck.artifact_cache.ArtifactInfo;
+import com.facebook.buck.artifact_cache.CacheResult;
+import com.facebook.buck.artifact_cache.InMemoryArtifactCache;
+import com.facebook.buck.artifact_cache.NoopArtifactCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SpeculativeCacheProbeTest {
+
+  private FakeBuildRule leaf;
+  private FakeBuildRule middle;
+  private FakeBuildRule top;
+  private FakeBuildRule otherLeaf;
+  private FakeBuildRule otherTop;
+  private List<ImmutableSet<RuleKey>> fetches;
+  private SpeculativeCacheProbe probe;
+
+  @Before
+  public void setUp() {
+    leaf = new FakeBuildRule("//:leaf");
+    middle = new FakeBuildRule("//:middle", leaf);
+    top = new FakeBuildRule("//:top", middle);
+    otherLeaf = new FakeBuildRule("//:other_leaf");
+    otherTop = new FakeBuildRule("//:other_top", otherLeaf);
+    fetches = new ArrayList<>();
+    probe =
+        new SpeculativeCacheProbe(
+            BuildRule::getBuildDeps,
+            rule -> ImmutableSet.of(),
+            SpeculativeCacheProbeTest::ruleKey,
+            rule -> false);
+  }
+
+  private static RuleKey ruleKey(BuildRule rule) {
+    return new RuleKey(
+        Hashing.sha1().hashString(rule.getFullyQualifiedName(), StandardCharsets.UTF_8));
+  }
+
+  private SpeculativeCacheProbe.Fetcher recordingFetcher() {
+    return fetches::add;
+  }
+
+  @Test
+  public void depsOfCachedRulesAreNotProbed() throws Exception {
+    List<ImmutableSet<RuleKey>> containsRequests = new ArrayList<>();
+    InMemoryArtifactCache cache =
+        new InMemoryArtifactCache() {
+          @Override
+          public ListenableFuture<ImmutableMap<RuleKey, CacheResult>> multiContainsAsync(
+              ImmutableSet<RuleKey> ruleKeys) {
+            containsRequests.add(ruleKeys);
+            return super.multiContainsAsync(ruleKeys);
+          }
+        };
+    cache.store(ArtifactInfo.builder().addRuleKeys(ruleKey(middle)).build(), new byte[0]);
+    cache.store(ArtifactInfo.builder().addRuleKeys(ruleKey(otherTop)).build(), new byte[0]);
+
+    ImmutableSet<RuleKey> cached =
+        probe
+            .probe(
+                cache,
+                recordingFetcher(),
+                ImmutableList.of(top, otherTop),
+                MoreExecutors.directExecutor())
+            .get();
+
+    assertEquals(ImmutableSet.of(ruleKey(middle), ruleKey(otherTop)), cached);
+    assertEquals(
+        ImmutableList.of(
+            ImmutableSet.of(ruleKey(top), ruleKey(otherTop)), ImmutableSet.of(ruleKey(middle))),
+        containsRequests);
+    assertEquals(
+        ImmutableList.of(ImmutableSet.of(ruleKey(otherTop)), ImmutableSet.of(ruleKey(middle))),
+        fetches);
+  }
+
+  @Test
+  public void levelsAreOnlyProbedOnceThePreviousOneIsAnswered() throws Exception {
+    List<SettableFuture<ImmutableMap<RuleKey, CacheResult>>> answers = new ArrayList<>();
+    NoopArtifactCache cache =
+        new NoopArtifactCache() {
+          @Override
+          public ListenableFuture<ImmutableMap<RuleKey, CacheResult>> multiContainsAsync(
+              ImmutableSet<RuleKey> ruleKeys) {
+            SettableFuture<ImmutableMap<RuleKey, CacheResult>> answer = SettableFuture.create();
+            answers.add(answer);
+            return answer;
+          }
+        };
+
+    ListenableFuture<ImmutableSet<RuleKey>> cached =
+        probe.probe(
+            cache, recordingFetcher(), ImmutableList.of(top), MoreExecutors.directExecutor());
+
+    assertEquals(1, answers.size());
+    assertFalse(cached.isDone());
+    answers.get(0).set(ImmutableMap.of(ruleKey(top), CacheResult.miss()));
+    assertEquals(2, answers.size());
+    answers
+        .get(1)
+        .set(
+            ImmutableMap.of(
+                ruleKey(middle), CacheResult.contains("fake", ArtifactCacheMode.dir)));
+    assertEquals(ImmutableSet.of(ruleKey(middle)), cached.get());
+    assertEquals(ImmutableList.of(ImmutableSet.of(ruleKey(middle))), fetches);
+  }
+
+  @Test
+  public void rulesTheCacheCannotTellAboutAreNotDescendedInto() throws Exception {
+    List<ImmutableSet<RuleKey>> containsRequests = new ArrayList<>();
+    NoopArtifactCache cache =
+        new NoopArtifactCache() {
+          @Override
+          public ListenableFuture<ImmutableMap<RuleKey, CacheResult>> multiContainsAsync(
+              ImmutableSet<RuleKey> ruleKeys) {
+            containsRequests.add(ruleKeys);
+            return Futures.immediateFuture(
+                ImmutableMap.copyOf(
+                    Maps.toMap(
+                        ruleKeys,
+                        ruleKey ->
+                            ruleKey.equals(ruleKey(top))
+                                ? CacheResult.skipped()
+                                : CacheResult.error("fake", ArtifactCacheMode.dir, "failed"))));
+          }
+        };
+
+    ImmutableSet<RuleKey> cached =
+        probe
+            .probe(
+                cache,
+                recordingFetcher(),
+                ImmutableList.of(top, otherTop),
+                MoreExecutors.directExecutor())
+            .get();
+
+    assertEquals(ImmutableSet.of(), cached);
+    assertEquals(
+        ImmutableList.of(ImmutableSet.of(ruleKey(top), ruleKey(otherTop))), containsRequests);
+    assertEquals(ImmutableList.of(), fetches);
+  }
+
+  @Test
+  public void failingCachesStopTheProbeWithoutFailingIt() throws Exception {
+    NoopArtifactCache cache =
+        new NoopArtifactCache() {
+          @Override
+          public ListenableFuture<ImmutableMap<RuleKey, CacheResult>> multiContainsAsync(
+              ImmutableSet<RuleKey> ruleKeys) {
+            return Futures.immediateFailedFuture(new IOException("failed"));
+          }
+        };
+
+    ImmutableSet<RuleKey> cached =
+        probe
+            .probe(cache, recordingFetcher(), ImmutableList.of(top), MoreExecutors.directExecutor())
+            .get();
+
+    assertEquals(ImmutableSet.of(), cached);
+    assertEquals(ImmutableList.of(), fetches);
+  }
+}
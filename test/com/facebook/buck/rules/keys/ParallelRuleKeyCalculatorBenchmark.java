@@ -0,0 +1,152 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.BuckEventBusForTests;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.rules.BuildRule;
+import com.facebook.buck.rules.NoopBuildRuleWithDeclaredAndExtraDeps;
+import com.facebook.buck.rules.TestBuildRuleParams;
+import com.facebook.buck.testutil.FakeProjectFilesystem;
+import com.facebook.buck.util.concurrent.MostExecutors;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Compares computing the keys of a synthetic action graph recursively on a single thread with
+ * computing them using {@link ParallelRuleKeyCalculator}.
+ */
+public class ParallelRuleKeyCalculatorBenchmark {
+  @Param({"10000", "100000"})
+  private int ruleCount = 1000;
+
+  @Param({"1", "4", "12"})
+  private int threads = 4;
+
+  private static final int RULES_PER_LAYER = 1000;
+  private static final int MAX_DEPS = 8;
+  // Stands in for hashing the fields and inputs of a rule.
+  private static final int HASHING_ROUNDS = 64;
+
+  private final Random random = new Random(12345);
+  private final BuckEventBus eventBus = BuckEventBusForTests.newInstance();
+
+  private List<BuildRule> rules;
+  private ForkJoinPool pool;
+
+  @Before
+  public void setUp() {
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  private void setUpBenchmark() {
+    // Each rule depends on random rules of the layers below it, like libraries do.
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    rules = new ArrayList<>(ruleCount);
+    for (int i = 0; i < ruleCount; i++) {
+      int layerStart = i - i % RULES_PER_LAYER;
+      int depCount = layerStart > 0 ? random.nextInt(MAX_DEPS + 1) : 0;
+      ImmutableSortedSet.Builder<BuildRule> deps = ImmutableSortedSet.naturalOrder();
+      for (int j = 0; j < depCount; j++) {
+        deps.add(rules.get(random.nextInt(layerStart)));
+      }
+      rules.add(
+          new NoopBuildRuleWithDeclaredAndExtraDeps(
+              BuildTargetFactory.newInstance("//benchmark:rule" + i),
+              filesystem,
+              TestBuildRuleParams.create().withDeclaredDeps(deps.build())));
+    }
+    pool = MostExecutors.forkJoinPoolWithThreadLimit(threads, 0);
+  }
+
+  @After
+  @AfterExperiment
+  public void tearDown() {
+    pool.shutdownNow();
+  }
+
+  @Ignore
+  @Test
+  public void testAllBenchmarks() throws InterruptedException {
+    benchSequential();
+    benchParallel();
+  }
+
+  @Benchmark
+  private void benchSequential() {
+    RecursiveRuleKeyFactory factory = new RecursiveRuleKeyFactory(new DefaultRuleKeyCache<>());
+    for (BuildRule rule : rules) {
+      factory.build(rule);
+    }
+  }
+
+  @Benchmark
+  private void benchParallel() throws InterruptedException {
+    DefaultRuleKeyCache<String> cache = new DefaultRuleKeyCache<>();
+    new ParallelRuleKeyCalculator<>(
+            pool, new RecursiveRuleKeyFactory(cache), cache, BuildRule::getBuildDeps)
+        .calculate(eventBus, rules);
+  }
+
+  /** Like {@link DefaultRuleKeyFactory}, computes the keys of the deps of a rule as it needs them. */
+  private static class RecursiveRuleKeyFactory implements RuleKeyFactory<String> {
+    private final RuleKeyCache<String> cache;
+
+    private RecursiveRuleKeyFactory(RuleKeyCache<String> cache) {
+      this.cache = cache;
+    }
+
+    @Override
+    public String build(BuildRule buildRule) {
+      return cache.get(buildRule, this::compute);
+    }
+
+    private RuleKeyResult<String> compute(BuildRule rule) {
+      Hasher hasher = Hashing.sha1().newHasher();
+      for (int i = 0; i < HASHING_ROUNDS; i++) {
+        hasher.putString(rule.getFullyQualifiedName(), StandardCharsets.UTF_8);
+      }
+      for (BuildRule dep : rule.getBuildDeps()) {
+        hasher.putString(build(dep), StandardCharsets.UTF_8);
+      }
+      return new RuleKeyResult<>(
+          hasher.hash().toString(), ImmutableList.copyOf(rule.getBuildDeps()), ImmutableList.of());
+    }
+
+    @Override
+    public String getFromCache(BuildRule buildRule) {
+      return cache.get(buildRule);
+    }
+  }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.BuckEventBusForTests;
+import com.facebook.buck.event.FakeBuckEventListener;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.rules.BuildRule;
+import com.facebook.buck.rules.NoopBuildRuleWithDeclaredAndExtraDeps;
+import com.facebook.buck.rules.TestBuildRuleParams;
+import com.facebook.buck.testutil.FakeProjectFilesystem;
+import com.facebook.buck.util.exceptions.BuckUncheckedExecutionException;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import org.hamcrest.Matchers;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelRuleKeyCalculatorTest {
+
+  private static final ProjectFilesystem FILESYSTEM = new FakeProjectFilesystem();
+
+  private ForkJoinPool pool;
+  private BuckEventBus eventBus;
+  private DefaultRuleKeyCache<String> cache;
+  private TestRuleKeyFactory factory;
+
+  @Before
+  public void setUp() {
+    pool = new ForkJoinPool(4);
+    eventBus = BuckEventBusForTests.newInstance();
+    cache = new DefaultRuleKeyCache<>();
+    factory = new TestRuleKeyFactory(cache);
+  }
+
+  @After
+  public void tearDown() {
+    pool.shutdownNow();
+  }
+
+  private ParallelRuleKeyCalculator<String> calculator() {
+    return new ParallelRuleKeyCalculator<>(pool, factory, cache, BuildRule::getBuildDeps);
+  }
+
+  @Test
+  public void computesKeysOfAllTransitiveDependencies() throws InterruptedException {
+    BuildRule leaf = rule("leaf");
+    BuildRule left = rule("left", leaf);
+    BuildRule right = rule("right", leaf);
+    BuildRule top = rule("top", left, right);
+
+    ImmutableMap<BuildRule, String> keys =
+        calculator().calculate(eventBus, ImmutableList.of(top, left));
+
+    assertEquals(
+        ImmutableMap.of(top, "top(left(leaf()),right(leaf()))", left, "left(leaf())"), keys);
+    assertEquals(4, factory.computed.size());
+    assertThat(factory.computed.values(), Matchers.everyItem(Matchers.equalTo(1)));
+  }
+
+  @Test
+  public void deepGraphsDoNotOverflowTheStack() throws InterruptedException {
+    BuildRule rule = rule("0");
+    for (int i = 1; i < 10000; i++) {
+      rule = rule(Integer.toString(i), rule);
+    }
+
+    calculator().calculate(eventBus, ImmutableList.of(rule));
+
+    assertEquals(10000, factory.computed.size());
+  }
+
+  @Test
+  public void cachedSubtreesAreNotTraversed() throws InterruptedException {
+    BuildRule leaf = rule("leaf");
+    BuildRule middle = rule("middle", leaf);
+    calculator().calculate(eventBus, ImmutableList.of(middle));
+
+    FakeBuckEventListener listener = new FakeBuckEventListener();
+    eventBus.register(listener);
+    BuildRule top = rule("top", middle);
+    calculator().calculate(eventBus, ImmutableList.of(top));
+
+    assertEquals(3, factory.computed.size());
+    Map<String, RuleKeyCacheStatsEvent> phases =
+        listener
+            .getEvents()
+            .stream()
+            .filter(RuleKeyCacheStatsEvent.class::isInstance)
+            .map(RuleKeyCacheStatsEvent.class::cast)
+            .collect(Collectors.toMap(event -> event.getPhase().get(), event -> event));
+    assertEquals(
+        ImmutableSortedSet.of(
+            ParallelRuleKeyCalculator.TRAVERSAL_PHASE, ParallelRuleKeyCalculator.COMPUTATION_PHASE),
+        ImmutableSortedSet.copyOf(phases.keySet()));
+    // Only the new rule missed, its dependency was served from the cache.
+    assertEquals(1, phases.get(ParallelRuleKeyCalculator.COMPUTATION_PHASE).getStats().missCount());
+  }
+
+  @Test
+  public void failuresArePropagated() throws InterruptedException {
+    BuildRule leaf = rule("leaf");
+    BuildRule broken = rule("broken", leaf);
+    BuildRule top = rule("top", broken);
+    factory.failingRule = Optional.of(broken);
+
+    try {
+      calculator().calculate(eventBus, ImmutableList.of(top));
+      fail("Expected the calculation to fail.");
+    } catch (BuckUncheckedExecutionException e) {
+      assertThat(e.getCause(), Matchers.instanceOf(IllegalStateException.class));
+    }
+    assertEquals(ImmutableSortedSet.of(leaf), ImmutableSortedSet.copyOf(factory.computed.keySet()));
+  }
+
+  @Test(timeout = 10000)
+  public void errorsArePropagated() throws InterruptedException {
+    BuildRule broken = rule("broken");
+    BuildRule top = rule("top", broken);
+    factory.failingRule = Optional.of(broken);
+    factory.failWithError = true;
+
+    try {
+      calculator().calculate(eventBus, ImmutableList.of(top));
+      fail("Expected the calculation to fail.");
+    } catch (BuckUncheckedExecutionException e) {
+      assertThat(e.getCause(), Matchers.instanceOf(StackOverflowError.class));
+    }
+  }
+
+  private static BuildRule rule(String name, BuildRule... deps) {
+    return new NoopBuildRuleWithDeclaredAndExtraDeps(
+        BuildTargetFactory.newInstance("//:" + name),
+        FILESYSTEM,
+        TestBuildRuleParams.create().withDeclaredDeps(ImmutableSortedSet.copyOf(deps)));
+  }
+
+  /**
+   * Derives the key of a rule from its name and the keys of its deps, which it expects to be cached
+   * already.
+   */
+  private static class TestRuleKeyFactory implements RuleKeyFactory<String> {
+    private final RuleKeyCache<String> cache;
+    private final Map<BuildRule, Integer> computed = new ConcurrentHashMap<>();
+    private Optional<BuildRule> failingRule = Optional.empty();
+    private boolean failWithError = false;
+
+    private TestRuleKeyFactory(RuleKeyCache<String> cache) {
+      this.cache = cache;
+    }
+
+    @Override
+    public String build(BuildRule buildRule) {
+      return cache.get(buildRule, this::compute);
+    }
+
+    private RuleKeyResult<String> compute(BuildRule rule) {
+      if (failingRule.equals(Optional.of(rule))) {
+        if (failWithError) {
+          throw new StackOverflowError();
+        }
+        throw new IllegalStateException("broken");
+      }
+      computed.merge(rule, 1, Integer::sum);
+      String key =
+          rule.getBuildTarget().getShortName()
+              + rule.getBuildDeps()
+                  .stream()
+                  .map(this::assertCached)
+                  .collect(Collectors.joining(",", "(", ")"));
+      return new RuleKeyResult<>(
+          key, ImmutableList.copyOf(rule.getBuildDeps()), ImmutableList.of());
+    }
+
+    private String assertCached(BuildRule dep) {
+      String depKey = cache.get(dep);
+      assertNotNull(depKey);
+      return depKey;
+    }
+
+    @Override
+    public String getFromCache(BuildRule buildRule) {
+      return cache.get(buildRule);
+    }
+  }
+}
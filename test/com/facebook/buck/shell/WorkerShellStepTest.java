@@ -24,6 +24,7 @@ import com.facebook.buck.event.BuckEvent;
 import com.facebook.buck.event.BuckEventBusForTests;
 import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.event.FakeBuckEventListener;
+import com.facebook.buck.event.LeafEvents;
 import com.facebook.buck.model.BuildTargetFactory;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.TestExecutionContext;
@@ -51,6 +52,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
@@ -60,6 +62,7 @@ import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
+import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 import org.hamcrest.Matchers;
 import org.junit.Test;
@@ -87,6 +90,14 @@ public class WorkerShellStepTest {
         new WorkerProcessPoolFactory(new FakeProjectFilesystem()));
   }
 
+  private static List<BuckEvent> getConsoleEvents(FakeBuckEventListener listener) {
+    return listener
+        .getEvents()
+        .stream()
+        .filter(ConsoleEvent.class::isInstance)
+        .collect(Collectors.toList());
+  }
+
   private WorkerJobParams createJobParams() {
     return createJobParams(ImmutableList.of(), ImmutableMap.of(), "");
   }
@@ -272,11 +283,11 @@ public class WorkerShellStepTest {
     assertThat(exitCode, Matchers.equalTo(0));
 
     // assert that the job's stdout and stderr were written to the console
-    BuckEvent firstEvent = listener.getEvents().get(0);
+    BuckEvent firstEvent = getConsoleEvents(listener).get(0);
     assertTrue(firstEvent instanceof ConsoleEvent);
     assertThat(((ConsoleEvent) firstEvent).getLevel(), Matchers.is(Level.INFO));
     assertThat(((ConsoleEvent) firstEvent).getMessage(), Matchers.is(stdout));
-    BuckEvent secondEvent = listener.getEvents().get(1);
+    BuckEvent secondEvent = getConsoleEvents(listener).get(1);
     assertTrue(secondEvent instanceof ConsoleEvent);
     assertThat(((ConsoleEvent) secondEvent).getLevel(), Matchers.is(Level.WARNING));
     assertThat(((ConsoleEvent) secondEvent).getMessage(), Matchers.is(stderr));
@@ -336,6 +347,30 @@ public class WorkerShellStepTest {
     stepExecution.get(5, TimeUnit.SECONDS);
   }
 
+  @Test
+  public void testTimeSpentStartingTheWorkerIsPosted() throws IOException, InterruptedException {
+    ExecutionContext context = createExecutionContextWith(0, "", "");
+    WorkerShellStep step =
+        createWorkerShellStep(
+            createJobParams(
+                ImmutableList.of(startupCommand, startupArg), ImmutableMap.of(), "myJobArgs"),
+            null,
+            null);
+
+    FakeBuckEventListener listener = new FakeBuckEventListener();
+    context.getBuckEventBus().register(listener);
+    step.execute(context);
+
+    assertThat(
+        listener
+            .getEvents()
+            .stream()
+            .filter(LeafEvents.SimpleLeafEvent.class::isInstance)
+            .map(event -> ((LeafEvents.SimpleLeafEvent) event).getCategory())
+            .collect(Collectors.toList()),
+        Matchers.contains("starting_worker", "starting_worker"));
+  }
+
   @Test
   public void testStdErrIsPrintedAsErrorIfJobFails() throws IOException, InterruptedException {
     String stderr = "my stderr";
@@ -354,11 +389,11 @@ public class WorkerShellStepTest {
     assertThat(exitCode, Matchers.equalTo(1));
 
     // assert that the job's stderr was written to the console as error, not as warning
-    BuckEvent firstEvent = listener.getEvents().get(0);
+    BuckEvent firstEvent = getConsoleEvents(listener).get(0);
     assertTrue(firstEvent instanceof ConsoleEvent);
     assertThat(((ConsoleEvent) firstEvent).getLevel(), Matchers.is(Level.SEVERE));
     assertThat(((ConsoleEvent) firstEvent).getMessage(), Matchers.is(stderr));
-    BuckEvent secondEvent = listener.getEvents().get(1);
+    BuckEvent secondEvent = getConsoleEvents(listener).get(1);
     assertTrue(secondEvent instanceof ConsoleEvent);
     assertThat(((ConsoleEvent) secondEvent).getLevel(), Matchers.is(Level.INFO));
     assertThat(
@@ -499,7 +534,7 @@ public class WorkerShellStepTest {
     WorkerShellStep step = createWorkerShellStep(params, null, null);
     step.execute(context);
 
-    BuckEvent firstEvent = listener.getEvents().get(0);
+    BuckEvent firstEvent = getConsoleEvents(listener).get(0);
     assertThat(firstEvent, Matchers.instanceOf(ConsoleEvent.class));
 
     ConsoleEvent consoleEvent = (ConsoleEvent) firstEvent;
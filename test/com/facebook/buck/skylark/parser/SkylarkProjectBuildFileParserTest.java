@@ -425,6 +425,63 @@ public class SkylarkProjectBuildFileParserTest {
     assertThat(envsMetadataRule.get("__env"), equalTo(ImmutableMap.of()));
   }
 
+  @Test
+  public void modifiedTransitiveExtensionIsEvaluatedAgain() throws Exception {
+    Path directory = projectFilesystem.resolve("src").resolve("test");
+    Files.createDirectories(directory);
+    Path buildFile = directory.resolve("BUCK");
+    Path extensionFile = directory.resolve("build_rules.bzl");
+    Path extensionExtensionFile = directory.resolve("extension_rules.bzl");
+    projectFilesystem.writeContentsToPath(
+        "load('//src/test:build_rules.bzl', 'get_name')\n"
+            + "prebuilt_jar(name='foo', binary_jar=get_name())",
+        buildFile);
+    projectFilesystem.writeContentsToPath(
+        "load('//src/test:extension_rules.bzl', 'get_name')", extensionFile);
+    projectFilesystem.writeContentsToPath(
+        "def get_name():\n  return 'jar'", extensionExtensionFile);
+    assertThat(getSingleRule(buildFile).get("binaryJar"), equalTo("jar"));
+
+    projectFilesystem.writeContentsToPath(
+        "def get_name():\n  return 'other.jar'", extensionExtensionFile);
+    assertThat(getSingleRule(buildFile).get("binaryJar"), equalTo("other.jar"));
+  }
+
+  @Test
+  public void extensionLoadedByAnotherBuildFileIsReportedAsIncluded() throws Exception {
+    Path directory = projectFilesystem.resolve("src").resolve("test");
+    Files.createDirectories(directory);
+    Path otherDirectory = projectFilesystem.resolve("src").resolve("other");
+    Files.createDirectories(otherDirectory);
+    Path buildFile = directory.resolve("BUCK");
+    Path otherBuildFile = otherDirectory.resolve("BUCK");
+    Path extensionFile = directory.resolve("build_rules.bzl");
+    Path extensionExtensionFile = directory.resolve("extension_rules.bzl");
+    String buildFileContents =
+        "load('//src/test:build_rules.bzl', 'get_name')\n"
+            + "prebuilt_jar(name='foo', binary_jar=get_name())";
+    projectFilesystem.writeContentsToPath(buildFileContents, buildFile);
+    projectFilesystem.writeContentsToPath(buildFileContents, otherBuildFile);
+    projectFilesystem.writeContentsToPath(
+        "load('//src/test:extension_rules.bzl', 'get_name')", extensionFile);
+    projectFilesystem.writeContentsToPath(
+        "def get_name():\n  return 'jar'", extensionExtensionFile);
+    parser.getAllRulesAndMetaRules(buildFile, new AtomicLong());
+
+    // The extensions are not evaluated again, but are still dependencies of the other build file.
+    ImmutableList<Map<String, Object>> allRulesAndMetaRules =
+        parser.getAllRulesAndMetaRules(otherBuildFile, new AtomicLong());
+    @SuppressWarnings("unchecked")
+    ImmutableSet<String> includes =
+        (ImmutableSet<String>) allRulesAndMetaRules.get(1).get("__includes");
+    assertThat(
+        includes
+            .stream()
+            .map(projectFilesystem::resolve)
+            .collect(MoreCollectors.toImmutableSet()),
+        equalTo(ImmutableSet.of(otherBuildFile, extensionFile, extensionExtensionFile)));
+  }
+
   private Map<String, Object> getSingleRule(Path buildFile)
       throws BuildFileParseException, InterruptedException, IOException {
     ImmutableList<Map<String, Object>> allRules = parser.getAll(buildFile, new AtomicLong());
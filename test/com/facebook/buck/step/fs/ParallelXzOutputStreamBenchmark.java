@@ -0,0 +1,151 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.step.fs;
+
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.XZ;
+import org.tukaani.xz.XZOutputStream;
+
+/**
+ * Compares the throughput of {@link ParallelXzOutputStream} with that of a single {@link
+ * XZOutputStream}, for several block sizes and thread counts.
+ */
+public class ParallelXzOutputStreamBenchmark {
+  @Param({"4", "9"})
+  private int preset = 4;
+
+  /** The block size in MiB, or 0 for a single {@link XZOutputStream}. */
+  @Param({"0", "1", "4", "12", "32"})
+  private int blockSizeMb = 12;
+
+  @Param({"1", "4", "16"})
+  private int threads = 4;
+
+  @Param({"64"})
+  private int dataSizeMb = 16;
+
+  private byte[] data;
+  private ExecutorService executor;
+
+  @Before
+  public void setUpTest() {
+    setUpBenchmark();
+  }
+
+  @After
+  public void tearDownTest() {
+    tearDownBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() {
+    data = createData(dataSizeMb * 1024 * 1024);
+    executor = Executors.newFixedThreadPool(threads);
+  }
+
+  @AfterExperiment
+  public void tearDownBenchmark() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Data which compresses about as well as dex files and native libraries: runs of words from a
+   * vocabulary which repeat at all distances, with random bytes in between.
+   */
+  private static byte[] createData(int size) {
+    Random random = new Random(12345);
+    byte[][] words = new byte[4096][];
+    for (int i = 0; i < words.length; i++) {
+      words[i] = new byte[4 + random.nextInt(28)];
+      random.nextBytes(words[i]);
+    }
+    byte[] data = new byte[size];
+    int position = 0;
+    while (position < size) {
+      byte[] chunk;
+      if (random.nextInt(4) == 0) {
+        chunk = new byte[random.nextInt(16)];
+        random.nextBytes(chunk);
+      } else {
+        chunk = words[(int) Math.abs(random.nextGaussian() * words.length / 8) % words.length];
+      }
+      int length = Math.min(chunk.length, size - position);
+      System.arraycopy(chunk, 0, data, position, length);
+      position += length;
+    }
+    return data;
+  }
+
+  @Test
+  public void compressionPerformance() throws IOException {
+    benchCompress();
+  }
+
+  @Benchmark
+  public long benchCompress() throws IOException {
+    CountingOutputStream out = new CountingOutputStream(ByteStreams.nullOutputStream());
+    try (OutputStream xzOut = newXzOutputStream(out)) {
+      xzOut.write(data);
+    }
+    return out.getCount();
+  }
+
+  private OutputStream newXzOutputStream(OutputStream out) throws IOException {
+    if (blockSizeMb == 0) {
+      return new XZOutputStream(out, new LZMA2Options(preset), XZ.CHECK_CRC32);
+    }
+    return new ParallelXzOutputStream(
+        out, preset, XZ.CHECK_CRC32, blockSizeMb * 1024 * 1024, executor, threads);
+  }
+
+  /**
+   * The smallest default block size, that of preset 1, splits the data into the most blocks, which
+   * is where splitting costs the most compression. Two blocks are enough to see it, and keep the
+   * test fast.
+   */
+  @Test
+  public void defaultBlocksCompressAboutAsWellAsASingleBlock() throws IOException {
+    preset = 1;
+    data = createData(2 * ParallelXzOutputStream.getDefaultBlockSize(preset));
+    blockSizeMb = 0;
+    long singleBlockSize = benchCompress();
+    blockSizeMb = ParallelXzOutputStream.getDefaultBlockSize(preset) / 1024 / 1024;
+    long defaultBlocksSize = benchCompress();
+
+    assertTrue(blockSizeMb * 1024 * 1024 < data.length);
+    // About 1% larger with two 3MiB blocks, and 2% with 16MiB of data.
+    assertThat((double) defaultBlocksSize, lessThan(singleBlockSize * 1.05));
+  }
+}
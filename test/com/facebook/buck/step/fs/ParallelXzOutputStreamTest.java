@@ -0,0 +1,113 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.step.fs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.tukaani.xz.SingleXZInputStream;
+import org.tukaani.xz.XZ;
+
+public class ParallelXzOutputStreamTest {
+
+  private static final int BLOCK_SIZE = 4096;
+
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(4);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void blocksDecompressAsASingleStream() throws IOException {
+    byte[] data = createData(10 * BLOCK_SIZE + 123);
+
+    byte[] compressed = compress(data, executor, 3);
+
+    assertArrayEquals(data, decompress(compressed));
+  }
+
+  @Test
+  public void streamDoesNotDependOnTheExecutor() throws IOException {
+    byte[] data = createData(10 * BLOCK_SIZE);
+
+    assertArrayEquals(
+        compress(data, MoreExecutors.directExecutor(), 1), compress(data, executor, 8));
+  }
+
+  @Test
+  public void emptyDataGivesAnEmptyStream() throws IOException {
+    byte[] compressed = compress(new byte[0], executor, 3);
+
+    assertArrayEquals(new byte[0], decompress(compressed));
+  }
+
+  /** Text-like data, which compresses, made of words from a small vocabulary. */
+  private static byte[] createData(int size) {
+    Random random = new Random(42);
+    String[] words = {"dex ", "class ", "method ", "field ", "string ", "\n"};
+    StringBuilder builder = new StringBuilder();
+    while (builder.length() < size) {
+      builder.append(words[random.nextInt(words.length)]);
+    }
+    return builder.substring(0, size).getBytes(StandardCharsets.US_ASCII);
+  }
+
+  private static byte[] compress(byte[] data, Executor executor, int maxPendingBlocks)
+      throws IOException {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    try (ParallelXzOutputStream out =
+        new ParallelXzOutputStream(
+            compressed, 1, XZ.CHECK_CRC32, BLOCK_SIZE, executor, maxPendingBlocks)) {
+      // Writes which straddle blocks.
+      for (int offset = 0; offset < data.length; offset += 1000) {
+        out.write(data, offset, Math.min(1000, data.length - offset));
+      }
+    }
+    return compressed.toByteArray();
+  }
+
+  /** Decompresses the data as a single stream, checking that nothing comes after it. */
+  private static byte[] decompress(byte[] compressed) throws IOException {
+    ByteArrayInputStream input = new ByteArrayInputStream(compressed);
+    try (InputStream in = new SingleXZInputStream(input)) {
+      byte[] data = ByteStreams.toByteArray(in);
+      assertEquals(0, input.available());
+      return data;
+    }
+  }
+}
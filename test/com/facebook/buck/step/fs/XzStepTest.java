@@ -81,4 +81,37 @@ public class XzStepTest {
     assertTrue(
         "Decompressed file must be identical to original.", original.contentEquals(decompressed));
   }
+
+  @Test
+  public void testParallelXzStep() throws InterruptedException, IOException {
+    final Path sourceFile =
+        TestDataHelper.getTestDataScenario(this, "xz_with_rm_and_check").resolve("xzstep.data");
+    final File destinationFile = tmp.newFile("xzstep.data.xz");
+
+    XzStep step =
+        new XzStep(
+            TestProjectFilesystems.createProjectFilesystem(tmp.getRoot().toPath()),
+            sourceFile,
+            destinationFile.toPath(),
+            /* compressionLevel -- for faster testing */ 1,
+            /* keep */ true,
+            XZ.CHECK_CRC32,
+            /* parallel */ true);
+
+    ExecutionContext context = TestExecutionContext.newInstance();
+
+    assertEquals(0, step.execute(context).getExitCode());
+
+    ByteSource original = PathByteSource.asByteSource(sourceFile);
+    ByteSource decompressed =
+        new ByteSource() {
+          @Override
+          public InputStream openStream() throws IOException {
+            return new XZInputStream(new FileInputStream(destinationFile));
+          }
+        };
+
+    assertTrue(
+        "Decompressed file must be identical to original.", original.contentEquals(decompressed));
+  }
 }
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.testrunner;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import com.facebook.buck.testutil.integration.ProjectWorkspace;
+import com.facebook.buck.testutil.integration.ProjectWorkspace.ProcessResult;
+import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.facebook.buck.testutil.integration.TestDataHelper;
+import java.io.IOException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class JUnitWorkerIntegrationTest {
+
+  @Rule public TemporaryPaths temporaryFolder = new TemporaryPaths();
+
+  private ProjectWorkspace workspace;
+
+  @Before
+  public void setUp() throws IOException {
+    workspace =
+        TestDataHelper.createProjectWorkspaceForScenario(this, "junit_worker", temporaryFolder);
+    workspace.setUp();
+  }
+
+  @Test
+  public void testRulesShareAWorkerWithoutSeeingEachOthersState() throws IOException {
+    // Each test fails if a system property or a static field set by the other one is still there.
+    workspace.runBuckCommand("test", "//:first", "//:second").assertSuccess();
+
+    assertEquals(
+        workspace.getFileContents("FirstTest.jvm"), workspace.getFileContents("SecondTest.jvm"));
+  }
+
+  @Test
+  public void testCallingSystemExitFailsWithoutTakingTheWorkerDown() throws IOException {
+    ProcessResult result =
+        workspace.runBuckCommand("test", "//:first", "//:exiting", "//:second");
+
+    result.assertTestFailure();
+    assertThat(result.getStderr(), containsString("may not call System.exit(0)"));
+    assertThat(
+        result.getStderr(), containsString("1 Passed   0 Skipped   0 Failed   FirstTest"));
+    assertThat(
+        result.getStderr(), containsString("1 Passed   0 Skipped   0 Failed   SecondTest"));
+    assertEquals(
+        workspace.getFileContents("FirstTest.jvm"), workspace.getFileContents("SecondTest.jvm"));
+  }
+}
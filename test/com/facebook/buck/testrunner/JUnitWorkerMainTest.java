@@ -0,0 +1,150 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.testrunner;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+
+import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class JUnitWorkerMainTest {
+
+  @Rule public TemporaryPaths temporaryPaths = new TemporaryPaths();
+
+  @Test
+  public void readsTheValuesOfMessages() throws IOException {
+    Map<String, Object> message =
+        newWorker(
+                "{ \"id\" : 7, \"type\":\"command\", \"ratio\": -1.5e3, \"flags\": [true, false, "
+                    + "null], \"empty\": {}, \"nested\": {\"list\": [[], {\"a\": \"b\"}]} }")
+            .readObject();
+
+    Map<String, Object> expected = new HashMap<>();
+    expected.put("id", 7L);
+    expected.put("type", "command");
+    expected.put("ratio", -1500.0);
+    expected.put("flags", Arrays.asList(true, false, null));
+    expected.put("empty", ImmutableMap.of());
+    expected.put(
+        "nested",
+        ImmutableMap.of("list", ImmutableList.of(ImmutableList.of(), ImmutableMap.of("a", "b"))));
+    assertEquals(expected, message);
+  }
+
+  @Test
+  public void readsEscapedCharactersInStrings() throws IOException {
+    Map<String, Object> message =
+        newWorker("{\"path\": \"C:\\\\tests\\\\\\\"quoted\\\"\\n\\t\\u00e9\\/\"}").readObject();
+
+    assertEquals(ImmutableMap.of("path", "C:\\tests\\\"quoted\"\n\t\u00e9/"), message);
+  }
+
+  @Test
+  public void unterminatedStringsAreErrors() {
+    try {
+      newWorker("{\"path\": \"nowhere").readObject();
+    } catch (IOException e) {
+      assertThat(e.getMessage(), containsString("Unterminated string"));
+      return;
+    }
+    throw new AssertionError("Expected an IOException");
+  }
+
+  @Test
+  public void unescapesArguments() {
+    assertEquals("one\ntwo\r\\three", JUnitWorkerMain.unescape("one\\ntwo\\r\\\\three"));
+    assertEquals("\\n", JUnitWorkerMain.unescape("\\\\n"));
+    assertEquals("trailing\\", JUnitWorkerMain.unescape("trailing\\"));
+  }
+
+  @Test
+  public void testsCallingSystemExitFailWithoutStoppingTheWorker() throws Exception {
+    Path classpathFile = temporaryPaths.newFile("classpath");
+    Files.write(
+        classpathFile,
+        Paths.get(ExitingRunner.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+            .toString()
+            .getBytes(UTF_8));
+    StringBuilder conversation = new StringBuilder("[{\"id\":0,\"type\":\"handshake\"}");
+    for (int id = 1; id <= 2; id++) {
+      Path args = temporaryPaths.newFile("args" + id);
+      Files.write(
+          args,
+          Arrays.asList(
+              "-Dcom.facebook.buck.exit_status=" + id,
+              "--classpath-file",
+              classpathFile.toString(),
+              ExitingRunner.class.getName()),
+          UTF_8);
+      conversation.append(
+          String.format(
+              ",{\"id\":%d,\"type\":\"command\",\"args_path\":\"%s\",\"stdout_path\":\"%s\","
+                  + "\"stderr_path\":\"%s\"}",
+              id,
+              escape(args),
+              escape(temporaryPaths.getRoot().resolve("stdout" + id)),
+              escape(temporaryPaths.getRoot().resolve("stderr" + id))));
+    }
+    conversation.append("]");
+
+    StringWriter out = new StringWriter();
+    new JUnitWorkerMain(new StringReader(conversation.toString()), out, 10).run();
+
+    assertEquals(
+        "[{\"id\":0,\"type\":\"handshake\",\"protocol_version\":\"0\",\"capabilities\":[]}"
+            + ",{\"id\":1,\"type\":\"result\",\"exit_code\":1}"
+            + ",{\"id\":2,\"type\":\"result\",\"exit_code\":1}]",
+        out.toString());
+    assertThat(
+        new String(Files.readAllBytes(temporaryPaths.getRoot().resolve("stderr2")), UTF_8),
+        containsString("may not call System.exit(2)"));
+    assertNull(System.getSecurityManager());
+    assertNull(System.getProperty("com.facebook.buck.exit_status"));
+  }
+
+  private static JUnitWorkerMain newWorker(String input) {
+    return new JUnitWorkerMain(new StringReader(input), new StringWriter(), 1);
+  }
+
+  private static String escape(Path path) {
+    return path.toString().replace("\\", "\\\\");
+  }
+
+  /** Loaded by the worker in a class loader of its own, like the runner of the tests. */
+  public static class ExitingRunner {
+    public static int run(String... args) {
+      System.exit(Integer.parseInt(System.getProperty("com.facebook.buck.exit_status")));
+      return 0;
+    }
+  }
+}
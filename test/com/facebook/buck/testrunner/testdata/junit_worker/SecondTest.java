@@ -0,0 +1,40 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import org.junit.Test;
+
+public class SecondTest {
+
+  @Test
+  public void seesNothingLeftBehindByOtherRules() throws Exception {
+    assertNull(System.getProperty("leaked.property"));
+    System.setProperty("leaked.property", "SecondTest");
+    assertEquals(1, ++Shared.runs);
+
+    // Record which JVM ran the test, so that the rules can be checked to have shared it.
+    Files.write(
+        Paths.get("SecondTest.jvm"),
+        ManagementFactory.getRuntimeMXBean().getName().getBytes(StandardCharsets.UTF_8));
+  }
+
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache.impl;
+
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import com.facebook.buck.testutil.FakeProjectFilesystem;
+import com.facebook.buck.util.cache.FileHashCacheEngine;
+import com.facebook.buck.util.cache.HashCodeAndFileType;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares the lookup latency of {@link OffHeapFileHashCacheEngine} with {@link
+ * LimitedFileHashCacheEngine}.
+ */
+public class FileHashCacheEngineBenchmark {
+  @Param({"100000", "1000000"})
+  private int fileCount = 10000;
+
+  @Param({"limited", "offheap"})
+  private String engineType = "offheap";
+
+  private static final int FILES_PER_DIRECTORY = 20;
+
+  private final Random random = new Random(12345);
+  private FakeProjectFilesystem filesystem;
+  private List<Path> files;
+  private List<Path> lookups;
+  private FileHashCacheEngine engine;
+
+  @Before
+  public void setUpTest() throws IOException {
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() throws IOException {
+    // A tree of directories, with a few files in each, like a source tree.
+    filesystem = new FakeProjectFilesystem();
+    files = new ArrayList<>(fileCount);
+    List<Path> directories = new ArrayList<>();
+    directories.add(Paths.get("root"));
+    while (files.size() < fileCount) {
+      Path directory =
+          directories.get(random.nextInt(directories.size())).resolve(randomName() + "_dir");
+      directories.add(directory);
+      for (int i = 0; i < FILES_PER_DIRECTORY && files.size() < fileCount; i++) {
+        Path file = directory.resolve(randomName() + ".java");
+        filesystem.touch(file);
+        files.add(file);
+      }
+    }
+    lookups = new ArrayList<>(files);
+    Collections.shuffle(lookups, random);
+
+    engine = createEngine();
+    populate(engine);
+  }
+
+  private String randomName() {
+    StringBuilder name = new StringBuilder();
+    int length = random.nextInt(10) + 3;
+    for (int i = 0; i < length; i++) {
+      name.append((char) ('a' + random.nextInt(26)));
+    }
+    return name.toString();
+  }
+
+  private FileHashCacheEngine createEngine() {
+    switch (engineType) {
+      case "limited":
+        return new LimitedFileHashCacheEngine(
+            filesystem,
+            FileHashCacheEngineBenchmark::hash,
+            path -> HashCodeAndFileType.ofDirectory(hash(path), ImmutableSet.of()),
+            path -> 0L);
+      case "offheap":
+        return OffHeapFileHashCacheEngine.create(
+            path -> HashCodeAndFileType.ofFile(hash(path)), path -> 0L);
+      default:
+        throw new IllegalArgumentException(engineType);
+    }
+  }
+
+  private void populate(FileHashCacheEngine engine) {
+    for (Path file : files) {
+      engine.put(file, HashCodeAndFileType.ofFile(hash(file)));
+    }
+  }
+
+  private static HashCode hash(Path path) {
+    return Hashing.sha1().hashString(path.toString(), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void lookupPerformance() throws IOException {
+    benchLookup();
+  }
+
+  @Benchmark
+  public void benchPopulate() {
+    populate(createEngine());
+  }
+
+  @Benchmark
+  public void benchLookup() throws IOException {
+    for (Path file : lookups) {
+      engine.get(file);
+    }
+  }
+
+  /**
+   * Caliper measures the time of lookups, but not the heap that the engines retain, which is what
+   * the off-heap engine saves: the hashes of files are all kept off heap, in 90 to 150 bytes each.
+   */
+  @Test
+  public void offHeapEngineKeepsTheHashesOfFilesOffHeap() {
+    OffHeapFileHashCacheEngine offHeapEngine = (OffHeapFileHashCacheEngine) engine;
+
+    assertEquals(0, offHeapEngine.getHeapValueCount());
+    assertThat(offHeapEngine.getOffHeapBytes(), lessThan(fileCount * 200L));
+  }
+}
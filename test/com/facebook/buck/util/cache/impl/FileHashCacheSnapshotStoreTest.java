@@ -0,0 +1,140 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.io.WatchmanPathEvent;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.facebook.buck.util.cache.FileHashCacheMode;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class FileHashCacheSnapshotStoreTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ProjectFilesystem filesystem;
+  private AtomicInteger hashCount;
+
+  @Before
+  public void setUp() throws InterruptedException {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    hashCount = new AtomicInteger();
+  }
+
+  private HashCode hash(Path path) throws IOException {
+    hashCount.incrementAndGet();
+    return filesystem.computeSha1(path).asHashCode();
+  }
+
+  private static HashCode sha1(String contents) {
+    return Hashing.sha1().hashString(contents, StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void unchangedFilesAreNotRehashedByTheNextDaemon() throws IOException {
+    Path path = Paths.get("foo.txt");
+    filesystem.writeContentsToPath("foo", path);
+    FileHashCacheSnapshotStore store = new FileHashCacheSnapshotStore(filesystem);
+    assertEquals(sha1("foo"), store.get(path, this::hash));
+    store.write();
+
+    FileHashCacheSnapshotStore restoredStore = new FileHashCacheSnapshotStore(filesystem);
+    assertEquals(1, restoredStore.restore());
+    assertEquals(sha1("foo"), restoredStore.get(path, this::hash));
+    assertEquals(1, hashCount.get());
+  }
+
+  @Test
+  public void changedFilesAreRehashed() throws IOException {
+    Path path = Paths.get("foo.txt");
+    filesystem.writeContentsToPath("foo", path);
+    FileHashCacheSnapshotStore store = new FileHashCacheSnapshotStore(filesystem);
+    store.get(path, this::hash);
+    store.write();
+
+    filesystem.writeContentsToPath("bar", path);
+    filesystem.setLastModifiedTime(path, FileTime.fromMillis(12345000));
+    FileHashCacheSnapshotStore restoredStore = new FileHashCacheSnapshotStore(filesystem);
+    restoredStore.restore();
+    assertEquals(sha1("bar"), restoredStore.get(path, this::hash));
+    assertEquals(2, hashCount.get());
+  }
+
+  @Test
+  public void unusedRestoredHashesAreKeptAndInvalidatedOnesAreNot() throws IOException {
+    Path foo = Paths.get("foo.txt");
+    Path bar = Paths.get("bar.txt");
+    filesystem.writeContentsToPath("foo", foo);
+    filesystem.writeContentsToPath("bar", bar);
+    FileHashCacheSnapshotStore store = new FileHashCacheSnapshotStore(filesystem);
+    store.get(foo, this::hash);
+    store.get(bar, this::hash);
+    store.write();
+
+    FileHashCacheSnapshotStore secondStore = new FileHashCacheSnapshotStore(filesystem);
+    secondStore.restore();
+    secondStore.invalidate(bar);
+    secondStore.write();
+
+    FileHashCacheSnapshotStore thirdStore = new FileHashCacheSnapshotStore(filesystem);
+    assertEquals(1, thirdStore.restore());
+    thirdStore.get(foo, this::hash);
+    assertEquals(2, hashCount.get());
+  }
+
+  @Test
+  public void corruptSnapshotsAreIgnored() throws IOException {
+    FileHashCacheSnapshotStore store = new FileHashCacheSnapshotStore(filesystem);
+    filesystem.mkdirs(store.getSnapshotPath().getParent());
+    filesystem.writeContentsToPath("garbage", store.getSnapshotPath());
+    assertEquals(0, store.restore());
+  }
+
+  @Test
+  public void watchedFileHashCacheUsesRestoredHashes() throws IOException {
+    Path path = Paths.get("foo.txt");
+    filesystem.writeContentsToPath("foo", path);
+    FileHashCacheSnapshotStore store = new FileHashCacheSnapshotStore(filesystem);
+    store.get(path, this::hash);
+    store.write();
+
+    FileHashCacheSnapshotStore restoredStore = new FileHashCacheSnapshotStore(filesystem);
+    restoredStore.restore();
+    WatchedFileHashCache cache =
+        new WatchedFileHashCache(filesystem, FileHashCacheMode.DEFAULT, Optional.of(restoredStore));
+    assertEquals(sha1("foo"), cache.get(path));
+
+    filesystem.writeContentsToPath("changed", path);
+    cache.onFileSystemChange(
+        WatchmanPathEvent.of(filesystem.getRootPath(), WatchmanPathEvent.Kind.MODIFY, path));
+    assertEquals(sha1("changed"), cache.get(path));
+  }
+}
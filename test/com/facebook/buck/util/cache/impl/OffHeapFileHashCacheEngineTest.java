@@ -0,0 +1,134 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.facebook.buck.util.cache.HashCodeAndFileType;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OffHeapFileHashCacheEngineTest {
+
+  private Map<Path, Integer> loads;
+  private OffHeapFileHashCacheEngine engine;
+
+  @Before
+  public void setUp() {
+    loads = new HashMap<>();
+    engine =
+        OffHeapFileHashCacheEngine.create(
+            path -> {
+              loads.merge(path, 1, Integer::sum);
+              return HashCodeAndFileType.ofFile(hash(path));
+            },
+            path -> (long) path.toString().length());
+  }
+
+  @Test
+  public void valuesSurviveGrowingTheTable() throws IOException {
+    for (int i = 0; i < 20000; i++) {
+      Path path = Paths.get("dir" + i % 100, "file" + i);
+      engine.put(path, HashCodeAndFileType.ofFile(hash(path)));
+      engine.putSize(path, i);
+    }
+
+    for (int i = 0; i < 20000; i++) {
+      Path path = Paths.get("dir" + i % 100, "file" + i);
+      assertEquals(hash(path), engine.get(path));
+      assertEquals(Long.valueOf(i), engine.getSizeIfPresent(path));
+    }
+    assertEquals(20000, engine.asMap().size());
+    assertEquals(ImmutableSet.of(), loads.keySet());
+  }
+
+  @Test
+  public void loadsValuesOnlyOnce() throws IOException {
+    Path path = Paths.get("foo/bar.txt");
+    assertEquals(hash(path), engine.get(path));
+    assertEquals(hash(path), engine.get(Paths.get("foo/./bar.txt")));
+    assertEquals(1, (int) loads.get(path));
+    assertEquals(path.toString().length(), engine.getSize(path));
+  }
+
+  @Test
+  public void invalidatingADirectoryInvalidatesItsDescendantsAndAncestors() {
+    Path file = Paths.get("a/b/c/file.txt");
+    Path sibling = Paths.get("a/other.txt");
+    Path directory = Paths.get("a/b");
+    for (Path path : ImmutableSet.of(file, sibling)) {
+      engine.put(path, HashCodeAndFileType.ofFile(hash(path)));
+    }
+    engine.put(Paths.get("a"), HashCodeAndFileType.ofDirectory(hash(directory), ImmutableSet.of()));
+    engine.putSize(directory, 42);
+
+    engine.invalidate(directory);
+
+    assertNull(engine.getIfPresent(file));
+    assertNull(engine.getSizeIfPresent(directory));
+    assertNull(engine.getIfPresent(Paths.get("a")));
+    assertEquals(HashCodeAndFileType.ofFile(hash(sibling)), engine.getIfPresent(sibling));
+  }
+
+  @Test
+  public void invalidatingADirectoryWithOnlySubdirectoriesInvalidatesThem() {
+    Path directory = Paths.get("x");
+    Path subdirectory = Paths.get("x/y");
+    Path nested = Paths.get("x/y/z");
+    Path unrelated = Paths.get("xy/z");
+    for (Path path : ImmutableSet.of(subdirectory, nested, unrelated)) {
+      engine.put(path, HashCodeAndFileType.ofDirectory(hash(path), ImmutableSet.of()));
+    }
+
+    engine.invalidate(directory);
+
+    assertNull(engine.getIfPresent(subdirectory));
+    assertNull(engine.getIfPresent(nested));
+    assertEquals(ImmutableSet.of(unrelated), engine.asMap().keySet());
+  }
+
+  @Test
+  public void keepsValuesWhichDoNotFitOffHeap() {
+    Path file = Paths.get("foo.txt");
+    HashCode longHash = Hashing.sha256().hashString("foo", StandardCharsets.UTF_8);
+    engine.put(file, HashCodeAndFileType.ofFile(longHash));
+    engine.putSize(file, 3);
+    assertEquals(longHash, engine.getIfPresent(file).getHashCode());
+
+    engine.put(file, HashCodeAndFileType.ofFile(hash(file)));
+    assertEquals(HashCodeAndFileType.ofFile(hash(file)), engine.getIfPresent(file));
+    assertEquals(Long.valueOf(3), engine.getSizeIfPresent(file));
+
+    engine.invalidateAll();
+    assertNull(engine.getIfPresent(file));
+    assertEquals(0, engine.asMap().size());
+  }
+
+  private static HashCode hash(Path path) {
+    return Hashing.sha1().hashString(path.toString(), StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.zip;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelZipEntryCompressorTest {
+
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(4);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void writesTheSameBytesAsTheStreamItself() throws IOException {
+    List<byte[]> contents = createContents();
+
+    ByteArrayOutputStream sequential = new ByteArrayOutputStream();
+    try (CustomZipOutputStream out = ZipOutputStreams.newOutputStream(sequential)) {
+      for (int i = 0; i < contents.size(); i++) {
+        out.putNextEntry(createEntry(i, contents.get(i)));
+        out.write(contents.get(i));
+        out.closeEntry();
+      }
+    }
+
+    for (long maxPendingBytes : new long[] {0, 100 * 1024, Long.MAX_VALUE}) {
+      ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+      try (CustomZipOutputStream out = ZipOutputStreams.newOutputStream(parallel)) {
+        ParallelZipEntryCompressor compressor =
+            new ParallelZipEntryCompressor(out, executor, maxPendingBytes);
+        for (int i = 0; i < contents.size(); i++) {
+          compressor.addEntry(createEntry(i, contents.get(i)), contents.get(i));
+        }
+        compressor.finish();
+      }
+      assertArrayEquals(sequential.toByteArray(), parallel.toByteArray());
+    }
+  }
+
+  @Test
+  public void compressesOnTheWritingThreadWhenTheExecutorDoesNotRunAnything() throws IOException {
+    List<byte[]> contents = createContents();
+
+    ByteArrayOutputStream sequential = new ByteArrayOutputStream();
+    ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+    try (CustomZipOutputStream sequentialOut = ZipOutputStreams.newOutputStream(sequential);
+        CustomZipOutputStream parallelOut = ZipOutputStreams.newOutputStream(parallel)) {
+      ParallelZipEntryCompressor compressor =
+          new ParallelZipEntryCompressor(parallelOut, command -> {});
+      for (int i = 0; i < contents.size(); i++) {
+        sequentialOut.putNextEntry(createEntry(i, contents.get(i)));
+        sequentialOut.write(contents.get(i));
+        sequentialOut.closeEntry();
+        compressor.addEntry(createEntry(i, contents.get(i)), contents.get(i));
+      }
+      compressor.finish();
+    }
+    assertArrayEquals(sequential.toByteArray(), parallel.toByteArray());
+  }
+
+  @Test
+  public void entriesTooLargeToKeepInMemoryAreStreamedByTheWritingThread() throws IOException {
+    List<byte[]> contents = createContents();
+
+    ByteArrayOutputStream sequential = new ByteArrayOutputStream();
+    ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+    List<Thread> readingThreads = new ArrayList<>();
+    try (CustomZipOutputStream sequentialOut = ZipOutputStreams.newOutputStream(sequential);
+        CustomZipOutputStream parallelOut = ZipOutputStreams.newOutputStream(parallel)) {
+      // Nothing is ever read on the executor, so entries are only read by the writing thread.
+      ParallelZipEntryCompressor compressor =
+          new ParallelZipEntryCompressor(parallelOut, command -> {}, 100 * 1024);
+      for (int i = 0; i < contents.size(); i++) {
+        byte[] content = contents.get(i);
+        sequentialOut.putNextEntry(createEntry(i, content));
+        sequentialOut.write(content);
+        sequentialOut.closeEntry();
+        compressor.addEntry(
+            createEntry(i, content),
+            content.length,
+            () -> {
+              readingThreads.add(Thread.currentThread());
+              return new ByteArrayInputStream(content);
+            });
+        if (content.length > 100 * 1024) {
+          assertEquals(
+              "Entries too large to keep in memory should be read as soon as they are added.",
+              i + 1,
+              readingThreads.size());
+        }
+      }
+      compressor.finish();
+    }
+    assertArrayEquals(sequential.toByteArray(), parallel.toByteArray());
+  }
+
+  @Test(expected = IOException.class)
+  public void failuresToReadAnEntryAreRethrownWhenItIsWritten() throws IOException {
+    try (CustomZipOutputStream out =
+        ZipOutputStreams.newOutputStream(new ByteArrayOutputStream())) {
+      ParallelZipEntryCompressor compressor =
+          new ParallelZipEntryCompressor(out, MoreExecutors.directExecutor());
+      compressor.addEntry(
+          new CustomZipEntry("missing.txt"),
+          10,
+          () -> {
+            throw new IOException("missing.txt does not exist");
+          });
+      compressor.finish();
+    }
+  }
+
+  private static List<byte[]> createContents() {
+    Random random = new Random(0);
+    List<byte[]> contents = new ArrayList<>();
+    for (int i = 0; i < 30; i++) {
+      StringBuilder text = new StringBuilder();
+      for (int line = 0; line < i * i * 20; line++) {
+        text.append("line ").append(random.nextInt(1000)).append('\n');
+      }
+      contents.add(text.toString().getBytes(UTF_8));
+    }
+    byte[] randomBytes = new byte[200 * 1024];
+    random.nextBytes(randomBytes);
+    contents.add(randomBytes);
+    contents.add(new byte[0]);
+    return contents;
+  }
+
+  private static CustomZipEntry createEntry(int index, byte[] contents) {
+    CustomZipEntry entry = new CustomZipEntry("entry" + index);
+    int[] levels = {
+      Deflater.NO_COMPRESSION, Deflater.BEST_SPEED, 6, Deflater.BEST_COMPRESSION,
+    };
+    entry.setCompressionLevel(levels[index % levels.length]);
+    if (entry.getMethod() == CustomZipEntry.STORED) {
+      CRC32 crc = new CRC32();
+      crc.update(contents);
+      entry.setCrc(crc.getValue());
+      entry.setSize(contents.length);
+      entry.setCompressedSize(contents.length);
+    }
+    return entry;
+  }
+}
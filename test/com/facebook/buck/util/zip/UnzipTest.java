@@ -17,12 +17,14 @@
 package com.facebook.buck.util.zip;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assume.assumeThat;
 
 import com.facebook.buck.io.file.MoreFiles;
 import com.facebook.buck.io.file.MorePosixFilePermissions;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.impl.DefaultProjectFilesystemFactory;
 import com.facebook.buck.testutil.ZipArchive;
 import com.facebook.buck.testutil.integration.TemporaryPaths;
@@ -267,4 +269,69 @@ public class UnzipTest {
     assertTrue(Files.exists(extractFolder.toAbsolutePath().resolve("foo")));
     assertTrue(Files.exists(extractFolder.toAbsolutePath().resolve("foo/bar")));
   }
+
+  @Test
+  public void testExtractZipStream() throws InterruptedException, IOException {
+    assumeThat(Platform.detect(), Matchers.is(Matchers.not(Platform.WINDOWS)));
+
+    // Written to a stream, so that the sizes of entries follow their data, as in artifact zips.
+    try (ZipArchiveOutputStream zip = new ZipArchiveOutputStream(Files.newOutputStream(zipFile))) {
+      zip.putArchiveEntry(new ZipArchiveEntry("dir/"));
+      zip.closeArchiveEntry();
+      ZipArchiveEntry exe = new ZipArchiveEntry("dir/test.exe");
+      exe.setUnixMode(
+          (int) MorePosixFilePermissions.toMode(PosixFilePermissions.fromString("r-x------")));
+      zip.putArchiveEntry(exe);
+      zip.write(DUMMY_FILE_CONTENTS);
+      zip.closeArchiveEntry();
+      ZipArchiveEntry link = new ZipArchiveEntry("dir/link.txt");
+      link.setUnixMode((int) MoreFiles.S_IFLNK);
+      zip.putArchiveEntry(link);
+      zip.write("test.exe".getBytes(Charsets.UTF_8));
+      zip.closeArchiveEntry();
+    }
+
+    Path extractFolder = tmpFolder.newFolder();
+    ProjectFilesystem filesystem =
+        new DefaultProjectFilesystemFactory().createProjectFilesystem(extractFolder);
+    filesystem.mkdirs(filesystem.getPath("dir"));
+    filesystem.writeContentsToPath("stale", filesystem.getPath("dir/stale.txt"));
+
+    Path staging = filesystem.getPath("staging");
+    ImmutableSet<Path> extractedFiles;
+    try (InputStream input = Files.newInputStream(zipFile)) {
+      extractedFiles = Unzip.extractZipStream(input, filesystem, staging);
+    }
+    assertEquals(
+        ImmutableSet.of(filesystem.getPath("dir/test.exe"), filesystem.getPath("dir/link.txt")),
+        extractedFiles);
+    // Nothing is written to the final location until the extraction is finished.
+    Path dir = extractFolder.resolve("dir");
+    assertFalse(Files.exists(dir.resolve("test.exe")));
+    assertTrue(Files.exists(dir.resolve("stale.txt")));
+
+    assertTrue(Unzip.listsExactly(zipFile, filesystem, extractedFiles));
+    Unzip.finishStreamedExtraction(
+        zipFile, filesystem, staging, Unzip.ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES);
+
+    assertTrue(Files.isExecutable(dir.resolve("test.exe")));
+    assertTrue(Files.isSymbolicLink(dir.resolve("link.txt")));
+    assertThat(
+        Files.readSymbolicLink(dir.resolve("link.txt")).toString(), Matchers.equalTo("test.exe"));
+    assertFalse(Files.exists(dir.resolve("stale.txt")));
+  }
+
+  @Test
+  public void testListsExactlyRejectsDifferentZipFile()
+      throws InterruptedException, IOException {
+    try (ZipArchiveOutputStream zip = new ZipArchiveOutputStream(zipFile.toFile())) {
+      zip.putArchiveEntry(new ZipArchiveEntry("1.bin"));
+      zip.write(DUMMY_FILE_CONTENTS);
+      zip.closeArchiveEntry();
+    }
+
+    ProjectFilesystem filesystem =
+        new DefaultProjectFilesystemFactory().createProjectFilesystem(tmpFolder.newFolder());
+    assertFalse(Unzip.listsExactly(zipFile, filesystem, ImmutableSet.of()));
+  }
 }
@@ -53,6 +53,7 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
 import java.util.zip.ZipInputStream;
@@ -170,6 +171,47 @@ public class ZipOutputStreamTest {
       assertArrayEquals(expected, seen);
     }
 
+    @Test
+    public void rawEntriesAreWrittenWithoutCompressingThemAgain() throws IOException {
+      byte[] bytes = "cheese, cheese and more cheese".getBytes(UTF_8);
+      Deflater deflater = new Deflater(BEST_COMPRESSION, true);
+      deflater.setInput(bytes);
+      deflater.finish();
+      byte[] buffer = new byte[1024];
+      byte[] deflated = Arrays.copyOf(buffer, deflater.deflate(buffer));
+      deflater.end();
+
+      ZipEntry entry = new ZipEntry("example.txt");
+      entry.setMethod(ZipEntry.DEFLATED);
+      entry.setCrc(Hashing.crc32().hashBytes(bytes).padToLong());
+      entry.setSize(bytes.length);
+      entry.setCompressedSize(deflated.length);
+      try (CustomZipOutputStream out = ZipOutputStreams.newOutputStream(output, mode)) {
+        out.putNextRawEntry(entry);
+        out.write(deflated);
+      }
+
+      try (ZipFile zipFile = new ZipFile(output.toFile())) {
+        ZipArchiveEntry read = zipFile.getEntry("example.txt");
+        assertEquals(deflated.length, read.getCompressedSize());
+        assertArrayEquals(bytes, ByteStreams.toByteArray(zipFile.getInputStream(read)));
+      }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rawEntriesMustBeWrittenWithTheirCompressedSize() throws IOException {
+      byte[] bytes = "cheese".getBytes(UTF_8);
+      ZipEntry entry = new ZipEntry("example.txt");
+      entry.setMethod(ZipEntry.STORED);
+      entry.setCrc(Hashing.crc32().hashBytes(bytes).padToLong());
+      entry.setSize(bytes.length + 1);
+      entry.setCompressedSize(bytes.length + 1);
+      try (CustomZipOutputStream out = ZipOutputStreams.newOutputStream(output, mode)) {
+        out.putNextRawEntry(entry);
+        out.write(bytes);
+      }
+    }
+
     @Test
     public void shouldSetTimestampOfEntries() throws IOException {
       Calendar cal = Calendar.getInstance();
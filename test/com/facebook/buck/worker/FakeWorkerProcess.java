@@ -31,6 +31,12 @@ public class FakeWorkerProcess extends WorkerProcess {
 
   public FakeWorkerProcess(ImmutableMap<String, WorkerJobResult> jobArgsToJobResultMap)
       throws IOException {
+    this(jobArgsToJobResultMap, false);
+  }
+
+  public FakeWorkerProcess(
+      ImmutableMap<String, WorkerJobResult> jobArgsToJobResultMap, boolean supportsConcurrentJobs)
+      throws IOException {
     super(
         new FakeProcessExecutor(),
         ProcessExecutorParams.builder().setCommand(ImmutableList.of()).build(),
@@ -38,7 +44,7 @@ public class FakeWorkerProcess extends WorkerProcess {
         Paths.get("tmp").toAbsolutePath().normalize());
     this.jobArgsToJobResultMap = jobArgsToJobResultMap;
     this.isAlive = false;
-    this.setProtocol(new FakeWorkerProcessProtocol.FakeCommandSender());
+    this.setProtocol(new FakeWorkerProcessProtocol.FakeCommandSender(supportsConcurrentJobs));
   }
 
   @Override
@@ -15,26 +15,54 @@
  */
 package com.facebook.buck.worker;
 
+import com.google.common.base.Preconditions;
 import java.io.IOException;
 import java.nio.file.Paths;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class FakeWorkerProcessProtocol {
 
   public static class FakeCommandSender implements WorkerProcessProtocol.CommandSender {
 
+    private final boolean supportsConcurrentJobs;
+    private final Queue<Integer> sentMessageIds = new ConcurrentLinkedQueue<>();
     private boolean isClosed = false;
 
+    public FakeCommandSender() {
+      this(false);
+    }
+
+    public FakeCommandSender(boolean supportsConcurrentJobs) {
+      this.supportsConcurrentJobs = supportsConcurrentJobs;
+    }
+
     @Override
     public void handshake(int messageId) throws IOException {}
 
     @Override
-    public void send(int messageId, WorkerProcessCommand command) throws IOException {}
+    public void send(int messageId, WorkerProcessCommand command) throws IOException {
+      sentMessageIds.add(messageId);
+    }
 
     @Override
     public int receiveCommandResponse(int messageID) throws IOException {
+      sentMessageIds.remove(messageID);
       return 0;
     }
 
+    @Override
+    public WorkerProcessResponse receiveNextCommandResponse() throws IOException {
+      Integer messageId = sentMessageIds.poll();
+      Preconditions.checkState(messageId != null, "No command was sent.");
+      return WorkerProcessResponse.of(messageId, 0);
+    }
+
+    @Override
+    public boolean supportsConcurrentJobs() {
+      return supportsConcurrentJobs;
+    }
+
     @Override
     public void close() throws IOException {
       isClosed = true;
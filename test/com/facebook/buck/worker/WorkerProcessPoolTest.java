@@ -18,15 +18,22 @@ package com.facebook.buck.worker;
 
 import static org.junit.Assert.assertThat;
 
+import com.facebook.buck.timing.SettableFakeClock;
+import com.facebook.buck.util.Scope;
 import com.facebook.buck.util.Threads;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.hash.Hashing;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import org.hamcrest.Matchers;
 import org.junit.Test;
 
@@ -184,6 +191,131 @@ public class WorkerProcessPoolTest {
     pool.returnWorkerProcess(process2);
   }
 
+  @Test
+  public void prewarmStartsWorkersBeforeTheyAreBorrowed() throws Exception {
+    Set<WorkerProcess> startedWorkers = concurrentSet();
+    CountDownLatch prewarmed = new CountDownLatch(2);
+    WorkerProcessPool pool =
+        new WorkerProcessPool(2, 2, 0, Hashing.sha1().hashLong(0)) {
+          @Override
+          protected WorkerProcess startWorkerProcess() throws IOException {
+            WorkerProcess process = new FakeWorkerProcess(ImmutableMap.of());
+            process.ensureLaunchAndHandshake();
+            startedWorkers.add(process);
+            prewarmed.countDown();
+            return process;
+          }
+        };
+
+    pool.prewarm();
+    assertThat(prewarmed.await(5, TimeUnit.SECONDS), Matchers.is(true));
+
+    // The borrowers may have to wait for the pre-warmed workers to be handed over, but they never
+    // start workers themselves.
+    List<String> events = new ArrayList<>();
+    WorkerProcess first = pool.borrowWorkerProcess(recordingListener(events));
+    WorkerProcess second = pool.borrowWorkerProcess(recordingListener(events));
+    assertThat(startedWorkers, Matchers.containsInAnyOrder(first, second));
+    assertThat(events, Matchers.not(Matchers.hasItem("starting")));
+  }
+
+  @Test
+  public void idleWorkersAreClosedAfterTheTimeoutDownToThePrewarmedWorkers() throws Exception {
+    SettableFakeClock clock = new SettableFakeClock(0, TimeUnit.SECONDS.toNanos(100));
+    WorkerProcessPool pool =
+        new WorkerProcessPool(3, 1, 1000, Hashing.sha1().hashLong(0), clock) {
+          @Override
+          protected WorkerProcess startWorkerProcess() throws IOException {
+            WorkerProcess process = new FakeWorkerProcess(ImmutableMap.of());
+            process.ensureLaunchAndHandshake();
+            return process;
+          }
+        };
+    List<WorkerProcess> workers =
+        ImmutableList.of(
+            pool.borrowWorkerProcess(), pool.borrowWorkerProcess(), pool.borrowWorkerProcess());
+    for (WorkerProcess worker : workers) {
+      pool.returnWorkerProcess(worker);
+    }
+
+    clock.advanceTimeNanos(TimeUnit.MILLISECONDS.toNanos(1000));
+    pool.closeIdleWorkers();
+    assertThat(workers.stream().filter(WorkerProcess::isAlive).count(), Matchers.is(3L));
+
+    clock.advanceTimeNanos(TimeUnit.MILLISECONDS.toNanos(1));
+    pool.closeIdleWorkers();
+    // The most recently returned worker is kept warm.
+    assertThat(workers.get(2).isAlive(), Matchers.is(true));
+    assertThat(workers.stream().filter(WorkerProcess::isAlive).count(), Matchers.is(1L));
+    assertThat(pool.borrowWorkerProcess(), Matchers.is(workers.get(2)));
+  }
+
+  @Test
+  public void concurrentWorkersAreSharedOnceThePoolIsFull() throws Exception {
+    WorkerProcessPool pool =
+        new WorkerProcessPool(1, Hashing.sha1().hashLong(0)) {
+          @Override
+          protected WorkerProcess startWorkerProcess() throws IOException {
+            WorkerProcess process = new FakeWorkerProcess(ImmutableMap.of(), true);
+            process.ensureLaunchAndHandshake();
+            return process;
+          }
+        };
+
+    WorkerProcess first = pool.borrowWorkerProcess();
+    WorkerProcess second = pool.borrowWorkerProcess();
+    assertThat(second, Matchers.is(first));
+
+    // The worker is still running a job, so it is only closed once that job is done.
+    pool.destroyWorkerProcess(first);
+    assertThat(first.isAlive(), Matchers.is(true));
+    pool.returnWorkerProcess(second);
+    assertThat(first.isAlive(), Matchers.is(false));
+
+    assertThat(pool.borrowWorkerProcess(), Matchers.not(first));
+  }
+
+  @Test
+  public void borrowListenerIsToldHowLongTheBorrowerWaited() throws Exception {
+    WorkerProcessPool pool = createPool(1);
+    WorkerProcess process = pool.borrowWorkerProcess();
+    process.ensureLaunchAndHandshake();
+
+    List<String> events = Collections.synchronizedList(new ArrayList<>());
+    Thread borrower =
+        new Thread(
+            new Runnable() {
+              @Override
+              public void runUnsafe() throws Exception {
+                pool.returnWorkerProcess(pool.borrowWorkerProcess(recordingListener(events)));
+              }
+            });
+    borrower.start();
+    while (events.isEmpty()) {
+      Thread.sleep(10);
+    }
+    pool.returnWorkerProcess(process);
+    borrower.join();
+
+    assertThat(events, Matchers.contains("waiting", "waited"));
+  }
+
+  private static WorkerProcessPool.BorrowListener recordingListener(List<String> events) {
+    return new WorkerProcessPool.BorrowListener() {
+      @Override
+      public Scope waitingForWorker() {
+        events.add("waiting");
+        return () -> events.add("waited");
+      }
+
+      @Override
+      public Scope startingWorker() {
+        events.add("starting");
+        return () -> events.add("started");
+      }
+    };
+  }
+
   private static WorkerProcessPool createPool(int maxWorkers) {
     return new WorkerProcessPool(maxWorkers, Hashing.sha1().hashLong(0)) {
       @Override
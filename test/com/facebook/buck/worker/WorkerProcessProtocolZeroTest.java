@@ -21,6 +21,7 @@ import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.testutil.integration.TemporaryPaths;
 import com.facebook.buck.util.HumanReadableException;
+import com.google.common.collect.ImmutableSet;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -107,6 +108,40 @@ public class WorkerProcessProtocolZeroTest {
     protocol.handshake(handshakeID);
   }
 
+  @Test
+  public void testReceiveHandshakeWithConcurrentJobsCapability() throws IOException {
+    int handshakeID = 123;
+    InputStream jsonReader =
+        inputStream(
+            String.format(
+                "[{\"id\":%d,\"type\":\"handshake\",\"protocol_version\":\"0\","
+                    + "\"capabilities\":[\"concurrent_jobs\"]}",
+                handshakeID));
+
+    WorkerProcessProtocol.CommandSender protocol =
+        new WorkerProcessProtocolZero.CommandSender(
+            dummyOutputStream, jsonReader, newTempFile(), () -> {});
+
+    assertThat(protocol.supportsConcurrentJobs(), Matchers.is(false));
+    protocol.handshake(handshakeID);
+    assertThat(protocol.supportsConcurrentJobs(), Matchers.is(true));
+  }
+
+  @Test
+  public void testReceiverSendsItsCapabilitiesInTheHandshake() throws IOException {
+    int handshakeID = 123;
+    WorkerProcessProtocol.CommandReceiver protocol =
+        new WorkerProcessProtocolZero.CommandReceiver(
+            dummyOutputStream,
+            createMockJsonReaderForReceiveHandshake(handshakeID, "handshake", "0"),
+            ImmutableSet.of(WorkerProcessProtocolZero.CAPABILITY_CONCURRENT_JOBS));
+
+    protocol.handshake(handshakeID);
+    assertThat(
+        dummyOutputStream.toString(),
+        Matchers.containsString("\"capabilities\":[\"concurrent_jobs\"]"));
+  }
+
   @Test
   public void testReceiveHandshakeWithMalformedJSON() throws IOException {
     String malformedJson = "=^..^= meow";
@@ -199,6 +234,23 @@ public class WorkerProcessProtocolZeroTest {
     protocol.receiveCommandResponse(messageID);
   }
 
+  @Test
+  public void testReceiveNextCommandResponseInAnyOrder() throws IOException {
+    InputStream jsonReader =
+        inputStream(
+            "[{\"id\":2,\"type\":\"result\",\"exit_code\":0},"
+                + "{\"id\":1,\"type\":\"error\",\"exit_code\":1}");
+
+    WorkerProcessProtocolZero.CommandSender protocol =
+        new WorkerProcessProtocolZero.CommandSender(
+            dummyOutputStream, jsonReader, newTempFile(), () -> {});
+    // The responses follow the handshake in the same array.
+    protocol.getProcessStdoutReader().beginArray();
+
+    assertThat(protocol.receiveNextCommandResponse(), Matchers.is(WorkerProcessResponse.of(2, 0)));
+    assertThat(protocol.receiveNextCommandResponse(), Matchers.is(WorkerProcessResponse.of(1, 1)));
+  }
+
   @Test
   public void testReceiveCommandResponseWithMalformedJSON() throws IOException {
     String malformedJson = "><(((('> blub";
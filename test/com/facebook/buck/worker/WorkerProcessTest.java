@@ -42,7 +42,14 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.hamcrest.Matchers;
 import org.junit.Rule;
 import org.junit.Test;
@@ -87,6 +94,50 @@ public class WorkerProcessTest {
     }
   }
 
+  @Test(timeout = 20 * 1000)
+  public void testConcurrentJobsAreAnsweredOutOfOrder() throws Exception {
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    Path tmpPath = Files.createTempDirectory("tmp").toAbsolutePath().normalize();
+    CountDownLatch allJobsSent = new CountDownLatch(2);
+    List<Integer> sentMessageIds = Collections.synchronizedList(new ArrayList<>());
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try (WorkerProcess process =
+        new WorkerProcess(new FakeProcessExecutor(), createDummyParams(), filesystem, tmpPath)) {
+      process.setProtocol(
+          new FakeWorkerProcessProtocol.FakeCommandSender(true) {
+            @Override
+            public void send(int messageId, WorkerProcessCommand command) throws IOException {
+              sentMessageIds.add(messageId);
+              allJobsSent.countDown();
+            }
+
+            @Override
+            public WorkerProcessResponse receiveNextCommandResponse() throws IOException {
+              try {
+                allJobsSent.await();
+              } catch (InterruptedException e) {
+                throw new IOException(e);
+              }
+              // Answer the job sent last first, with its message id as its exit code.
+              int messageId = sentMessageIds.remove(sentMessageIds.size() - 1);
+              return WorkerProcessResponse.of(messageId, messageId);
+            }
+          });
+
+      Future<WorkerJobResult> first = executor.submit(() -> process.submitAndWaitForJob("first"));
+      Future<WorkerJobResult> second = executor.submit(() -> process.submitAndWaitForJob("second"));
+
+      Path firstArgs = tmpPath.resolve(first.get().getExitCode() + ".args");
+      Path secondArgs = tmpPath.resolve(second.get().getExitCode() + ".args");
+      assertThat(filesystem.readFileIfItExists(firstArgs), Matchers.equalTo(Optional.of("first")));
+      assertThat(
+          filesystem.readFileIfItExists(secondArgs), Matchers.equalTo(Optional.of("second")));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
   @Test
   public void testClose() throws IOException {
     FakeWorkerProcessProtocol.FakeCommandSender protocol =
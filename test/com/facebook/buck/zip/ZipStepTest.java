@@ -49,6 +49,7 @@ import java.nio.file.attribute.PosixFilePermission;
 import java.nio.file.attribute.PosixFilePermissions;
 import java.util.Date;
 import java.util.Enumeration;
+import java.util.Random;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
@@ -405,6 +406,43 @@ public class ZipStepTest {
     assertEquals(entries1, entries2);
   }
 
+  @Test
+  public void parallelCompressionWritesTheSameZip() throws Exception {
+    Path toZip = tmp.newFolder("zipdir");
+    Random random = new Random(0);
+    for (int i = 0; i < 20; i++) {
+      Path dir = Files.createDirectories(toZip.resolve("dir" + i % 3));
+      StringBuilder contents = new StringBuilder();
+      for (int line = 0; line < i * 500; line++) {
+        contents.append("line ").append(random.nextInt(100)).append('\n');
+      }
+      Files.write(dir.resolve("file" + i + ".txt"), contents.toString().getBytes(UTF_8));
+    }
+    byte[] randomBytes = new byte[300 * 1024];
+    random.nextBytes(randomBytes);
+    Files.write(toZip.resolve("random.bin"), randomBytes);
+
+    for (ZipCompressionLevel level : ZipCompressionLevel.values()) {
+      byte[] sequential =
+          zip(level, String.format("sequential-%s.zip", level), TestExecutionContext.newInstance());
+      byte[] parallel =
+          zip(
+              level,
+              String.format("parallel-%s.zip", level),
+              TestExecutionContext.newBuilder().setParallelZipCompressionEnabled(true).build());
+      assertArrayEquals(sequential, parallel);
+    }
+  }
+
+  private byte[] zip(ZipCompressionLevel level, String name, ExecutionContext context)
+      throws Exception {
+    ZipStep step =
+        new ZipStep(
+            filesystem, Paths.get(name), ImmutableSet.of(), false, level, Paths.get("zipdir"));
+    assertEquals(0, step.execute(context).getExitCode());
+    return Files.readAllBytes(tmp.getRoot().resolve(name));
+  }
+
   private ImmutableList<String> getEntries(ProjectFilesystem filesystem, Path zip)
       throws IOException {
     ImmutableList.Builder<String> entries = ImmutableList.builder();